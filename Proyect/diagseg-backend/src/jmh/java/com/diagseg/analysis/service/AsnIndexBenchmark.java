@@ -0,0 +1,85 @@
+package com.diagseg.analysis.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Búsqueda en el índice ASN con un tamaño parecido al de ip2asn-combined
+ * (unos 500.000 rangos IPv4 y 150.000 IPv6), sobre IPs aleatorias: con y
+ * sin el parseo del literal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsnIndexBenchmark {
+
+    private static final int V4_RANGES = 500_000;
+    private static final int V6_RANGES = 150_000;
+    private static final int QUERIES = 1 << 16;
+
+    private AsnIndex.Ranges ranges;
+    private IpAddress[] ipv4;
+    private IpAddress[] ipv6;
+    private String[] literals;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        AsnIndex.RangesBuilder builder = new AsnIndex.RangesBuilder();
+        // Bloques de 8192 direcciones con huecos de por medio, en todo el espacio IPv4
+        for (int i = 0; i < V4_RANGES; i++) {
+            IpAddress first = IpAddress.ofIpv4((long) i << 13);
+            builder.add(first, first.lastInPrefix(20), 1 + random.nextInt(400_000), null);
+        }
+        // /48 consecutivos dentro de 2000::/3
+        for (int i = 0; i < V6_RANGES; i++) {
+            IpAddress first = IpAddress.ofIpv6(0x2000_0000_0000_0000L | ((long) i << 16), 0);
+            builder.add(first, first.lastInPrefix(48), 1 + random.nextInt(400_000), null);
+        }
+        ranges = builder.build();
+
+        ipv4 = new IpAddress[QUERIES];
+        ipv6 = new IpAddress[QUERIES];
+        literals = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            ipv4[i] = IpAddress.ofIpv4(random.nextLong(1L << 32));
+            ipv6[i] = IpAddress.ofIpv6(0x2000_0000_0000_0000L | ((long) random.nextInt(V6_RANGES) << 16),
+                random.nextLong());
+            literals[i] = (i % 4 == 0 ? ipv6[i] : ipv4[i]).toString();
+        }
+    }
+
+    @Benchmark
+    public AsnIndex.Entry findIpv4() {
+        return ranges.find(ipv4[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public AsnIndex.Entry findIpv6() {
+        return ranges.find(ipv6[next++ & (QUERIES - 1)]);
+    }
+
+    /**
+     * Como AsnIndex.lookup: parseo del literal y búsqueda (3 de cada 4 IPv4)
+     */
+    @Benchmark
+    public AsnIndex.Entry parseAndFind() {
+        IpAddress address = IpAddress.tryParse(literals[next++ & (QUERIES - 1)]);
+        return address == null ? null : ranges.find(address);
+    }
+}
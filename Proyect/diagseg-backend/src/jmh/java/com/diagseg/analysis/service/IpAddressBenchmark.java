@@ -0,0 +1,51 @@
+package com.diagseg.analysis.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IpAddress.parse frente a InetAddress.getByName sobre literales, y el
+ * formateo canónico de cada uno (InetAddress no comprime "::").
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IpAddressBenchmark {
+
+    @Param({"192.0.2.130", "2001:db8:0:0:1:0:0:1", "::ffff:192.0.2.1"})
+    String literal;
+
+    @Benchmark
+    public IpAddress parse() {
+        return IpAddress.parse(literal);
+    }
+
+    @Benchmark
+    public InetAddress inetAddress() throws Exception {
+        return InetAddress.getByName(literal);
+    }
+
+    @Benchmark
+    public String parseAndFormat() {
+        return IpAddress.parse(literal).toString();
+    }
+
+    @Benchmark
+    public String inetAddressAndFormat() throws Exception {
+        return InetAddress.getByName(literal).getHostAddress();
+    }
+}
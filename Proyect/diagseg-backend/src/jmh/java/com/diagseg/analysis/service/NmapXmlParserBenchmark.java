@@ -0,0 +1,109 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.ServiceDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser StAX frente al DOM que usaba NmapService antes, sobre una salida
+ * -oX sintética de varios hosts con 16 puertos abiertos cada uno.
+ *
+ * Con -prof gc se ve además la memoria asignada por documento.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NmapXmlParserBenchmark {
+
+    private static final int PORTS_PER_HOST = 16;
+
+    @Param({"1", "256"})
+    int hosts;
+
+    private byte[] xml;
+    private DocumentBuilder domBuilder;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringBuilder out = new StringBuilder("""
+            <?xml version="1.0" encoding="UTF-8"?>
+            <!DOCTYPE nmaprun>
+            <nmaprun scanner="nmap" args="nmap -sV -oX -" version="7.94" xmloutputversion="1.05">
+            """);
+        for (int h = 0; h < hosts; h++) {
+            out.append("<host><status state=\"up\"/><address addr=\"10.0.")
+                .append(h / 256).append('.').append(h % 256).append("\" addrtype=\"ipv4\"/><ports>\n");
+            for (int p = 0; p < PORTS_PER_HOST; p++) {
+                out.append("<port protocol=\"tcp\" portid=\"").append(8000 + p)
+                    .append("\"><state state=\"open\" reason=\"syn-ack\"/>")
+                    .append("<service name=\"http\" product=\"nginx\" version=\"1.18.0\" extrainfo=\"Ubuntu\"")
+                    .append(" method=\"probed\" conf=\"10\"><cpe>cpe:/a:igor_sysoev:nginx:1.18.0</cpe></service>")
+                    .append("<script id=\"http-title\" output=\"Welcome\"/></port>\n");
+            }
+            out.append("</ports><times srtt=\"412\" rttvar=\"125\" to=\"100000\"/></host>\n");
+        }
+        out.append("<runstats><finished exit=\"success\"/></runstats></nmaprun>\n");
+        xml = out.toString().getBytes(StandardCharsets.UTF_8);
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        domBuilder = factory.newDocumentBuilder();
+    }
+
+    @Benchmark
+    public int stax(Blackhole blackhole) throws Exception {
+        return new NmapXmlParser(blackhole::consume).parse(new ByteArrayInputStream(xml));
+    }
+
+    /**
+     * Árbol completo y recorrido de los {@code <port>}, como el parser DOM original
+     */
+    @Benchmark
+    public int dom(Blackhole blackhole) throws Exception {
+        Document document = domBuilder.parse(new ByteArrayInputStream(xml));
+        NodeList ports = document.getElementsByTagName("port");
+        int open = 0;
+        for (int i = 0; i < ports.getLength(); i++) {
+            Element port = (Element) ports.item(i);
+            Element state = (Element) port.getElementsByTagName("state").item(0);
+            if (state == null || !"open".equals(state.getAttribute("state"))) {
+                continue;
+            }
+            Element service = (Element) port.getElementsByTagName("service").item(0);
+            ServiceDto dto = new ServiceDto();
+            dto.port = Integer.parseInt(port.getAttribute("portid"));
+            if (service != null) {
+                dto.service = service.getAttribute("name");
+                dto.version = service.getAttribute("product") + " " + service.getAttribute("version");
+                dto.banner = service.getAttribute("extrainfo");
+                NodeList cpe = service.getElementsByTagName("cpe");
+                dto.cpe = cpe.getLength() > 0 ? cpe.item(0).getTextContent() : null;
+            }
+            blackhole.consume(dto);
+            open++;
+        }
+        return open;
+    }
+}
@@ -0,0 +1,64 @@
+package com.diagseg.analysis;
+
+import com.diagseg.analysis.dto.AnalysisJobDto;
+import com.diagseg.analysis.dto.AnalysisRequest;
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.diagseg.analysis.service.AnalysisJobService;
+import jakarta.inject.Inject;
+import jakarta.validation.Valid;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.UriInfo;
+import org.jboss.logging.Logger;
+
+/**
+ * API asíncrona de análisis: POST devuelve el id del trabajo al instante (202)
+ * y el cliente consulta el estado y el resultado por separado.
+ */
+@Path("/api/analysis/jobs")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class AnalysisJobResource {
+
+    private static final Logger LOG = Logger.getLogger(AnalysisJobResource.class);
+
+    @Inject
+    AnalysisJobService analysisJobService;
+
+    @POST
+    public Response submit(@Valid AnalysisRequest request, @Context UriInfo uriInfo) {
+        LOG.infof("Recibida solicitud de análisis asíncrono para: %s (tipo: %s)", request.query, request.type);
+
+        AnalysisJobDto job = analysisJobService.submit(request);
+        return Response.accepted(job)
+            .location(uriInfo.getAbsolutePathBuilder().path(job.id).build())
+            .build();
+    }
+
+    @GET
+    @Path("/{id}")
+    public AnalysisJobDto status(@PathParam("id") String id) {
+        return analysisJobService.status(id);
+    }
+
+    /**
+     * 200 con el resultado si terminó, 202 con el estado si sigue en curso,
+     * o el error original del análisis si falló
+     */
+    @GET
+    @Path("/{id}/result")
+    public Response result(@PathParam("id") String id) {
+        AnalysisResult result = analysisJobService.result(id);
+        if (result == null) {
+            return Response.accepted(analysisJobService.status(id)).build();
+        }
+        return Response.ok(result).build();
+    }
+}
@@ -2,6 +2,7 @@ package com.diagseg.analysis;
 
 import com.diagseg.analysis.dto.*;
 import com.diagseg.analysis.service.AnalysisService;
+import com.diagseg.analysis.service.BatchAnalysisService;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.POST;
@@ -21,6 +22,9 @@ public class AnalysisResource {
     @Inject
     AnalysisService analysisService;
 
+    @Inject
+    BatchAnalysisService batchAnalysisService;
+
     @POST
     @Path("/analyze")
     public AnalysisResult analyze(@Valid AnalysisRequest request) {
@@ -35,4 +39,15 @@ public class AnalysisResource {
             throw e;
         }
     }
+
+    /**
+     * Analiza muchos IPs/dominios en una sola petición. Cada objetivo trae su
+     * resultado o su error; timing resume el trabajo real del lote.
+     */
+    @POST
+    @Path("/batch")
+    public BatchAnalysisResult analyzeBatch(@Valid BatchAnalysisRequest request) {
+        LOG.infof("Recibida solicitud de análisis por lote: %d objetivos", request.targets.size());
+        return batchAnalysisService.analyze(request);
+    }
 }
@@ -0,0 +1,222 @@
+package com.diagseg.analysis;
+
+import com.diagseg.analysis.dto.AnalysisJobDto;
+import com.diagseg.analysis.dto.AnalysisRequest;
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.diagseg.analysis.dto.GeolocationDto;
+import com.diagseg.analysis.dto.RecommendationDto;
+import com.diagseg.analysis.dto.RiskLevel;
+import com.diagseg.analysis.dto.ServiceDto;
+import com.diagseg.analysis.dto.TargetType;
+import com.diagseg.analysis.dto.VulnerabilityDto;
+import com.diagseg.analysis.exception.InvalidInputException;
+import com.diagseg.analysis.service.ASNService;
+import com.diagseg.analysis.service.AnalysisJobService;
+import com.diagseg.analysis.service.AnalysisListener;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Análisis en streaming (Server-Sent Events).
+ *
+ * Publica cada resultado parcial en cuanto está disponible, en este orden
+ * aproximado: job, resolved, service (uno por servicio), vulnerabilities
+ * (por servicio, según responde NVD), geolocation, asn, score,
+ * recommendations y finalmente result o error. En los análisis por ASN, rango CIDR
+ * o dominio con allAddresses se publica además un evento "host" con el resultado de cada host.
+ * El análisis corre como un trabajo de /api/analysis/jobs: si el cliente se
+ * desconecta, el resultado sigue disponible con el id del evento "job".
+ */
+@Path("/api/analysis")
+public class AnalysisStreamResource {
+
+    private static final Logger LOG = Logger.getLogger(AnalysisStreamResource.class);
+
+    @Inject
+    AnalysisJobService analysisJobService;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @GET
+    @Path("/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void stream(@QueryParam("query") String query, @QueryParam("type") String type,
+                       @QueryParam("forceRefresh") boolean forceRefresh,
+                       @QueryParam("incremental") boolean incremental,
+                       @QueryParam("allAddresses") boolean allAddresses,
+                       @Context SseEventSink sink, @Context Sse sse) {
+        LOG.infof("Recibida solicitud de análisis en streaming para: %s (tipo: %s)", query, type);
+
+        AnalysisRequest request = new AnalysisRequest();
+        request.query = query;
+        request.type = parseType(type);
+        request.forceRefresh = forceRefresh;
+        request.incremental = incremental;
+        request.allAddresses = allAddresses;
+
+        SseAnalysisListener listener = new SseAnalysisListener(sink, sse);
+        AnalysisJobDto job = analysisJobService.submit(request, listener);
+        listener.open(job);
+    }
+
+    private static TargetType parseType(String type) {
+        if (type == null || type.isBlank()) {
+            throw new InvalidInputException("El tipo de objetivo (type) es obligatorio");
+        }
+        try {
+            return TargetType.valueOf(type.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidInputException("El tipo de objetivo '" + type + "' no es válido");
+        }
+    }
+
+    /**
+     * Traduce los eventos del análisis a eventos SSE.
+     *
+     * Los datos se serializan en el momento del evento, porque el análisis
+     * sigue modificando los DTO. Los eventos anteriores al "job" se retienen
+     * hasta que el trabajo queda registrado, para que el id llegue primero.
+     */
+    private class SseAnalysisListener implements AnalysisListener {
+
+        private final SseEventSink sink;
+        private final Sse sse;
+        private List<OutboundSseEvent> pending = new ArrayList<>();
+
+        SseAnalysisListener(SseEventSink sink, Sse sse) {
+            this.sink = sink;
+            this.sse = sse;
+        }
+
+        synchronized void open(AnalysisJobDto job) {
+            List<OutboundSseEvent> buffered = pending;
+            pending = null;
+            write(event("job", job));
+            buffered.forEach(this::write);
+            if (buffered.stream().anyMatch(this::isFinal)) {
+                sink.close();
+            }
+        }
+
+        @Override
+        public void targetResolved(String ip, String domain) {
+            Map<String, String> data = new LinkedHashMap<>();
+            data.put("ip", ip);
+            data.put("domain", domain);
+            send("resolved", data);
+        }
+
+        @Override
+        public void serviceDetected(ServiceDto service) {
+            send("service", service);
+        }
+
+        @Override
+        public void vulnerabilitiesFound(ServiceDto service, List<VulnerabilityDto> vulnerabilities) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("host", service.host);
+            data.put("port", service.port);
+            data.put("protocol", service.protocol);
+            data.put("cpe", service.cpe);
+            data.put("vulnerabilities", vulnerabilities);
+            send("vulnerabilities", data);
+        }
+
+        @Override
+        public void geolocationResolved(GeolocationDto geolocation) {
+            send("geolocation", geolocation);
+        }
+
+        @Override
+        public void asnResolved(ASNService.ASNInfo asnInfo) {
+            send("asn", asnInfo);
+        }
+
+        @Override
+        public void scoreCalculated(int securityScore, RiskLevel riskLevel) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("securityScore", securityScore);
+            data.put("riskLevel", riskLevel);
+            send("score", data);
+        }
+
+        @Override
+        public void recommendationsGenerated(List<RecommendationDto> recommendations) {
+            send("recommendations", recommendations);
+        }
+
+        @Override
+        public void hostAnalyzed(AnalysisResult hostResult) {
+            send("host", hostResult);
+        }
+
+        @Override
+        public void analysisCompleted(AnalysisResult result) {
+            send("result", result);
+        }
+
+        @Override
+        public void analysisFailed(RuntimeException error) {
+            send("error", AnalysisJobService.errorOf(error));
+        }
+
+        private synchronized void send(String name, Object data) {
+            OutboundSseEvent event = event(name, data);
+            if (event == null) {
+                return;
+            }
+            if (pending != null) {
+                pending.add(event);
+                return;
+            }
+            write(event);
+            if (isFinal(event)) {
+                sink.close();
+            }
+        }
+
+        private OutboundSseEvent event(String name, Object data) {
+            try {
+                return sse.newEventBuilder()
+                    .name(name)
+                    .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                    .data(String.class, objectMapper.writeValueAsString(data))
+                    .build();
+            } catch (Exception e) {
+                LOG.warnf(e, "No se pudo serializar el evento SSE '%s'", name);
+                return null;
+            }
+        }
+
+        private void write(OutboundSseEvent event) {
+            if (event == null || sink.isClosed()) {
+                return;
+            }
+            sink.send(event).exceptionally(e -> {
+                LOG.debugf("Cliente SSE desconectado: %s", e.getMessage());
+                return null;
+            });
+        }
+
+        private boolean isFinal(OutboundSseEvent event) {
+            return "result".equals(event.getName()) || "error".equals(event.getName());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.diagseg.analysis;
+
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.diagseg.analysis.exception.InvalidInputException;
+import com.diagseg.analysis.exception.ServiceException;
+import com.diagseg.analysis.service.AnalysisHistoryStore;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.List;
+
+/**
+ * Historial de análisis guardado en el servidor.
+ *
+ * Los resultados se devuelven del más reciente al más antiguo. from y to son
+ * instantes en milisegundos (epoch), ambos opcionales e inclusivos.
+ */
+@Path("/api/history")
+@Produces(MediaType.APPLICATION_JSON)
+public class HistoryResource {
+
+    @ConfigProperty(name = "history.max-page", defaultValue = "500")
+    int maxPage;
+
+    @Inject
+    AnalysisHistoryStore historyStore;
+
+    /**
+     * Últimos análisis de cualquier objetivo
+     */
+    @GET
+    public List<AnalysisResult> recent(@QueryParam("from") Long from, @QueryParam("to") Long to,
+                                       @QueryParam("limit") @DefaultValue("20") int limit) {
+        checkReady();
+        return historyStore.findAll(fromOrMin(from), toOrMax(to), pageSize(limit));
+    }
+
+    /**
+     * Últimos análisis de una IP, dominio, ASN ("AS15169") o rango ("203.0.113.0/24")
+     */
+    @GET
+    @Path("/{target: .+}")
+    public List<AnalysisResult> ofTarget(@PathParam("target") String target,
+                                         @QueryParam("from") Long from, @QueryParam("to") Long to,
+                                         @QueryParam("limit") @DefaultValue("20") int limit) {
+        checkReady();
+        return historyStore.find(target, fromOrMin(from), toOrMax(to), pageSize(limit));
+    }
+
+    private void checkReady() {
+        if (!historyStore.isReady()) {
+            throw new ServiceException(
+                "El historial no está disponible",
+                "El almacén de historial está deshabilitado o no se pudo abrir (history.dir)",
+                "Contacte al administrador del sistema",
+                ServiceException.ErrorCode.HISTORY_UNAVAILABLE
+            );
+        }
+    }
+
+    private int pageSize(int limit) {
+        if (limit <= 0) {
+            throw new InvalidInputException("limit debe ser mayor que 0");
+        }
+        return Math.min(limit, maxPage);
+    }
+
+    private static long fromOrMin(Long from) {
+        return from != null ? from : Long.MIN_VALUE;
+    }
+
+    private static long toOrMax(Long to) {
+        return to != null ? to : Long.MAX_VALUE;
+    }
+}
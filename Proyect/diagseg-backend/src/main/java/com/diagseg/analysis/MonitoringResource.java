@@ -0,0 +1,97 @@
+package com.diagseg.analysis;
+
+import com.diagseg.analysis.dto.CacheStatsDto;
+import com.diagseg.analysis.dto.CircuitBreakerDto;
+import com.diagseg.analysis.dto.GeoDatabaseStatusDto;
+import com.diagseg.analysis.dto.HistoryStatsDto;
+import com.diagseg.analysis.dto.NvdMirrorStatusDto;
+import com.diagseg.analysis.dto.ScanSchedulerStatsDto;
+import com.diagseg.analysis.service.AnalysisHistoryStore;
+import com.diagseg.analysis.service.AnalysisResultCache;
+import com.diagseg.analysis.service.DnsResolverService;
+import com.diagseg.analysis.service.GeolocationService;
+import com.diagseg.analysis.service.NVDService;
+import com.diagseg.analysis.service.NmapScanScheduler;
+import com.diagseg.analysis.service.NvdMirrorService;
+import com.diagseg.analysis.service.OutboundHttpClient;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Endpoints de monitoreo interno (caches, colas, límites)
+ */
+@Path("/api/monitoring")
+@Produces(MediaType.APPLICATION_JSON)
+public class MonitoringResource {
+
+    @Inject
+    NVDService nvdService;
+
+    @Inject
+    NvdMirrorService nvdMirrorService;
+
+    @Inject
+    NmapScanScheduler nmapScanScheduler;
+
+    @Inject
+    AnalysisResultCache analysisResultCache;
+
+    @Inject
+    AnalysisHistoryStore analysisHistoryStore;
+
+    @Inject
+    GeolocationService geolocationService;
+
+    @Inject
+    DnsResolverService dnsResolverService;
+
+    @Inject
+    OutboundHttpClient outboundHttpClient;
+
+    @GET
+    @Path("/caches")
+    public List<CacheStatsDto> caches() {
+        List<CacheStatsDto> caches = new ArrayList<>();
+        caches.add(nvdService.cacheStats());
+        caches.addAll(analysisResultCache.stats());
+        caches.add(geolocationService.cacheStats());
+        caches.add(dnsResolverService.cacheStats());
+        return caches;
+    }
+
+    @GET
+    @Path("/circuit-breakers")
+    public List<CircuitBreakerDto> circuitBreakers() {
+        return outboundHttpClient.circuitBreakers();
+    }
+
+    @GET
+    @Path("/nvd-mirror")
+    public NvdMirrorStatusDto nvdMirror() {
+        return nvdMirrorService.status();
+    }
+
+    @GET
+    @Path("/geolite2")
+    public GeoDatabaseStatusDto geolite2() {
+        return geolocationService.status();
+    }
+
+    @GET
+    @Path("/nmap-scheduler")
+    public ScanSchedulerStatsDto nmapScheduler() {
+        return nmapScanScheduler.stats();
+    }
+
+    @GET
+    @Path("/history")
+    public HistoryStatsDto history() {
+        return analysisHistoryStore.stats();
+    }
+}
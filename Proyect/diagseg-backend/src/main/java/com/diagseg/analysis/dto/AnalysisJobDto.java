@@ -0,0 +1,17 @@
+// src/main/java/com/diagseg/analysis/dto/AnalysisJobDto.java
+package com.diagseg.analysis.dto;
+
+import java.util.List;
+
+public class AnalysisJobDto {
+
+    public String id;
+    public JobStatus status;
+    public String query;
+    public TargetType type;
+    public long createdAt;
+    public Long startedAt;
+    public Long finishedAt;
+    public List<StageProgressDto> stages;
+    public ErrorResponse error; // Solo si status == failed
+}
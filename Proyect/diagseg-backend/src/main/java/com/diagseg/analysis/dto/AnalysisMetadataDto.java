@@ -7,6 +7,8 @@ public class AnalysisMetadataDto {
 
     public long scanDuration;
     public List<String> sourcesUsed;
-    public boolean cached;
+    public boolean cached;        // true si el resultado se sirvió desde la cache de resultados
+    public Long cacheAgeSeconds;  // Antigüedad del resultado cacheado (null si se analizó ahora)
     public List<String> warnings; // Mensajes de advertencia no críticos
+    public boolean scanCompleted; // true si la etapa Nmap terminó bien (la lista de servicios es fiable)
 }
@@ -11,4 +11,8 @@ public class AnalysisRequest {
 
     @NotNull
     public TargetType type;
+
+    public boolean forceRefresh; // Ignorar la cache de resultados y volver a analizar
+    public boolean incremental;  // Volver a sondear solo lo que cambió desde el último análisis
+    public boolean allAddresses; // Dominios: analizar todas sus IPs (A/AAAA) y agregar el resultado
 }
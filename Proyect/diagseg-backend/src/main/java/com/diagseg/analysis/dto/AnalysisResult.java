@@ -18,4 +18,11 @@ public class AnalysisResult {
     public List<VulnerabilityDto> vulnerabilities;
     public List<RecommendationDto> recommendations;
     public AnalysisMetadataDto metadata;
+
+    // Solo en análisis de varios hosts (ASN o rango CIDR): resultado por host y resumen agregado
+    public List<AnalysisResult> hosts;
+    public SweepSummaryDto summary;
+
+    // Solo en análisis incrementales con un análisis anterior de referencia
+    public ServiceDiffDto diff;
 }
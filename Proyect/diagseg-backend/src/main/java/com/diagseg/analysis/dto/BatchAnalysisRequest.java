@@ -0,0 +1,12 @@
+// src/main/java/com/diagseg/analysis/dto/BatchAnalysisRequest.java
+package com.diagseg.analysis.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.List;
+
+public class BatchAnalysisRequest {
+
+    @NotEmpty
+    public List<AnalysisRequest> targets; // IPs y dominios mezclados
+}
@@ -0,0 +1,11 @@
+// src/main/java/com/diagseg/analysis/dto/BatchAnalysisResult.java
+package com.diagseg.analysis.dto;
+
+import java.util.List;
+
+public class BatchAnalysisResult {
+
+    public List<BatchItemResultDto> results; // Mismo orden que la petición
+    public BatchTimingDto timing;
+    public List<String> warnings;
+}
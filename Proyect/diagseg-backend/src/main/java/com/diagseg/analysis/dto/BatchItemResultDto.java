@@ -0,0 +1,13 @@
+// src/main/java/com/diagseg/analysis/dto/BatchItemResultDto.java
+package com.diagseg.analysis.dto;
+
+/**
+ * Resultado de un objetivo dentro de un lote: result o error, nunca ambos
+ */
+public class BatchItemResultDto {
+
+    public String query;
+    public TargetType type;
+    public AnalysisResult result;
+    public ErrorResponse error;
+}
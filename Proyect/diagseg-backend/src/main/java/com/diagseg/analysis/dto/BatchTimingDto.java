@@ -0,0 +1,19 @@
+// src/main/java/com/diagseg/analysis/dto/BatchTimingDto.java
+package com.diagseg.analysis.dto;
+
+/**
+ * Tiempos y trabajo real de un lote: el coste depende de los hosts y CPE
+ * distintos, no del número de objetivos
+ */
+public class BatchTimingDto {
+
+    public int targets;
+    public int failedTargets;
+    public int uniqueHosts;       // IPs distintas tras resolver los dominios
+    public int nmapInvocations;   // Procesos Nmap lanzados (varios hosts por proceso)
+    public int uniqueCpes;        // Consultas NVD distintas en todo el lote
+    public boolean nvdFullyCached;
+    public long dnsMillis;
+    public long scanMillis;       // Desde el primer escaneo hasta el último host enriquecido
+    public long totalMillis;
+}
@@ -0,0 +1,15 @@
+package com.diagseg.analysis.dto;
+
+public class CacheStatsDto {
+
+    public String name;
+    public int size;
+    public int maxEntries;
+    public long ttlSeconds;
+    public long hits;
+    public long misses;
+    public long coalesced;   // Cargas compartidas con otra petición en curso
+    public long evictions;   // Entradas expulsadas por tamaño
+    public long expirations; // Entradas descartadas por TTL
+    public double hitRate;
+}
@@ -0,0 +1,17 @@
+package com.diagseg.analysis.dto;
+
+public class CircuitBreakerDto {
+
+    public String name;
+    public String state;           // CLOSED, OPEN o HALF_OPEN
+    public int callsInWindow;      // Llamadas en la ventana de evaluación
+    public double failureRate;     // Fracción de fallos en la ventana
+    public long successes;
+    public long failures;
+    public long rejected;          // Llamadas rechazadas sin salir a la red
+    public long openedCount;       // Aperturas desde el arranque
+    public Long lastOpenedAt;      // Epoch millis de la última apertura
+    public Long retryInSeconds;    // Tiempo hasta la siguiente prueba (solo OPEN)
+    public long hedgedRequests;    // Peticiones duplicadas (hedging) enviadas
+    public long hedgeWins;         // Veces que respondió antes la duplicada
+}
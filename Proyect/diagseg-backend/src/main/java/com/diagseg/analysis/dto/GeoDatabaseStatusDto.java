@@ -0,0 +1,12 @@
+package com.diagseg.analysis.dto;
+
+public class GeoDatabaseStatusDto {
+
+    public boolean ready;
+    public String source;         // Fichero o recurso del classpath en uso
+    public boolean memoryMapped;  // false si se cargó entera en el heap (classpath)
+    public String buildDate;      // Fecha de generación de la base de datos (ISO-8601)
+    public String loadedAt;
+    public long reloads;          // Sustituciones en caliente desde el arranque
+    public String lastReloadError;
+}
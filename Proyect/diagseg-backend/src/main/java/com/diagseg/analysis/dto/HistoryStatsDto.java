@@ -0,0 +1,15 @@
+package com.diagseg.analysis.dto;
+
+public class HistoryStatsDto {
+
+    public boolean enabled;
+    public boolean ready;
+    public String directory;
+    public int records;
+    public int keys;              // Objetivos distintos (IPs, dominios, ASN, rangos)
+    public int segments;
+    public long bytes;
+    public long recoveryMillis;   // Tiempo de carga del índice al arrancar
+    public int recoveredRecords;  // Registros que se reindexaron desde el log (sidecar incompleto)
+    public long truncatedBytes;   // Bytes descartados por escrituras cortadas
+}
@@ -0,0 +1,18 @@
+// src/main/java/com/diagseg/analysis/dto/JobStatus.java
+package com.diagseg.analysis.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public enum JobStatus {
+    @JsonProperty("queued")
+    QUEUED,
+
+    @JsonProperty("running")
+    RUNNING,
+
+    @JsonProperty("completed")
+    COMPLETED,
+
+    @JsonProperty("failed")
+    FAILED
+}
@@ -0,0 +1,12 @@
+package com.diagseg.analysis.dto;
+
+public class NvdMirrorStatusDto {
+
+    public boolean enabled;
+    public boolean ready;
+    public int cveCount;
+    public int productCount;
+    public String lastSync;      // Instante ISO-8601 de la última sincronización
+    public String lastSyncError;
+    public long loadMillis;
+}
@@ -0,0 +1,27 @@
+package com.diagseg.analysis.dto;
+
+public class ScanSchedulerStatsDto {
+
+    public int maxConcurrent;
+    public int queueCapacity;
+    public int activeScans;     // Procesos Nmap en ejecución
+    public int queuedScans;     // Escaneos esperando un hueco
+    public int inFlightTargets; // Targets distintos en cola o en ejecución
+    public long submitted;
+    public long deduplicated;   // Peticiones que se unieron a un escaneo ya en curso
+    public long rejected;       // Peticiones rechazadas por cola llena
+    public long completed;
+    public long avgWaitMillis;  // Espera media en cola
+    public long maxWaitMillis;
+
+    // Descubrimiento de puertos previo a Nmap (portscan.*)
+    public boolean portDiscoveryEnabled;
+    public long portDiscoveries;   // Hosts cuyos puertos abiertos se buscaron dentro de la JVM
+    public long portProbes;        // Conexiones TCP intentadas
+    public long portProbeTimeouts; // Intentos sin respuesta en su plazo (filtrados o reintentados)
+    public long nmapSkipped;       // Hosts sin puertos abiertos o ya identificados: no se lanzó Nmap
+
+    // Identificación por banner (banner.*)
+    public boolean bannerEnabled;
+    public long bannerIdentified;  // Servicios identificados sin -sV
+}
@@ -0,0 +1,10 @@
+// src/main/java/com/diagseg/analysis/dto/ServiceChangeDto.java
+package com.diagseg.analysis.dto;
+
+public class ServiceChangeDto {
+
+    public int port;
+    public Protocol protocol;
+    public ServiceDto before; // Servicio en el análisis de referencia
+    public ServiceDto after;  // Servicio detectado ahora
+}
@@ -0,0 +1,18 @@
+// src/main/java/com/diagseg/analysis/dto/ServiceDiffDto.java
+package com.diagseg.analysis.dto;
+
+import java.util.List;
+
+/**
+ * Cambios de servicios respecto al análisis anterior (análisis incremental)
+ */
+public class ServiceDiffDto {
+
+    public long baselineTimestamp;         // Instante del análisis usado como referencia
+    public long fullScanTimestamp;         // Instante del análisis completo del que parte la cadena
+    public List<ServiceDto> added;         // Puertos abiertos que no estaban
+    public List<ServiceDto> removed;       // Servicios del análisis anterior que ya no responden
+    public List<ServiceChangeDto> changed; // Mismo puerto con otro servicio o versión
+    public int unchanged;                  // Servicios sin cambios (arrastrados o confirmados con -sV)
+    public List<Integer> reprobedPorts;    // Puertos en los que se volvió a detectar la versión
+}
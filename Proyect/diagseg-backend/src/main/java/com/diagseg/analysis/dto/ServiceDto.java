@@ -5,11 +5,14 @@ import java.util.List;
 
 public class ServiceDto {
 
+    public String host; // IP del host donde se detectó (escaneos con varios hosts)
     public int port;
     public Protocol protocol;
     public String service;
     public String version;
     public String banner;
+    public String fingerprint; // Huella del saludo del servicio; detecta cambios en el análisis incremental
+    public String cpe; // CPE reportado por Nmap, o el CPE 2.3 usado para consultar NVD
     public List<String> vulnerabilities; // IDs de CVEs
     public RiskLevel riskLevel;
 }
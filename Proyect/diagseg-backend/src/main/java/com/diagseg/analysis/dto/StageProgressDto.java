@@ -0,0 +1,11 @@
+// src/main/java/com/diagseg/analysis/dto/StageProgressDto.java
+package com.diagseg.analysis.dto;
+
+public class StageProgressDto {
+
+    public String stage;      // dns, nmap, nvd, geolocation, asn, scoring
+    public JobStatus status;
+    public Long startedAt;
+    public Long finishedAt;
+    public String message;    // Motivo del fallo o advertencia de la etapa
+}
@@ -0,0 +1,25 @@
+// src/main/java/com/diagseg/analysis/dto/SweepSummaryDto.java
+package com.diagseg.analysis.dto;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resumen agregado de un análisis de varios hosts (ASN o rango CIDR)
+ */
+public class SweepSummaryDto {
+
+    public String target;                      // "AS15169", "203.0.113.0/22"
+    public int prefixes;                       // Prefijos de origen
+    public int shards;                         // Bloques escaneados por separado
+    public long addressesScanned;
+    public int hostsWithServices;
+    public int servicesExposed;
+    public Map<String, Integer> exposedServices; // Nombre del servicio → número de hosts/puertos
+    public int vulnerabilities;                // CVE distintos
+    public int criticalVulnerabilities;        // CVSS >= 9.0
+    public int averageScore;
+    public int minScore;
+    public List<String> riskiestHosts;         // IPs con peor score
+    public List<String> failedShards;          // Bloques que no se pudieron escanear
+}
@@ -14,5 +14,8 @@ public enum TargetType {
     DOMAIN,
 
     @JsonProperty("asn")
-    ASN
+    ASN,
+
+    @JsonProperty("cidr")
+    CIDR
 }
@@ -49,6 +49,9 @@ public class ServiceException extends RuntimeException {
         NMAP_TIMEOUT,
         NMAP_PERMISSION_DENIED,
         NMAP_EXECUTION_ERROR,
+        NMAP_QUEUE_FULL,
+
+        ANALYSIS_QUEUE_FULL,
         
         NVD_RATE_LIMIT,
         NVD_CONNECTION_ERROR,
@@ -60,6 +63,8 @@ public class ServiceException extends RuntimeException {
         
         GEOLOCATION_DB_ERROR,
         GEOLOCATION_IP_NOT_FOUND,
+
+        HISTORY_UNAVAILABLE,
         
         INVALID_INPUT,
         INTERNAL_ERROR
@@ -47,9 +47,9 @@ public class ServiceExceptionMapper implements ExceptionMapper<ServiceException>
     private Response.Status determineHttpStatus(ServiceException.ErrorCode errorCode) {
         return switch (errorCode) {
             case INVALID_INPUT, ASN_INVALID_IP -> Response.Status.BAD_REQUEST;
-            case NVD_RATE_LIMIT -> Response.Status.TOO_MANY_REQUESTS;
+            case NVD_RATE_LIMIT, NMAP_QUEUE_FULL, ANALYSIS_QUEUE_FULL -> Response.Status.TOO_MANY_REQUESTS;
             case NMAP_TIMEOUT, NVD_TIMEOUT -> Response.Status.GATEWAY_TIMEOUT;
-            case NVD_CONNECTION_ERROR, ASN_SERVICE_UNAVAILABLE -> Response.Status.SERVICE_UNAVAILABLE;
+            case NVD_CONNECTION_ERROR, ASN_SERVICE_UNAVAILABLE, HISTORY_UNAVAILABLE -> Response.Status.SERVICE_UNAVAILABLE;
             case NMAP_PERMISSION_DENIED -> Response.Status.FORBIDDEN;
             default -> Response.Status.INTERNAL_SERVER_ERROR;
         };
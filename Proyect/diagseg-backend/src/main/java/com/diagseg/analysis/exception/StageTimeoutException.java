@@ -0,0 +1,26 @@
+package com.diagseg.analysis.exception;
+
+import java.time.Duration;
+
+/**
+ * Se lanza cuando una etapa del análisis no termina dentro de su plazo máximo
+ */
+public class StageTimeoutException extends RuntimeException {
+
+    private final String stage;
+    private final Duration deadline;
+
+    public StageTimeoutException(String stage, Duration deadline) {
+        super(String.format("La etapa '%s' excedió su plazo de %d ms", stage, deadline.toMillis()));
+        this.stage = stage;
+        this.deadline = deadline;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public Duration getDeadline() {
+        return deadline;
+    }
+}
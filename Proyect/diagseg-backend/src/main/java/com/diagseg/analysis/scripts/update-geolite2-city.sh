@@ -6,7 +6,8 @@ set -euo pipefail
 SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
 
 # Desde scripts: ../../../../../ -> src/main
-DEST_DIR="${SCRIPT_DIR}/../../../../../resources/geo"
+# Con GEOLITE2_DEST_DIR (p. ej. el directorio de geolite2.city-db-file) se actualiza en caliente
+DEST_DIR="${GEOLITE2_DEST_DIR:-${SCRIPT_DIR}/../../../../../resources/geo}"
 EDITION_ID="GeoLite2-City"
 
 if [[ -z "${MAXMIND_LICENSE_KEY:-}" ]]; then
@@ -45,6 +46,8 @@ if [[ -z "${MMDB_PATH}" ]]; then
 fi
 
 echo "Copiando base de datos a ${DEST_DIR}/GeoLite2-City.mmdb"
-cp "${MMDB_PATH}" "${DEST_DIR}/GeoLite2-City.mmdb"
+# Copia a un temporal del mismo directorio y renombrado atómico: el backend nunca ve un fichero a medias
+cp "${MMDB_PATH}" "${DEST_DIR}/.GeoLite2-City.mmdb.tmp"
+mv -f "${DEST_DIR}/.GeoLite2-City.mmdb.tmp" "${DEST_DIR}/GeoLite2-City.mmdb"
 
 echo "Actualización completada correctamente ✅"
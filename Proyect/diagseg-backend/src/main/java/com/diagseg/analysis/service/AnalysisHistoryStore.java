@@ -0,0 +1,590 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.diagseg.analysis.dto.HistoryStatsDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Historial persistente de análisis.
+ *
+ * Los resultados se guardan en un log de solo-anexado dividido en segmentos
+ * (history-NNNNNN.log). Cada registro es:
+ * <pre>
+ *   int longitud del cuerpo | int CRC32 del cuerpo |
+ *   cuerpo = long instante | byte nº de claves | (short longitud, UTF-8) por clave | JSON del resultado
+ * </pre>
+ * Junto a cada segmento, un sidecar .idx repite la cabecera de cada registro
+ * (instante, offset, longitud y claves) sin el JSON. Al arrancar se leen los
+ * sidecars, que son pequeños y secuenciales, y solo la cola del log que el
+ * sidecar no cubre se recorre verificando el CRC; una escritura cortada al
+ * final del último segmento se trunca.
+ *
+ * Los resultados no se mantienen en memoria: el índice ({@link HistoryIndex})
+ * solo guarda instante y posición en disco, y cada consulta lee los registros
+ * que necesita.
+ */
+@Startup
+@ApplicationScoped
+public class AnalysisHistoryStore {
+
+    private static final Logger LOG = Logger.getLogger(AnalysisHistoryStore.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("history-(\\d{6})\\.log");
+    private static final int HEADER_BYTES = 8;
+    // Un registro más grande que esto en la cabecera es basura (escritura cortada)
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+    @ConfigProperty(name = "history.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "history.dir", defaultValue = "data/history")
+    String directory;
+
+    @ConfigProperty(name = "history.segment-max-mb", defaultValue = "64")
+    int segmentMaxMb;
+
+    @ConfigProperty(name = "history.fsync", defaultValue = "false")
+    boolean fsync;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HistoryIndex index = new HistoryIndex();
+    private final Map<Integer, FileChannel> readers = new ConcurrentHashMap<>();
+
+    private Path dir;
+    private int activeSegment;
+    private FileChannel activeLog;
+    private FileChannel activeIdx;
+    private long activeSize;
+    private long lastTimestamp;
+    private long totalBytes;
+
+    private volatile boolean ready;
+    private long recoveryMillis;
+    private int recoveredRecords;
+    private long truncatedBytes;
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            LOG.info("Historial de análisis deshabilitado (history.enabled=false)");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            dir = Path.of(directory);
+            Files.createDirectories(dir);
+
+            List<Integer> segments = listSegments();
+            for (int i = 0; i < segments.size(); i++) {
+                recoverSegment(segments.get(i), i == segments.size() - 1);
+            }
+            activeSegment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+            openActive();
+
+            recoveryMillis = System.currentTimeMillis() - start;
+            ready = true;
+            LOG.infof("Historial cargado: %d análisis de %d objetivos en %d segmentos (%d ms)",
+                index.size(), index.keys(), Math.max(1, segments.size()), recoveryMillis);
+        } catch (IOException e) {
+            LOG.errorf(e, "⚠️ No se pudo abrir el historial en %s - el historial no estará disponible", directory);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        lock.writeLock().lock();
+        try {
+            ready = false;
+            closeQuietly(activeLog);
+            closeQuietly(activeIdx);
+            readers.values().forEach(AnalysisHistoryStore::closeQuietly);
+            readers.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Agrega un resultado al historial. Los fallos se registran y no se propagan:
+     * perder una entrada del historial no debe hacer fallar el análisis.
+     *
+     * @param result Resultado a guardar
+     * @param keys   Claves de consulta (IP, dominio, ASN o rango); se normalizan y deduplican
+     */
+    public void append(AnalysisResult result, String... keys) {
+        if (!ready) {
+            return;
+        }
+        Set<String> normalized = new LinkedHashSet<>();
+        for (String key : keys) {
+            if (key != null && !key.isBlank()) {
+                normalized.add(normalize(key));
+            }
+        }
+        if (normalized.isEmpty()) {
+            return;
+        }
+
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(result);
+            lock.writeLock().lock();
+            try {
+                // Instante no decreciente: el índice depende de ello para las búsquedas binarias
+                long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+                ByteBuffer body = encodeBody(timestamp, normalized, payload);
+                int bodyLength = body.remaining();
+
+                if (activeSize > 0 && activeSize + HEADER_BYTES + bodyLength > segmentMaxMb * 1024L * 1024L) {
+                    rollSegment();
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(body.duplicate());
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(bodyLength).putInt((int) crc.getValue()).flip();
+
+                long offset = activeSize;
+                long idxSize = activeIdx.size();
+                try {
+                    writeFully(activeLog, header);
+                    writeFully(activeLog, body);
+                    writeFully(activeIdx, encodeIdxEntry(timestamp, offset, HEADER_BYTES + bodyLength, normalized));
+                    if (fsync) {
+                        activeLog.force(false);
+                    }
+                } catch (IOException e) {
+                    // No dejar un registro a medias delante de los siguientes
+                    activeLog.truncate(offset);
+                    activeIdx.truncate(idxSize);
+                    throw e;
+                }
+
+                activeSize += HEADER_BYTES + bodyLength;
+                totalBytes += HEADER_BYTES + bodyLength;
+                lastTimestamp = timestamp;
+                index.add(timestamp, HistoryIndex.position(activeSegment, offset), normalized.toArray(String[]::new));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (Exception e) {
+            LOG.warnf(e, "No se pudo guardar en el historial el análisis de %s", normalized);
+        }
+    }
+
+    /**
+     * Últimos análisis de un objetivo, del más reciente al más antiguo
+     *
+     * @param key   IP, dominio, ASN o rango
+     * @param from  Instante mínimo en ms (inclusive)
+     * @param to    Instante máximo en ms (inclusive)
+     * @param limit Máximo de resultados
+     */
+    public List<AnalysisResult> find(String key, long from, long to, int limit) {
+        if (!ready) {
+            return List.of();
+        }
+        long[] positions;
+        lock.readLock().lock();
+        try {
+            positions = index.newest(normalize(key), from, to, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return read(positions);
+    }
+
+    /**
+     * Últimos análisis de cualquier objetivo en el rango de tiempo
+     */
+    public List<AnalysisResult> findAll(long from, long to, int limit) {
+        if (!ready) {
+            return List.of();
+        }
+        long[] positions;
+        lock.readLock().lock();
+        try {
+            positions = index.newest(from, to, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return read(positions);
+    }
+
+    public HistoryStatsDto stats() {
+        HistoryStatsDto stats = new HistoryStatsDto();
+        stats.enabled = enabled;
+        stats.ready = ready;
+        stats.directory = directory;
+        lock.readLock().lock();
+        try {
+            stats.records = index.size();
+            stats.keys = index.keys();
+            stats.segments = activeSegment;
+            stats.bytes = totalBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+        stats.recoveryMillis = recoveryMillis;
+        stats.recoveredRecords = recoveredRecords;
+        stats.truncatedBytes = truncatedBytes;
+        return stats;
+    }
+
+    // ----------------------------------------------------------------- lectura
+
+    private List<AnalysisResult> read(long[] positions) {
+        List<AnalysisResult> results = new ArrayList<>(positions.length);
+        for (long position : positions) {
+            try {
+                results.add(readRecord(position));
+            } catch (Exception e) {
+                LOG.warnf("Registro del historial ilegible (segmento %d, offset %d): %s",
+                    HistoryIndex.segmentOf(position), HistoryIndex.offsetOf(position), e.getMessage());
+            }
+        }
+        return results;
+    }
+
+    private AnalysisResult readRecord(long position) throws IOException {
+        FileChannel channel = reader(HistoryIndex.segmentOf(position));
+        long offset = HistoryIndex.offsetOf(position);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, offset);
+        header.flip();
+        int bodyLength = header.getInt();
+        int expectedCrc = header.getInt();
+
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        readFully(channel, body, offset + HEADER_BYTES);
+        body.flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("CRC inválido");
+        }
+
+        body.getLong(); // instante
+        int keyCount = Byte.toUnsignedInt(body.get());
+        for (int i = 0; i < keyCount; i++) {
+            int keyLength = Short.toUnsignedInt(body.getShort());
+            body.position(body.position() + keyLength);
+        }
+        return objectMapper.readValue(body.array(), body.position(), body.remaining(), AnalysisResult.class);
+    }
+
+    private FileChannel reader(int segment) {
+        return readers.computeIfAbsent(segment, s -> {
+            try {
+                return FileChannel.open(segmentPath(s, ".log"), StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new IllegalStateException("No se pudo abrir el segmento " + s, e);
+            }
+        });
+    }
+
+    // -------------------------------------------------------------- escritura
+
+    private void openActive() throws IOException {
+        Path log = segmentPath(activeSegment, ".log");
+        activeLog = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeIdx = FileChannel.open(segmentPath(activeSegment, ".idx"),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeSize = activeLog.size();
+    }
+
+    private void rollSegment() throws IOException {
+        activeLog.force(false);
+        activeIdx.force(false);
+        activeLog.close();
+        activeIdx.close();
+        activeSegment++;
+        openActive();
+        LOG.infof("Historial: nuevo segmento %d", activeSegment);
+    }
+
+    private static ByteBuffer encodeBody(long timestamp, Set<String> keys, byte[] payload) {
+        List<byte[]> encodedKeys = encodeKeys(keys);
+        int size = Long.BYTES + 1 + payload.length;
+        for (byte[] key : encodedKeys) {
+            size += Short.BYTES + key.length;
+        }
+        ByteBuffer body = ByteBuffer.allocate(size);
+        body.putLong(timestamp);
+        putKeys(body, encodedKeys);
+        body.put(payload);
+        return body.flip();
+    }
+
+    private static ByteBuffer encodeIdxEntry(long timestamp, long offset, int recordLength, Set<String> keys) {
+        List<byte[]> encodedKeys = encodeKeys(keys);
+        int size = Long.BYTES + Long.BYTES + Integer.BYTES + 1;
+        for (byte[] key : encodedKeys) {
+            size += Short.BYTES + key.length;
+        }
+        ByteBuffer entry = ByteBuffer.allocate(size);
+        entry.putLong(timestamp).putLong(offset).putInt(recordLength);
+        putKeys(entry, encodedKeys);
+        return entry.flip();
+    }
+
+    private static List<byte[]> encodeKeys(Set<String> keys) {
+        List<byte[]> encoded = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length <= 0xFFFF) {
+                encoded.add(bytes);
+            }
+        }
+        return encoded;
+    }
+
+    private static void putKeys(ByteBuffer buffer, List<byte[]> keys) {
+        buffer.put((byte) keys.size());
+        for (byte[] key : keys) {
+            buffer.putShort((short) key.length);
+            buffer.put(key);
+        }
+    }
+
+    // -------------------------------------------------------------- arranque
+
+    private List<Integer> listSegments() throws IOException {
+        List<Integer> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.add(Integer.parseInt(matcher.group(1)));
+                }
+            });
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * Indexa un segmento: primero su sidecar y luego, verificando el CRC, la
+     * parte del log que el sidecar no cubre (que se agrega al sidecar)
+     */
+    private void recoverSegment(int segment, boolean last) throws IOException {
+        Path log = segmentPath(segment, ".log");
+        Path idx = segmentPath(segment, ".idx");
+        long logSize = Files.size(log);
+        totalBytes += logSize;
+
+        SidecarCoverage sidecar = readSidecar(segment, idx, logSize);
+        if (sidecar.logBytes == logSize) {
+            return;
+        }
+
+        List<ByteBuffer> missing = new ArrayList<>();
+        long offset = sidecar.logBytes;
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            while (offset < logSize) {
+                RecoveredRecord record = readHeaderAt(channel, offset, logSize);
+                if (record == null) {
+                    break;
+                }
+                index.add(record.timestamp, HistoryIndex.position(segment, offset), record.keys.toArray(String[]::new));
+                lastTimestamp = Math.max(lastTimestamp, record.timestamp);
+                missing.add(encodeIdxEntry(record.timestamp, offset, record.length, record.keys));
+                recoveredRecords++;
+                offset += record.length;
+            }
+        }
+
+        if (offset < logSize) {
+            if (last) {
+                // Escritura cortada (caída durante un append): se descarta la cola
+                LOG.warnf("Historial: se truncan %d bytes incompletos al final del segmento %d", logSize - offset, segment);
+                try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                    channel.truncate(offset);
+                }
+                truncatedBytes += logSize - offset;
+                totalBytes -= logSize - offset;
+            } else {
+                LOG.warnf("Historial: segmento %d dañado a partir del offset %d; se ignora el resto", segment, offset);
+            }
+        }
+
+        // Rehacer el sidecar con lo que faltaba, para que el próximo arranque no repita el recorrido
+        try (FileChannel channel = FileChannel.open(idx, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(sidecar.idxBytes);
+            channel.position(sidecar.idxBytes);
+            for (ByteBuffer entry : missing) {
+                writeFully(channel, entry);
+            }
+        }
+        if (!missing.isEmpty()) {
+            LOG.infof("Historial: %d registros recuperados del log del segmento %d", missing.size(), segment);
+        }
+    }
+
+    /**
+     * Carga las entradas de un sidecar hasta la primera inválida
+     *
+     * @return Bytes del log cubiertos por el sidecar y bytes válidos del sidecar
+     */
+    private SidecarCoverage readSidecar(int segment, Path idx, long logSize) throws IOException {
+        if (!Files.isRegularFile(idx)) {
+            return new SidecarCoverage(0, 0);
+        }
+        long covered = 0;
+        long idxBytes = 0;
+        try (InputStream raw = Files.newInputStream(idx);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16))) {
+            while (true) {
+                long timestamp;
+                try {
+                    timestamp = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long offset;
+                int length;
+                Set<String> keys;
+                long entryBytes;
+                try {
+                    offset = in.readLong();
+                    length = in.readInt();
+                    int keyCount = in.readUnsignedByte();
+                    keys = new LinkedHashSet<>(keyCount);
+                    entryBytes = Long.BYTES * 2 + Integer.BYTES + 1;
+                    for (int i = 0; i < keyCount; i++) {
+                        byte[] key = new byte[in.readUnsignedShort()];
+                        in.readFully(key);
+                        keys.add(new String(key, StandardCharsets.UTF_8));
+                        entryBytes += Short.BYTES + key.length;
+                    }
+                } catch (EOFException e) {
+                    break; // Entrada cortada: se regenera desde el log
+                }
+                // El sidecar debe describir registros consecutivos dentro del log
+                if (offset != covered || length <= HEADER_BYTES || offset + length > logSize) {
+                    break;
+                }
+                index.add(timestamp, HistoryIndex.position(segment, offset), keys.toArray(String[]::new));
+                lastTimestamp = Math.max(lastTimestamp, timestamp);
+                covered = offset + length;
+                idxBytes += entryBytes;
+            }
+        }
+        return new SidecarCoverage(covered, idxBytes);
+    }
+
+    /**
+     * Lee y verifica el registro en {@code offset}; null si está incompleto o dañado
+     */
+    private static RecoveredRecord readHeaderAt(FileChannel channel, long offset, long logSize) throws IOException {
+        if (offset + HEADER_BYTES > logSize) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, offset);
+        header.flip();
+        int bodyLength = header.getInt();
+        int expectedCrc = header.getInt();
+        if (bodyLength <= Long.BYTES || bodyLength > MAX_RECORD_BYTES || offset + HEADER_BYTES + bodyLength > logSize) {
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        readFully(channel, body, offset + HEADER_BYTES);
+        body.flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != expectedCrc) {
+            return null;
+        }
+
+        long timestamp = body.getLong();
+        int keyCount = Byte.toUnsignedInt(body.get());
+        Set<String> keys = new LinkedHashSet<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            byte[] key = new byte[Short.toUnsignedInt(body.getShort())];
+            body.get(key);
+            keys.add(new String(key, StandardCharsets.UTF_8));
+        }
+        return new RecoveredRecord(timestamp, HEADER_BYTES + bodyLength, keys);
+    }
+
+    private record RecoveredRecord(long timestamp, int length, Set<String> keys) {
+    }
+
+    private record SidecarCoverage(long logBytes, long idxBytes) {
+    }
+
+    // ----------------------------------------------------------------- util
+
+    private Path segmentPath(int segment, String extension) {
+        return dir.resolve(String.format("history-%06d%s", segment, extension));
+    }
+
+    private static String normalize(String key) {
+        return key.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Fin de segmento inesperado");
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOG.debugf("Error cerrando segmento del historial: %s", e.getMessage());
+        }
+    }
+}
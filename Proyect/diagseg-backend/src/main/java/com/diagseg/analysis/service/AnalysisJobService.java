@@ -0,0 +1,367 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.AnalysisJobDto;
+import com.diagseg.analysis.dto.AnalysisRequest;
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.diagseg.analysis.dto.ErrorResponse;
+import com.diagseg.analysis.dto.GeolocationDto;
+import com.diagseg.analysis.dto.JobStatus;
+import com.diagseg.analysis.dto.RecommendationDto;
+import com.diagseg.analysis.dto.RiskLevel;
+import com.diagseg.analysis.dto.ServiceDto;
+import com.diagseg.analysis.dto.StageProgressDto;
+import com.diagseg.analysis.dto.VulnerabilityDto;
+import com.diagseg.analysis.exception.InvalidInputException;
+import com.diagseg.analysis.exception.NotFoundException;
+import com.diagseg.analysis.exception.ServiceException;
+import com.diagseg.analysis.validation.InputValidator;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ejecución asíncrona de análisis.
+ *
+ * El cliente recibe un id de trabajo al instante y consulta después el estado,
+ * el progreso por etapa y el resultado. Los trabajos corren en hilos virtuales
+ * con concurrencia y cola acotadas; los terminados se conservan
+ * analysis.jobs.retention-minutes y como mucho analysis.jobs.max-retained.
+ * La limpieza corre al encolar y periódicamente, para que los resultados no
+ * se queden en memoria cuando deja de haber trabajos nuevos.
+ */
+@ApplicationScoped
+public class AnalysisJobService {
+
+    private static final Logger LOG = Logger.getLogger(AnalysisJobService.class);
+
+    @ConfigProperty(name = "analysis.jobs.max-concurrent", defaultValue = "16")
+    int maxConcurrent;
+
+    @ConfigProperty(name = "analysis.jobs.queue-capacity", defaultValue = "200")
+    int queueCapacity;
+
+    @ConfigProperty(name = "analysis.jobs.retention-minutes", defaultValue = "30")
+    int retentionMinutes;
+
+    @ConfigProperty(name = "analysis.jobs.max-retained", defaultValue = "1000")
+    int maxRetained;
+
+    @Inject
+    AnalysisService analysisService;
+
+    @Inject
+    InputValidator inputValidator;
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService evictor;
+
+    private final Map<String, AnalysisJob> jobs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        executor = new ThreadPoolExecutor(
+            maxConcurrent, maxConcurrent,
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            Thread.ofVirtual().name("analysis-job-", 0).factory(),
+            new ThreadPoolExecutor.AbortPolicy());
+        evictor = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("analysis-job-evictor").factory());
+        long period = Math.max(retentionMinutes, 1);
+        evictor.scheduleWithFixedDelay(this::evictFinished, period, period, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+        evictor.shutdownNow();
+    }
+
+    /**
+     * Registra y encola un análisis. La entrada se valida antes de aceptar el trabajo.
+     *
+     * @throws ServiceException ANALYSIS_QUEUE_FULL si no hay hueco en la cola
+     */
+    public AnalysisJobDto submit(AnalysisRequest request) {
+        return submit(request, AnalysisListener.NONE);
+    }
+
+    /**
+     * Igual que {@link #submit(AnalysisRequest)}, reenviando además el progreso
+     * del análisis a {@code observer} (por ejemplo, un stream SSE)
+     */
+    public AnalysisJobDto submit(AnalysisRequest request, AnalysisListener observer) {
+        inputValidator.validate(request);
+        evictFinished();
+
+        AnalysisJob job = new AnalysisJob(UUID.randomUUID().toString(), request, observer);
+        jobs.put(job.id, job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            LOG.warnf("Cola de análisis llena, se rechaza %s (%d en ejecución, %d en cola)",
+                request.query, executor.getActiveCount(), executor.getQueue().size());
+            throw new ServiceException(
+                "El servidor está atendiendo demasiados análisis en este momento",
+                String.format("Cola de análisis llena: %d en ejecución, %d en espera",
+                    executor.getActiveCount(), executor.getQueue().size()),
+                "Intente nuevamente en unos minutos",
+                ServiceException.ErrorCode.ANALYSIS_QUEUE_FULL,
+                e
+            );
+        }
+
+        LOG.infof("Trabajo de análisis %s encolado para: %s (tipo: %s)", job.id, request.query, request.type);
+        return job.toDto();
+    }
+
+    /**
+     * Estado y progreso del trabajo
+     */
+    public AnalysisJobDto status(String id) {
+        return find(id).toDto();
+    }
+
+    /**
+     * Resultado del trabajo
+     *
+     * @return el resultado, o null si el trabajo todavía no terminó
+     * @throws RuntimeException la excepción original si el análisis falló
+     */
+    public AnalysisResult result(String id) {
+        AnalysisJob job = find(id);
+        if (job.status == JobStatus.FAILED) {
+            throw job.failure;
+        }
+        return job.result;
+    }
+
+    /**
+     * Resumen del error de un análisis fallido, en el mismo formato que los ExceptionMapper
+     */
+    public static ErrorResponse errorOf(RuntimeException error) {
+        if (error instanceof ServiceException se) {
+            return new ErrorResponse(se.getUserMessage(), se.getTechnicalDetails(), se.getErrorCode().toString());
+        }
+        if (error instanceof InvalidInputException) {
+            return new ErrorResponse("Entrada inválida", error.getMessage(), "INVALID_INPUT");
+        }
+        return new ErrorResponse("Error del servidor", error.getMessage(), "INTERNAL_ERROR");
+    }
+
+    private AnalysisJob find(String id) {
+        AnalysisJob job = jobs.get(id);
+        // Entre dos limpiezas un trabajo caducado ya no se sirve
+        if (job != null && job.finishedAt != null && job.finishedAt < retentionCutoff()) {
+            jobs.remove(id, job);
+            job = null;
+        }
+        if (job == null) {
+            throw new NotFoundException("No existe el trabajo de análisis '" + id + "' o ya expiró");
+        }
+        return job;
+    }
+
+    private void run(AnalysisJob job) {
+        job.startedAt = System.currentTimeMillis();
+        job.status = JobStatus.RUNNING;
+        try {
+            job.result = analysisService.analyze(job.request, job);
+            job.finishedAt = System.currentTimeMillis();
+            job.status = JobStatus.COMPLETED;
+            LOG.infof("Trabajo de análisis %s completado en %d ms", job.id, job.finishedAt - job.startedAt);
+        } catch (RuntimeException e) {
+            job.failure = e;
+            job.finishedAt = System.currentTimeMillis();
+            job.status = JobStatus.FAILED;
+            LOG.warnf("Trabajo de análisis %s falló: %s", job.id, e.getMessage());
+        }
+    }
+
+    /**
+     * Descarta los trabajos terminados que superan la retención, y los más
+     * antiguos si se supera el máximo de trabajos conservados
+     */
+    private void evictFinished() {
+        long cutoff = retentionCutoff();
+        jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt < cutoff);
+
+        int excess = jobs.size() - maxRetained + 1;
+        if (excess > 0) {
+            jobs.values().stream()
+                .filter(job -> job.finishedAt != null)
+                .sorted(Comparator.comparingLong(job -> job.finishedAt))
+                .limit(excess)
+                .map(job -> job.id)
+                .toList()
+                .forEach(jobs::remove);
+        }
+    }
+
+    private long retentionCutoff() {
+        return System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes);
+    }
+
+    /**
+     * Trabajo de análisis; registra el progreso de sus etapas como listener
+     * y reenvía todos los eventos al observador externo
+     */
+    private static class AnalysisJob implements AnalysisListener {
+        final String id;
+        final AnalysisRequest request;
+        final AnalysisListener observer;
+        final long createdAt = System.currentTimeMillis();
+        // Orden de inserción = orden en que arrancaron las etapas
+        final Map<String, StageProgressDto> stages = new LinkedHashMap<>();
+
+        // Escritos por el hilo del trabajo, leídos por las peticiones de estado
+        volatile JobStatus status = JobStatus.QUEUED;
+        volatile Long startedAt;
+        volatile Long finishedAt;
+        volatile AnalysisResult result;
+        volatile RuntimeException failure;
+
+        AnalysisJob(String id, AnalysisRequest request, AnalysisListener observer) {
+            this.id = id;
+            this.request = request;
+            this.observer = observer;
+        }
+
+        @Override
+        public void stageStarted(String stage) {
+            synchronized (this) {
+                start(stage);
+            }
+            observer.stageStarted(stage);
+        }
+
+        @Override
+        public void stageCompleted(String stage) {
+            synchronized (this) {
+                finish(stage, JobStatus.COMPLETED, null);
+            }
+            observer.stageCompleted(stage);
+        }
+
+        @Override
+        public void stageFailed(String stage, String message) {
+            synchronized (this) {
+                finish(stage, JobStatus.FAILED, message);
+            }
+            observer.stageFailed(stage, message);
+        }
+
+        @Override
+        public void targetResolved(String ip, String domain) {
+            observer.targetResolved(ip, domain);
+        }
+
+        @Override
+        public void serviceDetected(ServiceDto service) {
+            observer.serviceDetected(service);
+        }
+
+        @Override
+        public void vulnerabilitiesFound(ServiceDto service, List<VulnerabilityDto> vulnerabilities) {
+            observer.vulnerabilitiesFound(service, vulnerabilities);
+        }
+
+        @Override
+        public void geolocationResolved(GeolocationDto geolocation) {
+            observer.geolocationResolved(geolocation);
+        }
+
+        @Override
+        public void asnResolved(ASNService.ASNInfo asnInfo) {
+            observer.asnResolved(asnInfo);
+        }
+
+        @Override
+        public void scoreCalculated(int securityScore, RiskLevel riskLevel) {
+            observer.scoreCalculated(securityScore, riskLevel);
+        }
+
+        @Override
+        public void recommendationsGenerated(List<RecommendationDto> recommendations) {
+            observer.recommendationsGenerated(recommendations);
+        }
+
+        @Override
+        public void hostAnalyzed(AnalysisResult hostResult) {
+            observer.hostAnalyzed(hostResult);
+        }
+
+        @Override
+        public void analysisCompleted(AnalysisResult result) {
+            observer.analysisCompleted(result);
+        }
+
+        @Override
+        public void analysisFailed(RuntimeException error) {
+            observer.analysisFailed(error);
+        }
+
+        private void start(String stage) {
+            StageProgressDto progress = new StageProgressDto();
+            progress.stage = stage;
+            progress.status = JobStatus.RUNNING;
+            progress.startedAt = System.currentTimeMillis();
+            stages.put(stage, progress);
+        }
+
+        private void finish(String stage, JobStatus status, String message) {
+            StageProgressDto progress = stages.get(stage);
+            if (progress == null) {
+                start(stage);
+                progress = stages.get(stage);
+            }
+            progress.status = status;
+            progress.finishedAt = System.currentTimeMillis();
+            progress.message = message;
+        }
+
+        synchronized AnalysisJobDto toDto() {
+            AnalysisJobDto dto = new AnalysisJobDto();
+            dto.id = id;
+            dto.status = status;
+            dto.query = request.query;
+            dto.type = request.type;
+            dto.createdAt = createdAt;
+            dto.startedAt = startedAt;
+            dto.finishedAt = finishedAt;
+
+            List<StageProgressDto> snapshot = new ArrayList<>(stages.size());
+            for (StageProgressDto stage : stages.values()) {
+                StageProgressDto copy = new StageProgressDto();
+                copy.stage = stage.stage;
+                copy.status = stage.status;
+                copy.startedAt = stage.startedAt;
+                copy.finishedAt = stage.finishedAt;
+                copy.message = stage.message;
+                snapshot.add(copy);
+            }
+            dto.stages = snapshot;
+
+            dto.error = failure != null ? errorOf(failure) : null;
+            return dto;
+        }
+    }
+}
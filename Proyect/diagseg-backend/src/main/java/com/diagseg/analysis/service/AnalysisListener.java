@@ -0,0 +1,81 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.diagseg.analysis.dto.GeolocationDto;
+import com.diagseg.analysis.dto.RecommendationDto;
+import com.diagseg.analysis.dto.RiskLevel;
+import com.diagseg.analysis.dto.ServiceDto;
+import com.diagseg.analysis.dto.VulnerabilityDto;
+
+import java.util.List;
+
+/**
+ * Observador del progreso de un análisis.
+ *
+ * Los métodos se invocan desde los hilos del análisis (incluidos los de las
+ * etapas en paralelo), por lo que las implementaciones deben ser thread-safe
+ * y no bloquear. Los objetos recibidos los sigue modificando el análisis:
+ * si se necesitan más tarde hay que copiarlos o serializarlos en el momento.
+ * Todos tienen implementación vacía por defecto.
+ */
+public interface AnalysisListener {
+
+    AnalysisListener NONE = new AnalysisListener() { };
+
+    default void stageStarted(String stage) {
+    }
+
+    default void stageCompleted(String stage) {
+    }
+
+    /**
+     * La etapa falló o agotó su plazo. Si es una etapa no crítica el análisis continúa.
+     */
+    default void stageFailed(String stage, String message) {
+    }
+
+    /**
+     * IP definitiva del análisis (domain es null si la consulta ya era una IP)
+     */
+    default void targetResolved(String ip, String domain) {
+    }
+
+    /**
+     * Nmap reportó un servicio abierto (antes de que termine el escaneo)
+     */
+    default void serviceDetected(ServiceDto service) {
+    }
+
+    /**
+     * NVD respondió para el CPE de un servicio
+     */
+    default void vulnerabilitiesFound(ServiceDto service, List<VulnerabilityDto> vulnerabilities) {
+    }
+
+    default void geolocationResolved(GeolocationDto geolocation) {
+    }
+
+    default void asnResolved(ASNService.ASNInfo asnInfo) {
+    }
+
+    default void scoreCalculated(int securityScore, RiskLevel riskLevel) {
+    }
+
+    default void recommendationsGenerated(List<RecommendationDto> recommendations) {
+    }
+
+    /**
+     * Resultado completo de un host dentro de un análisis de varios hosts (ASN o rango CIDR)
+     */
+    default void hostAnalyzed(AnalysisResult hostResult) {
+    }
+
+    default void analysisCompleted(AnalysisResult result) {
+    }
+
+    /**
+     * El análisis se abortó; la misma excepción se propaga a quien lo invocó
+     */
+    default void analysisFailed(RuntimeException error) {
+    }
+}
@@ -0,0 +1,180 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.AnalysisMetadataDto;
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.diagseg.analysis.dto.CacheStatsDto;
+import com.diagseg.analysis.dto.TargetType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache de resultados de análisis de un host.
+ *
+ * La clave es la IP resuelta más el perfil de escaneo (puertos de Nmap): un
+ * cambio de puertos invalida de hecho los resultados anteriores. Un índice
+ * dominio → IP permite que un dominio y su IP compartan la misma entrada y
+ * que un dominio ya visto no necesite DNS para acertar en la cache.
+ */
+@ApplicationScoped
+public class AnalysisResultCache {
+
+    private static final Logger LOG = Logger.getLogger(AnalysisResultCache.class);
+
+    @ConfigProperty(name = "analysis.result-cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "analysis.result-cache.max-age-minutes", defaultValue = "10")
+    int maxAgeMinutes;
+
+    @ConfigProperty(name = "analysis.result-cache.max-entries", defaultValue = "500")
+    int maxEntries;
+
+    @Inject
+    NmapService nmapService;
+
+    private TtlCache<String, AnalysisResult> results;
+    private TtlCache<String, String> aliases;
+    private ScheduledExecutorService purger;
+
+    @PostConstruct
+    void init() {
+        Duration maxAge = Duration.ofMinutes(maxAgeMinutes);
+        results = new TtlCache<>("analysis-results", maxEntries, maxAge);
+        // El alias no puede vivir más que los resultados a los que apunta
+        aliases = new TtlCache<>("analysis-domain-aliases", maxEntries, maxAge);
+        if (enabled) {
+            LOG.infof("Cache de resultados: %d entradas, antigüedad máxima %d min", maxEntries, maxAgeMinutes);
+            // Los resultados completos pesan: no se espera a que el LRU los expulse
+            purger = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().daemon().name("analysis-result-cache").factory());
+            results.schedulePurge(purger);
+            aliases.schedulePurge(purger);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (purger != null) {
+            purger.shutdownNow();
+        }
+    }
+
+    /**
+     * Resultado vigente para el objetivo, o null
+     *
+     * @param query Consulta original (IP o dominio)
+     * @param type  Tipo del objetivo; solo se cachean IPV4, IPV6 y DOMAIN
+     * @return Copia del resultado con cached=true y su antigüedad, adaptada a la consulta
+     */
+    public AnalysisResult lookup(String query, TargetType type) {
+        if (!enabled || !isCacheable(type)) {
+            return null;
+        }
+        String domain = null;
+        String ip = query.trim();
+        if (type == TargetType.DOMAIN) {
+            domain = ip;
+            ip = aliases.getIfPresent(domain.toLowerCase(Locale.ROOT));
+            if (ip == null) {
+                return null;
+            }
+        }
+
+        TtlCache.Result<AnalysisResult> hit = results.lookupIfPresent(key(ip));
+        if (hit == null) {
+            return null;
+        }
+        LOG.infof("Resultado de %s servido desde la cache (antigüedad: %d s)",
+            query, TimeUnit.MILLISECONDS.toSeconds(hit.ageMillis));
+        return copyOf(hit.value, domain, type, hit.ageMillis);
+    }
+
+    /**
+     * Guarda el resultado de un análisis completo. Los resultados con
+     * advertencias (fuentes caídas, NVD parcial) no se cachean: el siguiente
+     * análisis puede salir completo. Tampoco los de un escaneo Nmap que no
+     * terminó: "sin servicios" no se distinguiría de un host sin puertos abiertos.
+     */
+    public void store(AnalysisResult result) {
+        if (!enabled || !isCacheable(result.type) || result.ip == null) {
+            return;
+        }
+        if (result.metadata == null || !result.metadata.scanCompleted) {
+            LOG.debugf("Resultado de %s no cacheado: el escaneo Nmap no terminó", result.ip);
+            return;
+        }
+        if (result.metadata != null && result.metadata.warnings != null && !result.metadata.warnings.isEmpty()) {
+            LOG.debugf("Resultado de %s no cacheado: tiene %d advertencias", result.ip, result.metadata.warnings.size());
+            return;
+        }
+        results.put(key(result.ip), result);
+        if (result.domain != null) {
+            aliases.put(result.domain.toLowerCase(Locale.ROOT), result.ip);
+        }
+    }
+
+    public List<CacheStatsDto> stats() {
+        return List.of(results.stats(), aliases.stats());
+    }
+
+    private String key(String ip) {
+        // "2001:db8::1" y "2001:DB8:0::1" comparten entrada
+        IpAddress address = IpAddress.tryParse(ip);
+        return (address != null ? address : ip) + "|" + nmapService.scanProfile();
+    }
+
+    private static boolean isCacheable(TargetType type) {
+        return type == TargetType.IPV4 || type == TargetType.IPV6 || type == TargetType.DOMAIN;
+    }
+
+    /**
+     * Copia superficial para no modificar la entrada compartida: cambian el
+     * dominio/tipo de la consulta y los metadatos de cache
+     */
+    private static AnalysisResult copyOf(AnalysisResult source, String domain, TargetType type, long ageMillis) {
+        AnalysisResult copy = new AnalysisResult();
+        copy.ip = source.ip;
+        copy.type = type;
+        copy.domain = domain;
+        copy.securityScore = source.securityScore;
+        copy.riskLevel = source.riskLevel;
+        copy.timestamp = source.timestamp; // Momento del análisis real
+        copy.services = source.services;
+        copy.geolocation = source.geolocation;
+        copy.reputation = source.reputation;
+        copy.vulnerabilities = source.vulnerabilities;
+        copy.recommendations = source.recommendations;
+        // Un resultado incremental sigue siéndolo: sin diff no se distinguiría de un escaneo completo
+        copy.diff = source.diff;
+
+        AnalysisMetadataDto metadata = new AnalysisMetadataDto();
+        if (source.metadata != null) {
+            metadata.scanDuration = source.metadata.scanDuration;
+            // "dns" depende de cómo se consultó, no de cómo se generó la entrada
+            List<String> sources = new ArrayList<>();
+            if (domain != null) {
+                sources.add("dns");
+            }
+            source.metadata.sourcesUsed.stream().filter(s -> !"dns".equals(s)).forEach(sources::add);
+            metadata.sourcesUsed = sources;
+            metadata.warnings = source.metadata.warnings;
+            metadata.scanCompleted = source.metadata.scanCompleted;
+        }
+        metadata.cached = true;
+        metadata.cacheAgeSeconds = TimeUnit.MILLISECONDS.toSeconds(ageMillis);
+        copy.metadata = metadata;
+        return copy;
+    }
+}
@@ -1,14 +1,24 @@
 package com.diagseg.analysis.service;
 
 import com.diagseg.analysis.dto.*;
+import com.diagseg.analysis.exception.NotFoundException;
 import com.diagseg.analysis.exception.ServiceException;
+import com.diagseg.analysis.exception.StageTimeoutException;
 import com.diagseg.analysis.validation.InputValidator;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 @ApplicationScoped
 public class AnalysisService {
@@ -25,11 +35,14 @@ public class AnalysisService {
     ASNService asnService;
 
     @Inject
-    NmapService nmapService;
+    NmapScanScheduler nmapScanScheduler;
 
     @Inject
     NVDService nvdService;
 
+    @Inject
+    CpeResolver cpeResolver;
+
     @Inject
     ReputationService reputationService;
 
@@ -42,14 +55,95 @@ public class AnalysisService {
     @Inject
     DnsResolverService dnsResolverService;
 
+    @Inject
+    AnalysisStageExecutor stageExecutor;
+
+    @Inject
+    AsnPrefixTable asnPrefixTable;
+
+    @Inject
+    SweepService sweepService;
+
+    @Inject
+    AnalysisResultCache resultCache;
+
+    @Inject
+    AnalysisHistoryStore historyStore;
+
+    @Inject
+    IncrementalScanService incrementalScanService;
+
+    @ConfigProperty(name = "nmap.timeout", defaultValue = "60")
+    int nmapTimeoutSeconds;
+
+    @ConfigProperty(name = "analysis.stages.nmap-grace-seconds", defaultValue = "10")
+    int nmapGraceSeconds;
+
+    @ConfigProperty(name = "analysis.stages.nmap-queue-wait-seconds", defaultValue = "60")
+    int nmapQueueWaitSeconds;
+
+    @ConfigProperty(name = "analysis.stages.geolocation-timeout-seconds", defaultValue = "5")
+    int geolocationTimeoutSeconds;
+
+    @ConfigProperty(name = "analysis.stages.asn-timeout-seconds", defaultValue = "20")
+    int asnTimeoutSeconds;
+
+    @ConfigProperty(name = "analysis.stages.nvd-timeout-seconds", defaultValue = "90")
+    int nvdTimeoutSeconds;
+
+    @ConfigProperty(name = "analysis.domain.max-addresses", defaultValue = "16")
+    int domainMaxAddresses;
+
     public AnalysisResult analyze(AnalysisRequest request) {
+        return analyze(request, AnalysisListener.NONE);
+    }
+
+    /**
+     * Ejecuta el análisis notificando el progreso de cada etapa al listener
+     */
+    public AnalysisResult analyze(AnalysisRequest request, AnalysisListener listener) {
+        try {
+            AnalysisResult result = runAnalysis(request, listener);
+            if (!result.metadata.cached) {
+                stageExecutor.executor().execute(() -> recordHistory(request, result));
+            }
+            listener.analysisCompleted(result);
+            return result;
+        } catch (RuntimeException e) {
+            listener.analysisFailed(e);
+            throw e;
+        }
+    }
+
+    private AnalysisResult runAnalysis(AnalysisRequest request, AnalysisListener listener) {
         // 1. Validar entrada
         inputValidator.validate(request);
 
+        if (request.type == TargetType.ASN) {
+            return analyzeAsn(request, listener);
+        }
+        if (request.type == TargetType.DOMAIN && request.allAddresses) {
+            return analyzeAllAddresses(request, listener);
+        }
+        // Resultado reciente del mismo host y perfil de escaneo, salvo que se pida refrescar
+        if (!request.forceRefresh) {
+            AnalysisResult cached = resultCache.lookup(request.query, request.type);
+            if (cached != null) {
+                notifyCached(cached, listener);
+                return cached;
+            }
+        }
+
+        if (request.type == TargetType.CIDR) {
+            String range = request.query.trim();
+            LOG.infof("Análisis del rango %s", range);
+            return sweepService.sweep(range, request.type, List.of(CidrBlock.parse(range)),
+                List.of("nmap", "nvd", "geolite2", "ipapi"), new ArrayList<>(), listener);
+        }
+
         long start = System.currentTimeMillis();
         
         List<String> warnings = new ArrayList<>();
-        List<String> partialFailures = new ArrayList<>();
 
         // 1.5. Si es un dominio, resolverlo a IP
         String targetIp = request.query;
@@ -58,76 +152,182 @@ public class AnalysisService {
         if (request.type == TargetType.DOMAIN) {
             LOG.infof("Tipo DOMAIN detectado, resolviendo '%s' a IP", request.query);
             originalDomain = request.query;
+            listener.stageStarted("dns");
             try {
                 targetIp = dnsResolverService.resolveDomain(request.query);
                 LOG.infof("Dominio '%s' resuelto a IP: %s", originalDomain, targetIp);
+                listener.stageCompleted("dns");
             } catch (ServiceException e) {
                 LOG.errorf(e, "Error al resolver dominio '%s'", request.query);
+                listener.stageFailed("dns", e.getUserMessage());
                 throw e; // Re-lanzar error crítico
             }
         }
 
         LOG.infof("Iniciando análisis para target: %s (IP: %s)", request.query, targetIp);
 
-        // 2. Escaneo de servicios con Nmap (REAL) - CRÍTICO
+        final String ip = targetIp;
+        listener.targetResolved(ip, originalDomain);
+
+        // Las consultas a NVD se lanzan a medida que Nmap reporta cada servicio,
+        // sin esperar a que termine el escaneo completo
+        NvdQueryBatch nvdBatch = nvdService.newBatch();
+        Map<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>> lookups =
+            Collections.synchronizedMap(new LinkedHashMap<>());
+        Consumer<ServiceDto> submitNvdLookup = nvdSubmitter(nvdBatch, lookups, listener);
+
+        // En modo incremental, el último análisis del host decide qué volver a sondear
+        AnalysisResult baseline = request.incremental ? incrementalScanService.baselineFor(ip) : null;
+
+        // 2. Encolar el escaneo Nmap (puede rechazarse con 429 si la cola está llena)
+        //    y lanzar en paralelo las etapas que no dependen de él: GeoLite2 y ASN
+        listener.stageStarted("nmap");
+        listener.stageStarted("geolocation");
+        listener.stageStarted("asn");
+        Duration nmapDeadline = Duration.ofSeconds(nmapQueueWaitSeconds + nmapTimeoutSeconds + nmapGraceSeconds);
+        // En un análisis completo se toma la huella de cada servicio para futuros análisis incrementales
+        List<CompletableFuture<Void>> fingerprints = Collections.synchronizedList(new ArrayList<>());
+        AnalysisStageExecutor.Stage<IncrementalScanService.IncrementalScan> nmapStage = stageExecutor.track("nmap",
+            nmapDeadline, baseline != null
+                ? incrementalScanService.scan(ip, baseline, submitNvdLookup)
+                : nmapScanScheduler.submit(ip, submitNvdLookup.andThen(
+                        service -> fingerprints.add(incrementalScanService.fingerprintAsync(ip, service))))
+                    .thenApply(services -> new IncrementalScanService.IncrementalScan(services, null)));
+        AnalysisStageExecutor.Stage<GeolocationDto> geoStage = stageExecutor.start("geolocation",
+            Duration.ofSeconds(geolocationTimeoutSeconds), () -> geolocationService.resolve(ip));
+        AnalysisStageExecutor.Stage<ASNService.ASNInfo> asnStage = stageExecutor.start("asn",
+            Duration.ofSeconds(asnTimeoutSeconds), () -> asnService.getASNInfo(ip));
+        // Notificar en cuanto terminen, sin esperar a Nmap ni a NVD
+        geoStage.future().thenAccept(listener::geolocationResolved);
+        asnStage.future().thenAccept(listener::asnResolved);
+
+        // Escaneo de servicios con Nmap (REAL) - CRÍTICO
         List<ServiceDto> services;
+        IncrementalScanService.IncrementalScan scan;
         try {
-            services = nmapService.scanTarget(targetIp);
+            scan = nmapStage.join();
+            services = scan.services();
+            incrementalScanService.awaitFingerprints(fingerprints);
             LOG.infof("Escaneo Nmap completado: %d servicios encontrados", services.size());
+            listener.stageCompleted("nmap");
+        } catch (StageTimeoutException e) {
+            LOG.errorf("Escaneo Nmap excedió el plazo de la etapa (%d ms)", e.getDeadline().toMillis());
+            geoStage.cancel();
+            asnStage.cancel();
+            cancelAll(lookups);
+            listener.stageFailed("nmap", "Tiempo de espera agotado");
+            throw new ServiceException(
+                "El escaneo está tardando demasiado tiempo",
+                String.format("La etapa Nmap excedió su plazo de %d segundos", e.getDeadline().toSeconds()),
+                "Intente nuevamente con menos puertos o aumente el timeout en la configuración",
+                ServiceException.ErrorCode.NMAP_TIMEOUT,
+                e
+            );
         } catch (ServiceException e) {
             // Si Nmap falla, es un error crítico que debe propagarse
             LOG.errorf(e, "Error crítico en escaneo Nmap");
+            geoStage.cancel();
+            asnStage.cancel();
+            cancelAll(lookups);
+            listener.stageFailed("nmap", e.getUserMessage());
             throw e;
         }
 
         // 3. Obtener vulnerabilidades desde NVD para cada servicio (REAL) - NO CRÍTICO
-        List<VulnerabilityDto> allVulnerabilities = new ArrayList<>();
-        boolean nvdPartialFailure = false;
+        //    Los CPE se deduplican y se consultan en paralelo dentro del presupuesto de NVD
+        List<String> partialFailures = new ArrayList<>();
+        LOG.debugf("Consultando NVD: %d servicios, %d CPE distintos", lookups.size(), nvdBatch.uniqueCpes());
+        listener.stageStarted("nvd");
+        List<VulnerabilityDto> allVulnerabilities = collectVulnerabilities(lookups, partialFailures);
+
+        if (!partialFailures.isEmpty()) {
+            warnings.add("Algunas vulnerabilidades pueden no estar completas debido a limitaciones del servicio NVD");
+            listener.stageFailed("nvd", "Resultados parciales: " + String.join("; ", partialFailures));
+        } else {
+            listener.stageCompleted("nvd");
+        }
+
+        // 4. Geolocalización con GeoLite2 (REAL) - NO CRÍTICO (usa fallback si falla)
+        GeolocationDto geo = joinGeolocation(geoStage, warnings, listener);
+
+        // 5. Obtener información de ASN/ISP (REAL) - NO CRÍTICO
+        applyAsnInfo(geo, asnStage, warnings, listener);
+
+        // 6-10. Reputación, score, recomendaciones y resultado final
+        // Si se resolvió un dominio, incluir "dns" en las fuentes
+        List<String> sources = new ArrayList<>();
+        if (originalDomain != null) {
+            sources.add("dns");
+        }
+        sources.addAll(List.of("nmap", "nvd", "geolite2", "ipapi"));
+        if (scan.diff() != null) {
+            sources.add("history");
+        }
+
+        AnalysisResult result = buildResult(targetIp, originalDomain, request.type, services, allVulnerabilities,
+            geo, sources, warnings, start, listener);
+        result.diff = scan.diff();
+        // Solo se llega aquí si la etapa Nmap terminó sin error
+        result.metadata.scanCompleted = true;
+        resultCache.store(result);
 
-        for (ServiceDto service : services) {
+        String logTarget = originalDomain != null ? originalDomain + " (" + targetIp + ")" : targetIp;
+        LOG.infof("Análisis completado para %s en %d ms. Score: %d, Servicios: %d, Vulnerabilidades: %d, Warnings: %d",
+            logTarget, result.metadata.scanDuration, result.securityScore, services.size(),
+            allVulnerabilities.size(), warnings.size());
+
+        return result;
+    }
+
+    /**
+     * Callback para Nmap que resuelve el CPE de cada servicio según se detecta
+     * y lanza su consulta a NVD dentro del lote compartido
+     */
+    Consumer<ServiceDto> nvdSubmitter(NvdQueryBatch nvdBatch,
+                                      Map<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>> lookups,
+                                      AnalysisListener listener) {
+        Duration nvdDeadline = Duration.ofSeconds(nvdTimeoutSeconds);
+        return service -> {
+            listener.serviceDetected(service);
+            // Resolver CPE para el servicio (CPE de Nmap o diccionario de productos)
+            String cpe = cpeResolver.resolve(service);
+            if (cpe != null) {
+                service.cpe = cpe;
+                CompletableFuture<List<VulnerabilityDto>> lookup = nvdBatch.lookup(cpe);
+                lookup.thenAccept(vulns -> listener.vulnerabilitiesFound(service, vulns));
+                lookups.put(service, stageExecutor.track("nvd", nvdDeadline, lookup));
+            }
+        };
+    }
+
+    /**
+     * Espera las consultas NVD lanzadas y asocia sus vulnerabilidades a cada servicio.
+     * Los fallos no son críticos: se anotan en {@code partialFailures} y se continúa.
+     *
+     * @return vulnerabilidades encontradas, sin duplicados
+     */
+    List<VulnerabilityDto> collectVulnerabilities(
+            Map<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>> lookups,
+            List<String> partialFailures) {
+        Map<String, VulnerabilityDto> vulnerabilitiesById = new LinkedHashMap<>();
+
+        List<Map.Entry<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>>> pendingLookups;
+        synchronized (lookups) {
+            pendingLookups = new ArrayList<>(lookups.entrySet());
+        }
+
+        for (Map.Entry<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>> lookup : pendingLookups) {
+            ServiceDto service = lookup.getKey();
             try {
-                // Construir CPE para el servicio
-                String cpe = nmapService.extractCpeForService(service.service, service.version);
-
-                if (cpe != null && !cpe.isBlank()) {
-                    // Consultar NVD con el CPE
-                    List<VulnerabilityDto> vulns = nvdService.searchByCpe(cpe);
-
-                    // Asociar CVE IDs al servicio
-                    for (VulnerabilityDto vuln : vulns) {
-                        if (!service.vulnerabilities.contains(vuln.id)) {
-                            service.vulnerabilities.add(vuln.id);
-                        }
-                        
-                        // Agregar a lista global si no está duplicado
-                        boolean exists = allVulnerabilities.stream()
-                                .anyMatch(v -> v.id.equals(vuln.id));
-                        if (!exists) {
-                            allVulnerabilities.add(vuln);
-                        }
-                    }
-
-                    // Actualizar risk level del servicio basado en vulnerabilidades
-                    if (!vulns.isEmpty()) {
-                        double maxCvss = vulns.stream()
-                                .mapToDouble(v -> v.cvss)
-                                .max()
-                                .orElse(0.0);
-
-                        if (maxCvss >= 9.0) {
-                            service.riskLevel = RiskLevel.HIGH;
-                        } else if (maxCvss >= 7.0) {
-                            service.riskLevel = RiskLevel.MEDIUM;
-                        } else if (maxCvss >= 4.0 && service.riskLevel == RiskLevel.LOW) {
-                            service.riskLevel = RiskLevel.MEDIUM;
-                        }
-                    }
-                }
+                applyVulnerabilities(service, lookup.getValue().join(), vulnerabilitiesById);
+            } catch (StageTimeoutException e) {
+                LOG.warnf("Consulta NVD para servicio %s:%d excedió el plazo de la etapa",
+                    service.service, service.port);
+                partialFailures.add("Consulta de vulnerabilidades: tiempo de espera agotado");
             } catch (ServiceException e) {
                 // Si NVD falla (rate limit, timeout, etc), registrar pero continuar
                 LOG.warnf(e, "Error consultando NVD para servicio %s:%d - continuando sin vulnerabilidades", 
                     service.service, service.port);
-                nvdPartialFailure = true;
                 partialFailures.add(String.format("Consulta de vulnerabilidades: %s", e.getUserMessage()));
                 
                 // No re-lanzar, permitir que el análisis continúe
@@ -136,62 +336,85 @@ public class AnalysisService {
                 // Continuar sin vulnerabilidades para este servicio
             }
         }
+        return new ArrayList<>(vulnerabilitiesById.values());
+    }
 
-        if (nvdPartialFailure) {
-            warnings.add("Algunas vulnerabilidades pueden no estar completas debido a limitaciones del servicio NVD");
-        }
-
-        // 4. Geolocalización con GeoLite2 (REAL) - NO CRÍTICO (usa fallback si falla)
-        GeolocationDto geo;
+    /**
+     * Espera la geolocalización; si falla o no llega a tiempo usa el fallback
+     */
+    GeolocationDto joinGeolocation(AnalysisStageExecutor.Stage<GeolocationDto> geoStage,
+                                   List<String> warnings, AnalysisListener listener) {
         try {
-            geo = geolocationService.resolve(targetIp);
+            GeolocationDto geo = geoStage.join();
             // Si todos los valores son "Unknown", agregar warning
             if ("Unknown".equals(geo.country) && "Unknown".equals(geo.city)) {
                 warnings.add("No se pudo obtener geolocalización precisa - base de datos GeoLite2 no disponible");
             }
+            listener.stageCompleted("geolocation");
+            return geo;
+        } catch (StageTimeoutException e) {
+            LOG.warnf("Geolocalización excedió su plazo de %d ms, usando fallback", e.getDeadline().toMillis());
+            warnings.add("La geolocalización tardó demasiado y se omitió");
+            listener.stageFailed("geolocation", "Tiempo de espera agotado");
+            return fallbackGeolocation();
         } catch (Exception e) {
             LOG.errorf(e, "Error en geolocalización, usando fallback");
             warnings.add("Error obteniendo geolocalización: " + e.getMessage());
-            // Crear geo con valores por defecto
-            geo = new GeolocationDto();
-            geo.country = "Unknown";
-            geo.countryCode = "--";
-            geo.region = "Unknown";
-            geo.city = "Unknown";
-            geo.latitude = 0.0;
-            geo.longitude = 0.0;
-            geo.timezone = "UTC";
-            geo.isp = "Unknown";
-            geo.asn = "Unknown";
-            geo.org = "Unknown";
+            listener.stageFailed("geolocation", e.getMessage());
+            return fallbackGeolocation();
         }
+    }
 
-        // 5. Obtener información de ASN/ISP (REAL) - NO CRÍTICO
+    /**
+     * Espera la información ASN/ISP y la copia a la geolocalización
+     */
+    void applyAsnInfo(GeolocationDto geo, AnalysisStageExecutor.Stage<ASNService.ASNInfo> asnStage,
+                      List<String> warnings, AnalysisListener listener) {
         try {
-            ASNService.ASNInfo asnInfo = asnService.getASNInfo(targetIp);
+            ASNService.ASNInfo asnInfo = asnStage.join();
             geo.asn = asnInfo.asn;
             geo.org = asnInfo.asnOrg;
             geo.isp = asnInfo.isp;
+            listener.stageCompleted("asn");
+        } catch (StageTimeoutException e) {
+            LOG.warnf("Consulta ASN excedió su plazo de %d ms - usando valores por defecto", e.getDeadline().toMillis());
+            warnings.add("Información de red (ASN/ISP) puede estar incompleta: la consulta tardó demasiado");
+            listener.stageFailed("asn", "Tiempo de espera agotado");
+            geo.asn = "Unknown";
+            geo.org = "Unknown";
+            geo.isp = "Unknown";
         } catch (ServiceException e) {
             LOG.warnf(e, "Error obteniendo ASN info - usando valores por defecto");
             warnings.add("Información de red (ASN/ISP) puede estar incompleta: " + e.getUserMessage());
+            listener.stageFailed("asn", e.getUserMessage());
             geo.asn = "Unknown";
             geo.org = "Unknown";
             geo.isp = "Unknown";
         } catch (Exception e) {
             LOG.warnf(e, "Error inesperado obteniendo ASN info");
+            listener.stageFailed("asn", e.getMessage());
             geo.asn = "Unknown";
             geo.org = "Unknown";
             geo.isp = "Unknown";
         }
+    }
 
+    /**
+     * Calcula reputación, score y recomendaciones y arma el resultado final
+     */
+    AnalysisResult buildResult(String ip, String domain, TargetType type, List<ServiceDto> services,
+                               List<VulnerabilityDto> allVulnerabilities, GeolocationDto geo,
+                               List<String> sources, List<String> warnings,
+                               long start, AnalysisListener listener) {
         // 6. Reputación (basada en servicios y vulnerabilidades encontradas)
+        listener.stageStarted("scoring");
         List<ReputationSourceDto> reputation =
                 reputationService.buildReputation(services, allVulnerabilities);
 
         // 7. Calcular score global y riskLevel
         int securityScore = securityScoringService.calculateScore(services, allVulnerabilities);
         RiskLevel riskLevel = securityScoringService.classifyRisk(securityScore);
+        listener.scoreCalculated(securityScore, riskLevel);
 
         long now = System.currentTimeMillis();
         long duration = now - start;
@@ -199,17 +422,12 @@ public class AnalysisService {
         // 8. Generar recomendaciones
         List<RecommendationDto> recommendations =
                 recommendationService.generateRecommendations(services, allVulnerabilities, securityScore);
+        listener.recommendationsGenerated(recommendations);
+        listener.stageCompleted("scoring");
 
         // 9. Metadatos actualizados
         AnalysisMetadataDto metadata = new AnalysisMetadataDto();
         metadata.scanDuration = duration;
-        
-        // Si se resolvió un dominio, incluir "dns" en las fuentes
-        List<String> sources = new ArrayList<>();
-        if (originalDomain != null) {
-            sources.add("dns");
-        }
-        sources.addAll(List.of("nmap", "nvd", "geolite2", "ipapi"));
         metadata.sourcesUsed = sources;
         metadata.cached = false;
         
@@ -220,9 +438,9 @@ public class AnalysisService {
 
         // 10. Resultado final
         AnalysisResult result = new AnalysisResult();
-        result.ip = targetIp; // IP resuelta (o la IP original si no era dominio)
-        result.domain = originalDomain; // Dominio original (null si era IP directamente)
-        result.type = request.type;
+        result.ip = ip; // IP resuelta (o la IP original si no era dominio)
+        result.domain = domain; // Dominio original (null si era IP directamente)
+        result.type = type;
         result.securityScore = securityScore;
         result.riskLevel = riskLevel;
         result.timestamp = now;
@@ -232,11 +450,245 @@ public class AnalysisService {
         result.vulnerabilities = allVulnerabilities;
         result.recommendations = recommendations;
         result.metadata = metadata;
+        return result;
+    }
 
-        String logTarget = originalDomain != null ? originalDomain + " (" + targetIp + ")" : targetIp;
-        LOG.infof("Análisis completado para %s en %d ms. Score: %d, Servicios: %d, Vulnerabilidades: %d, Warnings: %d",
-            logTarget, duration, securityScore, services.size(), allVulnerabilities.size(), warnings.size());
+    /**
+     * Asocia las vulnerabilidades encontradas a un servicio, las agrega a la
+     * lista global (sin duplicados) y ajusta el riskLevel del servicio
+     */
+    private void applyVulnerabilities(ServiceDto service, List<VulnerabilityDto> vulns,
+                                      Map<String, VulnerabilityDto> vulnerabilitiesById) {
+        // Asociar CVE IDs al servicio
+        for (VulnerabilityDto vuln : vulns) {
+            if (!service.vulnerabilities.contains(vuln.id)) {
+                service.vulnerabilities.add(vuln.id);
+            }
+
+            // Agregar a lista global si no está duplicado
+            vulnerabilitiesById.putIfAbsent(vuln.id, vuln);
+        }
+
+        // Actualizar risk level del servicio basado en vulnerabilidades
+        if (!vulns.isEmpty()) {
+            double maxCvss = vulns.stream()
+                    .mapToDouble(v -> v.cvss)
+                    .max()
+                    .orElse(0.0);
+
+            if (maxCvss >= 9.0) {
+                service.riskLevel = RiskLevel.HIGH;
+            } else if (maxCvss >= 7.0) {
+                service.riskLevel = RiskLevel.MEDIUM;
+            } else if (maxCvss >= 4.0 && service.riskLevel == RiskLevel.LOW) {
+                service.riskLevel = RiskLevel.MEDIUM;
+            }
+        }
+    }
+
+    /**
+     * Guarda un análisis nuevo en el historial. En los análisis de varios hosts
+     * cada host se guarda con su IP y el agregado, sin los hosts, con la consulta.
+     */
+    private void recordHistory(AnalysisRequest request, AnalysisResult result) {
+        if (result.hosts == null) {
+            historyStore.append(result, result.ip, result.domain);
+            return;
+        }
+        for (AnalysisResult host : result.hosts) {
+            historyStore.append(host, host.ip);
+        }
+        AnalysisResult summary = new AnalysisResult();
+        summary.type = result.type;
+        summary.securityScore = result.securityScore;
+        summary.riskLevel = result.riskLevel;
+        summary.timestamp = result.timestamp;
+        summary.services = result.services;
+        summary.reputation = result.reputation;
+        summary.vulnerabilities = result.vulnerabilities;
+        summary.recommendations = result.recommendations;
+        summary.metadata = result.metadata;
+        summary.summary = result.summary;
+        historyStore.append(summary, request.query);
+    }
 
+    /**
+     * Reproduce para el listener los eventos de un resultado servido desde la cache
+     */
+    private void notifyCached(AnalysisResult result, AnalysisListener listener) {
+        listener.stageStarted("cache");
+        listener.targetResolved(result.ip, result.domain);
+        result.services.forEach(listener::serviceDetected);
+        if (result.geolocation != null) {
+            listener.geolocationResolved(result.geolocation);
+        }
+        listener.scoreCalculated(result.securityScore, result.riskLevel);
+        listener.recommendationsGenerated(result.recommendations);
+        listener.stageCompleted("cache");
+    }
+
+    /**
+     * Análisis de un dominio en todas sus direcciones (A y AAAA): cada IP se
+     * analiza en paralelo como un host y el resultado se agrega como un barrido.
+     * Con una sola dirección equivale al análisis normal del dominio.
+     */
+    private AnalysisResult analyzeAllAddresses(AnalysisRequest request, AnalysisListener listener) {
+        String domain = request.query.trim();
+        listener.stageStarted("dns");
+        List<String> resolved;
+        try {
+            resolved = dnsResolverService.resolveAllAddresses(domain);
+            listener.stageCompleted("dns");
+        } catch (ServiceException e) {
+            LOG.errorf(e, "Error al resolver dominio '%s'", domain);
+            listener.stageFailed("dns", e.getUserMessage());
+            throw e;
+        }
+
+        List<String> warnings = new ArrayList<>();
+        if (resolved.size() > domainMaxAddresses) {
+            warnings.add(String.format("El dominio resuelve a %d direcciones; se analizan las primeras %d",
+                resolved.size(), domainMaxAddresses));
+        }
+        List<String> addresses = resolved.subList(0, Math.min(resolved.size(), domainMaxAddresses));
+        if (addresses.size() == 1) {
+            AnalysisRequest single = new AnalysisRequest();
+            single.query = request.query;
+            single.type = request.type;
+            single.forceRefresh = request.forceRefresh;
+            single.incremental = request.incremental;
+            return runAnalysis(single, listener);
+        }
+
+        LOG.infof("Dominio '%s' resuelto a %d direcciones, analizando todas", domain, addresses.size());
+        long start = System.currentTimeMillis();
+        listener.targetResolved(addresses.get(0), domain);
+
+        // Cada dirección usa su propia cache de resultados y su propio escaneo
+        Map<String, CompletableFuture<AnalysisResult>> analyses = new LinkedHashMap<>();
+        for (String address : addresses) {
+            AnalysisRequest host = new AnalysisRequest();
+            host.query = address;
+            host.type = address.indexOf(':') >= 0 ? TargetType.IPV6 : TargetType.IPV4;
+            host.forceRefresh = request.forceRefresh;
+            host.incremental = request.incremental;
+            analyses.put(address, CompletableFuture.supplyAsync(
+                () -> runAnalysis(host, AnalysisListener.NONE), stageExecutor.executor()));
+        }
+
+        List<AnalysisResult> hosts = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        RuntimeException firstError = null;
+        listener.stageStarted("nmap");
+        for (Map.Entry<String, CompletableFuture<AnalysisResult>> analysis : analyses.entrySet()) {
+            try {
+                AnalysisResult host = analysis.getValue().join();
+                host.domain = domain;
+                hosts.add(host);
+                listener.hostAnalyzed(host);
+            } catch (RuntimeException e) {
+                RuntimeException cause = e.getCause() instanceof RuntimeException re ? re : e;
+                LOG.warnf("No se pudo analizar %s (%s): %s", analysis.getKey(), domain, cause.getMessage());
+                failed.add(analysis.getKey());
+                if (firstError == null) {
+                    firstError = cause;
+                }
+            }
+        }
+        if (hosts.isEmpty()) {
+            // Todas fallaron: se propaga el error de la primera
+            listener.stageFailed("nmap", "Ninguna dirección del dominio se pudo analizar");
+            throw firstError;
+        }
+        if (!failed.isEmpty()) {
+            warnings.add("No se pudieron analizar: " + String.join(", ", failed));
+            listener.stageFailed("nmap", "Direcciones sin analizar: " + String.join(", ", failed));
+        } else {
+            listener.stageCompleted("nmap");
+        }
+
+        hosts.sort(Comparator.comparingInt((AnalysisResult host) -> host.securityScore)
+            .thenComparing(host -> addresses.indexOf(host.ip)));
+        AnalysisResult result = sweepService.rollup(domain, request.type, hosts,
+            List.of("dns", "nmap", "nvd", "geolite2", "ipapi"), warnings, start, listener);
+        result.ip = addresses.get(0);
+        result.domain = domain;
+        result.summary.addressesScanned = addresses.size();
+        result.summary.failedShards = failed.isEmpty() ? null : failed;
+        LOG.infof("Análisis de las %d direcciones de '%s' completado en %d ms. Score medio: %d",
+            addresses.size(), domain, result.metadata.scanDuration, result.securityScore);
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * Análisis de un ASN completo: se barren todos sus prefijos IPv4 anunciados
+     */
+    private AnalysisResult analyzeAsn(AnalysisRequest request, AnalysisListener listener) {
+        if (!asnPrefixTable.isLoaded()) {
+            throw new ServiceException(
+                "El análisis por ASN no está disponible",
+                "No hay tabla prefix2as cargada (asn.prefix-table.ipv4-path)",
+                "Contacte al administrador del sistema",
+                ServiceException.ErrorCode.ASN_SERVICE_UNAVAILABLE
+            );
+        }
+
+        listener.stageStarted("prefixes");
+        List<String> prefixes = asnPrefixTable.prefixesOf(AsnPrefixTable.parseAsn(request.query));
+        if (prefixes.isEmpty()) {
+            listener.stageFailed("prefixes", "Sin prefijos anunciados");
+            throw new NotFoundException("El ASN '" + request.query + "' no anuncia ningún prefijo conocido");
+        }
+
+        List<String> warnings = new ArrayList<>();
+        List<CidrBlock> blocks = new ArrayList<>();
+        int ipv6Prefixes = 0;
+        for (String prefix : prefixes) {
+            if (prefix.indexOf(':') >= 0) {
+                ipv6Prefixes++;
+            } else {
+                blocks.add(CidrBlock.parse(prefix));
+            }
+        }
+        if (ipv6Prefixes > 0) {
+            // Un barrido IPv6 por fuerza bruta no es viable
+            warnings.add(String.format("Se omitieron %d prefijos IPv6 del ASN", ipv6Prefixes));
+        }
+        if (blocks.isEmpty()) {
+            listener.stageFailed("prefixes", "Sin prefijos IPv4");
+            throw new NotFoundException("El ASN '" + request.query + "' no anuncia prefijos IPv4");
+        }
+        listener.stageCompleted("prefixes");
+        LOG.infof("Análisis del %s: %d prefijos IPv4", request.query, blocks.size());
+
+        return sweepService.sweep(request.query, request.type, blocks,
+            List.of("prefix2as", "nmap", "nvd", "geolite2", "ipapi"), warnings, listener);
+    }
+
+    /**
+     * Cancela las consultas NVD ya lanzadas cuando el análisis se aborta
+     */
+    private void cancelAll(Map<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>> lookups) {
+        synchronized (lookups) {
+            lookups.values().forEach(AnalysisStageExecutor.Stage::cancel);
+        }
+    }
+
+    /**
+     * Geolocalización por defecto cuando GeoLite2 falla o no responde a tiempo
+     */
+    private GeolocationDto fallbackGeolocation() {
+        GeolocationDto geo = new GeolocationDto();
+        geo.country = "Unknown";
+        geo.countryCode = "--";
+        geo.region = "Unknown";
+        geo.city = "Unknown";
+        geo.latitude = 0.0;
+        geo.longitude = 0.0;
+        geo.timezone = "UTC";
+        geo.isp = "Unknown";
+        geo.asn = "Unknown";
+        geo.org = "Unknown";
+        return geo;
+    }
+}
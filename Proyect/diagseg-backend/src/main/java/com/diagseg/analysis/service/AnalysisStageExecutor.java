@@ -0,0 +1,156 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.exception.ServiceException;
+import com.diagseg.analysis.exception.StageTimeoutException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Ejecutor de etapas del análisis sobre hilos virtuales.
+ * Permite lanzar etapas independientes (Nmap, GeoLite2, ASN) en paralelo
+ * y esperar cada una con su propio plazo máximo.
+ */
+@ApplicationScoped
+public class AnalysisStageExecutor {
+
+    private static final Logger LOG = Logger.getLogger(AnalysisStageExecutor.class);
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Lanza una etapa en un hilo virtual. El plazo empieza a contar desde este momento.
+     *
+     * @param name     Nombre de la etapa (para logs y errores)
+     * @param deadline Tiempo máximo que se esperará el resultado
+     * @param task     Trabajo de la etapa
+     */
+    public <T> Stage<T> start(String name, Duration deadline, Supplier<T> task) {
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        // CompletableFuture.cancel(true) no interrumpe el hilo que ejecuta la tarea:
+        // se conserva el Future del executor para cancelarlo de verdad
+        Future<?> running = executor.submit(() -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                LOG.debugf("Etapa '%s' finalizada en %d ms", name,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            }
+        });
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                running.cancel(true);
+            }
+        });
+        return new Stage<>(name, deadline, startNanos, future);
+    }
+
+    /**
+     * Asocia un plazo a un trabajo ya lanzado (por ejemplo una consulta de un lote NVD)
+     */
+    public <T> Stage<T> track(String name, Duration deadline, CompletableFuture<T> future) {
+        return new Stage<>(name, deadline, System.nanoTime(), future);
+    }
+
+    /**
+     * Executor de hilos virtuales compartido por las etapas
+     */
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    /**
+     * Etapa en ejecución con su plazo absoluto
+     */
+    public static class Stage<T> {
+
+        private final String name;
+        private final Duration deadline;
+        private final long deadlineNanos;
+        private final CompletableFuture<T> future;
+
+        Stage(String name, Duration deadline, long startNanos, CompletableFuture<T> future) {
+            this.name = name;
+            this.deadline = deadline;
+            this.deadlineNanos = startNanos + deadline.toNanos();
+            this.future = future;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public CompletableFuture<T> future() {
+            return future;
+        }
+
+        /**
+         * Espera el resultado de la etapa sin exceder su plazo.
+         * Las excepciones de la etapa se propagan tal cual (ServiceException incluida).
+         *
+         * @throws StageTimeoutException si el plazo se agota antes de que termine
+         */
+        public T join() {
+            long remaining = Math.max(0, deadlineNanos - System.nanoTime());
+            try {
+                return future.get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                throw new StageTimeoutException(name, deadline);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException re) {
+                    throw re;
+                }
+                throw new ServiceException(
+                    "Error inesperado durante el análisis",
+                    String.format("Etapa '%s' falló: %s", name, cause),
+                    "Intente nuevamente o contacte al administrador",
+                    ServiceException.ErrorCode.INTERNAL_ERROR,
+                    cause
+                );
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                throw new ServiceException(
+                    "El análisis fue interrumpido",
+                    String.format("InterruptedException esperando la etapa '%s'", name),
+                    "Intente realizar la consulta nuevamente",
+                    ServiceException.ErrorCode.INTERNAL_ERROR,
+                    e
+                );
+            }
+        }
+
+        /**
+         * Cancela la etapa si aún no terminó; si la lanzó {@link #start}, interrumpe su hilo
+         */
+        public void cancel() {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.diagseg.analysis.service;
+
+import com.maxmind.db.DatabaseRecord;
+import com.maxmind.db.InvalidNetworkException;
+import com.maxmind.db.Network;
+import com.maxmind.db.Networks;
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.model.AsnResponse;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Índice local IP → ASN, sin red ni procesos externos.
+ *
+ * Se construye de una de estas fuentes (la primera que exista):
+ * - GeoLite2-ASN.mmdb de MaxMind (asn.index.mmdb-path)
+ * - Volcado ip2asn de iptoasn.com (asn.index.ip2asn-path), en texto plano o
+ *   .gz. Formato por línea: {@code inicio<TAB>fin<TAB>asn<TAB>país<TAB>descripción}
+ *
+ * Los rangos se guardan en arrays primitivos ordenados por dirección de inicio
+ * (int sin signo para IPv4, dos long para IPv6) y se buscan por búsqueda
+ * binaria. La carga se hace en segundo plano al arrancar.
+ */
+@Startup
+@ApplicationScoped
+public class AsnIndex {
+
+    private static final Logger LOG = Logger.getLogger(AsnIndex.class);
+
+    @ConfigProperty(name = "asn.index.mmdb-path", defaultValue = "data/GeoLite2-ASN.mmdb")
+    String mmdbPath;
+
+    @ConfigProperty(name = "asn.index.ip2asn-path", defaultValue = "data/ip2asn-combined.tsv.gz")
+    String ip2asnPath;
+
+    // null hasta que termina la carga
+    private volatile Ranges ranges;
+
+    /**
+     * ASN y organización de un rango
+     */
+    public record Entry(long asn, String org) {
+    }
+
+    @PostConstruct
+    void init() {
+        Thread.ofPlatform().daemon().name("asn-index").start(this::load);
+    }
+
+    /**
+     * true cuando hay un índice cargado y sus respuestas son definitivas
+     */
+    public boolean isLoaded() {
+        return ranges != null;
+    }
+
+    /**
+     * ASN de una IP (vacío si el índice no está cargado, la IP no está
+     * anunciada o no es un literal IPv4/IPv6)
+     */
+    public Optional<Entry> lookup(String ip) {
+        Ranges current = ranges;
+        // Solo literales: un nombre de host no debe disparar una resolución DNS
+        IpAddress address = current != null ? IpAddress.tryParse(ip) : null;
+        return address == null ? Optional.empty() : Optional.ofNullable(current.find(address));
+    }
+
+    void load() {
+        long start = System.nanoTime();
+        try {
+            Path mmdb = Path.of(mmdbPath);
+            Path ip2asn = Path.of(ip2asnPath);
+            RangesBuilder builder = new RangesBuilder();
+            String source;
+            if (Files.isRegularFile(mmdb)) {
+                loadMmdb(mmdb, builder);
+                source = mmdbPath;
+            } else if (Files.isRegularFile(ip2asn)) {
+                loadIp2Asn(ip2asn, builder);
+                source = ip2asnPath;
+            } else {
+                LOG.warnf("⚠️ No se encontró índice ASN local (%s ni %s) - se usará ip-api.com", mmdbPath, ip2asnPath);
+                return;
+            }
+            Ranges loaded = builder.build();
+            ranges = loaded;
+            LOG.infof("Índice ASN cargado desde '%s': %d rangos IPv4, %d IPv6, %d ASN en %d ms", source,
+                loaded.v4Start.length, loaded.v6StartHi.length, loaded.orgs.size(),
+                (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            LOG.warnf(e, "Error cargando índice ASN local - se usará ip-api.com");
+        }
+    }
+
+    private void loadMmdb(Path file, RangesBuilder builder) throws IOException, InvalidNetworkException {
+        try (Reader reader = new Reader(file.toFile(), Reader.FileMode.MEMORY_MAPPED)) {
+            // Sin alias: las redes IPv4 aparecen una sola vez (no también bajo ::ffff:0:0/96 o 2002::/16)
+            Networks<AsnResponse> networks = reader.networks(false, AsnResponse.class);
+            while (networks.hasNext()) {
+                DatabaseRecord<AsnResponse> record = networks.next();
+                AsnResponse data = record.getData();
+                if (data == null || data.getAutonomousSystemNumber() == null) {
+                    continue;
+                }
+                Network network = record.getNetwork();
+                addNetwork(builder, IpAddress.of(network.getNetworkAddress().getAddress()), network.getPrefixLength(),
+                    data.getAutonomousSystemNumber(), data.getAutonomousSystemOrganization());
+            }
+        }
+    }
+
+    /**
+     * Añade una red del árbol de MaxMind. En el árbol IPv6 las IPv4 están en ::/96
+     */
+    static void addNetwork(RangesBuilder builder, IpAddress first, int prefix, long asn, String org) {
+        if (first.isIpv6() && prefix >= 96 && first.high() == 0 && (first.low() >>> 32) == 0) {
+            first = IpAddress.ofIpv4(first.low());
+            prefix -= 96;
+        }
+        builder.add(first, first.lastInPrefix(prefix), asn, org);
+    }
+
+    private void loadIp2Asn(Path file, RangesBuilder builder) throws IOException {
+        try (InputStream raw = Files.newInputStream(file);
+             InputStream in = file.toString().endsWith(".gz") ? new GZIPInputStream(raw) : raw;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split("\t");
+                if (columns.length < 3) {
+                    continue;
+                }
+                try {
+                    long asn = Long.parseLong(columns[2]);
+                    // ASN 0: rango no anunciado
+                    if (asn == 0) {
+                        continue;
+                    }
+                    builder.add(IpAddress.parse(columns[0]), IpAddress.parse(columns[1]),
+                        asn, columns.length > 4 ? columns[4] : null);
+                } catch (IllegalArgumentException e) {
+                    LOG.debugf("Línea ip2asn no válida: %s", line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rangos ordenados por inicio, sin solapes. El ASN se guarda como int sin signo.
+     */
+    static final class Ranges {
+        final int[] v4Start;
+        final int[] v4End;
+        final int[] v4Asn;
+        final long[] v6StartHi;
+        final long[] v6StartLo;
+        final long[] v6EndHi;
+        final long[] v6EndLo;
+        final int[] v6Asn;
+        final Map<Integer, String> orgs;
+
+        Ranges(int[] v4Start, int[] v4End, int[] v4Asn, long[] v6StartHi, long[] v6StartLo,
+               long[] v6EndHi, long[] v6EndLo, int[] v6Asn, Map<Integer, String> orgs) {
+            this.v4Start = v4Start;
+            this.v4End = v4End;
+            this.v4Asn = v4Asn;
+            this.v6StartHi = v6StartHi;
+            this.v6StartLo = v6StartLo;
+            this.v6EndHi = v6EndHi;
+            this.v6EndLo = v6EndLo;
+            this.v6Asn = v6Asn;
+            this.orgs = orgs;
+        }
+
+        Entry find(IpAddress address) {
+            if (address.isIpv4()) {
+                int ip = (int) address.low();
+                // Último rango que empieza en o antes de la IP
+                int low = 0;
+                int high = v4Start.length - 1;
+                int found = -1;
+                while (low <= high) {
+                    int mid = (low + high) >>> 1;
+                    if (Integer.compareUnsigned(v4Start[mid], ip) <= 0) {
+                        found = mid;
+                        low = mid + 1;
+                    } else {
+                        high = mid - 1;
+                    }
+                }
+                return found >= 0 && Integer.compareUnsigned(ip, v4End[found]) <= 0 ? entry(v4Asn[found]) : null;
+            }
+            long hi = address.high();
+            long lo = address.low();
+            int low = 0;
+            int high = v6StartHi.length - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (compare(v6StartHi[mid], v6StartLo[mid], hi, lo) <= 0) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found >= 0 && compare(hi, lo, v6EndHi[found], v6EndLo[found]) <= 0 ? entry(v6Asn[found]) : null;
+        }
+
+        private Entry entry(int asn) {
+            return new Entry(Integer.toUnsignedLong(asn), orgs.get(asn));
+        }
+
+        static int compare(long hiA, long loA, long hiB, long loB) {
+            int byHi = Long.compareUnsigned(hiA, hiB);
+            return byHi != 0 ? byHi : Long.compareUnsigned(loA, loB);
+        }
+    }
+
+    /**
+     * Acumula rangos en arrays que crecen por duplicación
+     */
+    static final class RangesBuilder {
+        private int[] v4Start = new int[1024];
+        private int[] v4End = new int[1024];
+        private int[] v4Asn = new int[1024];
+        private int v4Count;
+        private long[] v6Start = new long[2048]; // hi, lo intercalados
+        private long[] v6End = new long[2048];
+        private int[] v6Asn = new int[1024];
+        private int v6Count;
+        private final Map<Integer, String> orgs = new HashMap<>();
+
+        void add(IpAddress first, IpAddress last, long asn, String org) {
+            if (first.isIpv4() != last.isIpv4()) {
+                return;
+            }
+            int asnBits = (int) asn;
+            if (org != null && !org.isBlank()) {
+                orgs.putIfAbsent(asnBits, org.trim());
+            }
+            if (first.isIpv4()) {
+                if (v4Count == v4Start.length) {
+                    v4Start = Arrays.copyOf(v4Start, v4Count * 2);
+                    v4End = Arrays.copyOf(v4End, v4Count * 2);
+                    v4Asn = Arrays.copyOf(v4Asn, v4Count * 2);
+                }
+                v4Start[v4Count] = (int) first.low();
+                v4End[v4Count] = (int) last.low();
+                v4Asn[v4Count] = asnBits;
+                v4Count++;
+            } else {
+                if (v6Count == v6Asn.length) {
+                    v6Start = Arrays.copyOf(v6Start, v6Count * 4);
+                    v6End = Arrays.copyOf(v6End, v6Count * 4);
+                    v6Asn = Arrays.copyOf(v6Asn, v6Count * 2);
+                }
+                v6Start[2 * v6Count] = first.high();
+                v6Start[2 * v6Count + 1] = first.low();
+                v6End[2 * v6Count] = last.high();
+                v6End[2 * v6Count + 1] = last.low();
+                v6Asn[v6Count] = asnBits;
+                v6Count++;
+            }
+        }
+
+        Ranges build() {
+            // Las fuentes vienen ordenadas; si no, se ordena por una permutación de índices
+            int[] v4Order = IntStream.range(0, v4Count).boxed()
+                .sorted(Comparator.comparing(i -> v4Start[i], Integer::compareUnsigned))
+                .mapToInt(Integer::intValue).toArray();
+            int[] v6Order = IntStream.range(0, v6Count).boxed()
+                .sorted((a, b) -> Ranges.compare(v6Start[2 * a], v6Start[2 * a + 1], v6Start[2 * b], v6Start[2 * b + 1]))
+                .mapToInt(Integer::intValue).toArray();
+
+            int[] s4 = new int[v4Count];
+            int[] e4 = new int[v4Count];
+            int[] a4 = new int[v4Count];
+            for (int i = 0; i < v4Count; i++) {
+                s4[i] = v4Start[v4Order[i]];
+                e4[i] = v4End[v4Order[i]];
+                a4[i] = v4Asn[v4Order[i]];
+            }
+            long[] sHi = new long[v6Count];
+            long[] sLo = new long[v6Count];
+            long[] eHi = new long[v6Count];
+            long[] eLo = new long[v6Count];
+            int[] a6 = new int[v6Count];
+            for (int i = 0; i < v6Count; i++) {
+                int j = v6Order[i];
+                sHi[i] = v6Start[2 * j];
+                sLo[i] = v6Start[2 * j + 1];
+                eHi[i] = v6End[2 * j];
+                eLo[i] = v6End[2 * j + 1];
+                a6[i] = v6Asn[j];
+            }
+            return new Ranges(s4, e4, a4, sHi, sLo, eHi, eLo, a6, Map.copyOf(orgs));
+        }
+    }
+}
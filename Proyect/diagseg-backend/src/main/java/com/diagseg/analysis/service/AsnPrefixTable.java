@@ -0,0 +1,110 @@
+package com.diagseg.analysis.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tabla local de prefijos anunciados por cada ASN.
+ *
+ * Se carga de los volcados prefix2as de CAIDA/RouteViews
+ * (routeviews-rv2-*.pfx2as para IPv4, routeviews-rv6-*.pfx2as para IPv6),
+ * en texto plano o .gz. Formato por línea: {@code prefijo<TAB>longitud<TAB>asn},
+ * donde el ASN puede ser multi-origen ("4826_38803") o un AS-set ("4826,38803").
+ */
+@ApplicationScoped
+public class AsnPrefixTable {
+
+    private static final Logger LOG = Logger.getLogger(AsnPrefixTable.class);
+
+    @ConfigProperty(name = "asn.prefix-table.ipv4-path", defaultValue = "data/routeviews-rv2.pfx2as.gz")
+    String ipv4Path;
+
+    @ConfigProperty(name = "asn.prefix-table.ipv6-path", defaultValue = "data/routeviews-rv6.pfx2as.gz")
+    String ipv6Path;
+
+    // ASN → prefijos anunciados ("8.8.8.0/24", "2001:4860::/32")
+    private Map<Long, List<String>> prefixesByAsn = Map.of();
+
+    @PostConstruct
+    void init() {
+        Map<Long, List<String>> index = new HashMap<>();
+        int loaded = load(ipv4Path, index) + load(ipv6Path, index);
+        prefixesByAsn = index;
+        if (loaded > 0) {
+            LOG.infof("Tabla prefix2as cargada: %d prefijos de %d ASN", loaded, index.size());
+        }
+    }
+
+    /**
+     * true si hay al menos un volcado prefix2as cargado
+     */
+    public boolean isLoaded() {
+        return !prefixesByAsn.isEmpty();
+    }
+
+    /**
+     * Prefijos IPv4 e IPv6 anunciados por el ASN (vacío si no se conoce)
+     */
+    public List<String> prefixesOf(long asn) {
+        return prefixesByAsn.getOrDefault(asn, List.of());
+    }
+
+    /**
+     * Convierte "AS15169" (o "15169") a número
+     */
+    public static long parseAsn(String value) {
+        String text = value.trim();
+        if (text.regionMatches(true, 0, "AS", 0, 2)) {
+            text = text.substring(2);
+        }
+        return Long.parseLong(text);
+    }
+
+    private int load(String path, Map<Long, List<String>> index) {
+        Path file = Path.of(path);
+        if (!Files.isRegularFile(file)) {
+            LOG.warnf("⚠️ No se encontró la tabla prefix2as: %s - el análisis por ASN no estará disponible", path);
+            return 0;
+        }
+
+        int count = 0;
+        try (InputStream raw = Files.newInputStream(file);
+             InputStream in = path.endsWith(".gz") ? new GZIPInputStream(raw) : raw;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split("\t");
+                if (columns.length < 3) {
+                    continue;
+                }
+                String prefix = columns[0] + "/" + columns[1];
+                // Multi-origen o AS-set: el prefijo pertenece a cada uno de los ASN
+                for (String asn : columns[2].split("[_,]")) {
+                    try {
+                        index.computeIfAbsent(Long.parseLong(asn), k -> new ArrayList<>()).add(prefix);
+                    } catch (NumberFormatException e) {
+                        LOG.debugf("ASN no numérico en prefix2as: %s", line);
+                    }
+                }
+                count++;
+            }
+        } catch (Exception e) {
+            LOG.warnf(e, "Error cargando tabla prefix2as: %s", path);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,487 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.Protocol;
+import com.diagseg.analysis.dto.ServiceDto;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Identificación de servicios por su banner, sin Nmap.
+ *
+ * Cada puerto se sondea en un hilo virtual con un plazo total estricto:
+ * - Protocolos que saludan al conectar: SSH (cadena de identificación),
+ *   SMTP/FTP (saludo 220), POP3/IMAP y MySQL/MariaDB (handshake).
+ * - Protocolos en los que habla el cliente: HTTP (HEAD, cabecera Server) y
+ *   Redis (INFO server). Un puerto desconocido que no saluda se prueba como HTTP.
+ *
+ * Los productos se nombran como los reporta Nmap, así el diccionario de
+ * {@link CpeResolver} los traduce a CPE igual que los de -sV. Lo que no se
+ * identifica (TLS, protocolos sin sonda) queda para -sV.
+ */
+@ApplicationScoped
+public class BannerGrabber {
+
+    private static final Logger LOG = Logger.getLogger(BannerGrabber.class);
+
+    // Puertos en los que el cliente habla primero
+    private static final Set<Integer> HTTP_PORTS = Set.of(80, 3000, 5000, 8000, 8008, 8080, 8081, 8888, 9200);
+    private static final int REDIS_PORT = 6379;
+    // TLS: sin handshake no hay nada que leer; se dejan para -sV
+    private static final Set<Integer> TLS_PORTS = Set.of(443, 465, 636, 993, 995, 8443);
+
+    private static final Set<Integer> FTP_PORTS = Set.of(21, 2121);
+    private static final Set<Integer> SMTP_PORTS = Set.of(25, 587, 2525);
+
+    // Tras los primeros bytes solo se espera un momento al resto de la respuesta
+    private static final int TRAILING_READ_MILLIS = 200;
+    private static final int MAX_BANNER_LENGTH = 200;
+
+    private static final Pattern EXIM = Pattern.compile("\\bExim (\\d[\\w.]*)");
+    private static final Pattern SENDMAIL = Pattern.compile("\\bSendmail (\\d[\\d.]*)");
+    private static final Pattern VSFTPD = Pattern.compile("\\(vsFTPd (\\d[\\w.]*)\\)");
+    private static final Pattern PROFTPD = Pattern.compile("\\bProFTPD (\\d[\\w.]*)");
+    private static final Pattern FILEZILLA = Pattern.compile("\\bFileZilla Server (?:version )?(\\d[\\w.]*)");
+    private static final Pattern REDIS_VERSION = Pattern.compile("redis_version:([\\w.]+)");
+    private static final Pattern SERVER_HEADER = Pattern.compile("(?im)^Server:[ \\t]*(.+?)\\r?$");
+    private static final Pattern SERVER_PRODUCT = Pattern.compile("^([A-Za-z][\\w.-]*)(?:[/(]v?(\\d[\\w.-]*))?");
+
+    // Cabecera Server (minúsculas) → producto de Nmap
+    private static final Map<String, String> HTTP_PRODUCTS = Map.ofEntries(
+        Map.entry("apache", "Apache httpd"),
+        Map.entry("nginx", "nginx"),
+        Map.entry("microsoft-iis", "Microsoft IIS httpd"),
+        Map.entry("lighttpd", "lighttpd"),
+        Map.entry("openresty", "OpenResty web app server"),
+        Map.entry("caddy", "Caddy httpd"),
+        Map.entry("gunicorn", "Gunicorn"),
+        Map.entry("werkzeug", "Werkzeug httpd"),
+        Map.entry("tornadoserver", "Tornado httpd"),
+        Map.entry("squid", "Squid http proxy"),
+        Map.entry("jetty", "Jetty"),
+        Map.entry("apache-coyote", "Apache Tomcat/Coyote JSP engine")
+    );
+
+    @ConfigProperty(name = "banner.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "banner.timeout-millis", defaultValue = "2000")
+    int timeoutMillis;
+
+    @ConfigProperty(name = "banner.greeting-wait-millis", defaultValue = "700")
+    int greetingWaitMillis;
+
+    @ConfigProperty(name = "banner.max-bytes", defaultValue = "4096")
+    int maxBytes;
+
+    @ConfigProperty(name = "banner.max-concurrent", defaultValue = "1000")
+    int maxConcurrent;
+
+    @Inject
+    NmapService nmapService;
+
+    private ExecutorService executor;
+    private Semaphore permits;
+
+    /**
+     * Servicio identificado en un puerto
+     *
+     * @param service     Nombre del servicio ("ssh", "http"), o null si no se reconoce el protocolo
+     * @param product     Producto con el nombre que usa Nmap, o null si no se identificó
+     * @param version     Versión, si el servicio la anuncia
+     * @param banner      Línea relevante de la respuesta (saludo, cabecera Server)
+     * @param fingerprint Huella para detectar cambios en el análisis incremental
+     */
+    public record Banner(String service, String product, String version, String banner, String fingerprint) {
+
+        /**
+         * Producto reconocido: -sV no aportaría más
+         */
+        public boolean identified() {
+            return product != null;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("banner-", 0).factory());
+        permits = new Semaphore(maxConcurrent);
+        if (enabled) {
+            LOG.infof("Identificación por banner: hasta %d sondas simultáneas, plazo %d ms", maxConcurrent, timeoutMillis);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Si los banners sustituyen a -sV en los servicios que identifican. Las
+     * huellas del análisis incremental se toman igualmente.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    int timeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Sondea varios puertos del host en paralelo
+     *
+     * @return Banner por puerto; no incluye los puertos a los que no se pudo conectar
+     */
+    public CompletableFuture<Map<Integer, Banner>> grabAll(String host, Collection<Integer> ports) {
+        Map<Integer, CompletableFuture<Banner>> probes = new LinkedHashMap<>();
+        for (Integer port : ports) {
+            probes.put(port, CompletableFuture.supplyAsync(() -> grab(host, port), executor));
+        }
+        return CompletableFuture.allOf(probes.values().toArray(CompletableFuture[]::new)).thenApply(done -> {
+            Map<Integer, Banner> banners = new LinkedHashMap<>();
+            probes.forEach((port, probe) -> {
+                Banner banner = probe.join();
+                if (banner != null) {
+                    banners.put(port, banner);
+                }
+            });
+            return banners;
+        });
+    }
+
+    /**
+     * Sondea un puerto TCP dentro del plazo banner.timeout-millis
+     *
+     * @return Banner (sin producto si no se identificó), o null si no se pudo conectar
+     */
+    public Banner grab(String host, int port) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                LOG.debugf("Sin hueco para sondear %s:%d", host, port);
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), remainingMillis(deadline));
+            if (TLS_PORTS.contains(port)) {
+                return new Banner(null, null, null, null, ServiceFingerprinter.SILENT);
+            }
+            byte[] response;
+            if (HTTP_PORTS.contains(port)) {
+                response = request(socket, httpRequest(host), deadline, BannerGrabber::httpComplete);
+            } else if (port == REDIS_PORT) {
+                response = request(socket, "INFO server\r\n".getBytes(StandardCharsets.US_ASCII), deadline,
+                    BannerGrabber::redisComplete);
+            } else {
+                long greetingDeadline = Math.min(deadline,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(greetingWaitMillis));
+                response = read(socket, greetingDeadline, BannerGrabber::greetingComplete);
+                if (response.length == 0) {
+                    // No saluda: la mayoría de servicios desconocidos que esperan al cliente son HTTP
+                    response = request(socket, httpRequest(host), deadline, BannerGrabber::httpComplete);
+                }
+            }
+            return identify(port, response);
+        } catch (IOException e) {
+            LOG.debugf("Sin banner de %s:%d: %s", host, port, e.getMessage());
+            return null;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Servicio a partir de un banner identificado, como lo habría reportado Nmap
+     */
+    public ServiceDto toService(String host, int port, Banner banner) {
+        ServiceDto service = new ServiceDto();
+        service.host = host;
+        service.port = port;
+        service.protocol = Protocol.TCP;
+        service.service = banner.service() != null ? banner.service() : "unknown";
+        service.version = banner.product() != null
+            ? banner.product() + (banner.version() != null ? " " + banner.version() : "")
+            : "Unknown";
+        service.banner = banner.banner();
+        service.fingerprint = banner.fingerprint();
+        service.vulnerabilities = new ArrayList<>();
+        service.riskLevel = nmapService.calculateRiskLevel(port, service.service);
+        return service;
+    }
+
+    private byte[] request(Socket socket, byte[] request, long deadline, Predicate<byte[]> complete)
+            throws IOException {
+        socket.getOutputStream().write(request);
+        socket.getOutputStream().flush();
+        return read(socket, deadline, complete);
+    }
+
+    /**
+     * Lee hasta que la respuesta está completa, maxBytes, el cierre de la
+     * conexión o el plazo; tras los primeros bytes se espera poco al resto
+     */
+    private byte[] read(Socket socket, long deadline, Predicate<byte[]> complete) throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        InputStream in = socket.getInputStream();
+        byte[] buffer = new byte[Math.min(maxBytes, 4096)];
+        try {
+            while (response.size() < maxBytes) {
+                int wait = remainingMillis(deadline);
+                if (response.size() > 0) {
+                    wait = Math.min(wait, TRAILING_READ_MILLIS);
+                }
+                socket.setSoTimeout(wait);
+                int read = in.read(buffer, 0, Math.min(buffer.length, maxBytes - response.size()));
+                if (read < 0) {
+                    break;
+                }
+                response.write(buffer, 0, read);
+                if (complete.test(response.toByteArray())) {
+                    break;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // Plazo agotado: se usa lo recibido
+        }
+        return response.toByteArray();
+    }
+
+    private static int remainingMillis(long deadline) throws SocketTimeoutException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Plazo de la sonda agotado");
+        }
+        return (int) remaining;
+    }
+
+    private static byte[] httpRequest(String host) {
+        String hostHeader = host.indexOf(':') >= 0 ? "[" + host + "]" : host;
+        return ("HEAD / HTTP/1.0\r\nHost: " + hostHeader + "\r\nUser-Agent: DiagSEG\r\nAccept: */*\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static boolean greetingComplete(byte[] data) {
+        if (isMysqlPacket(data)) {
+            return data.length >= packetLength(data) + 4;
+        }
+        for (byte b : data) {
+            if (b == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean httpComplete(byte[] data) {
+        return new String(data, StandardCharsets.ISO_8859_1).contains("\r\n\r\n");
+    }
+
+    private static boolean redisComplete(byte[] data) {
+        String text = new String(data, StandardCharsets.ISO_8859_1);
+        if (text.startsWith("$")) {
+            int lineEnd = text.indexOf("\r\n");
+            if (lineEnd < 0) {
+                return false;
+            }
+            try {
+                return data.length >= lineEnd + 2 + Integer.parseInt(text.substring(1, lineEnd)) + 2;
+            } catch (NumberFormatException e) {
+                return true;
+            }
+        }
+        return text.contains("\r\n");
+    }
+
+    /**
+     * Identifica el servicio a partir de la respuesta recibida
+     */
+    static Banner identify(int port, byte[] data) {
+        String text = new String(data, StandardCharsets.ISO_8859_1);
+        String line = firstLine(text);
+
+        if (text.startsWith("SSH-")) {
+            return ssh(line);
+        }
+        if (text.startsWith("HTTP/")) {
+            return http(text, line);
+        }
+        if (isMysqlPacket(data)) {
+            return mysql(data);
+        }
+        if (text.contains("redis_version:") || text.startsWith("-NOAUTH") || text.startsWith("-DENIED")) {
+            Matcher version = REDIS_VERSION.matcher(text);
+            return identified("redis", "Redis key-value store", version.find() ? version.group(1) : null, null);
+        }
+        if (line.startsWith("220")) {
+            return smtpOrFtp(port, line);
+        }
+        if (line.startsWith("+OK")) {
+            return line.contains("Dovecot") ? identified("pop3", "Dovecot pop3d", null, line) : unidentified("pop3", data);
+        }
+        if (line.startsWith("* OK")) {
+            return line.contains("Dovecot") ? identified("imap", "Dovecot imapd", null, line) : unidentified("imap", data);
+        }
+        return unidentified(null, data);
+    }
+
+    /**
+     * "SSH-2.0-OpenSSH_8.9p1 Ubuntu-3ubuntu0.6"
+     */
+    private static Banner ssh(String line) {
+        String software = line.replaceFirst("^SSH-[\\d.]+-", "");
+        int space = software.indexOf(' ');
+        String name = space >= 0 ? software.substring(0, space) : software;
+        if (name.startsWith("OpenSSH_")) {
+            return identified("ssh", "OpenSSH", name.substring("OpenSSH_".length()), line);
+        }
+        if (name.toLowerCase(Locale.ROOT).startsWith("dropbear_")) {
+            return identified("ssh", "Dropbear sshd", name.substring("dropbear_".length()), line);
+        }
+        return unidentified("ssh", line.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Cabecera Server: "nginx/1.18.0 (Ubuntu)", "Apache", "Jetty(9.4.44.v20210927)"
+     */
+    private static Banner http(String text, String statusLine) {
+        Matcher header = SERVER_HEADER.matcher(text);
+        if (!header.find()) {
+            return unidentified("http", statusLine.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        String server = header.group(1).trim();
+        Matcher product = SERVER_PRODUCT.matcher(server);
+        if (!product.find()) {
+            return unidentified("http", server.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        String name = product.group(1);
+        String known = HTTP_PRODUCTS.get(name.toLowerCase(Locale.ROOT));
+        // Un Server desconocido ("cloudflare") también identifica el producto: -sV no sabría más
+        return identified("http", known != null ? known : name, product.group(2), "Server: " + server);
+    }
+
+    /**
+     * Handshake v10 (versión terminada en NUL) o paquete de error (host no autorizado)
+     */
+    private static Banner mysql(byte[] data) {
+        if ((data[4] & 0xff) == 0xff) {
+            // Código de error (2 bytes) sin mensaje: paquete truncado
+            if (data.length <= 7) {
+                return unidentified("mysql", data);
+            }
+            String message = new String(data, 7, Math.max(0, Math.min(data.length, packetLength(data) + 4) - 7),
+                StandardCharsets.ISO_8859_1).replaceFirst("^#\\w{5}", "");
+            String product = message.contains("MariaDB") ? "MariaDB" : "MySQL";
+            return identified("mysql", product, null, message.trim());
+        }
+        int end = 5;
+        while (end < data.length && data[end] != 0) {
+            end++;
+        }
+        String serverVersion = new String(data, 5, end - 5, StandardCharsets.ISO_8859_1);
+        if (serverVersion.isBlank()) {
+            return unidentified("mysql", data);
+        }
+        if (serverVersion.contains("MariaDB")) {
+            // "5.5.5-10.11.6-MariaDB-0+deb12u1": el prefijo 5.5.5- es por compatibilidad
+            String version = serverVersion.replaceFirst("^5\\.5\\.5-", "");
+            int dash = version.indexOf('-');
+            return identified("mysql", "MariaDB", dash > 0 ? version.substring(0, dash) : null, serverVersion);
+        }
+        int dash = serverVersion.indexOf('-');
+        return identified("mysql", "MySQL", dash > 0 ? serverVersion.substring(0, dash) : serverVersion, serverVersion);
+    }
+
+    private static Banner smtpOrFtp(int port, String line) {
+        boolean ftp = FTP_PORTS.contains(port)
+            || (!SMTP_PORTS.contains(port) && line.toUpperCase(Locale.ROOT).contains("FTP"));
+        Matcher matcher;
+        if (ftp) {
+            if ((matcher = VSFTPD.matcher(line)).find()) {
+                return identified("ftp", "vsftpd", matcher.group(1), line);
+            }
+            if ((matcher = PROFTPD.matcher(line)).find()) {
+                return identified("ftp", "ProFTPD", matcher.group(1), line);
+            }
+            if ((matcher = FILEZILLA.matcher(line)).find()) {
+                return identified("ftp", "FileZilla ftpd", matcher.group(1), line);
+            }
+            if (line.contains("Pure-FTPd")) {
+                return identified("ftp", "Pure-FTPd", null, line);
+            }
+            return unidentified("ftp", line.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        if (line.contains("ESMTP Postfix")) {
+            return identified("smtp", "Postfix smtpd", null, line);
+        }
+        if ((matcher = EXIM.matcher(line)).find()) {
+            return identified("smtp", "Exim smtpd", matcher.group(1), line);
+        }
+        if ((matcher = SENDMAIL.matcher(line)).find()) {
+            return identified("smtp", "Sendmail", matcher.group(1), line);
+        }
+        return unidentified(line.toUpperCase(Locale.ROOT).contains("SMTP") || SMTP_PORTS.contains(port) ? "smtp" : null,
+            line.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Huella a partir de la identidad del servicio: no cambia con fechas ni
+     * identificadores de sesión del saludo
+     */
+    private static Banner identified(String service, String product, String version, String banner) {
+        String shortBanner = banner != null && banner.length() > MAX_BANNER_LENGTH
+            ? banner.substring(0, MAX_BANNER_LENGTH) : banner;
+        String identity = service + "|" + product + "|" + version + "|"
+            + (banner != null ? ServiceFingerprinter.normalize(banner.getBytes(StandardCharsets.ISO_8859_1)) : "");
+        return new Banner(service, product, version, shortBanner, ServiceFingerprinter.hash(identity));
+    }
+
+    private static Banner unidentified(String service, byte[] response) {
+        return new Banner(service, null, null, null, ServiceFingerprinter.fingerprintOf(response));
+    }
+
+    private static boolean isMysqlPacket(byte[] data) {
+        // Cabecera de 3 bytes de longitud + secuencia 0, seguida de protocolo 10 o de un error (0xff)
+        return data.length >= 5 && data[3] == 0 && (data[4] == 10 || (data[4] & 0xff) == 0xff)
+            && packetLength(data) > 0 && packetLength(data) < 1024;
+    }
+
+    private static int packetLength(byte[] data) {
+        return (data[0] & 0xff) | (data[1] & 0xff) << 8 | (data[2] & 0xff) << 16;
+    }
+
+    private static String firstLine(String text) {
+        int end = text.indexOf('\n');
+        return (end >= 0 ? text.substring(0, end) : text).replace("\r", "").trim();
+    }
+}
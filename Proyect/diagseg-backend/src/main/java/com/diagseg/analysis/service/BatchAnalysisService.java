@@ -0,0 +1,405 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.AnalysisRequest;
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.diagseg.analysis.dto.BatchAnalysisRequest;
+import com.diagseg.analysis.dto.BatchAnalysisResult;
+import com.diagseg.analysis.dto.BatchItemResultDto;
+import com.diagseg.analysis.dto.BatchTimingDto;
+import com.diagseg.analysis.dto.ErrorResponse;
+import com.diagseg.analysis.dto.GeolocationDto;
+import com.diagseg.analysis.dto.ServiceDto;
+import com.diagseg.analysis.dto.TargetType;
+import com.diagseg.analysis.dto.VulnerabilityDto;
+import com.diagseg.analysis.exception.InvalidInputException;
+import com.diagseg.analysis.exception.ServiceException;
+import com.diagseg.analysis.exception.StageTimeoutException;
+import com.diagseg.analysis.validation.InputValidator;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Análisis de muchos objetivos (IPs y dominios) en una sola petición.
+ *
+ * - Los dominios se resuelven en paralelo y los objetivos que apuntan a la
+ *   misma IP se escanean una sola vez.
+ * - Las IPs se agrupan de a batch.hosts-per-scan en cada proceso Nmap, así el
+ *   arranque de Nmap y la carga de sondas se pagan una vez por grupo.
+ * - Todas las consultas NVD comparten un lote: cada CPE se consulta una vez.
+ * - Cada host se enriquece en cuanto Nmap termina con él.
+ *
+ * Los errores de un objetivo (entrada inválida, DNS, escaneo) se devuelven en
+ * su entrada sin abortar el resto del lote.
+ */
+@ApplicationScoped
+public class BatchAnalysisService {
+
+    private static final Logger LOG = Logger.getLogger(BatchAnalysisService.class);
+
+    @ConfigProperty(name = "batch.max-targets", defaultValue = "500")
+    int maxTargets;
+
+    @ConfigProperty(name = "batch.hosts-per-scan", defaultValue = "16")
+    int hostsPerScan;
+
+    @ConfigProperty(name = "batch.parallel-scans", defaultValue = "2")
+    int parallelScans;
+
+    @ConfigProperty(name = "batch.timeout-seconds", defaultValue = "1800")
+    int batchTimeoutSeconds;
+
+    @ConfigProperty(name = "analysis.stages.geolocation-timeout-seconds", defaultValue = "5")
+    int geolocationTimeoutSeconds;
+
+    @ConfigProperty(name = "analysis.stages.asn-timeout-seconds", defaultValue = "20")
+    int asnTimeoutSeconds;
+
+    @Inject
+    InputValidator inputValidator;
+
+    @Inject
+    AnalysisService analysisService;
+
+    @Inject
+    NmapScanScheduler nmapScanScheduler;
+
+    @Inject
+    NVDService nvdService;
+
+    @Inject
+    DnsResolverService dnsResolverService;
+
+    @Inject
+    GeolocationService geolocationService;
+
+    @Inject
+    ASNService asnService;
+
+    @Inject
+    AnalysisStageExecutor stageExecutor;
+
+    @Inject
+    AnalysisHistoryStore historyStore;
+
+    public BatchAnalysisResult analyze(BatchAnalysisRequest request) {
+        if (request == null || request.targets == null || request.targets.isEmpty()) {
+            throw new InvalidInputException("El lote debe incluir al menos un objetivo (targets)");
+        }
+        if (request.targets.size() > maxTargets) {
+            throw new InvalidInputException(
+                "El lote tiene " + request.targets.size() + " objetivos; el máximo es " + maxTargets);
+        }
+
+        long start = System.currentTimeMillis();
+        long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(batchTimeoutSeconds);
+        List<String> warnings = new ArrayList<>();
+
+        // 1. Validar cada objetivo; los inválidos quedan con su error
+        List<BatchItem> items = new ArrayList<>(request.targets.size());
+        for (AnalysisRequest target : request.targets) {
+            BatchItem item = new BatchItem(target);
+            items.add(item);
+            try {
+                inputValidator.validate(target);
+                if (target.type == TargetType.ASN || target.type == TargetType.CIDR) {
+                    throw new InvalidInputException(
+                        "Los objetivos de tipo " + target.type + " no se admiten en lotes; use /api/analysis/analyze");
+                }
+            } catch (RuntimeException e) {
+                item.error = AnalysisJobService.errorOf(e);
+            }
+        }
+
+        // 2. Resolver los dominios en paralelo (una vez por dominio distinto)
+        long dnsStart = System.currentTimeMillis();
+        resolveTargets(items);
+        long dnsMillis = System.currentTimeMillis() - dnsStart;
+
+        Set<String> hosts = new LinkedHashSet<>();
+        for (BatchItem item : items) {
+            if (item.error == null) {
+                hosts.add(item.ip);
+            }
+        }
+        LOG.infof("Lote de %d objetivos: %d hosts distintos", items.size(), hosts.size());
+
+        // 3. Escanear en grupos y enriquecer cada host en cuanto termina
+        long scanStart = System.currentTimeMillis();
+        NvdQueryBatch nvdBatch = nvdService.newBatch();
+        Map<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>> lookups =
+            Collections.synchronizedMap(new LinkedHashMap<>());
+        Consumer<ServiceDto> submitNvdLookup = analysisService.nvdSubmitter(nvdBatch, lookups, AnalysisListener.NONE);
+
+        // GeoLite2 y ASN no dependen de Nmap: se lanzan ya para todos los hosts
+        Map<String, HostStages> stages = new LinkedHashMap<>();
+        for (String host : hosts) {
+            stages.put(host, new HostStages(
+                stageExecutor.start("geolocation", Duration.ofSeconds(geolocationTimeoutSeconds),
+                    () -> geolocationService.resolve(host)),
+                stageExecutor.start("asn", Duration.ofSeconds(asnTimeoutSeconds),
+                    () -> asnService.getASNInfo(host))));
+        }
+
+        Map<String, HostAnalysis> analyzed = new ConcurrentHashMap<>();
+        Map<String, RuntimeException> scanFailures = new ConcurrentHashMap<>();
+        List<CompletableFuture<List<ServiceDto>>> scans = new ArrayList<>();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        Semaphore slots = new Semaphore(parallelScans);
+        boolean timedOut = false;
+
+        for (List<String> group : groupHosts(hosts)) {
+            if (!acquire(slots, deadlineNanos)) {
+                timedOut = true;
+                break;
+            }
+            HostPipeline pipeline = new HostPipeline(stageExecutor.executor(), (host, services) -> {
+                HostStages hostStages = stages.get(host);
+                if (hostStages != null) {
+                    analyzed.put(host, analyzeHost(services, lookups, hostStages));
+                }
+            });
+            CompletableFuture<List<ServiceDto>> scan;
+            try {
+                scan = nmapScanScheduler.submit(String.join(" ", group),
+                    service -> {
+                        // Misma forma de la IP que en la petición
+                        service.host = canonical(service.host);
+                        submitNvdLookup.accept(service);
+                        pipeline.serviceDetected(service);
+                    },
+                    host -> pipeline.hostScanned(canonical(host)));
+            } catch (ServiceException e) {
+                slots.release();
+                group.forEach(host -> scanFailures.put(host, e));
+                continue;
+            }
+            scans.add(scan);
+            pending.add(scan
+                .whenComplete((services, error) -> slots.release())
+                .handle((services, error) -> {
+                    if (error != null) {
+                        LOG.warnf("Escaneo del grupo [%s] falló: %s", String.join(" ", group), error.getMessage());
+                        // Cancelado por el plazo del lote: esos hosts se reportan como timeout
+                        if (!(error instanceof CancellationException)) {
+                            RuntimeException failure = error.getCause() instanceof RuntimeException re ? re
+                                : error instanceof RuntimeException re ? re : new RuntimeException(error);
+                            group.forEach(host -> scanFailures.put(host, failure));
+                        }
+                        // Los hosts que Nmap llegó a terminar conservan su resultado
+                        return pipeline.finish(List.of());
+                    }
+                    // Nmap solo reporta hosts con puertos abiertos: el resto también lleva resultado
+                    return pipeline.finish(group);
+                })
+                .thenCompose(hostsDone -> hostsDone));
+        }
+
+        try {
+            long remaining = Math.max(0, deadlineNanos - System.nanoTime());
+            stageExecutor.track("batch", Duration.ofNanos(remaining),
+                CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new))).join();
+        } catch (StageTimeoutException e) {
+            timedOut = true;
+            scans.forEach(scan -> scan.cancel(true));
+        }
+        if (timedOut) {
+            warnings.add(String.format("El lote excedió su plazo de %d segundos: resultados parciales",
+                batchTimeoutSeconds));
+        }
+        long scanMillis = System.currentTimeMillis() - scanStart;
+
+        // 4. Un resultado por objetivo (varios objetivos pueden compartir host)
+        boolean cached = nvdBatch.fullyCached();
+        List<BatchItemResultDto> results = new ArrayList<>(items.size());
+        int failed = 0;
+        for (BatchItem item : items) {
+            BatchItemResultDto dto = new BatchItemResultDto();
+            dto.query = item.request != null ? item.request.query : null;
+            dto.type = item.request != null ? item.request.type : null;
+            if (item.error == null) {
+                HostAnalysis host = analyzed.get(item.ip);
+                if (host != null) {
+                    dto.result = buildResult(item, host, start);
+                    AnalysisResult fresh = dto.result;
+                    stageExecutor.executor().execute(() -> historyStore.append(fresh, fresh.ip, fresh.domain));
+                } else {
+                    RuntimeException failure = scanFailures.get(item.ip);
+                    dto.error = failure != null ? AnalysisJobService.errorOf(failure) : new ErrorResponse(
+                        "El escaneo está tardando demasiado tiempo",
+                        String.format("El lote excedió su plazo de %d segundos antes de analizar %s",
+                            batchTimeoutSeconds, item.ip),
+                        ServiceException.ErrorCode.NMAP_TIMEOUT.toString());
+                }
+            } else {
+                dto.error = item.error;
+            }
+            if (dto.error != null) {
+                failed++;
+            }
+            results.add(dto);
+        }
+
+        BatchTimingDto timing = new BatchTimingDto();
+        timing.targets = items.size();
+        timing.failedTargets = failed;
+        timing.uniqueHosts = hosts.size();
+        timing.nmapInvocations = scans.size();
+        timing.uniqueCpes = nvdBatch.uniqueCpes();
+        timing.nvdFullyCached = cached;
+        timing.dnsMillis = dnsMillis;
+        timing.scanMillis = scanMillis;
+        timing.totalMillis = System.currentTimeMillis() - start;
+
+        LOG.infof("Lote completado en %d ms: %d objetivos, %d hosts, %d procesos Nmap, %d CPE, %d errores",
+            timing.totalMillis, timing.targets, timing.uniqueHosts, timing.nmapInvocations, timing.uniqueCpes, failed);
+
+        BatchAnalysisResult result = new BatchAnalysisResult();
+        result.results = results;
+        result.timing = timing;
+        result.warnings = warnings.isEmpty() ? null : warnings;
+        return result;
+    }
+
+    /**
+     * Completa la IP de cada objetivo, resolviendo cada dominio distinto una sola vez
+     */
+    private void resolveTargets(List<BatchItem> items) {
+        Map<String, CompletableFuture<String>> resolutions = new LinkedHashMap<>();
+        for (BatchItem item : items) {
+            if (item.error == null && item.request.type == TargetType.DOMAIN) {
+                String domain = item.request.query.trim().toLowerCase();
+                resolutions.computeIfAbsent(domain,
+                    d -> dnsResolverService.resolveAllAsync(d).thenApply(addresses -> addresses.get(0)));
+            }
+        }
+
+        for (BatchItem item : items) {
+            if (item.error != null) {
+                continue;
+            }
+            if (item.request.type != TargetType.DOMAIN) {
+                item.ip = canonical(item.request.query.trim());
+                continue;
+            }
+            item.domain = item.request.query.trim();
+            try {
+                item.ip = canonical(resolutions.get(item.domain.toLowerCase()).join());
+            } catch (RuntimeException e) {
+                RuntimeException cause = e.getCause() instanceof RuntimeException re ? re : e;
+                item.error = AnalysisJobService.errorOf(cause);
+            }
+        }
+    }
+
+    /**
+     * Agrupa los hosts por familia (Nmap no mezcla IPv4 e IPv6 en un proceso)
+     * en grupos de batch.hosts-per-scan
+     */
+    private List<List<String>> groupHosts(Set<String> hosts) {
+        List<String> ipv4 = new ArrayList<>();
+        List<String> ipv6 = new ArrayList<>();
+        for (String host : hosts) {
+            (host.indexOf(':') >= 0 ? ipv6 : ipv4).add(host);
+        }
+        List<List<String>> groups = new ArrayList<>();
+        for (List<String> family : List.of(ipv4, ipv6)) {
+            for (int i = 0; i < family.size(); i += hostsPerScan) {
+                groups.add(family.subList(i, Math.min(family.size(), i + hostsPerScan)));
+            }
+        }
+        return groups;
+    }
+
+    private HostAnalysis analyzeHost(List<ServiceDto> services,
+                                     Map<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>> lookups,
+                                     HostStages stages) {
+        List<String> warnings = new ArrayList<>();
+
+        Map<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>> hostLookups = new LinkedHashMap<>();
+        synchronized (lookups) {
+            for (ServiceDto service : services) {
+                AnalysisStageExecutor.Stage<List<VulnerabilityDto>> lookup = lookups.get(service);
+                if (lookup != null) {
+                    hostLookups.put(service, lookup);
+                }
+            }
+        }
+        List<String> partialFailures = new ArrayList<>();
+        List<VulnerabilityDto> vulnerabilities = analysisService.collectVulnerabilities(hostLookups, partialFailures);
+        if (!partialFailures.isEmpty()) {
+            warnings.add("Algunas vulnerabilidades pueden no estar completas debido a limitaciones del servicio NVD");
+        }
+
+        GeolocationDto geo = analysisService.joinGeolocation(stages.geolocation, warnings, AnalysisListener.NONE);
+        analysisService.applyAsnInfo(geo, stages.asn, warnings, AnalysisListener.NONE);
+        return new HostAnalysis(services, vulnerabilities, geo, warnings);
+    }
+
+    private AnalysisResult buildResult(BatchItem item, HostAnalysis host, long start) {
+        List<String> sources = new ArrayList<>();
+        if (item.domain != null) {
+            sources.add("dns");
+        }
+        sources.addAll(List.of("nmap", "nvd", "geolite2", "ipapi"));
+        return analysisService.buildResult(item.ip, item.domain, item.request.type, host.services,
+            host.vulnerabilities, host.geolocation, sources, new ArrayList<>(host.warnings),
+            start, AnalysisListener.NONE);
+    }
+
+    /**
+     * Forma canónica de una IP literal, para casar la entrada con lo que reporta Nmap
+     * ("2001:db8::1" y "2001:db8:0:0:0:0:0:1" son el mismo host)
+     */
+    private static String canonical(String ip) {
+        IpAddress address = IpAddress.tryParse(ip);
+        return address != null ? address.toString() : ip;
+    }
+
+    private static boolean acquire(Semaphore slots, long deadlineNanos) {
+        try {
+            return slots.tryAcquire(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Objetivo del lote y su IP una vez resuelto
+     */
+    private static class BatchItem {
+        final AnalysisRequest request;
+        String domain;
+        String ip;
+        ErrorResponse error;
+
+        BatchItem(AnalysisRequest request) {
+            this.request = request;
+        }
+    }
+
+    private record HostStages(AnalysisStageExecutor.Stage<GeolocationDto> geolocation,
+                              AnalysisStageExecutor.Stage<ASNService.ASNInfo> asn) {
+    }
+
+    private record HostAnalysis(List<ServiceDto> services, List<VulnerabilityDto> vulnerabilities,
+                                GeolocationDto geolocation, List<String> warnings) {
+    }
+}
@@ -0,0 +1,114 @@
+package com.diagseg.analysis.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bloque CIDR IPv4 ("203.0.113.0/24").
+ * La dirección se normaliza a la de red: "203.0.113.7/24" equivale a "203.0.113.0/24".
+ */
+public final class CidrBlock {
+
+    private final long network;   // dirección de red como entero sin signo de 32 bits
+    private final int prefixLength;
+
+    private CidrBlock(long network, int prefixLength) {
+        this.network = network;
+        this.prefixLength = prefixLength;
+    }
+
+    /**
+     * Parsea "a.b.c.d/n" (o una IP sola, que equivale a /32)
+     *
+     * @throws IllegalArgumentException si el texto no es un CIDR IPv4 válido
+     */
+    public static CidrBlock parse(String cidr) {
+        String value = cidr.trim();
+        int slash = value.indexOf('/');
+        int length = 32;
+        if (slash >= 0) {
+            length = 0;
+            for (int i = slash + 1; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < '0' || c > '9' || i - slash > 2) {
+                    throw new IllegalArgumentException("Longitud de prefijo inválida: " + cidr);
+                }
+                length = length * 10 + (c - '0');
+            }
+            if (slash == value.length() - 1) {
+                throw new IllegalArgumentException("Longitud de prefijo inválida: " + cidr);
+            }
+        }
+        if (length > 32) {
+            throw new IllegalArgumentException("Longitud de prefijo fuera de rango: " + cidr);
+        }
+        long network = IpAddress.parseIpv4(value, 0, slash >= 0 ? slash : value.length());
+        if (network < 0) {
+            throw new IllegalArgumentException("Dirección IPv4 inválida: " + value);
+        }
+        return of(network, length);
+    }
+
+    public static CidrBlock of(long address, int prefixLength) {
+        long mask = prefixLength == 0 ? 0L : (0xFFFFFFFFL << (32 - prefixLength)) & 0xFFFFFFFFL;
+        return new CidrBlock(address & mask, prefixLength);
+    }
+
+    static String formatIpv4(long address) {
+        return IpAddress.formatIpv4(address);
+    }
+
+    public int prefixLength() {
+        return prefixLength;
+    }
+
+    /**
+     * Número de direcciones del bloque
+     */
+    public long size() {
+        return 1L << (32 - prefixLength);
+    }
+
+    public String networkAddress() {
+        return formatIpv4(network);
+    }
+
+    public boolean contains(long address) {
+        return address >= network && address < network + size();
+    }
+
+    public boolean contains(IpAddress address) {
+        return address.isIpv4() && contains(address.low());
+    }
+
+    /**
+     * Divide el bloque en sub-bloques de {@code shardLength}; si ya es igual
+     * o más pequeño se devuelve tal cual
+     */
+    public List<CidrBlock> split(int shardLength) {
+        if (shardLength <= prefixLength) {
+            return List.of(this);
+        }
+        long shardSize = 1L << (32 - shardLength);
+        List<CidrBlock> shards = new ArrayList<>((int) (size() / shardSize));
+        for (long start = network; start < network + size(); start += shardSize) {
+            shards.add(new CidrBlock(start, shardLength));
+        }
+        return shards;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CidrBlock other && network == other.network && prefixLength == other.prefixLength;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(network) * 31 + prefixLength;
+    }
+
+    @Override
+    public String toString() {
+        return formatIpv4(network) + "/" + prefixLength;
+    }
+}
@@ -0,0 +1,224 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.CircuitBreakerDto;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker de un servicio externo.
+ *
+ * CLOSED: las llamadas pasan y su resultado se anota en una ventana de las
+ * últimas {@code windowSize} llamadas. Si con al menos {@code minimumCalls}
+ * el porcentaje de fallos alcanza el umbral, pasa a OPEN.
+ * OPEN: las llamadas se rechazan al instante durante {@code openDuration}.
+ * HALF_OPEN: se admiten {@code halfOpenProbes} llamadas de prueba; si todas
+ * salen bien se cierra, y con el primer fallo vuelve a abrirse.
+ *
+ * Cada permiso lleva la generación del estado en que se concedió: el
+ * resultado de una llamada admitida antes de un cambio de estado se ignora.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = Logger.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final LongSupplier nanoClock;
+
+    // Ventana circular de resultados (true = fallo)
+    private final boolean[] window;
+    private int windowCount;
+    private int windowIndex;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAtNanos;
+    private long lastOpenedAtMillis;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    private long successes;
+    private long failures;
+    private long rejected;
+    private long openedCount;
+    private long hedgedRequests;
+    private long hedgeWins;
+
+    /**
+     * @param failureRatePercent Porcentaje de fallos (1-100) que abre el circuito
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, int failureRatePercent,
+                          Duration openDuration, int halfOpenProbes) {
+        this(name, windowSize, minimumCalls, failureRatePercent, openDuration, halfOpenProbes, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock Reloj en nanosegundos (System.nanoTime salvo en tests)
+     */
+    CircuitBreaker(String name, int windowSize, int minimumCalls, int failureRatePercent,
+                   Duration openDuration, int halfOpenProbes, LongSupplier nanoClock) {
+        this.name = name;
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+        this.failureRateThreshold = Math.max(1, Math.min(failureRatePercent, 100)) / 100.0;
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        this.window = new boolean[this.windowSize];
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Pide permiso para una llamada
+     *
+     * @return Permiso para anotar el resultado, o -1 si el circuito la rechaza
+     */
+    public synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (nanoClock.getAsLong() - openedAtNanos < openNanos) {
+                rejected++;
+                return -1;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight >= halfOpenProbes) {
+                rejected++;
+                return -1;
+            }
+            probesInFlight++;
+        }
+        return generation;
+    }
+
+    public synchronized void onSuccess(long permit) {
+        successes++;
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            probesInFlight--;
+            if (++probeSuccesses >= halfOpenProbes) {
+                transition(State.CLOSED);
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure(long permit) {
+        failures++;
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            transition(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (windowCount >= minimumCalls && windowFailures >= failureRateThreshold * windowCount) {
+                transition(State.OPEN);
+            }
+        }
+    }
+
+    /**
+     * La llamada no llegó a producir un resultado atribuible al servicio
+     * (cancelada, sin presupuesto local): solo libera el hueco de prueba
+     */
+    public synchronized void onIgnored(long permit) {
+        if (permit == generation && state == State.HALF_OPEN && probesInFlight > 0) {
+            probesInFlight--;
+        }
+    }
+
+    synchronized void recordHedge(boolean won) {
+        hedgedRequests++;
+        if (won) {
+            hedgeWins++;
+        }
+    }
+
+    public synchronized State state() {
+        // Un circuito abierto cuyo plazo venció se muestra como HALF_OPEN aunque aún no haya llamadas
+        if (state == State.OPEN && nanoClock.getAsLong() - openedAtNanos >= openNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public synchronized CircuitBreakerDto stats() {
+        CircuitBreakerDto stats = new CircuitBreakerDto();
+        stats.name = name;
+        stats.state = state().name();
+        stats.callsInWindow = windowCount;
+        stats.failureRate = windowCount == 0 ? 0.0 : (double) windowFailures / windowCount;
+        stats.successes = successes;
+        stats.failures = failures;
+        stats.rejected = rejected;
+        stats.openedCount = openedCount;
+        stats.lastOpenedAt = lastOpenedAtMillis == 0 ? null : lastOpenedAtMillis;
+        if (state == State.OPEN) {
+            long remaining = openNanos - (nanoClock.getAsLong() - openedAtNanos);
+            stats.retryInSeconds = Math.max(0, (remaining + 999_999_999) / 1_000_000_000);
+        }
+        stats.hedgedRequests = hedgedRequests;
+        stats.hedgeWins = hedgeWins;
+        return stats;
+    }
+
+    private void record(boolean failure) {
+        if (windowCount == windowSize) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % windowSize;
+    }
+
+    private void transition(State next) {
+        State previous = state;
+        state = next;
+        generation++;
+        probesInFlight = 0;
+        probeSuccesses = 0;
+        switch (next) {
+            case OPEN -> {
+                openedAtNanos = nanoClock.getAsLong();
+                lastOpenedAtMillis = System.currentTimeMillis();
+                openedCount++;
+                LOG.warnf("Circuito de %s abierto (%s): se rechazan las llamadas durante %d s",
+                    name, previous == State.HALF_OPEN ? "falló la prueba" : String.format(
+                        "%d de %d llamadas fallidas", windowFailures, windowCount),
+                    TimeUnit.NANOSECONDS.toSeconds(openNanos));
+            }
+            case HALF_OPEN -> LOG.infof("Circuito de %s semiabierto: probando con %d llamadas", name, halfOpenProbes);
+            case CLOSED -> {
+                windowCount = 0;
+                windowIndex = 0;
+                windowFailures = 0;
+                LOG.infof("Circuito de %s cerrado: el servicio responde de nuevo", name);
+            }
+        }
+    }
+}
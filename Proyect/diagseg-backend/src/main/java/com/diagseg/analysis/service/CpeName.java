@@ -0,0 +1,80 @@
+package com.diagseg.analysis.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Nombre CPE 2.3 ya separado en sus componentes.
+ * Formato: cpe:2.3:part:vendor:product:version:update:edition:language:sw_edition:target_sw:target_hw:other
+ */
+public class CpeName {
+
+    public final String part;
+    public final String vendor;
+    public final String product;
+    public final String version;
+    public final String update;
+
+    public CpeName(String part, String vendor, String product, String version, String update) {
+        this.part = part;
+        this.vendor = vendor;
+        this.product = product;
+        this.version = version;
+        this.update = update;
+    }
+
+    /**
+     * Parsea un CPE 2.3 formateado. Respeta los separadores escapados ("\:").
+     *
+     * @return el CPE separado o null si el texto no es un CPE 2.3 válido
+     */
+    public static CpeName parse(String cpe) {
+        if (cpe == null) {
+            return null;
+        }
+        List<String> parts = split(cpe.trim().toLowerCase(Locale.ROOT));
+        if (parts.size() < 6 || !"cpe".equals(parts.get(0)) || !"2.3".equals(parts.get(1))) {
+            return null;
+        }
+        String update = parts.size() > 6 ? parts.get(6) : "*";
+        return new CpeName(parts.get(2), parts.get(3), parts.get(4), parts.get(5), update);
+    }
+
+    /**
+     * Clave "vendor:product" usada para indexar
+     */
+    public String productKey() {
+        return vendor + ":" + product;
+    }
+
+    /**
+     * true si la versión es concreta (no "*" ni "-")
+     */
+    public boolean hasVersion() {
+        return version != null && !version.isEmpty() && !"*".equals(version) && !"-".equals(version);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cpe:2.3:%s:%s:%s:%s:%s:*:*:*:*:*:*", part, vendor, product, version, update);
+    }
+
+    private static List<String> split(String cpe) {
+        List<String> parts = new ArrayList<>(13);
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < cpe.length(); i++) {
+            char c = cpe.charAt(i);
+            if (c == '\\' && i + 1 < cpe.length()) {
+                current.append(cpe.charAt(++i));
+            } else if (c == ':') {
+                parts.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        parts.add(current.toString());
+        return parts;
+    }
+}
@@ -0,0 +1,236 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.ServiceDto;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resuelve el CPE 2.3 de un servicio detectado por Nmap para consultar NVD.
+ *
+ * Orden de preferencia:
+ * 1. El CPE que reporta el propio Nmap ({@code <cpe>} del servicio).
+ * 2. El diccionario producto Nmap → vendor:product (incluido en el classpath
+ *    y ampliable con {@code cpe.dictionary-path}).
+ *
+ * Solo devuelve CPE con versión concreta: un CPE sin versión, o de un
+ * producto que la réplica local de NVD no conoce, nunca tendría coincidencias
+ * y solo gastaría presupuesto de peticiones.
+ */
+@ApplicationScoped
+public class CpeResolver {
+
+    private static final Logger LOG = Logger.getLogger(CpeResolver.class);
+
+    private static final String BUNDLED_DICTIONARY = "cpe/product-dictionary.tsv";
+
+    // Versión al inicio del texto: "2.4.41", "8.9p1", "1.1.1k"
+    private static final Pattern VERSION_TOKEN = Pattern.compile("(\\d+(?:\\.\\d+)*)([a-z][a-z0-9]*)?");
+
+    @ConfigProperty(name = "cpe.dictionary-path")
+    Optional<String> dictionaryPath;
+
+    @Inject
+    NvdMirrorService mirror;
+
+    // Producto Nmap (minúsculas) → entrada del diccionario
+    private final Map<String, DictionaryEntry> byNmapProduct = new HashMap<>();
+
+    // vendor:product → entrada (para aplicar opciones a los CPE que trae Nmap)
+    private final Map<String, DictionaryEntry> byCpeProduct = new HashMap<>();
+
+    private int maxProductWords = 1;
+
+    @PostConstruct
+    void init() {
+        try (InputStream in = Thread.currentThread().getContextClassLoader()
+                .getResourceAsStream(BUNDLED_DICTIONARY)) {
+            if (in == null) {
+                LOG.warnf("⚠️ No se encontró el diccionario CPE en el classpath: %s", BUNDLED_DICTIONARY);
+            } else {
+                loadDictionary(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
+        } catch (Exception e) {
+            LOG.warnf(e, "Error cargando diccionario CPE del classpath");
+        }
+
+        dictionaryPath.filter(p -> !p.isBlank()).ifPresent(path -> {
+            try (Reader reader = Files.newBufferedReader(Path.of(path), StandardCharsets.UTF_8)) {
+                loadDictionary(reader);
+            } catch (Exception e) {
+                LOG.warnf(e, "Error cargando diccionario CPE adicional: %s", path);
+            }
+        });
+
+        LOG.infof("Diccionario CPE cargado: %d productos Nmap", byNmapProduct.size());
+    }
+
+    /**
+     * Resuelve el CPE 2.3 de un servicio
+     *
+     * @return CPE 2.3 con versión concreta, o null si no se puede construir uno útil
+     */
+    public String resolve(ServiceDto service) {
+        if (service == null || service.version == null || "Unknown".equals(service.version)) {
+            return null;
+        }
+
+        // Separar "Apache httpd 2.4.41 ((Ubuntu))" en producto conocido y resto
+        ProductMatch productMatch = matchProduct(service.version);
+
+        String vendor;
+        String product;
+        String versionText;
+
+        CpeName nmapCpe = parseNmapCpe(service.cpe);
+        if (nmapCpe != null) {
+            vendor = nmapCpe.vendor;
+            product = nmapCpe.product;
+            versionText = nmapCpe.hasVersion() ? nmapCpe.version
+                : (productMatch != null ? productMatch.remainder : null);
+        } else if (productMatch != null) {
+            vendor = productMatch.entry.vendor;
+            product = productMatch.entry.product;
+            versionText = productMatch.remainder;
+        } else {
+            return null;
+        }
+
+        if (versionText == null) {
+            return null;
+        }
+        Matcher matcher = VERSION_TOKEN.matcher(versionText.trim().toLowerCase(Locale.ROOT));
+        if (!matcher.lookingAt()) {
+            LOG.debugf("Servicio %s:%d sin versión concreta, no se consulta NVD", service.service, service.port);
+            return null;
+        }
+
+        DictionaryEntry entry = byCpeProduct.get(vendor + ":" + product);
+        String version = matcher.group(1);
+        String update = "*";
+        if (matcher.group(2) != null) {
+            if (entry != null && entry.updateSuffix) {
+                update = matcher.group(2);
+            } else {
+                version += matcher.group(2);
+            }
+        }
+
+        if (!mirror.knowsProduct(vendor, product)) {
+            LOG.debugf("Producto %s:%s sin CVE en la réplica local, se omite", vendor, product);
+            return null;
+        }
+
+        return new CpeName("a", vendor, product, version, update).toString();
+    }
+
+    /**
+     * Convierte el CPE 2.2 que reporta Nmap ("cpe:/a:openbsd:openssh:7.4") a componentes.
+     * Solo se aceptan CPE de aplicación.
+     */
+    private CpeName parseNmapCpe(String cpe) {
+        if (cpe == null || cpe.isBlank()) {
+            return null;
+        }
+        String value = cpe.trim().toLowerCase(Locale.ROOT);
+        if (value.startsWith("cpe:2.3:")) {
+            CpeName name = CpeName.parse(value);
+            return name != null && "a".equals(name.part) ? name : null;
+        }
+        if (!value.startsWith("cpe:/a:")) {
+            return null;
+        }
+        String[] parts = value.substring("cpe:/".length()).split(":");
+        if (parts.length < 3) {
+            return null;
+        }
+        String version = parts.length > 3 ? decode(parts[3]) : "*";
+        String update = parts.length > 4 ? decode(parts[4]) : "*";
+        return new CpeName("a", decode(parts[1]), decode(parts[2]),
+            version.isEmpty() ? "*" : version, update.isEmpty() ? "*" : update);
+    }
+
+    /**
+     * Busca el producto más largo del diccionario que sea prefijo del texto de versión
+     */
+    private ProductMatch matchProduct(String text) {
+        String[] words = text.trim().split("\\s+");
+        for (int n = Math.min(words.length, maxProductWords); n > 0; n--) {
+            String candidate = String.join(" ", Arrays.copyOf(words, n)).toLowerCase(Locale.ROOT);
+            DictionaryEntry entry = byNmapProduct.get(candidate);
+            if (entry != null) {
+                String remainder = String.join(" ", Arrays.copyOfRange(words, n, words.length));
+                return new ProductMatch(entry, remainder);
+            }
+        }
+        return null;
+    }
+
+    private void loadDictionary(Reader source) throws Exception {
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("\t");
+            if (columns.length < 3) {
+                LOG.debugf("Línea de diccionario CPE ignorada: %s", line);
+                continue;
+            }
+            String nmapProduct = columns[0].trim().toLowerCase(Locale.ROOT);
+            DictionaryEntry entry = new DictionaryEntry(
+                columns[1].trim().toLowerCase(Locale.ROOT),
+                columns[2].trim().toLowerCase(Locale.ROOT),
+                columns.length > 3 && columns[3].contains("update-suffix"));
+
+            byNmapProduct.put(nmapProduct, entry);
+            byCpeProduct.putIfAbsent(entry.vendor + ":" + entry.product, entry);
+            maxProductWords = Math.max(maxProductWords, nmapProduct.split("\\s+").length);
+        }
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private static class DictionaryEntry {
+        final String vendor;
+        final String product;
+        final boolean updateSuffix;
+
+        DictionaryEntry(String vendor, String product, boolean updateSuffix) {
+            this.vendor = vendor;
+            this.product = product;
+            this.updateSuffix = updateSuffix;
+        }
+    }
+
+    private static class ProductMatch {
+        final DictionaryEntry entry;
+        final String remainder;
+
+        ProductMatch(DictionaryEntry entry, String remainder) {
+            this.entry = entry;
+            this.remainder = remainder;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.diagseg.analysis.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Cliente DNS mínimo (RFC 1035) para consultas A y AAAA con sus TTL.
+ *
+ * Pregunta por UDP con recursión y repite por TCP si la respuesta viene
+ * truncada. Sigue las cadenas CNAME de la sección de respuesta. Las
+ * respuestas negativas (NXDOMAIN o sin registros) llevan el TTL negativo de
+ * RFC 2308: el menor entre el TTL del SOA de autoridad y su campo MINIMUM.
+ * Las llamadas bloquean; se ejecutan en hilos virtuales.
+ */
+final class DnsClient {
+
+    static final int TYPE_A = 1;
+    static final int TYPE_AAAA = 28;
+    private static final int TYPE_CNAME = 5;
+    private static final int TYPE_SOA = 6;
+    private static final int CLASS_IN = 1;
+
+    private static final int RCODE_NXDOMAIN = 3;
+    private static final int MAX_UDP_SIZE = 1232;
+
+    private final List<InetSocketAddress> servers;
+    private final int timeoutMillis;
+
+    /**
+     * Respuesta a una consulta
+     *
+     * @param addresses   Direcciones del tipo pedido (vacío si es negativa)
+     * @param ttlSeconds  TTL mínimo de la cadena de respuesta, o TTL negativo
+     * @param nxdomain    El nombre no existe
+     */
+    record Answer(List<InetAddress> addresses, long ttlSeconds, boolean nxdomain) {
+    }
+
+    DnsClient(List<InetSocketAddress> servers, int timeoutMillis) {
+        this.servers = servers;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    boolean hasServers() {
+        return !servers.isEmpty();
+    }
+
+    /**
+     * Consulta los servidores en orden hasta obtener una respuesta válida
+     *
+     * @throws IOException si ningún servidor responde (timeout, SERVFAIL, REFUSED...)
+     */
+    Answer query(String name, int type) throws IOException {
+        IOException last = new IOException("Sin servidores DNS configurados");
+        for (InetSocketAddress server : servers) {
+            try {
+                return query(server, name, type);
+            } catch (IOException e) {
+                last = e;
+            }
+        }
+        throw last;
+    }
+
+    private Answer query(InetSocketAddress server, String name, int type) throws IOException {
+        int id = ThreadLocalRandom.current().nextInt(0x10000);
+        byte[] request = encodeQuery(id, name, type);
+        byte[] response;
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.setSoTimeout(timeoutMillis);
+            socket.send(new DatagramPacket(request, request.length, server));
+            DatagramPacket packet = new DatagramPacket(new byte[MAX_UDP_SIZE], MAX_UDP_SIZE);
+            long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+            do {
+                socket.receive(packet);
+                // Descarta respuestas tardías de otra consulta
+            } while (!matches(packet, server, id) && System.nanoTime() < deadline);
+            if (!matches(packet, server, id)) {
+                throw new SocketTimeoutException("Sin respuesta de " + server);
+            }
+            response = Arrays.copyOf(packet.getData(), packet.getLength());
+        }
+        // TC: la respuesta no cabía en UDP
+        if ((response[2] & 0x02) != 0) {
+            response = queryTcp(server, request);
+        }
+        try {
+            return decode(response, id, name, type);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Respuesta DNS malformada de " + server, e);
+        }
+    }
+
+    private static boolean matches(DatagramPacket packet, InetSocketAddress server, int id) {
+        byte[] data = packet.getData();
+        return packet.getLength() >= 12 && packet.getAddress().equals(server.getAddress())
+            && ((data[0] & 0xFF) << 8 | (data[1] & 0xFF)) == id;
+    }
+
+    private byte[] queryTcp(InetSocketAddress server, byte[] request) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(server, timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[]{(byte) (request.length >>> 8), (byte) request.length});
+            out.write(request);
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] response = new byte[in.readUnsignedShort()];
+            in.readFully(response);
+            return response;
+        }
+    }
+
+    static byte[] encodeQuery(int id, String name, int type) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(id >>> 8);
+        out.write(id);
+        out.write(0x01); // RD: recursión deseada
+        out.write(0x00);
+        out.writeBytes(new byte[]{0, 1, 0, 0, 0, 0, 0, 0}); // QDCOUNT=1
+        for (String label : name.split("\\.")) {
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            if (bytes.length == 0 || bytes.length > 63) {
+                throw new IllegalArgumentException("Etiqueta DNS inválida en " + name);
+            }
+            out.write(bytes.length);
+            out.writeBytes(bytes);
+        }
+        out.write(0);
+        out.write(type >>> 8);
+        out.write(type);
+        out.write(0);
+        out.write(CLASS_IN);
+        return out.toByteArray();
+    }
+
+    static Answer decode(byte[] message, int id, String name, int type) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        if (message.length < 12 || buffer.getShort(0) != (short) id) {
+            throw new IOException("Respuesta DNS inválida");
+        }
+        int rcode = message[3] & 0x0F;
+        if (rcode != 0 && rcode != RCODE_NXDOMAIN) {
+            throw new IOException("El servidor DNS respondió con RCODE " + rcode);
+        }
+        int questions = buffer.getShort(4) & 0xFFFF;
+        int answers = buffer.getShort(6) & 0xFFFF;
+        int authorities = buffer.getShort(8) & 0xFFFF;
+        buffer.position(12);
+        for (int i = 0; i < questions; i++) {
+            readName(buffer);
+            buffer.position(buffer.position() + 4);
+        }
+
+        // Nombres de la cadena CNAME que llevan al destino
+        Set<String> chain = new HashSet<>();
+        chain.add(normalize(name));
+        List<InetAddress> addresses = new ArrayList<>();
+        long minTtl = Long.MAX_VALUE;
+        for (int i = 0; i < answers; i++) {
+            String owner = normalize(readName(buffer));
+            int rrType = buffer.getShort() & 0xFFFF;
+            buffer.getShort(); // clase
+            long ttl = buffer.getInt() & 0xFFFFFFFFL;
+            int length = buffer.getShort() & 0xFFFF;
+            int end = buffer.position() + length;
+            if (chain.contains(owner)) {
+                if (rrType == TYPE_CNAME) {
+                    chain.add(normalize(readName(buffer)));
+                    minTtl = Math.min(minTtl, ttl);
+                } else if (rrType == type && (length == 4 || length == 16)) {
+                    byte[] address = new byte[length];
+                    buffer.get(address);
+                    addresses.add(InetAddress.getByAddress(address));
+                    minTtl = Math.min(minTtl, ttl);
+                }
+            }
+            buffer.position(end);
+        }
+        if (!addresses.isEmpty()) {
+            return new Answer(addresses, minTtl, false);
+        }
+
+        // Negativa: TTL del SOA de autoridad (RFC 2308)
+        long negativeTtl = 0;
+        for (int i = 0; i < authorities; i++) {
+            readName(buffer);
+            int rrType = buffer.getShort() & 0xFFFF;
+            buffer.getShort();
+            long ttl = buffer.getInt() & 0xFFFFFFFFL;
+            int length = buffer.getShort() & 0xFFFF;
+            int end = buffer.position() + length;
+            if (rrType == TYPE_SOA) {
+                readName(buffer); // MNAME
+                readName(buffer); // RNAME
+                buffer.position(buffer.position() + 16); // SERIAL, REFRESH, RETRY, EXPIRE
+                long minimum = buffer.getInt() & 0xFFFFFFFFL;
+                negativeTtl = Math.min(ttl, minimum);
+            }
+            buffer.position(end);
+        }
+        return new Answer(List.of(), negativeTtl, rcode == RCODE_NXDOMAIN);
+    }
+
+    /**
+     * Lee un nombre, siguiendo los punteros de compresión
+     */
+    private static String readName(ByteBuffer buffer) throws IOException {
+        StringBuilder name = new StringBuilder();
+        int position = buffer.position();
+        int resumeAt = -1;
+        for (int jumps = 0; ; ) {
+            int length = buffer.get(position) & 0xFF;
+            if ((length & 0xC0) == 0xC0) {
+                if (++jumps > 16) {
+                    throw new IOException("Bucle de compresión en respuesta DNS");
+                }
+                if (resumeAt < 0) {
+                    resumeAt = position + 2;
+                }
+                position = ((length & 0x3F) << 8) | (buffer.get(position + 1) & 0xFF);
+                continue;
+            }
+            if (length == 0) {
+                buffer.position(resumeAt >= 0 ? resumeAt : position + 1);
+                return name.toString();
+            }
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            byte[] label = new byte[length];
+            buffer.get(position + 1, label);
+            name.append(new String(label, StandardCharsets.US_ASCII));
+            position += length + 1;
+        }
+    }
+
+    private static String normalize(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".") ? lower.substring(0, lower.length() - 1) : lower;
+    }
+}
@@ -1,19 +1,169 @@
 package com.diagseg.analysis.service;
 
+import com.diagseg.analysis.dto.CacheStatsDto;
 import com.diagseg.analysis.exception.ServiceException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Resolución DNS asíncrona con cache por TTL.
+ *
+ * Cada dominio se resuelve con consultas A y AAAA en paralelo ({@link DnsClient})
+ * y se devuelven todas las direcciones, IPv4 primero. Las respuestas se
+ * guardan el tiempo que indica su TTL (acotado a [min-ttl, max-ttl]); las
+ * negativas (NXDOMAIN, sin registros) según el TTL del SOA, hasta
+ * negative-max-ttl. Consultas concurrentes del mismo dominio comparten una
+ * sola resolución. Si ningún servidor DNS responde se usa el resolvedor del
+ * sistema (InetAddress), cacheado fallback-ttl-seconds.
+ */
 @ApplicationScoped
 public class DnsResolverService {
 
     private static final Logger LOG = Logger.getLogger(DnsResolverService.class);
 
+    private static final Path RESOLV_CONF = Path.of("/etc/resolv.conf");
+
+    @ConfigProperty(name = "dns.servers")
+    Optional<List<String>> configuredServers;
+
+    @ConfigProperty(name = "dns.timeout-millis", defaultValue = "2000")
+    int timeoutMillis;
+
+    @ConfigProperty(name = "dns.cache.max-entries", defaultValue = "10000")
+    int maxEntries;
+
+    @ConfigProperty(name = "dns.cache.min-ttl-seconds", defaultValue = "5")
+    long minTtlSeconds;
+
+    @ConfigProperty(name = "dns.cache.max-ttl-seconds", defaultValue = "3600")
+    long maxTtlSeconds;
+
+    @ConfigProperty(name = "dns.cache.negative-max-ttl-seconds", defaultValue = "300")
+    long negativeMaxTtlSeconds;
+
+    @ConfigProperty(name = "dns.fallback-ttl-seconds", defaultValue = "60")
+    long fallbackTtlSeconds;
+
+    private DnsClient client;
+    private ExecutorService executor;
+
+    // LinkedHashMap en orden de acceso: el primero es el menos usado recientemente
+    private final LinkedHashMap<String, Resolution> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest) {
+            if (size() > maxEntries) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final Map<String, CompletableFuture<List<String>>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Resultado cacheado: direcciones o, si es negativo, el error a repetir
+     */
+    private record Resolution(List<String> addresses, ServiceException error, long expiresAtNanos) {
+    }
+
+    @PostConstruct
+    void init() {
+        List<InetSocketAddress> servers = new ArrayList<>();
+        for (String server : configuredServers.orElseGet(DnsResolverService::systemNameservers)) {
+            try {
+                servers.add(new InetSocketAddress(InetAddress.getByName(server.trim()), 53));
+            } catch (UnknownHostException e) {
+                LOG.warnf("Servidor DNS inválido: %s", server);
+            }
+        }
+        client = new DnsClient(servers, timeoutMillis);
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("dns-", 0).factory());
+        if (servers.isEmpty()) {
+            LOG.warn("Sin servidores DNS: se usará el resolvedor del sistema (sin TTL)");
+        } else {
+            LOG.infof("Resolvedor DNS: servidores %s, cache de %d dominios", servers, maxEntries);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Resuelve un dominio a todas sus direcciones (A y AAAA), sin bloquear.
+     *
+     * @return Direcciones IPv4 y después IPv6, sin duplicados; falla con
+     *         ServiceException (INVALID_INPUT) si el dominio no existe o no tiene direcciones
+     */
+    public CompletableFuture<List<String>> resolveAllAsync(String domain) {
+        String name = normalize(domain);
+        Resolution cached = cached(name);
+        if (cached != null) {
+            hits.increment();
+            return cached.error() != null
+                ? CompletableFuture.failedFuture(cached.error())
+                : CompletableFuture.completedFuture(cached.addresses());
+        }
+        misses.increment();
+
+        CompletableFuture<List<String>> mine = new CompletableFuture<>();
+        CompletableFuture<List<String>> existing = inFlight.putIfAbsent(name, mine);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+        executor.execute(() -> {
+            try {
+                Resolution resolution = resolve(name);
+                synchronized (cache) {
+                    cache.put(name, resolution);
+                }
+                if (resolution.error() != null) {
+                    mine.completeExceptionally(resolution.error());
+                } else {
+                    mine.complete(resolution.addresses());
+                }
+            } catch (RuntimeException e) {
+                mine.completeExceptionally(e);
+            } finally {
+                inFlight.remove(name, mine);
+            }
+        });
+        return mine;
+    }
+
     /**
      * Resuelve un dominio a su dirección IP.
      * Si el dominio tiene múltiples IPs (A records), devuelve la primera.
@@ -23,36 +173,9 @@ public class DnsResolverService {
      * @throws ServiceException Si no se puede resolver el dominio
      */
     public String resolveDomain(String domain) {
-        try {
-            LOG.infof("Resolviendo dominio: %s", domain);
-            
-            // Resolver el dominio usando DNS
-            InetAddress address = InetAddress.getByName(domain);
-            String resolvedIp = address.getHostAddress();
-            
-            LOG.infof("Dominio '%s' resuelto a IP: %s", domain, resolvedIp);
-            return resolvedIp;
-            
-        } catch (UnknownHostException e) {
-            LOG.errorf(e, "No se pudo resolver el dominio: %s", domain);
-            throw new ServiceException(
-                "No se pudo resolver el dominio '" + domain + "'",
-                "Error DNS: " + e.getMessage(),
-                "Verifica que el dominio sea válido y que tengas conexión a internet. " +
-                "Intenta con: 'nslookup " + domain + "' o 'dig " + domain + "'",
-                ServiceException.ErrorCode.INVALID_INPUT,
-                e
-            );
-        } catch (Exception e) {
-            LOG.errorf(e, "Error inesperado resolviendo dominio: %s", domain);
-            throw new ServiceException(
-                "Error inesperado al resolver el dominio",
-                "Error: " + e.getMessage(),
-                "Intenta nuevamente o contacta al administrador",
-                ServiceException.ErrorCode.INTERNAL_ERROR,
-                e
-            );
-        }
+        String resolvedIp = resolveAllAddresses(domain).get(0);
+        LOG.infof("Dominio '%s' resuelto a IP: %s", domain, resolvedIp);
+        return resolvedIp;
     }
 
     /**
@@ -65,30 +188,174 @@ public class DnsResolverService {
      */
     public List<String> resolveAllAddresses(String domain) {
         try {
-            LOG.infof("Resolviendo todas las direcciones para dominio: %s", domain);
-            
-            InetAddress[] addresses = InetAddress.getAllByName(domain);
-            List<String> ips = new ArrayList<>();
-            
-            for (InetAddress addr : addresses) {
-                ips.add(addr.getHostAddress());
+            return resolveAllAsync(domain).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ServiceException se) {
+                throw se;
             }
-            
-            LOG.infof("Dominio '%s' resuelto a %d direcciones IP", domain, ips.size());
-            return ips;
-            
-        } catch (UnknownHostException e) {
-            LOG.errorf(e, "No se pudo resolver el dominio: %s", domain);
+            LOG.errorf(e.getCause(), "Error inesperado resolviendo dominio: %s", domain);
             throw new ServiceException(
-                "No se pudo resolver el dominio '" + domain + "'",
-                "Error DNS: " + e.getMessage(),
-                "Verifica que el dominio sea válido y que tengas conexión a internet",
-                ServiceException.ErrorCode.INVALID_INPUT,
-                e
+                "Error inesperado al resolver el dominio",
+                "Error: " + e.getCause().getMessage(),
+                "Intenta nuevamente o contacta al administrador",
+                ServiceException.ErrorCode.INTERNAL_ERROR,
+                e.getCause()
             );
         }
     }
 
+    public CacheStatsDto cacheStats() {
+        CacheStatsDto stats = new CacheStatsDto();
+        stats.name = "dns";
+        synchronized (cache) {
+            stats.size = cache.size();
+        }
+        stats.maxEntries = maxEntries;
+        stats.ttlSeconds = maxTtlSeconds;
+        stats.hits = hits.sum();
+        stats.misses = misses.sum();
+        stats.coalesced = coalesced.sum();
+        stats.evictions = evictions.sum();
+        stats.expirations = expirations.sum();
+        long total = stats.hits + stats.misses;
+        stats.hitRate = total == 0 ? 0.0 : (double) stats.hits / total;
+        return stats;
+    }
+
+    private Resolution cached(String name) {
+        synchronized (cache) {
+            Resolution resolution = cache.get(name);
+            if (resolution == null) {
+                return null;
+            }
+            if (System.nanoTime() - resolution.expiresAtNanos() > 0) {
+                cache.remove(name);
+                expirations.increment();
+                return null;
+            }
+            return resolution;
+        }
+    }
+
+    private Resolution resolve(String name) {
+        LOG.infof("Resolviendo dominio: %s", name);
+        if (client.hasServers()) {
+            CompletableFuture<DnsClient.Answer> a = query(name, DnsClient.TYPE_A);
+            CompletableFuture<DnsClient.Answer> aaaa = query(name, DnsClient.TYPE_AAAA);
+            try {
+                return fromAnswers(name, a.join(), aaaa.join());
+            } catch (CompletionException e) {
+                // Si una de las dos respondió con direcciones, basta con ella
+                DnsClient.Answer partial = a.isCompletedExceptionally() ? aaaa.getNow(null) : a.getNow(null);
+                if (partial != null && !partial.addresses().isEmpty()) {
+                    return fromAnswers(name, partial, null);
+                }
+                LOG.warnf("Servidores DNS sin respuesta para '%s' (%s), se usa el resolvedor del sistema",
+                    name, e.getCause().getMessage());
+            }
+        }
+        return resolveWithSystem(name);
+    }
+
+    private CompletableFuture<DnsClient.Answer> query(String name, int type) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.query(name, type);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private Resolution fromAnswers(String name, DnsClient.Answer a, DnsClient.Answer aaaa) {
+        Set<String> addresses = new LinkedHashSet<>();
+        long ttl = Long.MAX_VALUE;
+        long negativeTtl = Long.MAX_VALUE;
+        for (DnsClient.Answer answer : new DnsClient.Answer[]{a, aaaa}) {
+            if (answer == null) {
+                continue;
+            }
+            if (answer.addresses().isEmpty()) {
+                negativeTtl = Math.min(negativeTtl, answer.ttlSeconds());
+            } else {
+                answer.addresses().forEach(address -> addresses.add(IpAddress.of(address.getAddress()).toString()));
+                ttl = Math.min(ttl, answer.ttlSeconds());
+            }
+        }
+        if (!addresses.isEmpty()) {
+            LOG.infof("Dominio '%s' resuelto a %d direcciones IP (TTL %d s)", name, addresses.size(), ttl);
+            return new Resolution(List.copyOf(addresses), null, expiresAt(clamp(ttl, minTtlSeconds, maxTtlSeconds)));
+        }
+        boolean nxdomain = a.nxdomain() || (aaaa != null && aaaa.nxdomain());
+        LOG.warnf("Dominio '%s' sin direcciones (%s)", name, nxdomain ? "NXDOMAIN" : "sin registros A/AAAA");
+        return new Resolution(List.of(), unresolvable(name, nxdomain ? "NXDOMAIN" : "Sin registros A/AAAA", null),
+            expiresAt(clamp(negativeTtl == Long.MAX_VALUE ? 0 : negativeTtl, minTtlSeconds, negativeMaxTtlSeconds)));
+    }
+
+    private Resolution resolveWithSystem(String name) {
+        try {
+            Set<String> addresses = new LinkedHashSet<>();
+            InetAddress[] all = InetAddress.getAllByName(name);
+            // IPv4 primero, como en las respuestas del cliente DNS
+            for (InetAddress address : all) {
+                if (address.getAddress().length == 4) {
+                    addresses.add(IpAddress.of(address.getAddress()).toString());
+                }
+            }
+            for (InetAddress address : all) {
+                addresses.add(IpAddress.of(address.getAddress()).toString());
+            }
+            LOG.infof("Dominio '%s' resuelto a %d direcciones IP", name, addresses.size());
+            return new Resolution(List.copyOf(addresses), null, expiresAt(fallbackTtlSeconds));
+        } catch (UnknownHostException e) {
+            LOG.errorf(e, "No se pudo resolver el dominio: %s", name);
+            return new Resolution(List.of(), unresolvable(name, e.getMessage(), e),
+                expiresAt(Math.min(fallbackTtlSeconds, negativeMaxTtlSeconds)));
+        }
+    }
+
+    private static ServiceException unresolvable(String domain, String detail, Throwable cause) {
+        return new ServiceException(
+            "No se pudo resolver el dominio '" + domain + "'",
+            "Error DNS: " + detail,
+            "Verifica que el dominio sea válido y que tengas conexión a internet. " +
+            "Intenta con: 'nslookup " + domain + "' o 'dig " + domain + "'",
+            ServiceException.ErrorCode.INVALID_INPUT,
+            cause
+        );
+    }
+
+    private static long expiresAt(long ttlSeconds) {
+        return System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static String normalize(String domain) {
+        String name = domain.trim().toLowerCase(Locale.ROOT);
+        return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /**
+     * Servidores de /etc/resolv.conf
+     */
+    private static List<String> systemNameservers() {
+        List<String> servers = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(RESOLV_CONF)) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length >= 2 && parts[0].equals("nameserver")) {
+                    servers.add(parts[1]);
+                }
+            }
+        } catch (IOException e) {
+            LOG.debugf("No se pudo leer %s: %s", RESOLV_CONF, e.getMessage());
+        }
+        return servers;
+    }
+
     /**
      * Valida si una cadena tiene formato de dominio válido.
      * 
@@ -119,13 +386,8 @@ public class DnsResolverService {
         
         query = query.trim();
         
-        // IPv4 pattern
-        if (query.matches("^(\\d{1,3}\\.){3}\\d{1,3}$")) {
-            return "ip";
-        }
-        
-        // IPv6 pattern (simplificado)
-        if (query.matches("^([0-9a-fA-F]{0,4}:){2,7}[0-9a-fA-F]{0,4}$")) {
+        // Literal IPv4 o IPv6
+        if (IpAddress.tryParse(query) != null) {
             return "ip";
         }
         
@@ -1,101 +1,174 @@
 package com.diagseg.analysis.service;
 
+import com.diagseg.analysis.dto.CacheStatsDto;
+import com.diagseg.analysis.dto.GeoDatabaseStatusDto;
 import com.diagseg.analysis.dto.GeolocationDto;
-import com.diagseg.analysis.exception.GeolocationException;
+import com.maxmind.db.Network;
+import com.maxmind.db.Reader;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.CityResponse;
+import io.quarkus.runtime.Startup;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Geolocalización con la base de datos GeoLite2 City.
+ *
+ * Si existe el fichero geolite2.city-db-file se abre mapeado en memoria: las
+ * consultas leen directamente de la página del fichero, sin copiar la base de
+ * datos al heap. Si el fichero no existe, se usa el recurso del classpath (se
+ * carga entera en el heap). La carga se hace en segundo plano; hasta que
+ * termina se responde con el fallback.
+ *
+ * Lo que se mapea es una copia privada junto al fichero
+ * (.GeoLite2-City.mmdb-*.loaded): si el original se sobrescribe en el sitio,
+ * el lector en uso no ve páginas a medio escribir (SIGBUS / InternalError).
+ *
+ * Cada geolite2.reload-check-seconds se comprueba si el fichero cambió; si la
+ * nueva base de datos es más reciente se sustituye de forma atómica y se
+ * vacía la cache. El lector anterior se cierra tras un margen para no cortar
+ * las consultas en curso.
+ *
+ * Los resultados se guardan por bloque (/24 en IPv4, /48 en IPv6) cuando la
+ * red de GeoLite2 cubre el bloque completo, y por IP cuando es más específica.
+ */
+@Startup
 @ApplicationScoped
 public class GeolocationService {
 
     private static final Logger LOG = Logger.getLogger(GeolocationService.class);
 
+    private static final int IPV4_BLOCK_PREFIX = 24;
+    private static final int IPV6_BLOCK_PREFIX = 48;
+
+    // Consultas que pueden seguir usando el lector sustituido
+    private static final Duration CLOSE_GRACE = Duration.ofSeconds(30);
+
+    // Extensión de las copias privadas que se mapean
+    private static final String COPY_SUFFIX = ".loaded";
+
     @ConfigProperty(name = "geolite2.city-db")
     String cityDbPath;
 
-    private DatabaseReader dbReader;
+    @ConfigProperty(name = "geolite2.city-db-file", defaultValue = "data/GeoLite2-City.mmdb")
+    String cityDbFile;
+
+    @ConfigProperty(name = "geolite2.reload-check-seconds", defaultValue = "60")
+    int reloadCheckSeconds;
+
+    @ConfigProperty(name = "geolite2.cache-size", defaultValue = "50000")
+    int cacheSize;
+
+    @ConfigProperty(name = "geolite2.cache-ttl-hours", defaultValue = "24")
+    int cacheTtlHours;
+
+    // null hasta que termina la primera carga
+    private volatile Database database;
+    private volatile String lastReloadError;
+    // Fichero que ya falló al abrirse: no se reintenta hasta que vuelva a cambiar
+    private volatile FileStamp failedStamp;
+    private final LongAdder reloads = new LongAdder();
+
+    private TtlCache<CacheKey, GeolocationDto> cache;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Lector abierto y de dónde salió
+     */
+    private record Database(DatabaseReader reader, String source, boolean memoryMapped,
+                            Date buildDate, Instant loadedAt, FileStamp stamp, Path mappedCopy) {
+    }
+
+    /**
+     * Fecha de modificación y tamaño del fichero, para detectar que cambió
+     */
+    private record FileStamp(long modifiedMillis, long size) {
+    }
 
     @PostConstruct
     void init() {
-        try {
-            InputStream dbStream = Thread.currentThread().getContextClassLoader()
-                    .getResourceAsStream(cityDbPath);
+        cache = new TtlCache<>("geolite2", cacheSize, Duration.ofHours(cacheTtlHours));
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("geolite2").factory());
 
-            if (dbStream == null) {
-                LOG.warnf("⚠️ No se encontró la base de datos GeoLite2 en: %s - Usando fallback", cityDbPath);
-                LOG.warn("Para obtener geolocalización completa, descargue GeoLite2-City.mmdb desde https://dev.maxmind.com/geoip/geolite2-free-geolocation-data");
-                dbReader = null;
-                return;
-            }
-
-            dbReader = new DatabaseReader.Builder(dbStream).build();
-            LOG.infof("✅ GeoLite2 City DB cargada correctamente desde '%s'", cityDbPath);
+        // Carga en segundo plano: el arranque no espera a la base de datos
+        scheduler.execute(this::loadInitial);
+        cache.schedulePurge(scheduler);
+        if (reloadCheckSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(this::reloadIfChanged, reloadCheckSeconds, reloadCheckSeconds,
+                TimeUnit.SECONDS);
+        }
+    }
 
-        } catch (Exception e) {
-            // Error al inicializar: no es crítico, usamos fallback
-            LOG.warnf(e, "⚠️ Error inicializando GeoLite2 City DB, usando fallback");
-            dbReader = null;
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+        Database current = database;
+        if (current != null) {
+            closeQuietly(current);
         }
     }
 
     public GeolocationDto resolve(String ip) {
-        // Si no hay base de datos, usar fallback directamente
-        if (dbReader == null) {
+        Database current = database;
+        // Si no hay base de datos (o aún se está cargando), usar fallback directamente
+        if (current == null) {
             LOG.debugf("GeoLite2 no disponible, usando fallback para IP '%s'", ip);
             return fallbackGeolocation();
         }
-        
+
         try {
-            InetAddress ipAddress = InetAddress.getByName(ip);
-            CityResponse response = dbReader.city(ipAddress);
-
-            GeolocationDto geo = new GeolocationDto();
-
-            geo.country = safeGet(response.getCountry().getName(), "Unknown");
-            geo.countryCode = safeGet(response.getCountry().getIsoCode(), "--");
-            geo.region = safeGet(response.getMostSpecificSubdivision().getName(), "Unknown");
-            geo.city = safeGet(response.getCity().getName(), "Unknown");
-
-            if (response.getLocation() != null) {
-                Double lat = response.getLocation().getLatitude();
-                Double lon = response.getLocation().getLongitude();
-
-                if (lat == null || lon == null) {
-                    LOG.warnf("GeoLite2 devolvió lat/lon nulos para IP '%s'", ip);
-                    geo.latitude = 0.0;
-                    geo.longitude = 0.0;
-                } else {
-                    geo.latitude = lat;
-                    geo.longitude = lon;
-                }
-
-                geo.timezone = safeGet(response.getLocation().getTimeZone(), "UTC");
-            } else {
-                LOG.warnf("GeoLite2 no tiene objeto Location para IP '%s'", ip);
-                geo.latitude = 0.0;
-                geo.longitude = 0.0;
-                geo.timezone = "UTC";
+            // Solo literales: un texto que no es una IP no debe disparar una resolución DNS
+            IpAddress address = IpAddress.tryParse(ip);
+            if (address == null) {
+                LOG.warnf("'%s' no es una IP válida para GeoLite2", ip);
+                return fallbackGeolocation();
+            }
+            int blockPrefix = address.isIpv4() ? IPV4_BLOCK_PREFIX : IPV6_BLOCK_PREFIX;
+            CacheKey blockKey = new CacheKey(address.mask(blockPrefix), blockPrefix);
+            CacheKey addressKey = new CacheKey(address, address.bitLength());
+            GeolocationDto cached = cache.getIfPresent(blockKey);
+            if (cached == null) {
+                cached = cache.getIfPresent(addressKey);
+            }
+            if (cached != null) {
+                return copy(cached);
             }
 
-            // ISP/ASN/Org vendrán luego de BigQuery; por ahora placeholders
-            geo.isp = "Unknown";
-            geo.asn = "Unknown";
-            geo.org = "Unknown";
+            Optional<CityResponse> response = current.reader().tryCity(address.toInetAddress());
+            if (response.isEmpty()) {
+                LOG.debugf("IP '%s' no encontrada en GeoLite2", ip);
+                return fallbackGeolocation();
+            }
+            GeolocationDto geo = toDto(ip, response.get());
 
-            return geo;
+            // Solo se comparte por bloque si la red de GeoLite2 contiene el bloque entero
+            Network network = response.get().getTraits().getNetwork();
+            if (database == current) {
+                cache.put(network != null && network.getPrefixLength() <= blockPrefix
+                    ? blockKey : addressKey, geo);
+            }
+            return copy(geo);
 
-        } catch (UnknownHostException e) {
-            LOG.warnf("No se pudo resolver la IP '%s' en GeoLite2 (UnknownHost): %s", ip, e.getMessage());
-            return fallbackGeolocation();
         } catch (GeoIp2Exception e) {
             LOG.errorf("Error GeoLite2 para IP '%s': %s", ip, e.getMessage());
             return fallbackGeolocation();
@@ -105,6 +178,224 @@ public class GeolocationService {
         }
     }
 
+    public CacheStatsDto cacheStats() {
+        return cache.stats();
+    }
+
+    public GeoDatabaseStatusDto status() {
+        Database current = database;
+        GeoDatabaseStatusDto status = new GeoDatabaseStatusDto();
+        status.ready = current != null;
+        if (current != null) {
+            status.source = current.source();
+            status.memoryMapped = current.memoryMapped();
+            status.buildDate = current.buildDate().toInstant().toString();
+            status.loadedAt = current.loadedAt().toString();
+        }
+        status.reloads = reloads.sum();
+        status.lastReloadError = lastReloadError;
+        return status;
+    }
+
+    private void loadInitial() {
+        try {
+            Path file = Path.of(cityDbFile);
+            deleteStaleCopies(file);
+            if (Files.isRegularFile(file)) {
+                database = openFile(file);
+            } else {
+                database = openClasspath();
+            }
+            Database current = database;
+            if (current != null) {
+                LOG.infof("✅ GeoLite2 City DB cargada desde '%s' (%s, generada %s)", current.source(),
+                    current.memoryMapped() ? "mapeada en memoria" : "en heap", current.buildDate().toInstant());
+            }
+        } catch (Exception e) {
+            // Error al inicializar: no es crítico, usamos fallback
+            LOG.warnf(e, "⚠️ Error inicializando GeoLite2 City DB, usando fallback");
+            lastReloadError = e.getMessage();
+        }
+    }
+
+    /**
+     * Abre el fichero nuevo si cambió y lo publica si es más reciente que el actual
+     */
+    private void reloadIfChanged() {
+        Path file = Path.of(cityDbFile);
+        try {
+            if (!Files.isRegularFile(file)) {
+                return;
+            }
+            Database current = database;
+            FileStamp stamp = stampOf(file);
+            if (current != null && stamp.equals(current.stamp()) || stamp.equals(failedStamp)) {
+                return;
+            }
+            failedStamp = stamp;
+            Database candidate = openFile(file);
+            failedStamp = null;
+            if (current != null && current.stamp() != null
+                    && !candidate.buildDate().after(current.buildDate())) {
+                // Mismo contenido con otra fecha de fichero: se recuerda para no reabrirlo
+                LOG.debugf("GeoLite2 en '%s' no es más reciente que la cargada", file);
+                closeQuietly(candidate);
+                database = new Database(current.reader(), current.source(), current.memoryMapped(),
+                    current.buildDate(), current.loadedAt(), candidate.stamp(), current.mappedCopy());
+                return;
+            }
+            database = candidate;
+            cache.clear();
+            reloads.increment();
+            lastReloadError = null;
+            LOG.infof("🔄 GeoLite2 City DB recargada desde '%s' (generada %s)", file,
+                candidate.buildDate().toInstant());
+            if (current != null) {
+                scheduler.schedule(() -> closeQuietly(current), CLOSE_GRACE.toSeconds(), TimeUnit.SECONDS);
+            }
+        } catch (Exception e) {
+            // Fichero a medio copiar o corrupto: se sigue con la base de datos actual
+            LOG.warnf("No se pudo recargar GeoLite2 desde '%s': %s", file, e.getMessage());
+            lastReloadError = e.getMessage();
+        }
+    }
+
+    /**
+     * Copia el fichero a una ruta propia y mapea la copia. Si el original
+     * cambió durante la copia, se descarta y se reintenta en la siguiente comprobación
+     */
+    private Database openFile(Path file) throws IOException {
+        FileStamp stamp = stampOf(file);
+        Path copy = Files.createTempFile(parentOf(file), copyPrefix(file), COPY_SUFFIX);
+        try {
+            Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+            if (!stamp.equals(stampOf(file))) {
+                throw new IOException("el fichero cambió mientras se copiaba");
+            }
+            DatabaseReader reader = new DatabaseReader.Builder(copy.toFile())
+                .fileMode(Reader.FileMode.MEMORY_MAPPED)
+                .build();
+            return new Database(reader, file.toAbsolutePath().toString(), true,
+                reader.getMetadata().getBuildDate(), Instant.now(), stamp, copy);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+    }
+
+    /**
+     * Copias que quedaron de una ejecución anterior que no se cerró limpiamente
+     */
+    private static void deleteStaleCopies(Path file) {
+        try (DirectoryStream<Path> copies = Files.newDirectoryStream(parentOf(file),
+                copyPrefix(file) + "*" + COPY_SUFFIX)) {
+            for (Path copy : copies) {
+                Files.deleteIfExists(copy);
+            }
+        } catch (IOException e) {
+            LOG.debugf("No se pudieron borrar copias antiguas de GeoLite2: %s", e.getMessage());
+        }
+    }
+
+    private static Path parentOf(Path file) {
+        Path parent = file.toAbsolutePath().getParent();
+        return parent != null ? parent : Path.of(".");
+    }
+
+    private static String copyPrefix(Path file) {
+        return "." + file.getFileName() + "-";
+    }
+
+    private Database openClasspath() throws IOException {
+        try (InputStream dbStream = Thread.currentThread().getContextClassLoader()
+                .getResourceAsStream(cityDbPath)) {
+            if (dbStream == null) {
+                LOG.warnf("⚠️ No se encontró la base de datos GeoLite2 en '%s' ni en el classpath (%s) - Usando fallback",
+                    cityDbFile, cityDbPath);
+                LOG.warn("Para obtener geolocalización completa, descargue GeoLite2-City.mmdb desde https://dev.maxmind.com/geoip/geolite2-free-geolocation-data");
+                return null;
+            }
+            DatabaseReader reader = new DatabaseReader.Builder(dbStream).build();
+            return new Database(reader, "classpath:" + cityDbPath, false,
+                reader.getMetadata().getBuildDate(), Instant.now(), null, null);
+        }
+    }
+
+    private static FileStamp stampOf(Path file) throws IOException {
+        return new FileStamp(Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+    }
+
+    private static void closeQuietly(Database database) {
+        try {
+            database.reader().close();
+            if (database.mappedCopy() != null) {
+                Files.deleteIfExists(database.mappedCopy());
+            }
+        } catch (IOException e) {
+            LOG.debugf("Error cerrando GeoLite2: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Clave de cache: un bloque (/24, /48) o una IP suelta (/32, /128)
+     */
+    private record CacheKey(IpAddress network, int prefixLength) {
+    }
+
+    private GeolocationDto toDto(String ip, CityResponse response) {
+        GeolocationDto geo = new GeolocationDto();
+
+        geo.country = safeGet(response.getCountry().getName(), "Unknown");
+        geo.countryCode = safeGet(response.getCountry().getIsoCode(), "--");
+        geo.region = safeGet(response.getMostSpecificSubdivision().getName(), "Unknown");
+        geo.city = safeGet(response.getCity().getName(), "Unknown");
+
+        if (response.getLocation() != null) {
+            Double lat = response.getLocation().getLatitude();
+            Double lon = response.getLocation().getLongitude();
+
+            if (lat == null || lon == null) {
+                LOG.warnf("GeoLite2 devolvió lat/lon nulos para IP '%s'", ip);
+                geo.latitude = 0.0;
+                geo.longitude = 0.0;
+            } else {
+                geo.latitude = lat;
+                geo.longitude = lon;
+            }
+
+            geo.timezone = safeGet(response.getLocation().getTimeZone(), "UTC");
+        } else {
+            LOG.warnf("GeoLite2 no tiene objeto Location para IP '%s'", ip);
+            geo.latitude = 0.0;
+            geo.longitude = 0.0;
+            geo.timezone = "UTC";
+        }
+
+        // ISP/ASN/Org vendrán luego de BigQuery; por ahora placeholders
+        geo.isp = "Unknown";
+        geo.asn = "Unknown";
+        geo.org = "Unknown";
+
+        return geo;
+    }
+
+    /**
+     * Los llamadores completan ISP/ASN sobre el DTO devuelto: nunca se entrega el de la cache
+     */
+    private static GeolocationDto copy(GeolocationDto source) {
+        GeolocationDto geo = new GeolocationDto();
+        geo.country = source.country;
+        geo.countryCode = source.countryCode;
+        geo.region = source.region;
+        geo.city = source.city;
+        geo.latitude = source.latitude;
+        geo.longitude = source.longitude;
+        geo.timezone = source.timezone;
+        geo.isp = source.isp;
+        geo.asn = source.asn;
+        geo.org = source.org;
+        return geo;
+    }
 
     private GeolocationDto fallbackGeolocation() {
         GeolocationDto geo = new GeolocationDto();
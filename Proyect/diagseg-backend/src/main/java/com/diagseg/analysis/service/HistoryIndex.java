@@ -0,0 +1,192 @@
+package com.diagseg.analysis.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Índice en memoria del historial de análisis.
+ *
+ * Cada registro ocupa una posición (ordinal) en dos arrays primitivos por
+ * bloques: instante de alta y posición en disco (segmento + offset). Cada
+ * clave (IP, dominio, ASN...) guarda solo la lista de ordinales de sus
+ * registros: unos 24 bytes por registro con dos claves, sin objetos por
+ * registro, así que millones de análisis caben en un heap acotado.
+ *
+ * Los ordinales crecen con el instante de alta, de modo que las consultas por
+ * rango de tiempo son búsquedas binarias. No es thread-safe: lo protege
+ * {@link AnalysisHistoryStore}.
+ */
+class HistoryIndex {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private long[][] timestamps = new long[16][];
+    private long[][] positions = new long[16][];
+    private int size;
+
+    private final Map<String, Postings> byKey = new HashMap<>();
+
+    /**
+     * Registra un análisis
+     *
+     * @param timestamp Instante de alta en ms, no decreciente
+     * @param position  Posición en disco (ver {@link #position(int, long)})
+     * @param keys      Claves por las que se podrá consultar
+     */
+    void add(long timestamp, long position, String... keys) {
+        int chunk = size >>> CHUNK_BITS;
+        if (chunk == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, chunk * 2);
+            positions = Arrays.copyOf(positions, chunk * 2);
+        }
+        if (timestamps[chunk] == null) {
+            timestamps[chunk] = new long[CHUNK_SIZE];
+            positions[chunk] = new long[CHUNK_SIZE];
+        }
+        timestamps[chunk][size & (CHUNK_SIZE - 1)] = timestamp;
+        positions[chunk][size & (CHUNK_SIZE - 1)] = position;
+
+        for (String key : keys) {
+            byKey.computeIfAbsent(key, k -> new Postings()).add(size);
+        }
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int keys() {
+        return byKey.size();
+    }
+
+    long timestampOf(int ordinal) {
+        return timestamps[ordinal >>> CHUNK_BITS][ordinal & (CHUNK_SIZE - 1)];
+    }
+
+    long positionOf(int ordinal) {
+        return positions[ordinal >>> CHUNK_BITS][ordinal & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Posiciones de los registros de la clave con instante en [from, to],
+     * de la más reciente a la más antigua, como máximo {@code limit}
+     */
+    long[] newest(String key, long from, long to, int limit) {
+        Postings postings = byKey.get(key);
+        if (postings == null) {
+            return new long[0];
+        }
+        // Último ordinal con instante <= to y primero con instante >= from
+        int high = upperBound(postings, to) - 1;
+        int low = lowerBound(postings, from);
+        int count = Math.max(0, Math.min(limit, high - low + 1));
+        long[] result = new long[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = positionOf(postings.ordinals[high - i]);
+        }
+        return result;
+    }
+
+    /**
+     * Igual que {@link #newest(String, long, long, int)} sobre todos los registros
+     */
+    long[] newest(long from, long to, int limit) {
+        int high = upperBound(to) - 1;
+        int low = lowerBound(from);
+        int count = Math.max(0, Math.min(limit, high - low + 1));
+        long[] result = new long[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = positionOf(high - i);
+        }
+        return result;
+    }
+
+    /**
+     * Posición en disco: 24 bits de segmento y 40 de offset (hasta 1 TiB por segmento)
+     */
+    static long position(int segment, long offset) {
+        return ((long) segment << 40) | offset;
+    }
+
+    static int segmentOf(long position) {
+        return (int) (position >>> 40);
+    }
+
+    static long offsetOf(long position) {
+        return position & ((1L << 40) - 1);
+    }
+
+    private int lowerBound(Postings postings, long from) {
+        int lo = 0;
+        int hi = postings.size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestampOf(postings.ordinals[mid]) < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int upperBound(Postings postings, long to) {
+        int lo = 0;
+        int hi = postings.size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestampOf(postings.ordinals[mid]) <= to) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int lowerBound(long from) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestampOf(mid) < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int upperBound(long to) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestampOf(mid) <= to) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Ordinales de una clave, en orden creciente
+     */
+    private static class Postings {
+        int[] ordinals = new int[4];
+        int size;
+
+        void add(int ordinal) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size + (size >> 1) + 1);
+            }
+            ordinals[size++] = ordinal;
+        }
+    }
+}
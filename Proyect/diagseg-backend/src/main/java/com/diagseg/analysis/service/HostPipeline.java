@@ -0,0 +1,72 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.ServiceDto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+/**
+ * Análisis por host de un escaneo Nmap con varios hosts (rango CIDR o lista).
+ *
+ * Agrupa los servicios por host y lanza el análisis de cada host en cuanto
+ * Nmap lo da por terminado, mientras el resto del escaneo sigue en curso.
+ */
+class HostPipeline {
+
+    private final Executor executor;
+    private final BiConsumer<String, List<ServiceDto>> analyzer;
+
+    private final Map<String, List<ServiceDto>> openHosts = new LinkedHashMap<>();
+    private final Set<String> launched = new HashSet<>();
+    private final List<CompletableFuture<Void>> hostTasks = new ArrayList<>();
+
+    /**
+     * @param analyzer Análisis de un host con sus servicios; se ejecuta en {@code executor}
+     */
+    HostPipeline(Executor executor, BiConsumer<String, List<ServiceDto>> analyzer) {
+        this.executor = executor;
+        this.analyzer = analyzer;
+    }
+
+    synchronized void serviceDetected(ServiceDto service) {
+        openHosts.computeIfAbsent(service.host, h -> new ArrayList<>()).add(service);
+    }
+
+    synchronized void hostScanned(String host) {
+        List<ServiceDto> services = openHosts.remove(host);
+        // Hosts sin puertos abiertos solo se analizan si se esperaban (ver finish)
+        if (services != null) {
+            launch(host, services);
+        }
+    }
+
+    /**
+     * Lanza los hosts que quedaron sin cerrar (escaneo cortado) y los esperados
+     * que Nmap no reportó con servicios, y devuelve el futuro de todos los análisis
+     *
+     * @param expectedHosts Hosts que deben tener resultado aunque no tengan puertos abiertos
+     */
+    synchronized CompletableFuture<Void> finish(Collection<String> expectedHosts) {
+        openHosts.forEach(this::launch);
+        openHosts.clear();
+        for (String host : expectedHosts) {
+            if (!launched.contains(host)) {
+                launch(host, new ArrayList<>());
+            }
+        }
+        return CompletableFuture.allOf(hostTasks.toArray(CompletableFuture[]::new));
+    }
+
+    private void launch(String host, List<ServiceDto> services) {
+        launched.add(host);
+        hostTasks.add(CompletableFuture.runAsync(() -> analyzer.accept(host, services), executor));
+    }
+}
@@ -0,0 +1,317 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.diagseg.analysis.dto.Protocol;
+import com.diagseg.analysis.dto.ServiceChangeDto;
+import com.diagseg.analysis.dto.ServiceDiffDto;
+import com.diagseg.analysis.dto.ServiceDto;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Análisis incremental de un host: solo vuelve a sondear lo que cambió.
+ *
+ * 1. Toma como referencia el último análisis del host en el historial,
+ *    siempre que el último análisis completo de la cadena no haya caducado.
+ * 2. Comprueba qué puertos siguen abiertos (barato) y toma la huella de cada
+ *    uno con {@link BannerGrabber}.
+ * 3. Identifica de nuevo solo los puertos nuevos, los de huella distinta y
+ *    los que no permiten comparar ({@link ServiceFingerprinter#SILENT}, p. ej.
+ *    TLS): con su banner si basta, con -sV si no.
+ * 4. Los servicios sin cambios se arrastran del análisis anterior sin -sV; su
+ *    CPE se consulta de nuevo en NVD (cache o réplica local) para recoger los
+ *    CVE publicados después.
+ */
+@ApplicationScoped
+public class IncrementalScanService {
+
+    private static final Logger LOG = Logger.getLogger(IncrementalScanService.class);
+
+    @ConfigProperty(name = "analysis.incremental.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "analysis.incremental.max-baseline-age-hours", defaultValue = "168")
+    int maxBaselineAgeHours;
+
+    @Inject
+    AnalysisHistoryStore historyStore;
+
+    @Inject
+    NmapScanScheduler nmapScanScheduler;
+
+    @Inject
+    NmapService nmapService;
+
+    @Inject
+    BannerGrabber bannerGrabber;
+
+    @Inject
+    AnalysisStageExecutor stageExecutor;
+
+    /**
+     * Resultado de un escaneo incremental
+     *
+     * @param services Servicios actuales: arrastrados y vueltos a sondear, por puerto
+     * @param diff     Cambios respecto al análisis de referencia
+     */
+    public record IncrementalScan(List<ServiceDto> services, ServiceDiffDto diff) {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Último análisis del host que sirve de referencia, o null si no hay
+     * ninguno reciente (se hará un análisis completo). Un análisis incremental
+     * sirve mientras el análisis completo del que parte su cadena tenga menos
+     * de max-baseline-age-hours.
+     */
+    public AnalysisResult baselineFor(String ip) {
+        if (!enabled) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        long from = now - TimeUnit.HOURS.toMillis(maxBaselineAgeHours);
+        List<AnalysisResult> previous = historyStore.find(ip, from, now, 1);
+        // Un análisis sin escaneo Nmap completo no sirve de referencia: sus servicios no son fiables
+        if (previous.isEmpty() || previous.get(0).services == null || previous.get(0).metadata == null
+                || !previous.get(0).metadata.scanCompleted) {
+            LOG.infof("Sin análisis anterior de %s en las últimas %d h: análisis completo", ip, maxBaselineAgeHours);
+            return null;
+        }
+        AnalysisResult baseline = previous.get(0);
+        if (fullScanTimestamp(baseline) < from) {
+            LOG.infof("El último análisis completo de %s tiene más de %d h: análisis completo", ip, maxBaselineAgeHours);
+            return null;
+        }
+        return baseline;
+    }
+
+    /**
+     * Instante del análisis completo del que parte el resultado: el suyo si
+     * fue completo, o el que arrastra su diff si fue incremental
+     */
+    static long fullScanTimestamp(AnalysisResult result) {
+        return result.diff != null ? result.diff.fullScanTimestamp : result.timestamp;
+    }
+
+    /**
+     * Lanza el escaneo incremental
+     *
+     * @param baseline  Análisis de referencia ({@link #baselineFor(String)})
+     * @param onService Callback por cada servicio actual, arrastrado o identificado de nuevo
+     *                  (resolución de CPE y NVD)
+     */
+    public CompletableFuture<IncrementalScan> scan(String ip, AnalysisResult baseline,
+                                                   Consumer<ServiceDto> onService) {
+        return CompletableFuture.supplyAsync(() -> runScan(ip, baseline, onService), stageExecutor.executor());
+    }
+
+    /**
+     * Toma en segundo plano la huella de un servicio detectado en un análisis
+     * completo, para que el siguiente análisis incremental pueda compararla
+     */
+    public CompletableFuture<Void> fingerprintAsync(String ip, ServiceDto service) {
+        // Los servicios identificados por su banner ya traen la huella
+        if (!enabled || service.protocol != Protocol.TCP || service.fingerprint != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+            BannerGrabber.Banner banner = bannerGrabber.grab(ip, service.port);
+            service.fingerprint = banner != null ? banner.fingerprint() : null;
+        }, stageExecutor.executor());
+    }
+
+    /**
+     * Espera las huellas pendientes; las que no llegan a tiempo quedan vacías
+     * (el siguiente análisis incremental volverá a sondear ese puerto)
+     */
+    public void awaitFingerprints(List<CompletableFuture<Void>> pending) {
+        CompletableFuture<Void> all;
+        synchronized (pending) {
+            all = CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new));
+        }
+        try {
+            // Un margen sobre el plazo de cada sonda (conexión y lectura)
+            all.get(bannerGrabber.timeoutMillis() + 500L, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOG.debugf("Huellas de servicio incompletas tras %d ms", bannerGrabber.timeoutMillis() + 500L);
+        } catch (ExecutionException e) {
+            LOG.debugf("Error tomando huellas de servicio: %s", e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    IncrementalScan runScan(String ip, AnalysisResult baseline, Consumer<ServiceDto> onService) {
+        // Servicios anteriores en puertos que el perfil actual sigue escaneando
+        Map<String, ServiceDto> previous = new LinkedHashMap<>();
+        for (ServiceDto service : baseline.services) {
+            if (service.protocol == Protocol.TCP && nmapService.coversPort(service.port)) {
+                previous.put(key(service), service);
+            }
+        }
+
+        // Puertos abiertos ahora y huella de cada uno, en paralelo
+        List<ServiceDto> open = join(nmapScanScheduler.submitOpenPorts(ip));
+        Map<Integer, BannerGrabber.Banner> banners = join(bannerGrabber.grabAll(ip, open.stream()
+            .filter(service -> service.protocol == Protocol.TCP).map(service -> service.port).toList()));
+        Map<String, String> fingerprints = new LinkedHashMap<>();
+        banners.forEach((port, banner) -> fingerprints.put(key(port, Protocol.TCP), banner.fingerprint()));
+
+        List<ServiceDto> services = new ArrayList<>();
+
+        ServiceDiffDto diff = new ServiceDiffDto();
+        diff.baselineTimestamp = baseline.timestamp;
+        diff.fullScanTimestamp = fullScanTimestamp(baseline);
+        diff.added = new ArrayList<>();
+        diff.removed = new ArrayList<>();
+        diff.changed = new ArrayList<>();
+        diff.reprobedPorts = new ArrayList<>();
+
+        Set<String> openKeys = new HashSet<>();
+        for (ServiceDto service : open) {
+            String key = key(service);
+            openKeys.add(key);
+            ServiceDto before = previous.get(key);
+            String fingerprint = fingerprints.get(key);
+            // Sin huella anterior o actual no se puede afirmar que no cambió; un puerto
+            // silencioso (TLS, o que espera al cliente) tampoco dice nada del software
+            if (before == null || before.fingerprint == null || fingerprint == null
+                    || ServiceFingerprinter.SILENT.equals(fingerprint) || !before.fingerprint.equals(fingerprint)) {
+                diff.reprobedPorts.add(service.port);
+                continue;
+            }
+            ServiceDto carried = carry(before, fingerprint);
+            services.add(carried);
+            diff.unchanged++;
+            onService.accept(carried);
+        }
+        previous.forEach((key, before) -> {
+            if (!openKeys.contains(key)) {
+                diff.removed.add(before);
+            }
+        });
+
+        // Identificar de nuevo solo donde hace falta: con el banner ya leído o, si no basta, con -sV
+        if (!diff.reprobedPorts.isEmpty()) {
+            List<ServiceDto> reprobed = new ArrayList<>();
+            List<Integer> versionScan = new ArrayList<>();
+            for (Integer port : diff.reprobedPorts) {
+                BannerGrabber.Banner banner = banners.get(port);
+                if (bannerGrabber.isEnabled() && banner != null && banner.identified()) {
+                    ServiceDto service = bannerGrabber.toService(ip, port, banner);
+                    onService.accept(service);
+                    reprobed.add(service);
+                } else {
+                    versionScan.add(port);
+                }
+            }
+            LOG.infof("Análisis incremental de %s: %d servicios sin cambios, %d identificados por banner, -sV en %s",
+                ip, diff.unchanged, reprobed.size(), versionScan);
+            if (!versionScan.isEmpty()) {
+                reprobed.addAll(join(nmapScanScheduler.submit(ip, versionScan, service -> {
+                    service.fingerprint = fingerprints.get(key(service));
+                    onService.accept(service);
+                })));
+            }
+            Set<String> reprobedKeys = new HashSet<>();
+            for (ServiceDto after : reprobed) {
+                String key = key(after);
+                reprobedKeys.add(key);
+                services.add(after);
+                ServiceDto before = previous.get(key);
+                if (before == null) {
+                    diff.added.add(after);
+                } else if (sameService(before, after)) {
+                    diff.unchanged++;
+                } else {
+                    ServiceChangeDto change = new ServiceChangeDto();
+                    change.port = after.port;
+                    change.protocol = after.protocol;
+                    change.before = before;
+                    change.after = after;
+                    diff.changed.add(change);
+                }
+            }
+            // Cerrados entre la comprobación rápida y -sV
+            for (Integer port : diff.reprobedPorts) {
+                String key = key(port, Protocol.TCP);
+                if (!reprobedKeys.contains(key) && previous.containsKey(key)) {
+                    diff.removed.add(previous.get(key));
+                }
+            }
+        } else {
+            LOG.infof("Análisis incremental de %s: %d servicios sin cambios, sin puertos que volver a sondear",
+                ip, diff.unchanged);
+        }
+
+        services.sort(Comparator.comparingInt((ServiceDto s) -> s.port).thenComparing(s -> s.protocol));
+        return new IncrementalScan(services, diff);
+    }
+
+    /**
+     * Copia del servicio anterior con la huella actual, sin sus CVE ni el
+     * riesgo que le dieron: se recalculan con la consulta a NVD
+     */
+    private ServiceDto carry(ServiceDto before, String fingerprint) {
+        ServiceDto copy = new ServiceDto();
+        copy.host = before.host;
+        copy.port = before.port;
+        copy.protocol = before.protocol;
+        copy.service = before.service;
+        copy.version = before.version;
+        copy.banner = before.banner;
+        copy.fingerprint = fingerprint;
+        copy.cpe = before.cpe;
+        copy.vulnerabilities = new ArrayList<>();
+        copy.riskLevel = nmapService.calculateRiskLevel(before.port, before.service);
+        return copy;
+    }
+
+    private static boolean sameService(ServiceDto before, ServiceDto after) {
+        return Objects.equals(before.service, after.service)
+            && Objects.equals(before.version, after.version)
+            && Objects.equals(before.banner, after.banner);
+    }
+
+    private static String key(ServiceDto service) {
+        return key(service.port, service.protocol);
+    }
+
+    private static String key(int port, Protocol protocol) {
+        return port + "/" + protocol;
+    }
+
+    /**
+     * Espera un futuro propagando la causa original (p. ej. ServiceException de Nmap)
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
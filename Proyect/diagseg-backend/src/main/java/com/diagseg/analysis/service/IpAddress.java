@@ -0,0 +1,443 @@
+package com.diagseg.analysis.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Dirección IPv4 o IPv6 como valor de 128 bits (dos long).
+ *
+ * El parser recorre el texto carácter a carácter, sin expresiones regulares,
+ * split ni objetos intermedios, y nunca hace resoluciones DNS (a diferencia
+ * de InetAddress.getByName con un texto que no es un literal). Las IPv4
+ * mapeadas (::ffff:a.b.c.d) se tratan como IPv4, igual que InetAddress.
+ *
+ * {@link #toString()} es la forma canónica: decimal con puntos para IPv4 y
+ * RFC 5952 para IPv6 ("2001:db8::1", en minúsculas y con el tramo de ceros
+ * más largo comprimido), la misma que imprime Nmap.
+ */
+public final class IpAddress implements Comparable<IpAddress> {
+
+    // Resultado de parseIpv6 cuando solo se valida (no se construye el valor)
+    private static final IpAddress VALID = new IpAddress(0, 0, false);
+
+    private final long high; // bits 127..64 (0 en IPv4)
+    private final long low;  // bits 63..0; en IPv4, la dirección en los 32 bits bajos
+    private final boolean ipv4;
+
+    private IpAddress(long high, long low, boolean ipv4) {
+        this.high = high;
+        this.low = low;
+        this.ipv4 = ipv4;
+    }
+
+    /**
+     * Parsea un literal IPv4 o IPv6 (sin espacios, corchetes ni zona "%eth0")
+     *
+     * @throws IllegalArgumentException si el texto no es una IP válida
+     */
+    public static IpAddress parse(CharSequence text) {
+        IpAddress address = tryParse(text);
+        if (address == null) {
+            throw new IllegalArgumentException("Dirección IP inválida: " + text);
+        }
+        return address;
+    }
+
+    /**
+     * Como {@link #parse}, pero devuelve null si el texto no es una IP
+     */
+    public static IpAddress tryParse(CharSequence text) {
+        if (text == null) {
+            return null;
+        }
+        if (indexOf(text, ':') >= 0) {
+            return parseIpv6(text, 0, text.length(), true);
+        }
+        long bits = parseIpv4(text, 0, text.length());
+        return bits < 0 ? null : new IpAddress(0, bits, true);
+    }
+
+    /**
+     * Literal IPv4 "a.b.c.d" (cada octeto de 1 a 3 dígitos decimales)
+     */
+    public static boolean isIpv4(CharSequence text) {
+        return text != null && parseIpv4(text, 0, text.length()) >= 0;
+    }
+
+    /**
+     * Literal IPv6, incluidas las formas con IPv4 embebida ("::ffff:192.0.2.1")
+     */
+    public static boolean isIpv6(CharSequence text) {
+        return text != null && indexOf(text, ':') >= 0 && parseIpv6(text, 0, text.length(), false) != null;
+    }
+
+    public static IpAddress ofIpv4(long bits) {
+        return new IpAddress(0, bits & 0xFFFFFFFFL, true);
+    }
+
+    public static IpAddress ofIpv6(long high, long low) {
+        // ::ffff:0:0/96 es una IPv4 mapeada
+        if (high == 0 && (low >>> 32) == 0xFFFFL) {
+            return ofIpv4(low);
+        }
+        return new IpAddress(high, low, false);
+    }
+
+    /**
+     * Desde los 4 o 16 bytes de red (InetAddress.getAddress)
+     */
+    public static IpAddress of(byte[] bytes) {
+        if (bytes.length == 4) {
+            return ofIpv4(readLong(bytes, 0, 4));
+        }
+        if (bytes.length == 16) {
+            return ofIpv6(readLong(bytes, 0, 8), readLong(bytes, 8, 8));
+        }
+        throw new IllegalArgumentException("Longitud de dirección inválida: " + bytes.length);
+    }
+
+    /**
+     * Parsea un IPv4 en text[from, to)
+     *
+     * @return La dirección como entero sin signo de 32 bits, o -1 si no es válida
+     */
+    static long parseIpv4(CharSequence text, int from, int to) {
+        long value = 0;
+        int octets = 0;
+        int i = from;
+        while (true) {
+            int start = i;
+            int octet = 0;
+            char c;
+            while (i < to && (c = text.charAt(i)) >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (++i - start > 3) {
+                    return -1;
+                }
+            }
+            if (i == start || octet > 255) {
+                return -1;
+            }
+            value = (value << 8) | octet;
+            octets++;
+            if (i == to) {
+                return octets == 4 ? value : -1;
+            }
+            if (octets == 4 || text.charAt(i) != '.') {
+                return -1;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Parsea un IPv6 en text[from, to). Los grupos anteriores a "::" se
+     * acumulan en head y los posteriores en tail; al final se alinean.
+     *
+     * @param build false para solo validar, sin crear el valor
+     * @return La dirección, {@link #VALID} si build es false, o null si no es válida
+     */
+    private static IpAddress parseIpv6(CharSequence text, int from, int to, boolean build) {
+        if (to - from < 2) {
+            return null;
+        }
+        long headHi = 0;
+        long headLo = 0;
+        long tailHi = 0;
+        long tailLo = 0;
+        int headCount = 0;
+        int tailCount = 0;
+        boolean compressed = false;
+
+        int i = from;
+        if (text.charAt(i) == ':') {
+            if (text.charAt(i + 1) != ':') {
+                return null;
+            }
+            compressed = true;
+            i += 2;
+        }
+        while (i < to) {
+            int start = i;
+            int group = 0;
+            int digit;
+            while (i < to && i - start < 4 && (digit = hexDigit(text.charAt(i))) >= 0) {
+                group = (group << 4) | digit;
+                i++;
+            }
+            int groups = 1;
+            if (i < to && text.charAt(i) == '.') {
+                // IPv4 embebida: ocupa los dos últimos grupos
+                long ipv4 = parseIpv4(text, start, to);
+                if (ipv4 < 0) {
+                    return null;
+                }
+                groups = 2;
+                i = to;
+                if (compressed) {
+                    tailHi = (tailHi << 32) | (tailLo >>> 32);
+                    tailLo = (tailLo << 32) | ipv4;
+                    tailCount += 2;
+                } else {
+                    headHi = (headHi << 32) | (headLo >>> 32);
+                    headLo = (headLo << 32) | ipv4;
+                    headCount += 2;
+                }
+            } else {
+                if (i == start || (i < to && hexDigit(text.charAt(i)) >= 0)) {
+                    return null; // grupo vacío o de más de 4 dígitos
+                }
+                if (compressed) {
+                    tailHi = (tailHi << 16) | (tailLo >>> 48);
+                    tailLo = (tailLo << 16) | group;
+                    tailCount++;
+                } else {
+                    headHi = (headHi << 16) | (headLo >>> 48);
+                    headLo = (headLo << 16) | group;
+                    headCount++;
+                }
+            }
+            if (headCount + tailCount > 8) {
+                return null;
+            }
+            if (i == to) {
+                break;
+            }
+            if (groups == 2 || text.charAt(i) != ':' || ++i == to) {
+                return null; // separador inválido o ":" final suelto
+            }
+            if (text.charAt(i) == ':') {
+                if (compressed) {
+                    return null; // "::" solo puede aparecer una vez
+                }
+                compressed = true;
+                i++;
+            }
+        }
+
+        long hi;
+        long lo;
+        if (!compressed) {
+            if (headCount != 8) {
+                return null;
+            }
+            hi = headHi;
+            lo = headLo;
+        } else {
+            if (headCount + tailCount > 7) {
+                return null; // "::" debe sustituir al menos un grupo
+            }
+            int shift = 16 * (8 - headCount);
+            if (shift >= 128) {
+                hi = 0;
+                lo = 0;
+            } else if (shift >= 64) {
+                hi = headLo << (shift - 64);
+                lo = 0;
+            } else {
+                hi = (headHi << shift) | (headLo >>> (64 - shift));
+                lo = headLo << shift;
+            }
+            hi |= tailHi;
+            lo |= tailLo;
+        }
+        return build ? ofIpv6(hi, lo) : VALID;
+    }
+
+    public boolean isIpv4() {
+        return ipv4;
+    }
+
+    public boolean isIpv6() {
+        return !ipv4;
+    }
+
+    /**
+     * 32 o 128
+     */
+    public int bitLength() {
+        return ipv4 ? 32 : 128;
+    }
+
+    /**
+     * Bits 127..64 (0 en IPv4)
+     */
+    public long high() {
+        return high;
+    }
+
+    /**
+     * Bits 63..0; en IPv4, la dirección como entero sin signo de 32 bits
+     */
+    public long low() {
+        return low;
+    }
+
+    /**
+     * Dirección de red del prefijo: los bits a partir de prefixLength a cero
+     */
+    public IpAddress mask(int prefixLength) {
+        checkPrefix(prefixLength);
+        if (ipv4) {
+            return new IpAddress(0, low & ipv4Mask(prefixLength), true);
+        }
+        return new IpAddress(high & highMask(prefixLength), low & lowMask(prefixLength), false);
+    }
+
+    /**
+     * Última dirección del prefijo: los bits a partir de prefixLength a uno
+     */
+    public IpAddress lastInPrefix(int prefixLength) {
+        checkPrefix(prefixLength);
+        if (ipv4) {
+            return new IpAddress(0, low | (~ipv4Mask(prefixLength) & 0xFFFFFFFFL), true);
+        }
+        return new IpAddress(high | ~highMask(prefixLength), low | ~lowMask(prefixLength), false);
+    }
+
+    public byte[] toBytes() {
+        if (ipv4) {
+            return new byte[]{(byte) (low >>> 24), (byte) (low >>> 16), (byte) (low >>> 8), (byte) low};
+        }
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (low >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    /**
+     * InetAddress equivalente, sin resolución DNS
+     */
+    public InetAddress toInetAddress() {
+        try {
+            return InetAddress.getByAddress(toBytes());
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e); // longitud siempre válida
+        }
+    }
+
+    /**
+     * IPv4 antes que IPv6; dentro de cada familia, orden numérico
+     */
+    @Override
+    public int compareTo(IpAddress other) {
+        if (ipv4 != other.ipv4) {
+            return ipv4 ? -1 : 1;
+        }
+        int byHigh = Long.compareUnsigned(high, other.high);
+        return byHigh != 0 ? byHigh : Long.compareUnsigned(low, other.low);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IpAddress other && high == other.high && low == other.low && ipv4 == other.ipv4;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high) * 31 + Long.hashCode(low) + (ipv4 ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        if (ipv4) {
+            return formatIpv4(low);
+        }
+        // Tramo de ceros más largo (de al menos dos grupos; el primero si empatan)
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (group(i) != 0) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < 8 && group(i) == 0) {
+                i++;
+            }
+            if (i - start > bestLength) {
+                bestStart = start;
+                bestLength = i - start;
+            }
+        }
+        StringBuilder text = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                text.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (i > 0 && i != bestStart + bestLength) {
+                text.append(':');
+            }
+            text.append(Integer.toHexString(group(i)));
+        }
+        return text.toString();
+    }
+
+    static String formatIpv4(long address) {
+        return ((address >> 24) & 0xFF) + "." + ((address >> 16) & 0xFF) + "."
+            + ((address >> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+    private int group(int index) {
+        long half = index < 4 ? high : low;
+        return (int) (half >>> (48 - 16 * (index % 4))) & 0xFFFF;
+    }
+
+    private void checkPrefix(int prefixLength) {
+        if (prefixLength < 0 || prefixLength > bitLength()) {
+            throw new IllegalArgumentException("Longitud de prefijo fuera de rango: " + prefixLength);
+        }
+    }
+
+    private static long ipv4Mask(int prefixLength) {
+        return prefixLength == 0 ? 0L : (0xFFFFFFFFL << (32 - prefixLength)) & 0xFFFFFFFFL;
+    }
+
+    private static long highMask(int prefixLength) {
+        if (prefixLength >= 64) {
+            return -1L;
+        }
+        return prefixLength == 0 ? 0L : -1L << (64 - prefixLength);
+    }
+
+    private static long lowMask(int prefixLength) {
+        if (prefixLength <= 64) {
+            return 0L;
+        }
+        return prefixLength == 128 ? -1L : -1L << (128 - prefixLength);
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence text, char c) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long readLong(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,279 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.exception.ServiceException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cola de consultas a ip-api.com agrupadas en lotes.
+ *
+ * Las IPs que piden los análisis concurrentes se acumulan durante una ventana
+ * corta (o hasta llenar un lote de 100) y se resuelven con una sola petición
+ * a POST /batch. Cada llamador recibe su propio future, que se completa con la
+ * respuesta de su IP. Una IP que ya está en cola o en vuelo comparte la misma
+ * consulta.
+ *
+ * El endpoint /batch admite 15 peticiones por minuto; el presupuesto se
+ * reparte con un {@link TokenBucket} compartido. Los lotes se envían con el
+ * {@link OutboundHttpClient}: la espera de turno no ocupa ningún hilo.
+ */
+@ApplicationScoped
+public class IpApiBatcher {
+
+    private static final Logger LOG = Logger.getLogger(IpApiBatcher.class);
+
+    // Límite de IPs por petición de ip-api.com
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final String FIELDS = "status,message,query,as,isp,org";
+    private static final Pattern AS_NUMBER = Pattern.compile("AS(\\d+)");
+
+    @ConfigProperty(name = "asn.ip-api.url", defaultValue = "http://ip-api.com")
+    String baseUrl;
+
+    @ConfigProperty(name = "asn.ip-api.batch-window-millis", defaultValue = "50")
+    int batchWindowMillis;
+
+    @ConfigProperty(name = "asn.ip-api.batch-size", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "asn.ip-api.timeout-seconds", defaultValue = "10")
+    int timeoutSeconds;
+
+    @ConfigProperty(name = "asn.ip-api.rate-limit.requests-per-window", defaultValue = "15")
+    int rateLimitRequests;
+
+    @ConfigProperty(name = "asn.ip-api.rate-limit.window-seconds", defaultValue = "60")
+    int rateLimitWindowSeconds;
+
+    @ConfigProperty(name = "asn.ip-api.rate-limit.max-wait-seconds", defaultValue = "15")
+    int rateLimitMaxWaitSeconds;
+
+    // Un lote no puede sobrevivir a la etapa ASN de los análisis que lo esperan
+    @ConfigProperty(name = "analysis.stages.asn-timeout-seconds", defaultValue = "20")
+    int deadlineSeconds;
+
+    @Inject
+    OutboundHttpClient http;
+
+    private TokenBucket rateLimiter;
+    private CircuitBreaker circuitBreaker;
+    private ScheduledExecutorService timer;
+
+    // IPs esperando el próximo lote, en orden de llegada
+    private final Map<String, CompletableFuture<ASNService.ASNInfo>> pending = new LinkedHashMap<>();
+    // IPs en un lote ya enviado: las nuevas peticiones se unen a él
+    private final Map<String, CompletableFuture<ASNService.ASNInfo>> inFlight = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    @PostConstruct
+    void init() {
+        batchSize = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        rateLimiter = new TokenBucket("ip-api", rateLimitRequests, Duration.ofSeconds(rateLimitWindowSeconds));
+        circuitBreaker = http.circuitBreaker("ip-api");
+        timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("ip-api-batch").factory());
+        LOG.infof("Consultas a ip-api.com en lotes de hasta %d IPs (ventana %d ms, %d lotes cada %d s)",
+            batchSize, batchWindowMillis, rateLimitRequests, rateLimitWindowSeconds);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Encola la IP para el próximo lote
+     *
+     * @return Información ASN/ISP, null si ip-api.com no la conoce; falla con
+     *         ServiceException (ASN_SERVICE_UNAVAILABLE) si se agota el límite
+     */
+    public CompletableFuture<ASNService.ASNInfo> lookup(String ip) {
+        synchronized (pending) {
+            CompletableFuture<ASNService.ASNInfo> existing = pending.get(ip);
+            if (existing == null) {
+                existing = inFlight.get(ip);
+            }
+            if (existing != null) {
+                return existing;
+            }
+            CompletableFuture<ASNService.ASNInfo> future = new CompletableFuture<>();
+            pending.put(ip, future);
+            if (pending.size() >= batchSize) {
+                // Lote lleno: se envía sin esperar a la ventana
+                dispatch();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = timer.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+            }
+            return future;
+        }
+    }
+
+    private void flush() {
+        synchronized (pending) {
+            scheduledFlush = null;
+            if (!pending.isEmpty()) {
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Saca de la cola hasta un lote y lo envía fuera del lock. Con el lock de pending.
+     */
+    private void dispatch() {
+        Map<String, CompletableFuture<ASNService.ASNInfo>> batch = new LinkedHashMap<>();
+        var it = pending.entrySet().iterator();
+        while (it.hasNext() && batch.size() < batchSize) {
+            var entry = it.next();
+            batch.put(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+        inFlight.putAll(batch);
+        if (!pending.isEmpty() && scheduledFlush == null) {
+            scheduledFlush = timer.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+        }
+        timer.execute(() -> send(batch));
+    }
+
+    private void send(Map<String, CompletableFuture<ASNService.ASNInfo>> batch) {
+        query(new ArrayList<>(batch.keySet())).whenComplete((results, error) -> {
+            if (error != null) {
+                Throwable cause = OutboundHttpClient.unwrap(error);
+                batch.values().forEach(future -> future.completeExceptionally(cause));
+            } else {
+                // Cada llamador recibe su IP; las que no vinieron en la respuesta quedan sin datos
+                batch.forEach((ip, future) -> future.complete(results.get(ip)));
+            }
+            synchronized (pending) {
+                batch.forEach(inFlight::remove);
+            }
+        });
+    }
+
+    /**
+     * false mientras el circuito de ip-api.com está abierto
+     */
+    boolean available() {
+        return circuitBreaker.state() != CircuitBreaker.State.OPEN;
+    }
+
+    private CompletableFuture<Map<String, ASNService.ASNInfo>> query(List<String> ips) {
+        JsonArrayBuilder body = Json.createArrayBuilder();
+        ips.forEach(body::add);
+        HttpRequest request = HttpRequest.newBuilder()
+            .uri(URI.create(baseUrl + "/batch?fields=" + FIELDS))
+            // El plan gratuito es HTTP plano: sin ALPN no hay HTTP/2 que negociar
+            .version(HttpClient.Version.HTTP_1_1)
+            .timeout(Duration.ofSeconds(timeoutSeconds))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body.build().toString()))
+            .build();
+        OutboundHttpClient.Options options = OutboundHttpClient.Options.deadline(Duration.ofSeconds(deadlineSeconds))
+            .rateLimited(rateLimiter, Duration.ofSeconds(rateLimitMaxWaitSeconds))
+            .circuitBreaker(circuitBreaker);
+
+        return http.send(request, options).handle((response, error) -> {
+            if (error == null) {
+                return toResults(ips, response);
+            }
+            Throwable cause = OutboundHttpClient.unwrap(error);
+            if (cause instanceof OutboundHttpClient.RateLimitedException) {
+                LOG.warnf("Presupuesto local de ip-api.com agotado (%d lotes/%d s)", rateLimitRequests, rateLimitWindowSeconds);
+                throw rateLimited(String.format("Presupuesto local de %d lotes por %d s agotado (espera mayor a %d s)",
+                    rateLimitRequests, rateLimitWindowSeconds, rateLimitMaxWaitSeconds));
+            }
+            if (cause instanceof OutboundHttpClient.CircuitOpenException) {
+                // Ya se avisó al abrirse el circuito: las IPs quedan sin ASN hasta que se recupere
+                LOG.debugf("ip-api.com omitido (%d IPs): %s", ips.size(), cause.getMessage());
+                return Map.of();
+            }
+            LOG.warnf("Error consultando ip-api.com (%d IPs): %s", ips.size(), cause.getMessage());
+            return Map.of();
+        });
+    }
+
+    private Map<String, ASNService.ASNInfo> toResults(List<String> ips, HttpResponse<String> response) {
+        if (response.statusCode() == 429) {
+            LOG.warnf("Rate limit alcanzado en ip-api.com (lote de %d IPs)", ips.size());
+            throw rateLimited("HTTP 429 de ip-api.com - Rate limit de " + rateLimitRequests + " lotes/minuto alcanzado");
+        }
+        if (response.statusCode() != 200) {
+            LOG.warnf("ip-api.com respondió con código: %d", response.statusCode());
+            return Map.of();
+        }
+        LOG.debugf("Lote de %d IPs resuelto por ip-api.com (quedan %s peticiones en la ventana)",
+            ips.size(), response.headers().firstValue("X-Rl").orElse("?"));
+        return parse(response.body());
+    }
+
+    static Map<String, ASNService.ASNInfo> parse(String body) {
+        Map<String, ASNService.ASNInfo> results = new LinkedHashMap<>();
+        JsonArray items;
+        try (JsonReader reader = Json.createReader(new StringReader(body))) {
+            items = reader.readArray();
+        }
+        for (JsonValue value : items) {
+            if (value.getValueType() != JsonValue.ValueType.OBJECT) {
+                continue;
+            }
+            JsonObject item = value.asJsonObject();
+            String ip = item.getString("query", null);
+            if (ip == null || !"success".equals(item.getString("status", null))) {
+                continue;
+            }
+            String asn = item.getString("as", null);
+            String isp = blankToNull(item.getString("isp", null));
+            String org = blankToNull(item.getString("org", null));
+            // "as" viene como "AS15169 Google LLC": solo interesa el número
+            if (asn != null) {
+                Matcher matcher = AS_NUMBER.matcher(asn);
+                asn = matcher.find() ? "AS" + matcher.group(1) : null;
+            }
+            results.put(ip, new ASNService.ASNInfo(
+                asn != null ? asn : "Unknown",
+                org != null ? org : (isp != null ? isp : "Unknown"),
+                isp != null ? isp : "Unknown"));
+        }
+        return results;
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    private ServiceException rateLimited(String technicalDetail) {
+        return new ServiceException(
+            "El servicio de información de red está temporalmente sobrecargado",
+            technicalDetail,
+            "La información de ASN/ISP puede estar incompleta. Intente nuevamente en un minuto.",
+            ServiceException.ErrorCode.ASN_SERVICE_UNAVAILABLE
+        );
+    }
+}
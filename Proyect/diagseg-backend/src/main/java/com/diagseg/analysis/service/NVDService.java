@@ -1,9 +1,13 @@
 package com.diagseg.analysis.service;
 
+import com.diagseg.analysis.dto.CacheStatsDto;
 import com.diagseg.analysis.dto.VulnerabilityDto;
 import com.diagseg.analysis.dto.VulnerabilitySeverity;
 import com.diagseg.analysis.exception.ServiceException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import jakarta.json.Json;
 import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
@@ -11,17 +15,28 @@ import jakarta.json.JsonReader;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.io.IOException;
 import java.io.StringReader;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Servicio para consultar la API de NVD (National Vulnerability Database)
@@ -34,6 +49,13 @@ public class NVDService {
 
     private static final String NVD_API_URL = "https://services.nvd.nist.gov/rest/json/cves/2.0";
 
+    // Formato de fechas que espera la API para lastModStartDate/lastModEndDate
+    private static final DateTimeFormatter NVD_DATE_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSxxx").withZone(ZoneOffset.UTC);
+
+    // Prefijo de las claves de keyword en la cache (los CPE empiezan por "cpe:")
+    private static final String KEYWORD_KEY_PREFIX = "keyword:";
+
     @ConfigProperty(name = "nvd.api-key")
     Optional<String> apiKey;
 
@@ -46,12 +68,80 @@ public class NVDService {
     @ConfigProperty(name = "nvd.cache-ttl-minutes", defaultValue = "60")
     int cacheTtlMinutes;
 
-    private final HttpClient httpClient;
+    @ConfigProperty(name = "nvd.cache-max-entries", defaultValue = "2000")
+    int cacheMaxEntries;
+
+    @ConfigProperty(name = "nvd.rate-limit.window-seconds", defaultValue = "30")
+    int rateLimitWindowSeconds;
+
+    @ConfigProperty(name = "nvd.rate-limit.requests-per-window")
+    Optional<Integer> rateLimitRequestsPerWindow;
+
+    @ConfigProperty(name = "nvd.rate-limit.max-wait-seconds", defaultValue = "60")
+    int rateLimitMaxWaitSeconds;
+
+    @ConfigProperty(name = "nvd.max-attempts", defaultValue = "3")
+    int maxAttempts;
+
+    @ConfigProperty(name = "nvd.retry-backoff-millis", defaultValue = "2000")
+    int retryBackoffMillis;
+
+    // 0 desactiva el hedging
+    @ConfigProperty(name = "nvd.hedge-after-millis", defaultValue = "0")
+    long hedgeAfterMillis;
+
+    // Una consulta no puede sobrevivir a la etapa NVD del análisis que la pidió
+    @ConfigProperty(name = "analysis.stages.nvd-timeout-seconds", defaultValue = "90")
+    int deadlineSeconds;
+
+    // Plazo de cada página de la sincronización de la réplica (no depende de ningún análisis)
+    @ConfigProperty(name = "nvd.mirror.sync-timeout-seconds", defaultValue = "300")
+    int syncTimeoutSeconds;
+
+    @Inject
+    NvdMirrorService mirror;
+
+    @Inject
+    OutboundHttpClient http;
+
+    // Presupuesto de peticiones compartido por todas las consultas a NVD
+    private TokenBucket rateLimiter;
+
+    // Con NVD caído las consultas fallan al instante en lugar de agotar el plazo de la etapa
+    private CircuitBreaker circuitBreaker;
 
-    public NVDService() {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
+    // Circuito propio de la sincronización: una página lenta no debe cortar las búsquedas
+    private CircuitBreaker syncCircuitBreaker;
+
+    // Respuestas de NVD por CPE o keyword normalizados
+    private TtlCache<String, List<VulnerabilityDto>> responseCache;
+    private ScheduledExecutorService cachePurger;
+
+    @PostConstruct
+    void init() {
+        // NVD permite 5 peticiones por 30 s sin API key y 50 con API key
+        int permits = rateLimitRequestsPerWindow.orElse(hasApiKey() ? 50 : 5);
+        rateLimiter = new TokenBucket("nvd", permits, Duration.ofSeconds(rateLimitWindowSeconds));
+        LOG.infof("Límite local de NVD: %d peticiones cada %d segundos", permits, rateLimitWindowSeconds);
+
+        responseCache = new TtlCache<>("nvd", cacheMaxEntries, Duration.ofMinutes(cacheTtlMinutes));
+        cachePurger = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("nvd-cache").factory());
+        responseCache.schedulePurge(cachePurger);
+        circuitBreaker = http.circuitBreaker("nvd");
+        syncCircuitBreaker = http.circuitBreaker("nvd-sync");
+    }
+
+    @PreDestroy
+    void shutdown() {
+        cachePurger.shutdownNow();
+    }
+
+    /**
+     * Crea un lote de consultas para un análisis: deduplica CPE y los consulta en paralelo
+     */
+    public NvdQueryBatch newBatch() {
+        return new NvdQueryBatch(this);
     }
 
     /**
@@ -65,122 +155,156 @@ public class NVDService {
             LOG.warn("CPE vacío o nulo, no se puede buscar en NVD");
             return new ArrayList<>();
         }
+        return lookupByCpe(cpe).value;
+    }
 
-        int retryCount = 0;
-        int maxRetries = 2;
-
-        while (retryCount <= maxRetries) {
-            try {
-                LOG.infof("Consultando NVD API para CPE: %s (intento %d/%d)", cpe, retryCount + 1, maxRetries + 1);
-
-                // Construir URL con parámetros
-                String encodedCpe = URLEncoder.encode(cpe, StandardCharsets.UTF_8);
-                String url = String.format("%s?cpeName=%s&resultsPerPage=%d", 
-                    NVD_API_URL, encodedCpe, resultsPerPage);
-
-                // Construir request
-                HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
-                        .uri(URI.create(url))
-                        .timeout(Duration.ofSeconds(timeoutSeconds))
-                        .GET();
+    /**
+     * Igual que {@link #searchByCpe} pero indica si la respuesta salió de la cache.
+     * Consultas concurrentes del mismo CPE comparten una sola petición a NVD.
+     */
+    public TtlCache.Result<List<VulnerabilityDto>> lookupByCpe(String cpe) {
+        try {
+            return lookupByCpeAsync(cpe).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
 
-                // Agregar API key si está configurada (mejora rate limits)
-                apiKey.ifPresent(key -> requestBuilder.header("apiKey", key));
+    /**
+     * Versión asíncrona de {@link #lookupByCpe}: ningún hilo espera a NVD.
+     * Falla con ServiceException en los mismos casos.
+     */
+    public CompletableFuture<TtlCache.Result<List<VulnerabilityDto>>> lookupByCpeAsync(String cpe) {
+        // La réplica local responde en memoria; la API en vivo solo se usa si no está lista
+        Optional<List<VulnerabilityDto>> local = mirror.search(cpe);
+        if (local.isPresent()) {
+            return CompletableFuture.completedFuture(new TtlCache.Result<>(local.get(), false, 0));
+        }
+        return responseCache.lookupAsync(normalizeCpe(cpe), this::fetchByCpe);
+    }
 
-                HttpRequest request = requestBuilder.build();
+    /**
+     * Estadísticas de la cache de respuestas de NVD
+     */
+    public CacheStatsDto cacheStats() {
+        return responseCache.stats();
+    }
 
-                // Ejecutar request
-                HttpResponse<String> response;
-                try {
-                    response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-                } catch (java.net.http.HttpTimeoutException e) {
-                    LOG.warnf("Timeout consultando NVD API (intento %d)", retryCount + 1);
-                    if (retryCount == maxRetries) {
-                        throw new ServiceException(
-                            "La consulta de vulnerabilidades está tardando demasiado",
-                            String.format("NVD API timeout después de %d segundos", timeoutSeconds),
-                            "La base de datos de vulnerabilidades puede estar experimentando alta carga. Intente nuevamente en unos minutos.",
-                            ServiceException.ErrorCode.NVD_TIMEOUT,
-                            e
-                        );
-                    }
-                    retryCount++;
-                    Thread.sleep(2000 * retryCount); // Backoff exponencial
-                    continue;
-                } catch (java.net.ConnectException | java.net.UnknownHostException e) {
-                    throw new ServiceException(
-                        "No se pudo conectar al servicio de vulnerabilidades",
-                        "Error de conexión con NVD API: " + e.getMessage(),
-                        "Verifique su conexión a internet. El servicio NVD puede estar temporalmente no disponible.",
-                        ServiceException.ErrorCode.NVD_CONNECTION_ERROR,
-                        e
-                    );
+    /**
+     * Consulta NVD por CPE (sin cache). Los timeouts y los 502/503/504 se
+     * reintentan con backoff dentro del plazo de la etapa NVD.
+     */
+    private CompletableFuture<List<VulnerabilityDto>> fetchByCpe(String cpe) {
+        LOG.infof("Consultando NVD API para CPE: %s", cpe);
+
+        // Construir URL con parámetros
+        String encodedCpe = URLEncoder.encode(cpe, StandardCharsets.UTF_8);
+        String url = String.format("%s?cpeName=%s&resultsPerPage=%d",
+            NVD_API_URL, encodedCpe, resultsPerPage);
+
+        return http.send(newRequest(url), callOptions())
+            .handle((response, error) -> {
+                if (error != null) {
+                    throw toServiceException(cpe, OutboundHttpClient.unwrap(error));
                 }
+                return onCpeResponse(cpe, response);
+            });
+    }
 
-                // Verificar status code
-                if (response.statusCode() == 429) {
-                    // Rate limit exceeded
-                    String waitTimeHeader = response.headers().firstValue("Retry-After").orElse("60");
-                    int waitSeconds = Integer.parseInt(waitTimeHeader);
-                    
-                    LOG.warnf("Rate limit excedido en NVD API. Retry-After: %d segundos", waitSeconds);
-                    
-                    String apiKeyMessage = apiKey.isEmpty() 
-                        ? "Configure una API key de NVD para aumentar el límite de 5 a 50 peticiones por 30 segundos."
-                        : "Ha alcanzado el límite de 50 peticiones por 30 segundos.";
-                    
-                    throw new ServiceException(
-                        "Se ha excedido el límite de consultas al servicio de vulnerabilidades",
-                        String.format("HTTP 429 - Rate limit excedido. Retry-After: %d segundos", waitSeconds),
-                        String.format("Espere %d segundos antes de reintentar. %s", waitSeconds, apiKeyMessage),
-                        ServiceException.ErrorCode.NVD_RATE_LIMIT
-                    );
-                }
+    private List<VulnerabilityDto> onCpeResponse(String cpe, HttpResponse<String> response) {
+        // Verificar status code
+        if (response.statusCode() == 429) {
+            // Rate limit exceeded
+            String waitTimeHeader = response.headers().firstValue("Retry-After").orElse("60");
+            int waitSeconds = waitTimeHeader.chars().allMatch(Character::isDigit) ? Integer.parseInt(waitTimeHeader) : 60;
+
+            LOG.warnf("Rate limit excedido en NVD API. Retry-After: %d segundos", waitSeconds);
+
+            String apiKeyMessage = apiKey.isEmpty()
+                ? "Configure una API key de NVD para aumentar el límite de 5 a 50 peticiones por 30 segundos."
+                : "Ha alcanzado el límite de 50 peticiones por 30 segundos.";
+
+            throw new ServiceException(
+                "Se ha excedido el límite de consultas al servicio de vulnerabilidades",
+                String.format("HTTP 429 - Rate limit excedido. Retry-After: %d segundos", waitSeconds),
+                String.format("Espere %d segundos antes de reintentar. %s", waitSeconds, apiKeyMessage),
+                ServiceException.ErrorCode.NVD_RATE_LIMIT
+            );
+        }
 
-                if (response.statusCode() == 503) {
-                    throw new ServiceException(
-                        "El servicio de vulnerabilidades no está disponible temporalmente",
-                        "HTTP 503 - Service Unavailable de NVD API",
-                        "El servicio NVD está en mantenimiento o experimentando problemas. Intente nuevamente en unos minutos.",
-                        ServiceException.ErrorCode.NVD_CONNECTION_ERROR
-                    );
-                }
+        if (response.statusCode() == 503) {
+            throw new ServiceException(
+                "El servicio de vulnerabilidades no está disponible temporalmente",
+                "HTTP 503 - Service Unavailable de NVD API",
+                "El servicio NVD está en mantenimiento o experimentando problemas. Intente nuevamente en unos minutos.",
+                ServiceException.ErrorCode.NVD_CONNECTION_ERROR
+            );
+        }
 
-                if (response.statusCode() != 200) {
-                    LOG.errorf("NVD API respondió con código: %d. Body: %s", 
-                        response.statusCode(), response.body());
-                    
-                    // Para otros errores, devolver lista vacía en lugar de lanzar excepción
-                    // (permite continuar el análisis sin vulnerabilidades)
-                    LOG.warnf("Continuando sin datos de vulnerabilidades para CPE: %s", cpe);
-                    return new ArrayList<>();
-                }
+        if (response.statusCode() != 200) {
+            LOG.errorf("NVD API respondió con código: %d. Body: %s",
+                response.statusCode(), response.body());
+            // Se lanza en lugar de devolver una lista vacía: la cache solo guarda respuestas 200
+            // y el análisis lo registra como resultado parcial de NVD
+            throw invalidResponse(String.format("HTTP %d de NVD API para CPE %s", response.statusCode(), cpe), null);
+        }
 
-                // Parsear respuesta JSON
-                List<VulnerabilityDto> vulnerabilities = parseNvdResponse(response.body());
-                LOG.infof("Vulnerabilidades encontradas para CPE %s: %d", cpe, vulnerabilities.size());
+        // Parsear respuesta JSON
+        List<VulnerabilityDto> vulnerabilities = parseNvdResponse(response.body());
+        LOG.infof("Vulnerabilidades encontradas para CPE %s: %d", cpe, vulnerabilities.size());
 
-                return vulnerabilities;
+        return List.copyOf(vulnerabilities);
+    }
 
-            } catch (ServiceException e) {
-                throw e; // Re-lanzar excepciones de servicio
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new ServiceException(
-                    "La consulta fue interrumpida",
-                    "InterruptedException durante retry de NVD: " + e.getMessage(),
-                    "Intente realizar la consulta nuevamente",
-                    ServiceException.ErrorCode.NVD_CONNECTION_ERROR,
-                    e
-                );
-            } catch (Exception e) {
-                LOG.errorf(e, "Error inesperado consultando NVD API para CPE: %s", cpe);
-                // Devolver lista vacía para errores inesperados en lugar de fallar completamente
-                return new ArrayList<>();
-            }
+    /**
+     * Traduce el fallo de una consulta (CPE o keyword) a la ServiceException correspondiente
+     */
+    private ServiceException toServiceException(String query, Throwable error) {
+        if (error instanceof ServiceException e) {
+            return e;
         }
-
-        return new ArrayList<>();
+        if (error instanceof OutboundHttpClient.RateLimitedException) {
+            return rateLimited();
+        }
+        if (error instanceof OutboundHttpClient.CircuitOpenException e) {
+            return new ServiceException(
+                "El servicio de vulnerabilidades no está disponible temporalmente",
+                e.getMessage(),
+                "NVD ha fallado repetidamente y se ha dejado de consultar durante unos segundos. Intente nuevamente más tarde.",
+                ServiceException.ErrorCode.NVD_CONNECTION_ERROR,
+                e
+            );
+        }
+        if (error instanceof HttpTimeoutException e) {
+            LOG.warnf("Timeout consultando NVD API para %s: %s", query, e.getMessage());
+            return new ServiceException(
+                "La consulta de vulnerabilidades está tardando demasiado",
+                String.format("NVD API sin respuesta dentro del plazo de %d segundos (%s)", deadlineSeconds, e.getMessage()),
+                "La base de datos de vulnerabilidades puede estar experimentando alta carga. Intente nuevamente en unos minutos.",
+                ServiceException.ErrorCode.NVD_TIMEOUT,
+                e
+            );
+        }
+        if (error instanceof ConnectException || error instanceof UnknownHostException) {
+            return new ServiceException(
+                "No se pudo conectar al servicio de vulnerabilidades",
+                "Error de conexión con NVD API: " + error.getMessage(),
+                "Verifique su conexión a internet. El servicio NVD puede estar temporalmente no disponible.",
+                ServiceException.ErrorCode.NVD_CONNECTION_ERROR,
+                error
+            );
+        }
+        LOG.errorf(error, "Error inesperado consultando NVD API para: %s", query);
+        return new ServiceException(
+            "No se pudo consultar el servicio de vulnerabilidades",
+            "Error inesperado con NVD API: " + error.getClass().getSimpleName() + " - " + error.getMessage(),
+            "Intente nuevamente en unos minutos.",
+            ServiceException.ErrorCode.NVD_CONNECTION_ERROR,
+            error
+        );
     }
 
     /**
@@ -191,33 +315,110 @@ public class NVDService {
             return new ArrayList<>();
         }
 
+        String normalized = keyword.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
         try {
-            String encodedKeyword = URLEncoder.encode(keyword, StandardCharsets.UTF_8);
-            String url = String.format("%s?keywordSearch=%s&resultsPerPage=%d", 
-                NVD_API_URL, encodedKeyword, resultsPerPage);
+            return responseCache.get(KEYWORD_KEY_PREFIX + normalized,
+                key -> fetchByKeyword(key.substring(KEYWORD_KEY_PREFIX.length())));
+        } catch (ServiceException e) {
+            // El fallo no se cachea: la siguiente búsqueda vuelve a consultar NVD
+            LOG.errorf("Error en keyword search de NVD (%s): %s", keyword, e.getTechnicalDetails());
+            return new ArrayList<>();
+        }
+    }
 
-            HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .timeout(Duration.ofSeconds(timeoutSeconds))
-                    .GET();
+    /**
+     * Consulta NVD por keyword (sin cache). Falla con ServiceException ante
+     * cualquier respuesta que no sea un 200 válido, para que no se cachee.
+     */
+    private List<VulnerabilityDto> fetchByKeyword(String keyword) {
+        String encodedKeyword = URLEncoder.encode(keyword, StandardCharsets.UTF_8);
+        String url = String.format("%s?keywordSearch=%s&resultsPerPage=%d",
+            NVD_API_URL, encodedKeyword, resultsPerPage);
 
-            apiKey.ifPresent(key -> requestBuilder.header("apiKey", key));
+        HttpResponse<String> response;
+        try {
+            response = OutboundHttpClient.await(http.send(newRequest(url), callOptions()));
+        } catch (IOException e) {
+            throw toServiceException(keyword, e);
+        }
 
-            HttpRequest request = requestBuilder.build();
-            HttpResponse<String> response = httpClient.send(request, 
-                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            LOG.warnf("NVD keyword search falló con código: %d", response.statusCode());
+            throw invalidResponse(String.format("HTTP %d de NVD API para keyword %s", response.statusCode(), keyword), null);
+        }
 
-            if (response.statusCode() != 200) {
-                LOG.warnf("NVD keyword search falló con código: %d", response.statusCode());
-                return new ArrayList<>();
-            }
+        return List.copyOf(parseNvdResponse(response.body()));
+    }
 
-            return parseNvdResponse(response.body());
+    /**
+     * Petición GET a la API con la API key si está configurada (mejora rate limits)
+     */
+    private HttpRequest newRequest(String url) {
+        return newRequest(url, Duration.ofSeconds(timeoutSeconds));
+    }
 
-        } catch (Exception e) {
-            LOG.errorf(e, "Error en keyword search de NVD: %s", keyword);
-            return new ArrayList<>();
-        }
+    private HttpRequest newRequest(String url, Duration timeout) {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(timeout)
+                .GET();
+        apiKey.filter(key -> !key.isBlank()).ifPresent(key -> requestBuilder.header("apiKey", key));
+        return requestBuilder.build();
+    }
+
+    /**
+     * Plazo de la etapa NVD, reintentos con backoff y un token del presupuesto
+     * compartido por intento. Si el turno está más lejos que
+     * nvd.rate-limit.max-wait-seconds se informa como rate limit. Las
+     * consultas son GET, así que admiten hedging si está configurado.
+     */
+    private OutboundHttpClient.Options callOptions() {
+        return OutboundHttpClient.Options.deadline(Duration.ofSeconds(deadlineSeconds))
+            .retries(maxAttempts, Duration.ofMillis(retryBackoffMillis))
+            .rateLimited(rateLimiter, Duration.ofSeconds(rateLimitMaxWaitSeconds))
+            .circuitBreaker(circuitBreaker)
+            .hedged(Duration.ofMillis(hedgeAfterMillis));
+    }
+
+    /**
+     * Sincronización de la réplica: comparte el presupuesto de peticiones con
+     * las búsquedas, pero no su plazo ni su circuit breaker, y sin hedging (una
+     * copia de una página de 2000 CVE gastaría otro token por nada). Cada
+     * intento tiene nvd.mirror.sync-timeout-seconds y el plazo total cubre los
+     * reintentos.
+     */
+    private OutboundHttpClient.Options syncOptions() {
+        Duration deadline = Duration.ofSeconds((long) syncTimeoutSeconds * maxAttempts + rateLimitMaxWaitSeconds);
+        return OutboundHttpClient.Options.deadline(deadline)
+            .retries(maxAttempts, Duration.ofMillis(retryBackoffMillis))
+            .rateLimited(rateLimiter, Duration.ofSeconds(rateLimitMaxWaitSeconds))
+            .circuitBreaker(syncCircuitBreaker);
+    }
+
+    private ServiceException rateLimited() {
+        LOG.warnf("Presupuesto local de NVD agotado (%d peticiones/%d s)",
+            rateLimiter.capacity(), rateLimitWindowSeconds);
+        String apiKeyMessage = hasApiKey()
+            ? "Hay demasiadas consultas de vulnerabilidades en curso."
+            : "Configure una API key de NVD para aumentar el límite de 5 a 50 peticiones por 30 segundos.";
+        return new ServiceException(
+            "Se ha excedido el límite de consultas al servicio de vulnerabilidades",
+            String.format("Presupuesto local de %d peticiones por %d s agotado (espera mayor a %d s)",
+                rateLimiter.capacity(), rateLimitWindowSeconds, rateLimitMaxWaitSeconds),
+            String.format("Intente nuevamente en unos segundos. %s", apiKeyMessage),
+            ServiceException.ErrorCode.NVD_RATE_LIMIT
+        );
+    }
+
+    /**
+     * Normaliza un CPE para usarlo como clave de cache
+     */
+    static String normalizeCpe(String cpe) {
+        return cpe.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private boolean hasApiKey() {
+        return apiKey.filter(key -> !key.isBlank()).isPresent();
     }
 
     /**
@@ -262,15 +463,60 @@ public class NVDService {
 
         } catch (Exception e) {
             LOG.errorf(e, "Error parseando respuesta JSON de NVD");
+            throw invalidResponse("Respuesta JSON de NVD ilegible: " + e.getMessage(), e);
         }
 
         return vulnerabilities;
     }
 
+    private static ServiceException invalidResponse(String technicalDetail, Throwable cause) {
+        return new ServiceException(
+            "El servicio de vulnerabilidades devolvió una respuesta no válida",
+            technicalDetail,
+            "Los datos de vulnerabilidades pueden estar incompletos. Intente nuevamente en unos minutos.",
+            ServiceException.ErrorCode.NVD_INVALID_RESPONSE,
+            cause
+        );
+    }
+
+    /**
+     * Descarga una página de CVE modificados en [start, end] (sincronización de la réplica local).
+     * Usa el mismo presupuesto de peticiones que las búsquedas, con su propio plazo y circuito.
+     *
+     * @return cuerpo JSON de la página, con el mismo formato que los feeds JSON 2.0
+     */
+    String fetchModifiedCves(Instant start, Instant end, int startIndex, int pageSize) throws Exception {
+        String url = String.format("%s?lastModStartDate=%s&lastModEndDate=%s&startIndex=%d&resultsPerPage=%d",
+            NVD_API_URL,
+            URLEncoder.encode(NVD_DATE_FORMAT.format(start), StandardCharsets.UTF_8),
+            URLEncoder.encode(NVD_DATE_FORMAT.format(end), StandardCharsets.UTF_8),
+            startIndex, pageSize);
+
+        HttpResponse<String> response;
+        try {
+            response = OutboundHttpClient.await(http.send(
+                newRequest(url, Duration.ofSeconds(syncTimeoutSeconds)), syncOptions()));
+        } catch (OutboundHttpClient.RateLimitedException e) {
+            throw rateLimited();
+        }
+
+        if (response.statusCode() != 200) {
+            throw new ServiceException(
+                "No se pudo sincronizar la réplica local de vulnerabilidades",
+                String.format("NVD respondió HTTP %d a la consulta de CVE modificados", response.statusCode()),
+                "La sincronización se reintentará en el próximo ciclo",
+                response.statusCode() == 429
+                    ? ServiceException.ErrorCode.NVD_RATE_LIMIT
+                    : ServiceException.ErrorCode.NVD_CONNECTION_ERROR
+            );
+        }
+        return response.body();
+    }
+
     /**
      * Parsea un objeto CVE del JSON de NVD
      */
-    private VulnerabilityDto parseCveObject(JsonObject cve) {
+    VulnerabilityDto parseCveObject(JsonObject cve) {
         try {
             VulnerabilityDto vuln = new VulnerabilityDto();
 
@@ -407,23 +653,10 @@ public class NVDService {
     }
 
     /**
-     * Verifica si el servicio NVD está disponible
+     * Verifica si el servicio NVD está disponible según su circuit breaker
+     * (sin llamada de red: el estado lo mantienen las consultas reales)
      */
     public boolean healthCheck() {
-        try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(NVD_API_URL + "?resultsPerPage=1"))
-                    .timeout(Duration.ofSeconds(5))
-                    .GET()
-                    .build();
-
-            HttpResponse<String> response = httpClient.send(request, 
-                HttpResponse.BodyHandlers.ofString());
-
-            return response.statusCode() == 200;
-        } catch (Exception e) {
-            LOG.warnf("NVD health check falló: %s", e.getMessage());
-            return false;
-        }
+        return circuitBreaker.state() != CircuitBreaker.State.OPEN;
     }
 }
@@ -0,0 +1,513 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.Protocol;
+import com.diagseg.analysis.dto.ScanSchedulerStatsDto;
+import com.diagseg.analysis.dto.ServiceDto;
+import com.diagseg.analysis.exception.ServiceException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Planificador de escaneos Nmap con control de admisión.
+ *
+ * - Limita los procesos Nmap simultáneos (nmap.scheduler.max-concurrent).
+ * - Los escaneos que no caben esperan en una cola acotada; con la cola llena
+ *   la petición se rechaza con NMAP_QUEUE_FULL (HTTP 429).
+ * - Peticiones concurrentes sobre el mismo target comparten un único escaneo:
+ *   quien se une tarde recibe primero los servicios ya detectados y después
+ *   los nuevos, con los avisos de host terminado en el mismo orden. Cada
+ *   petición recibe sus propias copias de los ServiceDto, porque el análisis
+ *   los modifica (CPE, vulnerabilidades, riesgo).
+ * - En un solo host el descubrimiento de puertos y los banners forman parte
+ *   del escaneo planificado: ocupan su hueco y se comparten igual que Nmap.
+ */
+@ApplicationScoped
+public class NmapScanScheduler {
+
+    private static final Logger LOG = Logger.getLogger(NmapScanScheduler.class);
+
+    @ConfigProperty(name = "nmap.scheduler.max-concurrent", defaultValue = "4")
+    int maxConcurrent;
+
+    @ConfigProperty(name = "nmap.scheduler.queue-capacity", defaultValue = "16")
+    int queueCapacity;
+
+    @Inject
+    NmapService nmapService;
+
+    @Inject
+    PortScanner portScanner;
+
+    @Inject
+    BannerGrabber bannerGrabber;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<String, SharedScan> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalWaitMillis = new LongAdder();
+    private final LongAdder startedScans = new LongAdder();
+    private final LongAdder nmapSkipped = new LongAdder();
+    private final LongAdder bannerIdentified = new LongAdder();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        executor = new ThreadPoolExecutor(
+            maxConcurrent, maxConcurrent,
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            Thread.ofVirtual().name("nmap-scan-", 0).factory(),
+            new ThreadPoolExecutor.AbortPolicy());
+        LOG.infof("Planificador Nmap: %d escaneos simultáneos, cola de %d", maxConcurrent, queueCapacity);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Encola el escaneo de un target, o se une al que ya esté en curso para ese target.
+     *
+     * @param target    IP a escanear
+     * @param onService Callback por cada servicio detectado (incluye los ya detectados si se une tarde)
+     * @return Futuro con los servicios del escaneo; cancelarlo solo desuscribe a esta petición
+     * @throws ServiceException NMAP_QUEUE_FULL si no hay hueco en la cola
+     */
+    public CompletableFuture<List<ServiceDto>> submit(String target, Consumer<ServiceDto> onService) {
+        return submit(target, onService, host -> { });
+    }
+
+    /**
+     * Igual que {@link #submit(String, Consumer)}, recibiendo además la IP de cada
+     * host en cuanto Nmap termina con él (escaneos de rangos CIDR)
+     */
+    public CompletableFuture<List<ServiceDto>> submit(String target, Consumer<ServiceDto> onService,
+                                                      Consumer<String> onHostScanned) {
+        // Un solo host: los puertos abiertos se buscan antes dentro de la JVM y -sV solo los examina a ellos.
+        // El descubrimiento forma parte del escaneo planificado: pasa por la cola y se comparte por target
+        if (portScanner.isEnabled() && isSingleHost(target)) {
+            return submit(target, target, this::discoverAndScan, onService, onHostScanned);
+        }
+        return submit(target, target, nmapService::scanTarget, onService, onHostScanned);
+    }
+
+    /**
+     * Detección de versiones solo en los puertos indicados (análisis incremental)
+     */
+    public CompletableFuture<List<ServiceDto>> submit(String target, Collection<Integer> ports,
+                                                      Consumer<ServiceDto> onService) {
+        List<Integer> sorted = ports.stream().sorted().distinct().toList();
+        return submit(target + "|sV:" + sorted, target,
+            (t, publish, hostScanned) -> nmapService.scanTarget(t, sorted, publish), onService, host -> { });
+    }
+
+    /**
+     * Comprobación rápida de puertos abiertos, sin detección de versiones
+     */
+    public CompletableFuture<List<ServiceDto>> submitOpenPorts(String target) {
+        if (portScanner.isEnabled() && isSingleHost(target)) {
+            return submit(target + "|open", target, (t, publish, hostScanned) -> discoverOpenPorts(t), service -> { },
+                host -> { });
+        }
+        return submit(target + "|open", target,
+            (t, publish, hostScanned) -> nmapService.scanOpenPorts(t, publish), service -> { }, host -> { });
+    }
+
+    /**
+     * @param key  Identifica escaneos equivalentes (target y tipo de escaneo), que se comparten
+     * @param task Escaneo a ejecutar si no hay uno equivalente en curso
+     */
+    private CompletableFuture<List<ServiceDto>> submit(String key, String target, ScanTask task,
+                                                       Consumer<ServiceDto> onService,
+                                                       Consumer<String> onHostScanned) {
+        submitted.increment();
+
+        boolean[] created = {false};
+        SharedScan scan = inFlight.computeIfAbsent(key, k -> {
+            created[0] = true;
+            return new SharedScan(k, target, task);
+        });
+        CompletableFuture<List<ServiceDto>> view = scan.subscribe(onService, onHostScanned);
+
+        if (!created[0]) {
+            deduplicated.increment();
+            LOG.infof("Escaneo Nmap de %s ya en curso, se comparte el resultado", target);
+            return view;
+        }
+
+        try {
+            executor.execute(() -> run(scan));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, scan);
+            rejected.increment();
+            LOG.warnf("Cola de escaneos Nmap llena, se rechaza %s (%d activos, %d en cola)",
+                target, executor.getActiveCount(), executor.getQueue().size());
+            ServiceException error = new ServiceException(
+                "El servidor está atendiendo demasiados escaneos en este momento",
+                String.format("Cola de escaneos Nmap llena: %d en ejecución, %d en espera",
+                    executor.getActiveCount(), executor.getQueue().size()),
+                "Intente nuevamente en unos minutos",
+                ServiceException.ErrorCode.NMAP_QUEUE_FULL,
+                e
+            );
+            scan.fail(error);
+            throw error;
+        }
+        return view;
+    }
+
+    /**
+     * Descubrimiento de puertos con {@link PortScanner} y, si hay alguno abierto,
+     * identificación por banner y -sV solo sobre los que el banner no resuelve.
+     * Sin puertos abiertos no se lanza Nmap; si el descubrimiento falla se
+     * escanea con Nmap como siempre. Se ejecuta dentro de un hueco del
+     * planificador, así que bloquea el hilo (virtual) del escaneo.
+     */
+    private List<ServiceDto> discoverAndScan(String target, Consumer<ServiceDto> publish,
+                                             Consumer<String> hostScanned) throws ExecutionException {
+        List<Integer> open;
+        try {
+            open = await(portScanner.scan(target, nmapService.configuredTcpPorts()));
+        } catch (ExecutionException e) {
+            LOG.warnf("Descubrimiento de puertos de %s fallido (%s), se escanea solo con Nmap",
+                target, e.getCause().getMessage());
+            return nmapService.scanTarget(target, publish, hostScanned);
+        }
+        if (open.isEmpty()) {
+            nmapSkipped.increment();
+            LOG.infof("Ningún puerto abierto en %s: no se lanza Nmap", target);
+            hostScanned.accept(target);
+            return new ArrayList<>();
+        }
+        LOG.debugf("Puertos abiertos en %s: %s", target, open);
+        List<ServiceDto> services = identifyOpenPorts(target, open, publish);
+        hostScanned.accept(target);
+        return services;
+    }
+
+    /**
+     * Comprobación de puertos abiertos con {@link PortScanner}; si falla, con Nmap
+     */
+    private List<ServiceDto> discoverOpenPorts(String target) throws ExecutionException {
+        try {
+            return await(portScanner.scan(target, nmapService.configuredTcpPorts())).stream()
+                .map(port -> openPort(target, port)).toList();
+        } catch (ExecutionException e) {
+            LOG.warnf("Descubrimiento de puertos de %s fallido (%s), se comprueba con Nmap",
+                target, e.getCause().getMessage());
+            return nmapService.scanOpenPorts(target, service -> { });
+        }
+    }
+
+    /**
+     * Espera una operación asíncrona desde el hilo del escaneo; si el escaneo
+     * se interrumpe (parada del servidor) la cancela
+     */
+    private static <T> T await(CompletableFuture<T> future) throws ExecutionException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Escaneo interrumpido");
+        }
+    }
+
+    private static boolean isSingleHost(String target) {
+        String trimmed = target.trim();
+        return !trimmed.contains("/") && trimmed.indexOf(' ') < 0;
+    }
+
+    private static ServiceDto openPort(String host, int port) {
+        ServiceDto service = new ServiceDto();
+        service.host = host;
+        service.port = port;
+        service.protocol = Protocol.TCP;
+        service.vulnerabilities = new ArrayList<>();
+        return service;
+    }
+
+    /**
+     * Identifica los puertos abiertos por su banner y lanza -sV solo en los
+     * que el banner no resuelve. Si se reconocen todos, no se lanza Nmap.
+     */
+    private List<ServiceDto> identifyOpenPorts(String target, List<Integer> open, Consumer<ServiceDto> publish)
+            throws ExecutionException {
+        Map<Integer, BannerGrabber.Banner> banners = Map.of();
+        if (bannerGrabber.isEnabled()) {
+            try {
+                banners = await(bannerGrabber.grabAll(target, open));
+            } catch (ExecutionException e) {
+                LOG.debugf("Banners de %s no disponibles: %s", target, e.getCause().getMessage());
+            }
+        }
+        List<ServiceDto> identified = new ArrayList<>();
+        List<Integer> unknown = new ArrayList<>();
+        for (Integer port : open) {
+            BannerGrabber.Banner banner = banners.get(port);
+            if (banner != null && banner.identified()) {
+                ServiceDto service = bannerGrabber.toService(target, port, banner);
+                identified.add(service);
+                publish.accept(service);
+            } else {
+                unknown.add(port);
+            }
+        }
+        bannerIdentified.add(identified.size());
+        if (unknown.isEmpty()) {
+            nmapSkipped.increment();
+            LOG.infof("Servicios de %s identificados por banner: no se lanza Nmap", target);
+            return identified;
+        }
+        LOG.debugf("%s: %d servicios identificados por banner, -sV en %s", target, identified.size(), unknown);
+        List<ServiceDto> merged = new ArrayList<>(identified);
+        merged.addAll(nmapService.scanTarget(target, unknown, publish));
+        merged.sort(Comparator.comparingInt(service -> service.port));
+        return merged;
+    }
+
+    public ScanSchedulerStatsDto stats() {
+        ScanSchedulerStatsDto stats = new ScanSchedulerStatsDto();
+        stats.maxConcurrent = maxConcurrent;
+        stats.queueCapacity = queueCapacity;
+        stats.activeScans = executor.getActiveCount();
+        stats.queuedScans = executor.getQueue().size();
+        stats.inFlightTargets = inFlight.size();
+        stats.submitted = submitted.sum();
+        stats.deduplicated = deduplicated.sum();
+        stats.rejected = rejected.sum();
+        stats.completed = completed.sum();
+        long started = startedScans.sum();
+        stats.avgWaitMillis = started > 0 ? totalWaitMillis.sum() / started : 0;
+        stats.maxWaitMillis = maxWaitMillis.get();
+        stats.portDiscoveryEnabled = portScanner.isEnabled();
+        stats.portDiscoveries = portScanner.scans();
+        stats.portProbes = portScanner.probes();
+        stats.portProbeTimeouts = portScanner.timeouts();
+        stats.nmapSkipped = nmapSkipped.sum();
+        stats.bannerEnabled = bannerGrabber.isEnabled();
+        stats.bannerIdentified = bannerIdentified.sum();
+        return stats;
+    }
+
+    private void run(SharedScan scan) {
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scan.enqueuedNanos);
+        startedScans.increment();
+        totalWaitMillis.add(waitedMillis);
+        maxWaitMillis.accumulateAndGet(waitedMillis, Math::max);
+
+        try {
+            // Todas las peticiones abandonaron mientras esperaba en cola: no se lanza Nmap
+            if (!scan.hasSubscribers()) {
+                LOG.debugf("Escaneo de %s descartado: sin peticiones esperando", scan.target);
+                scan.complete(List.of());
+                return;
+            }
+            LOG.debugf("Escaneo de %s inicia tras %d ms en cola", scan.target, waitedMillis);
+            scan.complete(scan.task.run(scan.target, scan::publish, scan::publishHostScanned));
+        } catch (Exception e) {
+            scan.fail(e);
+        } finally {
+            inFlight.remove(scan.key, scan);
+            completed.increment();
+        }
+    }
+
+    private static ServiceDto copyOf(ServiceDto source) {
+        ServiceDto copy = new ServiceDto();
+        copy.host = source.host;
+        copy.port = source.port;
+        copy.protocol = source.protocol;
+        copy.service = source.service;
+        copy.version = source.version;
+        copy.banner = source.banner;
+        copy.fingerprint = source.fingerprint;
+        copy.cpe = source.cpe;
+        copy.vulnerabilities = source.vulnerabilities != null ? new ArrayList<>(source.vulnerabilities) : null;
+        copy.riskLevel = source.riskLevel;
+        return copy;
+    }
+
+    /**
+     * Ejecución de Nmap de un escaneo, publicando servicios y hosts terminados
+     */
+    @FunctionalInterface
+    private interface ScanTask {
+        List<ServiceDto> run(String target, Consumer<ServiceDto> onService, Consumer<String> onHostScanned)
+            throws Exception;
+    }
+
+    /**
+     * Escaneo compartido por todas las peticiones del mismo target y tipo de escaneo
+     */
+    private static class SharedScan {
+        final String key;
+        final String target;
+        final ScanTask task;
+        final long enqueuedNanos = System.nanoTime();
+        final CompletableFuture<List<ServiceDto>> result = new CompletableFuture<>();
+        // Servicios y hosts terminados, en el orden en que los reportó Nmap
+        final List<ScanEvent> published = new ArrayList<>();
+        final List<Subscriber> subscribers = new ArrayList<>();
+
+        SharedScan(String key, String target, ScanTask task) {
+            this.key = key;
+            this.target = target;
+            this.task = task;
+        }
+
+        CompletableFuture<List<ServiceDto>> subscribe(Consumer<ServiceDto> listener,
+                                                      Consumer<String> hostListener) {
+            Subscriber subscriber = new Subscriber(listener, hostListener);
+            synchronized (this) {
+                subscribers.add(subscriber);
+            }
+            // Repetir lo ya detectado antes de recibir servicios nuevos
+            drain(subscriber);
+
+            CompletableFuture<List<ServiceDto>> view = result.thenApply(subscriber::copiesOf);
+            view.whenComplete((services, error) -> {
+                if (view.isCancelled()) {
+                    unsubscribe(subscriber);
+                }
+            });
+            return view;
+        }
+
+        void publish(ServiceDto service) {
+            publish(new ScanEvent(service, null));
+        }
+
+        void publishHostScanned(String host) {
+            publish(new ScanEvent(null, host));
+        }
+
+        /**
+         * Se anota el evento con el monitor tomado y se entrega fuera de él:
+         * un listener lento no bloquea suscripciones ni a los demás suscriptores
+         */
+        private void publish(ScanEvent event) {
+            List<Subscriber> targets;
+            synchronized (this) {
+                published.add(event);
+                targets = new ArrayList<>(subscribers);
+            }
+            targets.forEach(this::drain);
+        }
+
+        /**
+         * Entrega al suscriptor los eventos que aún no ha recibido. El lock del
+         * suscriptor mantiene el orden si publican y repiten dos hilos a la vez
+         */
+        private void drain(Subscriber subscriber) {
+            synchronized (subscriber) {
+                List<ScanEvent> pending;
+                synchronized (this) {
+                    pending = new ArrayList<>(published.subList(subscriber.delivered, published.size()));
+                    subscriber.delivered = published.size();
+                }
+                pending.forEach(subscriber::deliver);
+            }
+        }
+
+        synchronized boolean hasSubscribers() {
+            return !subscribers.isEmpty();
+        }
+
+        synchronized void unsubscribe(Subscriber subscriber) {
+            subscribers.remove(subscriber);
+        }
+
+        void complete(List<ServiceDto> services) {
+            result.complete(services);
+        }
+
+        void fail(Throwable error) {
+            result.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Servicio detectado o, si service es null, host terminado
+     */
+    private record ScanEvent(ServiceDto service, String scannedHost) {
+    }
+
+    /**
+     * Petición suscrita a un escaneo, con sus propias copias de los servicios
+     */
+    private static class Subscriber {
+        final Consumer<ServiceDto> listener;
+        final Consumer<String> hostListener;
+        final Map<ServiceDto, ServiceDto> copies = new IdentityHashMap<>();
+        // Eventos de SharedScan.published ya entregados
+        int delivered;
+
+        Subscriber(Consumer<ServiceDto> listener, Consumer<String> hostListener) {
+            this.listener = listener;
+            this.hostListener = hostListener;
+        }
+
+        void deliver(ScanEvent event) {
+            if (event.service() != null) {
+                deliver(event.service());
+                return;
+            }
+            try {
+                hostListener.accept(event.scannedHost());
+            } catch (Exception e) {
+                LOG.warnf(e, "Error notificando host escaneado %s", event.scannedHost());
+            }
+        }
+
+        void deliver(ServiceDto service) {
+            ServiceDto copy = copyOf(service);
+            synchronized (copies) {
+                copies.put(service, copy);
+            }
+            try {
+                listener.accept(copy);
+            } catch (Exception e) {
+                LOG.warnf(e, "Error notificando servicio %d/%s", service.port, service.protocol);
+            }
+        }
+
+        List<ServiceDto> copiesOf(List<ServiceDto> services) {
+            List<ServiceDto> result = new ArrayList<>(services.size());
+            synchronized (copies) {
+                for (ServiceDto service : services) {
+                    result.add(copies.computeIfAbsent(service, NmapScanScheduler::copyOf));
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -1,27 +1,30 @@
 package com.diagseg.analysis.service;
 
-import com.diagseg.analysis.dto.Protocol;
 import com.diagseg.analysis.dto.RiskLevel;
 import com.diagseg.analysis.dto.ServiceDto;
 import com.diagseg.analysis.exception.ServiceException;
 import jakarta.enterprise.context.ApplicationScoped;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Servicio para ejecutar escaneos Nmap y parsear resultados XML
@@ -31,6 +34,9 @@ public class NmapService {
 
     private static final Logger LOG = Logger.getLogger(NmapService.class);
 
+    // Máximo de stderr que se conserva para diagnosticar errores
+    private static final int MAX_ERROR_OUTPUT = 8192;
+
     @ConfigProperty(name = "nmap.timeout", defaultValue = "60")
     int nmapTimeoutSeconds;
 
@@ -40,6 +46,16 @@ public class NmapService {
     @ConfigProperty(name = "nmap.temp-dir", defaultValue = "/tmp")
     String tempDir;
 
+    @ConfigProperty(name = "nmap.stream-output", defaultValue = "true")
+    boolean streamOutput;
+
+    @ConfigProperty(name = "nmap.range-timeout", defaultValue = "300")
+    int rangeTimeoutSeconds;
+
+    // nmap.ports expandido; se calcula en el primer uso
+    private volatile BitSet tcpPortSet;
+    private volatile boolean tcpPortsParsed;
+
     /**
      * Escanea una IP usando Nmap y devuelve lista de servicios detectados
      * 
@@ -47,14 +63,91 @@ public class NmapService {
      * @return Lista de servicios detectados con versiones
      */
     public List<ServiceDto> scanTarget(String target) {
+        return scanTarget(target, service -> { });
+    }
+
+    /**
+     * Escanea una IP usando Nmap notificando cada servicio en cuanto se detecta.
+     * En modo streaming (nmap.stream-output) el callback se invoca mientras Nmap
+     * sigue ejecutándose, lo que permite adelantar etapas posteriores (NVD).
+     *
+     * @param target    Dirección IP o hostname a escanear
+     * @param onService Callback invocado por cada servicio abierto, desde el hilo del escaneo
+     * @return Lista de servicios detectados con versiones
+     */
+    public List<ServiceDto> scanTarget(String target, Consumer<ServiceDto> onService) {
+        return scanTarget(target, onService, host -> { });
+    }
+
+    /**
+     * Igual que {@link #scanTarget(String, Consumer)}, avisando además cuando un
+     * host queda completo (todos sus servicios ya entregados). En rangos CIDR
+     * permite procesar cada host sin esperar al resto del escaneo.
+     *
+     * @param onHostScanned Callback con la IP de cada host terminado, desde el hilo del escaneo
+     */
+    public List<ServiceDto> scanTarget(String target, Consumer<ServiceDto> onService, Consumer<String> onHostScanned) {
+        return scan(target, new ScanOptions(defaultPorts, true), onService, onHostScanned);
+    }
+
+    /**
+     * Detección de versiones (-sV) solo en los puertos indicados. Lo usa el
+     * análisis incremental para volver a sondear únicamente lo que cambió.
+     *
+     * @param ports Puertos TCP a escanear; no puede estar vacío
+     */
+    public List<ServiceDto> scanTarget(String target, Collection<Integer> ports, Consumer<ServiceDto> onService) {
+        return scan(target, new ScanOptions(joinPorts(ports), true), onService, host -> { });
+    }
+
+    /**
+     * Escaneo rápido de los puertos configurados sin detección de versiones:
+     * solo indica qué puertos están abiertos (el servicio es el que Nmap asocia
+     * al número de puerto, sin versión ni CPE)
+     */
+    public List<ServiceDto> scanOpenPorts(String target, Consumer<ServiceDto> onService) {
+        return scan(target, new ScanOptions(defaultPorts, false), onService, host -> { });
+    }
+
+    private List<ServiceDto> scan(String target, ScanOptions options, Consumer<ServiceDto> onService,
+                                  Consumer<String> onHostScanned) {
         try {
-            // Generar nombre único para archivo temporal
-            String scanId = UUID.randomUUID().toString().substring(0, 8);
-            String xmlOutputPath = tempDir + "/nmap_scan_" + scanId + ".xml";
+            LOG.infof("Iniciando escaneo Nmap para target: %s (puertos: %s%s)",
+                target, options.ports(), options.versionDetection() ? "" : ", sin -sV");
+            List<ServiceDto> services = streamOutput
+                ? executeNmapStreaming(target, options, onService, onHostScanned)
+                : scanWithTempFile(target, options, onService, onHostScanned);
+            LOG.infof("Escaneo completado. Servicios encontrados: %d", services.size());
+            return services;
+
+        } catch (ServiceException e) {
+            // Timeout, Nmap ausente, permisos o código de salida: la etapa debe fallar, no devolver 0 servicios
+            LOG.errorf("Error ejecutando escaneo Nmap para target %s: %s", target, e.getTechnicalDetails());
+            throw e;
+        } catch (Exception e) {
+            LOG.errorf(e, "Error ejecutando escaneo Nmap para target: %s", target);
+            throw new ServiceException(
+                "Error inesperado durante el escaneo",
+                "Excepción interna: " + e.getClass().getSimpleName() + " - " + e.getMessage(),
+                "Contacte al administrador del sistema si el problema persiste",
+                ServiceException.ErrorCode.NMAP_EXECUTION_ERROR,
+                e
+            );
+        }
+    }
+
+    /**
+     * Modo clásico: Nmap escribe el XML en nmap.temp-dir y se parsea al terminar
+     */
+    private List<ServiceDto> scanWithTempFile(String target, ScanOptions options, Consumer<ServiceDto> onService,
+                                              Consumer<String> onHostScanned) {
+        // Generar nombre único para archivo temporal
+        String scanId = UUID.randomUUID().toString().substring(0, 8);
+        String xmlOutputPath = tempDir + "/nmap_scan_" + scanId + ".xml";
 
+        try {
             // Ejecutar Nmap
-            LOG.infof("Iniciando escaneo Nmap para target: %s", target);
-            boolean success = executeNmap(target, xmlOutputPath);
+            boolean success = executeNmap(target, options, xmlOutputPath);
 
             if (!success) {
                 LOG.warnf("Escaneo Nmap falló para target: %s", target);
@@ -63,114 +156,278 @@ public class NmapService {
 
             // Parsear XML resultante
             List<ServiceDto> services = parseNmapXml(xmlOutputPath);
-            LOG.infof("Escaneo completado. Servicios encontrados: %d", services.size());
+            services.forEach(service -> notifyService(onService, service));
+            services.stream().map(service -> service.host).distinct()
+                .forEach(host -> notifyHostScanned(onHostScanned, host));
+            return services;
 
+        } finally {
             // Limpiar archivo temporal
             try {
                 Files.deleteIfExists(Path.of(xmlOutputPath));
             } catch (Exception e) {
                 LOG.warnf("No se pudo eliminar archivo temporal: %s", xmlOutputPath);
             }
+        }
+    }
+
+    /**
+     * Construye el comando Nmap. El target puede ser una lista de hosts separados
+     * por espacios (lotes): se escanean todos con un único proceso.
+     *
+     * @param xmlOutput Ruta del XML de salida, o "-" para escribirlo en stdout
+     */
+    private String[] buildCommand(String target, ScanOptions options, String xmlOutput) {
+        // -sT: TCP connect scan (no requiere permisos de root, compatible con Railway)
+        // -sV: detección de versiones
+        // -Pn: sin descubrimiento de hosts (para hosts concretos; en rangos se omite
+        //      para no escanear cada dirección inactiva)
+        // -p: puertos a escanear
+        // --open: solo puertos abiertos
+        // -oX: output en formato XML
+        // -T4: timing template (más rápido pero detectable)
+        List<String> command = new ArrayList<>(List.of("nmap", "-sT"));
+        if (options.versionDetection()) {
+            command.add("-sV");
+        }
+        if (!isRange(target)) {
+            command.add("-Pn");
+        }
+        command.addAll(List.of(
+            "-p", options.ports(),
+            "--open",
+            "-T4",
+            "-oX", xmlOutput
+        ));
+        command.addAll(List.of(target.trim().split("\\s+")));
+        return command.toArray(String[]::new);
+    }
+
+    /**
+     * Perfil de escaneo: lo que determina qué servicios puede encontrar Nmap.
+     * Resultados obtenidos con otro perfil no son comparables.
+     */
+    public String scanProfile() {
+        return "sT-sV:" + defaultPorts;
+    }
+
+    /**
+     * Indica si el puerto TCP está entre los configurados en nmap.ports. Si
+     * nmap.ports usa nombres de servicio se asume que sí.
+     */
+    public boolean coversPort(int port) {
+        BitSet ports = tcpPorts();
+        return ports == null || ports.get(port);
+    }
+
+    /**
+     * Puertos TCP de nmap.ports expandidos (admite rangos "1-1024" y el prefijo "T:"),
+     * o null si incluye nombres de servicio o puertos UDP, que solo Nmap sabe escanear
+     */
+    public List<Integer> configuredTcpPorts() {
+        BitSet ports = tcpPorts();
+        return ports == null ? null : ports.stream().boxed().toList();
+    }
+
+    private BitSet tcpPorts() {
+        if (!tcpPortsParsed) {
+            tcpPortSet = parseTcpPorts(defaultPorts);
+            tcpPortsParsed = true;
+        }
+        return tcpPortSet;
+    }
+
+    static BitSet parseTcpPorts(String spec) {
+        BitSet ports = new BitSet(65536);
+        for (String item : spec.split(",")) {
+            String range = item.trim();
+            if (range.startsWith("T:")) {
+                range = range.substring(2);
+            }
+            int dash = range.indexOf('-');
+            try {
+                int low = dash < 0 ? Integer.parseInt(range) : (dash == 0 ? 1 : Integer.parseInt(range.substring(0, dash)));
+                int high = dash < 0 ? low
+                    : (dash == range.length() - 1 ? 65535 : Integer.parseInt(range.substring(dash + 1)));
+                if (low < 1 || high > 65535 || low > high) {
+                    return null;
+                }
+                ports.set(low, high + 1);
+            } catch (NumberFormatException e) {
+                // Nombres de servicio ("http") o "U:53": no se pueden expandir sin Nmap
+                return null;
+            }
+        }
+        return ports;
+    }
+
+    /**
+     * Tiempo máximo de Nmap para el target: los rangos CIDR y las listas de
+     * hosts tienen su propio límite
+     */
+    int timeoutFor(String target) {
+        return isRange(target) || target.trim().indexOf(' ') >= 0 ? rangeTimeoutSeconds : nmapTimeoutSeconds;
+    }
+
+    private static boolean isRange(String target) {
+        return target.contains("/");
+    }
+
+    private static String joinPorts(Collection<Integer> ports) {
+        if (ports.isEmpty()) {
+            throw new IllegalArgumentException("Lista de puertos vacía");
+        }
+        return ports.stream().sorted().distinct().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    /**
+     * Puertos a escanear (sintaxis de -p) y si se detectan versiones (-sV)
+     */
+    private record ScanOptions(String ports, boolean versionDetection) {
+    }
+
+    /**
+     * Arranca el proceso Nmap, traduciendo la ausencia del binario a NMAP_NOT_FOUND
+     */
+    private Process startProcess(ProcessBuilder pb) throws java.io.IOException {
+        try {
+            return pb.start();
+        } catch (java.io.IOException e) {
+            if (e.getMessage().contains("No such file")) {
+                throw new ServiceException(
+                    "Nmap no está instalado en el sistema",
+                    "El comando 'nmap' no se encontró en el PATH del sistema",
+                    "Instale Nmap usando: 'sudo apt install nmap' (Ubuntu/Debian) o 'brew install nmap' (macOS)",
+                    ServiceException.ErrorCode.NMAP_NOT_FOUND,
+                    e
+                );
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Ejecuta Nmap con -oX - y parsea el XML directamente desde stdout mientras se genera.
+     * Evita escribir, sincronizar y releer el archivo temporal.
+     */
+    private List<ServiceDto> executeNmapStreaming(String target, ScanOptions options, Consumer<ServiceDto> onService,
+                                                  Consumer<String> onHostScanned) {
+        Process process = null;
+        int timeoutSeconds = timeoutFor(target);
+        try {
+            String[] command = buildCommand(target, options, "-");
+            LOG.debugf("Ejecutando comando: %s", String.join(" ", command));
+
+            // stdout lleva el XML; stderr se drena aparte para no bloquear a Nmap
+            process = startProcess(new ProcessBuilder(command));
+            Process running = process;
+
+            StringBuffer errorOutput = new StringBuffer();
+            Thread stderrDrainer = Thread.ofVirtual().name("nmap-stderr").start(
+                () -> drain(running.getErrorStream(), errorOutput));
+
+            // El parser bloquea leyendo stdout: el watchdog mata el proceso al agotar el timeout
+            AtomicBoolean timedOut = new AtomicBoolean(false);
+            Thread watchdog = Thread.ofVirtual().name("nmap-watchdog").start(() -> {
+                try {
+                    if (!running.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                        timedOut.set(true);
+                        // Incluye los hijos: si alguno hereda stdout, el parser no vería el EOF
+                        running.descendants().forEach(ProcessHandle::destroyForcibly);
+                        running.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+
+            List<ServiceDto> services = new ArrayList<>();
+            NmapXmlParser parser = new NmapXmlParser(service -> {
+                service.riskLevel = calculateRiskLevel(service.port, service.service);
+                LOG.debugf("Puerto detectado: %s %d/%s - %s %s - CPE: %s",
+                    service.host, service.port, service.protocol, service.service, service.version, service.cpe);
+                services.add(service);
+                notifyService(onService, service);
+            }, host -> notifyHostScanned(onHostScanned, host));
+
+            try (InputStream in = new BufferedInputStream(process.getInputStream())) {
+                parser.parse(in);
+            } catch (XMLStreamException e) {
+                // XML truncado: el proceso murió (timeout) o Nmap abortó; se decide con el código de salida
+                LOG.debugf("XML de Nmap incompleto: %s", e.getMessage());
+            }
 
+            process.waitFor();
+            watchdog.interrupt();
+            stderrDrainer.join(TimeUnit.SECONDS.toMillis(1));
+
+            if (timedOut.get()) {
+                LOG.errorf("Timeout ejecutando Nmap después de %d segundos", timeoutSeconds);
+                throw new ServiceException(
+                    "El escaneo está tardando demasiado tiempo",
+                    String.format("Nmap excedió el tiempo límite de %d segundos", timeoutSeconds),
+                    "Intente nuevamente con menos puertos o aumente el timeout en la configuración",
+                    ServiceException.ErrorCode.NMAP_TIMEOUT
+                );
+            }
+
+            checkExitCode(process.exitValue(), errorOutput.toString());
+            LOG.debugf("Nmap completado exitosamente (stdout). Hosts: %d", parser.hosts());
             return services;
 
+        } catch (ServiceException e) {
+            throw e; // Re-lanzar excepciones de servicio
         } catch (Exception e) {
-            LOG.errorf(e, "Error ejecutando escaneo Nmap para target: %s", target);
-            return new ArrayList<>();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            LOG.errorf(e, "Error inesperado ejecutando comando Nmap");
+            throw new ServiceException(
+                "Error inesperado durante el escaneo",
+                "Excepción interna: " + e.getClass().getSimpleName() + " - " + e.getMessage(),
+                "Contacte al administrador del sistema si el problema persiste",
+                ServiceException.ErrorCode.NMAP_EXECUTION_ERROR,
+                e
+            );
+        } finally {
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
         }
     }
 
     /**
      * Ejecuta comando Nmap
      */
-    private boolean executeNmap(String target, String outputPath) {
+    private boolean executeNmap(String target, ScanOptions options, String outputPath) {
+        int timeoutSeconds = timeoutFor(target);
         try {
-            // Construir comando Nmap
-            // -sT: TCP connect scan (no requiere permisos de root, compatible con Railway)
-            // -sV: detección de versiones
-            // -p: puertos a escanear
-            // --open: solo puertos abiertos
-            // -oX: output en formato XML
-            // -T4: timing template (más rápido pero detectable)
-            String[] command = {
-                "nmap",
-                "-sT",  // TCP connect scan (sin raw sockets)
-                "-sV",
-                "-Pn",
-                "-p", defaultPorts,
-                "--open",
-                "-T4",
-                "-oX", outputPath,
-                target
-            };
-
+            String[] command = buildCommand(target, options, outputPath);
             LOG.debugf("Ejecutando comando: %s", String.join(" ", command));
 
             ProcessBuilder pb = new ProcessBuilder(command);
             pb.redirectErrorStream(true);
-            Process process;
-            
-            try {
-                process = pb.start();
-            } catch (java.io.IOException e) {
-                if (e.getMessage().contains("No such file")) {
-                    throw new ServiceException(
-                        "Nmap no está instalado en el sistema",
-                        "El comando 'nmap' no se encontró en el PATH del sistema",
-                        "Instale Nmap usando: 'sudo apt install nmap' (Ubuntu/Debian) o 'brew install nmap' (macOS)",
-                        ServiceException.ErrorCode.NMAP_NOT_FOUND,
-                        e
-                    );
-                }
-                throw e;
-            }
+            Process process = startProcess(pb);
 
             // Capturar output para debugging
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(process.getInputStream())
-            );
-            StringBuilder output = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-            }
+            StringBuffer output = new StringBuffer();
+            drain(process.getInputStream(), output);
 
             // Esperar con timeout
-            boolean finished = process.waitFor(nmapTimeoutSeconds, TimeUnit.SECONDS);
+            boolean finished = process.waitFor(timeoutSeconds, TimeUnit.SECONDS);
 
             if (!finished) {
                 process.destroyForcibly();
-                LOG.errorf("Timeout ejecutando Nmap después de %d segundos", nmapTimeoutSeconds);
+                LOG.errorf("Timeout ejecutando Nmap después de %d segundos", timeoutSeconds);
                 throw new ServiceException(
                     "El escaneo está tardando demasiado tiempo",
-                    String.format("Nmap excedió el tiempo límite de %d segundos", nmapTimeoutSeconds),
+                    String.format("Nmap excedió el tiempo límite de %d segundos", timeoutSeconds),
                     "Intente nuevamente con menos puertos o aumente el timeout en la configuración",
                     ServiceException.ErrorCode.NMAP_TIMEOUT
                 );
             }
 
-            int exitCode = process.exitValue();
-            if (exitCode != 0) {
-                String errorOutput = output.toString();
-                LOG.errorf("Nmap falló con código: %d. Output: %s", exitCode, errorOutput);
-                
-                // Detectar error de permisos
-                if (errorOutput.contains("Permission denied") || errorOutput.contains("Operation not permitted")) {
-                    throw new ServiceException(
-                        "Permisos insuficientes para ejecutar el escaneo",
-                        String.format("Nmap requiere permisos especiales. Código de salida: %d", exitCode),
-                        "Configure los permisos correctos para Nmap o ejecute el servicio con privilegios adecuados",
-                        ServiceException.ErrorCode.NMAP_PERMISSION_DENIED
-                    );
-                }
-                
-                throw new ServiceException(
-                    "Error al ejecutar el escaneo de puertos",
-                    String.format("Nmap falló con código %d: %s", exitCode, errorOutput.substring(0, Math.min(200, errorOutput.length()))),
-                    "Verifique que la dirección IP/dominio sea válida y accesible",
-                    ServiceException.ErrorCode.NMAP_EXECUTION_ERROR
-                );
-            }
+            checkExitCode(process.exitValue(), output.toString());
 
             // Verificar que se creó el archivo XML
             File xmlFile = new File(outputPath);
@@ -202,136 +459,104 @@ public class NmapService {
     }
 
     /**
-     * Parsea XML de Nmap y extrae servicios
+     * Traduce un código de salida distinto de 0 en la ServiceException correspondiente
      */
-    private List<ServiceDto> parseNmapXml(String xmlPath) {
-        List<ServiceDto> services = new ArrayList<>();
-
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new File(xmlPath));
-            doc.getDocumentElement().normalize();
-
-            // Navegar a <host> -> <ports> -> <port>
-            NodeList hostList = doc.getElementsByTagName("host");
-            if (hostList.getLength() == 0) {
-                LOG.warn("No se encontró tag <host> en XML de Nmap");
-                return services;
-            }
-
-            Element hostElement = (Element) hostList.item(0);
-            NodeList portsList = hostElement.getElementsByTagName("port");
+    private void checkExitCode(int exitCode, String errorOutput) {
+        if (exitCode == 0) {
+            return;
+        }
+        LOG.errorf("Nmap falló con código: %d. Output: %s", exitCode, errorOutput);
 
-            LOG.debugf("Parseando %d puertos del XML", portsList.getLength());
+        // Detectar error de permisos
+        if (errorOutput.contains("Permission denied") || errorOutput.contains("Operation not permitted")) {
+            throw new ServiceException(
+                "Permisos insuficientes para ejecutar el escaneo",
+                String.format("Nmap requiere permisos especiales. Código de salida: %d", exitCode),
+                "Configure los permisos correctos para Nmap o ejecute el servicio con privilegios adecuados",
+                ServiceException.ErrorCode.NMAP_PERMISSION_DENIED
+            );
+        }
 
-            for (int i = 0; i < portsList.getLength(); i++) {
-                Element portElement = (Element) portsList.item(i);
+        throw new ServiceException(
+            "Error al ejecutar el escaneo de puertos",
+            String.format("Nmap falló con código %d: %s", exitCode, errorOutput.substring(0, Math.min(200, errorOutput.length()))),
+            "Verifique que la dirección IP/dominio sea válida y accesible",
+            ServiceException.ErrorCode.NMAP_EXECUTION_ERROR
+        );
+    }
 
-                try {
-                    ServiceDto service = parsePort(portElement);
-                    if (service != null) {
-                        services.add(service);
-                    }
-                } catch (Exception e) {
-                    LOG.warnf(e, "Error parseando puerto en índice %d", i);
+    /**
+     * Lee un stream del proceso hasta el final, conservando como máximo MAX_ERROR_OUTPUT caracteres
+     */
+    private static void drain(InputStream stream, StringBuffer output) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (output.length() < MAX_ERROR_OUTPUT) {
+                    output.append(line).append("\n");
                 }
             }
-
-        } catch (Exception e) {
-            LOG.errorf(e, "Error parseando XML de Nmap: %s", xmlPath);
+        } catch (java.io.IOException e) {
+            LOG.debugf("Stream de Nmap cerrado: %s", e.getMessage());
         }
-
-        return services;
     }
 
     /**
-     * Parsea un elemento <port> del XML de Nmap
+     * Entrega un servicio al callback sin que un fallo del consumidor corte el escaneo
      */
-    private ServiceDto parsePort(Element portElement) {
+    private static void notifyService(Consumer<ServiceDto> onService, ServiceDto service) {
         try {
-            // Atributos del puerto
-            int port = Integer.parseInt(portElement.getAttribute("portid"));
-            String protocolStr = portElement.getAttribute("protocol");
-            Protocol protocol = "udp".equalsIgnoreCase(protocolStr) ? Protocol.UDP : Protocol.TCP;
-
-            // Estado del puerto
-            NodeList stateList = portElement.getElementsByTagName("state");
-            if (stateList.getLength() == 0) {
-                return null; // Sin estado, puerto cerrado o filtrado
-            }
-            Element stateElement = (Element) stateList.item(0);
-            String state = stateElement.getAttribute("state");
+            onService.accept(service);
+        } catch (Exception e) {
+            LOG.warnf(e, "Error procesando servicio detectado %d/%s", service.port, service.protocol);
+        }
+    }
 
-            if (!"open".equals(state)) {
-                return null; // Solo puertos abiertos
-            }
+    private static void notifyHostScanned(Consumer<String> onHostScanned, String host) {
+        try {
+            onHostScanned.accept(host);
+        } catch (Exception e) {
+            LOG.warnf(e, "Error procesando host escaneado %s", host);
+        }
+    }
 
-            // Información del servicio
-            NodeList serviceList = portElement.getElementsByTagName("service");
-            String serviceName = "unknown";
-            String version = null;
-            String banner = null;
-            String cpe = null;
-
-            if (serviceList.getLength() > 0) {
-                Element serviceElement = (Element) serviceList.item(0);
-                serviceName = serviceElement.getAttribute("name");
-                
-                String product = serviceElement.getAttribute("product");
-                String serviceVersion = serviceElement.getAttribute("version");
-                
-                // Construir versión completa
-                if (product != null && !product.isEmpty()) {
-                    version = product;
-                    if (serviceVersion != null && !serviceVersion.isEmpty()) {
-                        version += " " + serviceVersion;
-                    }
-                }
+    /**
+     * Parsea XML de Nmap y extrae servicios de todos los hosts
+     */
+    private List<ServiceDto> parseNmapXml(String xmlPath) {
+        List<ServiceDto> services = new ArrayList<>();
 
-                // Banner (extrainfo o tunnel)
-                String extraInfo = serviceElement.getAttribute("extrainfo");
-                String tunnel = serviceElement.getAttribute("tunnel");
-                if (extraInfo != null && !extraInfo.isEmpty()) {
-                    banner = extraInfo;
-                } else if (tunnel != null && !tunnel.isEmpty()) {
-                    banner = "tunnel: " + tunnel;
-                }
+        NmapXmlParser parser = new NmapXmlParser(service -> {
+            service.riskLevel = calculateRiskLevel(service.port, service.service);
+            LOG.debugf("Puerto detectado: %s %d/%s - %s %s - CPE: %s",
+                service.host, service.port, service.protocol, service.service, service.version, service.cpe);
+            services.add(service);
+        });
 
-                // CPE (Common Platform Enumeration)
-                NodeList cpeList = serviceElement.getElementsByTagName("cpe");
-                if (cpeList.getLength() > 0) {
-                    cpe = cpeList.item(0).getTextContent();
-                }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Path.of(xmlPath)))) {
+            parser.parse(in);
+            if (parser.hosts() == 0) {
+                LOG.warn("No se encontró tag <host> en XML de Nmap");
             }
-
-            // Crear DTO
-            ServiceDto service = new ServiceDto();
-            service.port = port;
-            service.protocol = protocol;
-            service.service = serviceName;
-            service.version = version != null ? version : "Unknown";
-            service.banner = banner;
-            service.vulnerabilities = new ArrayList<>(); // Se llenarán con NVDService
-            service.riskLevel = calculateRiskLevel(port, serviceName);
-
-            // Logging para debugging
-            LOG.debugf("Puerto detectado: %d/%s - %s %s - CPE: %s", 
-                port, protocolStr, serviceName, service.version, cpe);
-
-            return service;
-
         } catch (Exception e) {
-            LOG.warnf(e, "Error parseando elemento <port>");
-            return null;
+            LOG.errorf(e, "Error parseando XML de Nmap: %s", xmlPath);
+            throw new ServiceException(
+                "No se pudieron interpretar los resultados del escaneo",
+                "XML de Nmap ilegible: " + e.getMessage(),
+                "Intente nuevamente; si el problema persiste revise la versión de Nmap instalada",
+                ServiceException.ErrorCode.NMAP_EXECUTION_ERROR,
+                e
+            );
         }
+
+        return services;
     }
 
     /**
      * Calcula nivel de riesgo basado en puerto y servicio
      * Esto es una heurística simple, se refinará con datos de vulnerabilidades
      */
-    private RiskLevel calculateRiskLevel(int port, String service) {
+    RiskLevel calculateRiskLevel(int port, String service) {
         // Puertos críticos con historial de vulnerabilidades
         if (port == 23 || port == 21 || port == 3389) { // Telnet, FTP, RDP
             return RiskLevel.HIGH;
@@ -355,37 +580,4 @@ public class NmapService {
         // Otros puertos: riesgo medio por defecto
         return RiskLevel.MEDIUM;
     }
-
-    /**
-     * Extrae CPE de un servicio para búsqueda en NVD
-     * (Se puede llamar desde NVDService para obtener el CPE del XML)
-     */
-    public String extractCpeForService(String serviceName, String version) {
-        // Esta es una simplificación. En producción, se debería parsear
-        // el CPE directamente del XML o construirlo usando base de datos de CPEs
-
-        if (serviceName == null || version == null) {
-            return null;
-        }
-
-        // Ejemplos de construcción de CPE 2.3
-        if (serviceName.contains("ssh") && version.contains("OpenSSH")) {
-            String versionNumber = version.replaceAll("[^0-9.]", "");
-            return String.format("cpe:2.3:a:openbsd:openssh:%s:*:*:*:*:*:*:*", versionNumber);
-        }
-
-        if (serviceName.contains("http") && version.contains("Apache")) {
-            String versionNumber = version.replaceAll("[^0-9.]", "");
-            return String.format("cpe:2.3:a:apache:http_server:%s:*:*:*:*:*:*:*", versionNumber);
-        }
-
-        if (serviceName.contains("http") && version.contains("nginx")) {
-            String versionNumber = version.replaceAll("[^0-9.]", "");
-            return String.format("cpe:2.3:a:nginx:nginx:%s:*:*:*:*:*:*:*", versionNumber);
-        }
-
-        // Por ahora retornamos null para servicios no mapeados
-        // En producción, se usaría una base de datos de mapeo servicio->CPE
-        return null;
-    }
 }
@@ -0,0 +1,220 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.Protocol;
+import com.diagseg.analysis.dto.ServiceDto;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Parser en streaming (StAX) de la salida XML de Nmap (-oX).
+ *
+ * Recorre el documento una sola vez y entrega cada servicio abierto en cuanto
+ * se cierra su {@code <port>}, sin construir el árbol completo: la memoria se
+ * mantiene constante aunque el escaneo tenga miles de puertos o varios hosts.
+ * Procesa todos los {@code <host>} del documento; cada servicio lleva la IP
+ * del host en el que se detectó, y al cerrarse cada {@code <host>} se avisa
+ * de que sus servicios ya están completos.
+ */
+public class NmapXmlParser {
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final Consumer<ServiceDto> onService;
+    private final Consumer<String> onHostScanned;
+
+    private int hosts;
+    private int services;
+
+    public NmapXmlParser(Consumer<ServiceDto> onService) {
+        this(onService, host -> { });
+    }
+
+    /**
+     * @param onService     Callback por cada servicio abierto
+     * @param onHostScanned Callback con la IP de cada host al cerrarse su {@code <host>}
+     */
+    public NmapXmlParser(Consumer<ServiceDto> onService, Consumer<String> onHostScanned) {
+        this.onService = onService;
+        this.onHostScanned = onHostScanned;
+    }
+
+    /**
+     * Parsea el XML completo. El stream no se cierra.
+     *
+     * @return número de servicios abiertos entregados
+     */
+    public int parse(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try {
+            String host = null;
+            boolean inHost = false;
+            PortState port = null;
+            boolean inService = false;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "host" -> {
+                            inHost = true;
+                            host = null;
+                        }
+                        case "address" -> {
+                            // <hosthint> también trae <address>: solo cuenta la del <host>, y no la MAC
+                            if (inHost && host == null
+                                    && !"mac".equals(reader.getAttributeValue(null, "addrtype"))) {
+                                host = reader.getAttributeValue(null, "addr");
+                            }
+                        }
+                        case "port" -> {
+                            if (inHost) {
+                                port = new PortState(
+                                    reader.getAttributeValue(null, "protocol"),
+                                    reader.getAttributeValue(null, "portid"));
+                            }
+                        }
+                        case "state" -> {
+                            if (port != null) {
+                                port.state = reader.getAttributeValue(null, "state");
+                            }
+                        }
+                        case "service" -> {
+                            if (port != null) {
+                                inService = true;
+                                port.name = reader.getAttributeValue(null, "name");
+                                port.product = reader.getAttributeValue(null, "product");
+                                port.version = reader.getAttributeValue(null, "version");
+                                port.extraInfo = reader.getAttributeValue(null, "extrainfo");
+                                port.tunnel = reader.getAttributeValue(null, "tunnel");
+                            }
+                        }
+                        case "cpe" -> {
+                            if (port != null && inService) {
+                                port.addCpe(reader.getElementText().trim());
+                            }
+                        }
+                        default -> {
+                            // Resto de elementos (scripts, os, times...) no se usan
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "service" -> inService = false;
+                        case "port" -> {
+                            if (port != null && "open".equals(port.state)) {
+                                ServiceDto service = port.toService(host);
+                                if (service != null) {
+                                    services++;
+                                    onService.accept(service);
+                                }
+                            }
+                            port = null;
+                        }
+                        case "host" -> {
+                            inHost = false;
+                            hosts++;
+                            if (host != null) {
+                                onHostScanned.accept(host);
+                            }
+                        }
+                        default -> {
+                        }
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return services;
+    }
+
+    /**
+     * Número de {@code <host>} procesados
+     */
+    public int hosts() {
+        return hosts;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // La salida de Nmap declara DOCTYPE: no se resuelven DTD ni entidades externas
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * Datos acumulados del {@code <port>} en curso
+     */
+    private static class PortState {
+        final String protocol;
+        final String portId;
+        String state;
+        String name;
+        String product;
+        String version;
+        String extraInfo;
+        String tunnel;
+        String cpe;
+
+        PortState(String protocol, String portId) {
+            this.protocol = protocol;
+            this.portId = portId;
+        }
+
+        // CPE (Common Platform Enumeration): preferir el de la aplicación
+        void addCpe(String value) {
+            if (value.isEmpty()) {
+                return;
+            }
+            if (cpe == null || (!cpe.startsWith("cpe:/a:") && value.startsWith("cpe:/a:"))) {
+                cpe = value;
+            }
+        }
+
+        ServiceDto toService(String host) {
+            int portNumber;
+            try {
+                portNumber = Integer.parseInt(portId);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            // Construir versión completa
+            String fullVersion = null;
+            if (product != null && !product.isEmpty()) {
+                fullVersion = product;
+                if (version != null && !version.isEmpty()) {
+                    fullVersion += " " + version;
+                }
+            }
+
+            // Banner (extrainfo o tunnel)
+            String banner = null;
+            if (extraInfo != null && !extraInfo.isEmpty()) {
+                banner = extraInfo;
+            } else if (tunnel != null && !tunnel.isEmpty()) {
+                banner = "tunnel: " + tunnel;
+            }
+
+            ServiceDto service = new ServiceDto();
+            service.host = host;
+            service.port = portNumber;
+            service.protocol = "udp".equalsIgnoreCase(protocol) ? Protocol.UDP : Protocol.TCP;
+            service.service = name != null && !name.isEmpty() ? name : "unknown";
+            service.version = fullVersion != null ? fullVersion : "Unknown";
+            service.banner = banner;
+            service.cpe = cpe;
+            service.vulnerabilities = new ArrayList<>(); // Se llenarán con NVDService
+            return service;
+        }
+    }
+}
@@ -0,0 +1,575 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.NvdMirrorStatusDto;
+import com.diagseg.analysis.dto.VulnerabilityDto;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Réplica local de NVD construida a partir de los feeds JSON 2.0 en disco.
+ *
+ * Los CVE se indexan por vendor:product de sus criterios CPE, de modo que
+ * {@link #search(String)} resuelve un CPE en memoria sin tocar la red.
+ * Cada cierto tiempo se piden a la API los CVE modificados desde la última
+ * sincronización (lastModStartDate/lastModEndDate); cada página recibida se
+ * guarda en el directorio de feeds para que un reinicio no tenga que repetirla.
+ * Cuando se acumulan demasiadas páginas se funden en un único fichero
+ * comprimido con la última versión de cada CVE.
+ */
+@Startup
+@ApplicationScoped
+public class NvdMirrorService {
+
+    private static final Logger LOG = Logger.getLogger(NvdMirrorService.class);
+
+    private static final String DELTA_PREFIX = "nvd-delta-";
+    private static final String SYNC_STATE_FILE = ".last-sync";
+    private static final String COMPACTED_DELTA_FILE = DELTA_PREFIX + "compacted.json.gz";
+
+    // La API de NVD no admite rangos de lastMod mayores a 120 días
+    private static final Duration MAX_SYNC_RANGE = Duration.ofDays(120);
+
+    @ConfigProperty(name = "nvd.mirror.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "nvd.mirror.feed-dir", defaultValue = "data/nvd")
+    String feedDir;
+
+    @ConfigProperty(name = "nvd.mirror.sync-interval-minutes", defaultValue = "120")
+    int syncIntervalMinutes;
+
+    @ConfigProperty(name = "nvd.mirror.sync-page-size", defaultValue = "2000")
+    int syncPageSize;
+
+    @ConfigProperty(name = "nvd.mirror.compact-after-deltas", defaultValue = "24")
+    int compactAfterDeltas;
+
+    @ConfigProperty(name = "nvd.results-per-page", defaultValue = "20")
+    int resultsPerPage;
+
+    @Inject
+    NVDService nvdService;
+
+    // null hasta que termina la primera carga con datos
+    private volatile Snapshot snapshot;
+    private volatile Instant lastSync;
+    private volatile String lastSyncError;
+    private volatile long loadMillis;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            LOG.info("Réplica local de NVD deshabilitada, se usará la API en vivo");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("nvd-mirror").factory());
+
+        // Carga en segundo plano: mientras tanto las consultas usan la API en vivo
+        scheduler.execute(this::loadFeeds);
+        if (syncIntervalMinutes > 0) {
+            scheduler.scheduleWithFixedDelay(this::syncSafely, 0, syncIntervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * true cuando la réplica tiene datos cargados y puede responder consultas
+     */
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    /**
+     * Busca vulnerabilidades de un CPE en la réplica local.
+     *
+     * @return vacío si la réplica no está lista (el llamador debe usar la API en vivo)
+     */
+    public Optional<List<VulnerabilityDto>> search(String cpe) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return Optional.empty();
+        }
+
+        CpeName name = CpeName.parse(cpe);
+        if (name == null || !name.hasVersion()) {
+            return Optional.of(List.of());
+        }
+
+        Version version = Version.parse(name.version);
+        Set<String> cveIds = new LinkedHashSet<>();
+        for (CpeMatch match : current.byProduct.getOrDefault(name.productKey(), List.of())) {
+            if (match.matches(name, version)) {
+                cveIds.add(match.cveId);
+            }
+        }
+
+        // Igual que la API: como máximo resultsPerPage, priorizando los de mayor CVSS
+        List<VulnerabilityDto> vulnerabilities = cveIds.stream()
+                .map(id -> current.records.get(id).vulnerability)
+                .sorted(Comparator.comparingDouble((VulnerabilityDto v) -> v.cvss).reversed())
+                .limit(resultsPerPage)
+                .toList();
+        return Optional.of(vulnerabilities);
+    }
+
+    /**
+     * Indica si la réplica conoce el producto (vendor:product).
+     * Sin réplica cargada siempre devuelve true: no hay forma de descartarlo.
+     */
+    public boolean knowsProduct(String vendor, String product) {
+        Snapshot current = snapshot;
+        return current == null || current.byProduct.containsKey(vendor + ":" + product);
+    }
+
+    public NvdMirrorStatusDto status() {
+        Snapshot current = snapshot;
+        NvdMirrorStatusDto status = new NvdMirrorStatusDto();
+        status.enabled = enabled;
+        status.ready = current != null;
+        status.cveCount = current != null ? current.records.size() : 0;
+        status.productCount = current != null ? current.byProduct.size() : 0;
+        status.lastSync = lastSync != null ? lastSync.toString() : null;
+        status.lastSyncError = lastSyncError;
+        status.loadMillis = loadMillis;
+        return status;
+    }
+
+    // -------------------- CARGA DE FEEDS --------------------
+
+    void loadFeeds() {
+        long start = System.currentTimeMillis();
+        Path dir = Path.of(feedDir);
+        if (!Files.isDirectory(dir)) {
+            LOG.warnf("⚠️ No existe el directorio de feeds NVD '%s' - se usará la API en vivo", feedDir);
+            return;
+        }
+
+        Map<String, CveRecord> records = new HashMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> feeds = files
+                    .filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.endsWith(".json") || name.endsWith(".json.gz");
+                    })
+                    .sorted()
+                    .toList();
+
+            for (Path feed : feeds) {
+                int count = readFeed(feed, record -> merge(records, record));
+                LOG.debugf("Feed NVD '%s': %d CVE", feed.getFileName(), count);
+            }
+        } catch (Exception e) {
+            LOG.errorf(e, "Error leyendo feeds NVD de '%s'", feedDir);
+            return;
+        }
+
+        if (records.isEmpty()) {
+            LOG.warnf("⚠️ No hay feeds NVD JSON 2.0 en '%s' - se usará la API en vivo", feedDir);
+            return;
+        }
+
+        lastSync = readSyncState(dir).orElseGet(() -> records.values().stream()
+                .map(r -> r.lastModified)
+                .max(Comparator.naturalOrder())
+                .orElse(null));
+        snapshot = new Snapshot(records);
+        loadMillis = System.currentTimeMillis() - start;
+        LOG.infof("✅ Réplica NVD cargada: %d CVE, %d productos en %d ms",
+            records.size(), snapshot.byProduct.size(), loadMillis);
+        compactDeltasSafely(dir);
+    }
+
+    /**
+     * Lee un feed JSON 2.0 en streaming (un CVE en memoria a la vez)
+     */
+    private int readFeed(Path feed, Consumer<CveRecord> sink) throws Exception {
+        int[] count = {0};
+        readItems(feed, item -> {
+            CveRecord record = toRecord(item);
+            if (record != null) {
+                sink.accept(record);
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Recorre los elementos de "vulnerabilities" de un feed sin cargarlo entero
+     */
+    private void readItems(Path feed, Consumer<JsonObject> sink) throws Exception {
+        try (InputStream in = openFeed(feed);
+             Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+             JsonParser parser = Json.createParser(reader)) {
+
+            while (parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+                if (event == JsonParser.Event.KEY_NAME && "vulnerabilities".equals(parser.getString())) {
+                    if (parser.next() != JsonParser.Event.START_ARRAY) {
+                        break;
+                    }
+                    while (parser.next() == JsonParser.Event.START_OBJECT) {
+                        sink.accept(parser.getObject());
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private InputStream openFeed(Path feed) throws Exception {
+        InputStream in = Files.newInputStream(feed);
+        return feed.getFileName().toString().endsWith(".gz") ? new GZIPInputStream(in, 64 * 1024) : in;
+    }
+
+    /**
+     * Convierte un elemento de "vulnerabilities" en registro indexable
+     */
+    private CveRecord toRecord(JsonObject wrapper) {
+        JsonObject cve = wrapper.getJsonObject("cve");
+        if (cve == null || "Rejected".equalsIgnoreCase(cve.getString("vulnStatus", ""))) {
+            return null;
+        }
+
+        VulnerabilityDto vulnerability = nvdService.parseCveObject(cve);
+        if (vulnerability == null) {
+            return null;
+        }
+
+        List<CpeMatch> matches = new ArrayList<>();
+        JsonArray configurations = cve.getJsonArray("configurations");
+        if (configurations != null) {
+            for (JsonValue configuration : configurations) {
+                JsonArray nodes = configuration.asJsonObject().getJsonArray("nodes");
+                if (nodes == null) {
+                    continue;
+                }
+                for (JsonValue node : nodes) {
+                    JsonArray cpeMatches = node.asJsonObject().getJsonArray("cpeMatch");
+                    if (cpeMatches == null) {
+                        continue;
+                    }
+                    for (JsonValue value : cpeMatches) {
+                        CpeMatch match = CpeMatch.from(vulnerability.id, value.asJsonObject());
+                        if (match != null) {
+                            matches.add(match);
+                        }
+                    }
+                }
+            }
+        }
+
+        return new CveRecord(vulnerability, matches, parseNvdTimestamp(cve.getString("lastModified", null)));
+    }
+
+    /**
+     * Conserva la versión más reciente de cada CVE, sin importar el orden de los feeds
+     */
+    private static void merge(Map<String, CveRecord> records, CveRecord record) {
+        records.merge(record.vulnerability.id, record, (current, candidate) ->
+            current.lastModified != null && candidate.lastModified != null
+                && current.lastModified.isAfter(candidate.lastModified) ? current : candidate);
+    }
+
+    // -------------------- SINCRONIZACIÓN INCREMENTAL --------------------
+
+    private void syncSafely() {
+        try {
+            sync();
+            lastSyncError = null;
+        } catch (Exception e) {
+            LOG.warnf(e, "Sincronización incremental de NVD falló");
+            lastSyncError = e.getMessage();
+        }
+    }
+
+    /**
+     * Descarga los CVE modificados desde la última sincronización y los
+     * aplica sobre la réplica actual
+     */
+    void sync() throws Exception {
+        Snapshot current = snapshot;
+        if (current == null || lastSync == null) {
+            LOG.debug("Réplica NVD sin datos base, se omite la sincronización incremental");
+            return;
+        }
+
+        Path dir = Path.of(feedDir);
+        Instant end = Instant.now();
+        Instant from = lastSync;
+        Map<String, CveRecord> changes = new HashMap<>();
+
+        while (from.isBefore(end)) {
+            Instant to = from.plus(MAX_SYNC_RANGE).isBefore(end) ? from.plus(MAX_SYNC_RANGE) : end;
+            int startIndex = 0;
+            int total;
+            do {
+                String page = nvdService.fetchModifiedCves(from, to, startIndex, syncPageSize);
+
+                // Persistir la página antes de aplicarla: se relee en el próximo arranque
+                Files.writeString(dir.resolve(String.format("%s%d-%06d.json",
+                    DELTA_PREFIX, to.toEpochMilli(), startIndex)), page);
+
+                JsonObject root;
+                try (JsonReader reader = Json.createReader(new StringReader(page))) {
+                    root = reader.readObject();
+                }
+                total = root.getInt("totalResults", 0);
+                JsonArray vulnerabilities = root.getJsonArray("vulnerabilities");
+                int received = vulnerabilities != null ? vulnerabilities.size() : 0;
+                if (vulnerabilities != null) {
+                    for (JsonValue value : vulnerabilities) {
+                        CveRecord record = toRecord(value.asJsonObject());
+                        if (record != null) {
+                            merge(changes, record);
+                        }
+                    }
+                }
+                if (received == 0) {
+                    break;
+                }
+                startIndex += received;
+            } while (startIndex < total);
+            from = to;
+        }
+
+        if (!changes.isEmpty()) {
+            Map<String, CveRecord> records = new HashMap<>(current.records);
+            changes.values().forEach(record -> merge(records, record));
+            snapshot = new Snapshot(records);
+        }
+
+        lastSync = end;
+        Files.writeString(dir.resolve(SYNC_STATE_FILE), end.toString());
+        LOG.infof("Réplica NVD sincronizada: %d CVE nuevos o modificados", changes.size());
+        compactDeltasSafely(dir);
+    }
+
+    private void compactDeltasSafely(Path dir) {
+        try {
+            compactDeltas(dir);
+        } catch (Exception e) {
+            LOG.warnf(e, "No se pudieron compactar las páginas de sincronización de NVD");
+        }
+    }
+
+    /**
+     * Funde las páginas de sincronización en un único fichero con la última
+     * versión de cada CVE (incluido el compactado anterior) y borra las páginas.
+     * El fichero nuevo se escribe aparte y se renombra antes de borrar nada:
+     * si el proceso muere a medias, el siguiente arranque solo relee duplicados.
+     */
+    void compactDeltas(Path dir) throws Exception {
+        List<Path> deltas;
+        try (Stream<Path> files = Files.list(dir)) {
+            deltas = files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(DELTA_PREFIX) && (name.endsWith(".json") || name.endsWith(".json.gz"));
+            }).sorted().toList();
+        }
+        if (deltas.size() <= Math.max(1, compactAfterDeltas)) {
+            return;
+        }
+
+        Map<String, JsonObject> latest = new HashMap<>();
+        Map<String, Instant> modified = new HashMap<>();
+        for (Path delta : deltas) {
+            readItems(delta, item -> {
+                JsonObject cve = item.getJsonObject("cve");
+                String id = cve != null ? cve.getString("id", null) : null;
+                if (id == null) {
+                    return;
+                }
+                Instant lastModified = parseNvdTimestamp(cve.getString("lastModified", null));
+                Instant current = modified.get(id);
+                if (!latest.containsKey(id) || current == null
+                        || (lastModified != null && !lastModified.isBefore(current))) {
+                    latest.put(id, item);
+                    modified.put(id, lastModified);
+                }
+            });
+        }
+
+        Path compacted = dir.resolve(COMPACTED_DELTA_FILE);
+        Path temp = dir.resolve(COMPACTED_DELTA_FILE + ".tmp");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024);
+             Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+             JsonGenerator generator = Json.createGenerator(writer)) {
+            generator.writeStartObject()
+                .write("format", "NVD_CVE")
+                .write("totalResults", latest.size())
+                .writeStartArray("vulnerabilities");
+            latest.values().forEach(generator::write);
+            generator.writeEnd().writeEnd();
+        }
+        Files.move(temp, compacted, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Path delta : deltas) {
+            if (!delta.equals(compacted)) {
+                Files.deleteIfExists(delta);
+            }
+        }
+        LOG.infof("Páginas de sincronización NVD compactadas: %d ficheros → %s (%d CVE)",
+            deltas.size(), COMPACTED_DELTA_FILE, latest.size());
+    }
+
+    private Optional<Instant> readSyncState(Path dir) {
+        Path state = dir.resolve(SYNC_STATE_FILE);
+        try {
+            if (Files.exists(state)) {
+                return Optional.of(Instant.parse(Files.readString(state).trim()));
+            }
+        } catch (Exception e) {
+            LOG.warnf("No se pudo leer el estado de sincronización NVD: %s", e.getMessage());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * NVD publica fechas sin zona horaria ("2024-01-15T10:15:07.123"), siempre en UTC
+     */
+    private static Instant parseNvdTimestamp(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value).toInstant(ZoneOffset.UTC);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // -------------------- ESTRUCTURAS INTERNAS --------------------
+
+    /**
+     * Vista inmutable de la réplica; se reemplaza completa tras cada sincronización
+     */
+    private static class Snapshot {
+        final Map<String, CveRecord> records;
+        final Map<String, List<CpeMatch>> byProduct;
+
+        Snapshot(Map<String, CveRecord> records) {
+            this.records = records;
+            this.byProduct = new HashMap<>();
+            for (CveRecord record : records.values()) {
+                for (CpeMatch match : record.matches) {
+                    byProduct.computeIfAbsent(match.productKey(), k -> new ArrayList<>()).add(match);
+                }
+            }
+        }
+    }
+
+    private static class CveRecord {
+        final VulnerabilityDto vulnerability;
+        final List<CpeMatch> matches;
+        final Instant lastModified;
+
+        CveRecord(VulnerabilityDto vulnerability, List<CpeMatch> matches, Instant lastModified) {
+            this.vulnerability = vulnerability;
+            this.matches = matches;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Criterio cpeMatch de NVD: CPE base más versión exacta o rango, ya precompilados
+     */
+    private static class CpeMatch {
+        final String cveId;
+        final CpeName criteria;
+        final Version exactVersion;  // null si el criterio usa rango ("*")
+        final VersionRange range;
+
+        private CpeMatch(String cveId, CpeName criteria, JsonObject json) {
+            this.cveId = cveId;
+            this.criteria = criteria;
+            this.exactVersion = criteria.hasVersion() ? Version.parse(criteria.version) : null;
+            this.range = VersionRange.of(
+                json.getString("versionStartIncluding", null),
+                json.getString("versionStartExcluding", null),
+                json.getString("versionEndIncluding", null),
+                json.getString("versionEndExcluding", null));
+        }
+
+        static CpeMatch from(String cveId, JsonObject json) {
+            if (!json.getBoolean("vulnerable", false)) {
+                return null;
+            }
+            CpeName criteria = CpeName.parse(json.getString("criteria", null));
+            return criteria != null ? new CpeMatch(cveId, criteria, json) : null;
+        }
+
+        String productKey() {
+            return criteria.productKey();
+        }
+
+        boolean matches(CpeName target, Version version) {
+            if (!"*".equals(criteria.part) && !criteria.part.equals(target.part)) {
+                return false;
+            }
+            if (!"*".equals(criteria.update) && !"*".equals(target.update)
+                    && !criteria.update.equals(target.update)) {
+                return false;
+            }
+            if ("-".equals(criteria.version)) {
+                return false;
+            }
+            if (exactVersion != null) {
+                return exactVersion.equals(version);
+            }
+            return range.contains(version);
+        }
+    }
+}
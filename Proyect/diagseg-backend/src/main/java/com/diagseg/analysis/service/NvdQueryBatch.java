@@ -0,0 +1,57 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.VulnerabilityDto;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lote de consultas a NVD de un mismo análisis.
+ * Deduplica los CPE (varios puertos con el mismo software generan una sola
+ * consulta) y lanza cada consulta en paralelo sin ocupar un hilo por
+ * consulta; el límite de peticiones lo aplica el token bucket compartido de
+ * {@link NVDService}.
+ */
+public class NvdQueryBatch {
+
+    private final NVDService nvdService;
+    private final Map<String, CompletableFuture<List<VulnerabilityDto>>> lookups = new ConcurrentHashMap<>();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+
+    NvdQueryBatch(NVDService nvdService) {
+        this.nvdService = nvdService;
+    }
+
+    /**
+     * Solicita las vulnerabilidades de un CPE. Si el CPE ya fue solicitado en
+     * este lote se devuelve la misma consulta en curso.
+     */
+    public CompletableFuture<List<VulnerabilityDto>> lookup(String cpe) {
+        String key = NVDService.normalizeCpe(cpe);
+        return lookups.computeIfAbsent(key,
+            k -> nvdService.lookupByCpeAsync(k).thenApply(result -> {
+                if (result.cached) {
+                    cacheHits.incrementAndGet();
+                }
+                return result.value;
+            }));
+    }
+
+    /**
+     * Número de CPE distintos consultados en el lote
+     */
+    public int uniqueCpes() {
+        return lookups.size();
+    }
+
+    /**
+     * true si todas las consultas del lote se respondieron desde la cache de NVD
+     * (sin ninguna petición a la red). Solo es fiable cuando el lote terminó.
+     */
+    public boolean fullyCached() {
+        return !lookups.isEmpty() && cacheHits.get() == lookups.size();
+    }
+}
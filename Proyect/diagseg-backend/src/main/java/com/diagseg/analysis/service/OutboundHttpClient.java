@@ -0,0 +1,570 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.CircuitBreakerDto;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cliente HTTP saliente compartido (NVD, ip-api.com).
+ *
+ * Un único HttpClient con HTTP/2 cuando el servidor lo negocia (ALPN): las
+ * peticiones concurrentes a un mismo host comparten conexión. Todas las
+ * llamadas son asíncronas (sendAsync); ningún hilo espera la respuesta.
+ *
+ * Cada llamada tiene un plazo total que se reparte entre intentos: el timeout
+ * de cada intento se recorta a lo que queda, y los reintentos (backoff
+ * exponencial con jitter) y las esperas del token bucket se programan en un
+ * scheduler en lugar de dormir un hilo. Las peticiones en vuelo por host
+ * están acotadas; el resto espera turno en una cola sin ocupar hilos.
+ *
+ * Cada servicio externo puede llevar un circuit breaker: con el circuito
+ * abierto la llamada falla al instante con {@link CircuitOpenException} en
+ * lugar de esperar al timeout. Las peticiones idempotentes pueden pedir
+ * hedging: si el intento no ha respondido tras un retardo se lanza una copia
+ * y gana la primera respuesta válida; la otra se cancela.
+ */
+@ApplicationScoped
+public class OutboundHttpClient {
+
+    private static final Logger LOG = Logger.getLogger(OutboundHttpClient.class);
+
+    // Respuestas transitorias que se reintentan (429 no: cada servicio lo trata como límite)
+    private static final Set<Integer> RETRYABLE_STATUS = Set.of(502, 503, 504);
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD");
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+    @ConfigProperty(name = "http.client.connect-timeout-seconds", defaultValue = "10")
+    int connectTimeoutSeconds;
+
+    @ConfigProperty(name = "http.client.max-concurrent-per-host", defaultValue = "16")
+    int maxConcurrentPerHost;
+
+    @ConfigProperty(name = "http.client.circuit-breaker.window-size", defaultValue = "20")
+    int breakerWindowSize;
+
+    @ConfigProperty(name = "http.client.circuit-breaker.minimum-calls", defaultValue = "5")
+    int breakerMinimumCalls;
+
+    @ConfigProperty(name = "http.client.circuit-breaker.failure-rate-percent", defaultValue = "50")
+    int breakerFailureRatePercent;
+
+    @ConfigProperty(name = "http.client.circuit-breaker.open-seconds", defaultValue = "30")
+    int breakerOpenSeconds;
+
+    @ConfigProperty(name = "http.client.circuit-breaker.half-open-probes", defaultValue = "2")
+    int breakerHalfOpenProbes;
+
+    private HttpClient client;
+    private ExecutorService callbacks;
+    private ScheduledExecutorService scheduler;
+    private final Map<String, HostLimiter> hosts = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    /**
+     * Política de una llamada
+     *
+     * @param deadline         Plazo total, incluidos reintentos y esperas
+     * @param maxAttempts      Intentos como máximo (1 = sin reintentos)
+     * @param backoff          Espera antes del primer reintento; se duplica en cada uno
+     * @param rateLimiter      Presupuesto del servicio (un token por intento), o null
+     * @param rateLimitMaxWait Espera máxima por un token antes de fallar con {@link RateLimitedException}
+     * @param circuitBreaker   Circuit breaker del servicio (un permiso por intento), o null
+     * @param hedgeAfter       Retardo tras el que se lanza una copia del intento, o null
+     */
+    public record Options(Duration deadline, int maxAttempts, Duration backoff,
+                          TokenBucket rateLimiter, Duration rateLimitMaxWait,
+                          CircuitBreaker circuitBreaker, Duration hedgeAfter) {
+
+        public static Options deadline(Duration deadline) {
+            return new Options(deadline, 1, Duration.ZERO, null, Duration.ZERO, null, null);
+        }
+
+        public Options retries(int maxAttempts, Duration backoff) {
+            return new Options(deadline, Math.max(1, maxAttempts), backoff, rateLimiter, rateLimitMaxWait,
+                circuitBreaker, hedgeAfter);
+        }
+
+        public Options rateLimited(TokenBucket bucket, Duration maxWait) {
+            return new Options(deadline, maxAttempts, backoff, bucket, maxWait, circuitBreaker, hedgeAfter);
+        }
+
+        public Options circuitBreaker(CircuitBreaker breaker) {
+            return new Options(deadline, maxAttempts, backoff, rateLimiter, rateLimitMaxWait, breaker, hedgeAfter);
+        }
+
+        /**
+         * Solo se aplica a GET y HEAD; un retardo nulo o cero lo desactiva.
+         * La copia consume su propio token del presupuesto y no espera por él.
+         */
+        public Options hedged(Duration delay) {
+            return new Options(deadline, maxAttempts, backoff, rateLimiter, rateLimitMaxWait, circuitBreaker,
+                delay == null || delay.isZero() || delay.isNegative() ? null : delay);
+        }
+    }
+
+    /**
+     * El presupuesto local del servicio no tiene un turno dentro de la espera permitida
+     */
+    public static class RateLimitedException extends IOException {
+        private final TokenBucket bucket;
+
+        RateLimitedException(TokenBucket bucket) {
+            super("Presupuesto local de " + bucket.name() + " agotado");
+            this.bucket = bucket;
+        }
+
+        public TokenBucket bucket() {
+            return bucket;
+        }
+    }
+
+    /**
+     * El circuito del servicio está abierto: la llamada no salió a la red
+     */
+    public static class CircuitOpenException extends IOException {
+        private final CircuitBreaker breaker;
+
+        CircuitOpenException(CircuitBreaker breaker) {
+            super("Circuito de " + breaker.name() + " abierto: servicio no disponible temporalmente");
+            this.breaker = breaker;
+        }
+
+        public CircuitBreaker breaker() {
+            return breaker;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        callbacks = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-client-", 0).factory());
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("http-retry").factory());
+        client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds))
+            .executor(callbacks)
+            .build();
+        LOG.infof("Cliente HTTP saliente: HTTP/2, hasta %d peticiones en vuelo por host", maxConcurrentPerHost);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+        callbacks.shutdownNow();
+    }
+
+    /**
+     * Envía la petición con la política indicada
+     *
+     * @return La última respuesta (también si es un error HTTP tras agotar los
+     *         reintentos); falla con HttpTimeoutException si se agota el plazo,
+     *         {@link RateLimitedException} si no hay presupuesto,
+     *         {@link CircuitOpenException} si el circuito está abierto, o el
+     *         IOException del último intento
+     */
+    public CompletableFuture<HttpResponse<String>> send(HttpRequest request, Options options) {
+        Call call = new Call(request, options);
+        call.attempt();
+        return call.result;
+    }
+
+    /**
+     * Circuit breaker del servicio externo {@code name}, creado con la
+     * configuración http.client.circuit-breaker.* la primera vez que se pide
+     */
+    public CircuitBreaker circuitBreaker(String name) {
+        return breakers.computeIfAbsent(name, n -> new CircuitBreaker(n, breakerWindowSize, breakerMinimumCalls,
+            breakerFailureRatePercent, Duration.ofSeconds(breakerOpenSeconds), breakerHalfOpenProbes));
+    }
+
+    /**
+     * Estado de todos los circuit breakers, para monitorización
+     */
+    public List<CircuitBreakerDto> circuitBreakers() {
+        return breakers.values().stream()
+            .sorted(Comparator.comparing(CircuitBreaker::name))
+            .map(CircuitBreaker::stats)
+            .toList();
+    }
+
+    /**
+     * Espera el resultado de {@link #send} desde código síncrono, con la causa original
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Causa de un fallo de un CompletableFuture (sin el envoltorio CompletionException)
+     */
+    public static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private HostLimiter limiterFor(URI uri) {
+        String host = uri.getHost() + ":" + uri.getPort();
+        return hosts.computeIfAbsent(host, h -> new HostLimiter(maxConcurrentPerHost));
+    }
+
+    /**
+     * Estado de una llamada a través de sus intentos
+     */
+    private final class Call {
+        final HttpRequest request;
+        final Options options;
+        final long deadlineNanos;
+        final HostLimiter limiter;
+        final CircuitBreaker breaker;
+        final boolean hedgeable;
+        final CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+        int attempts;
+        // Resultado del último intento, por si el circuito se abre antes del reintento
+        HttpResponse<String> lastResponse;
+        Throwable lastError;
+
+        Call(HttpRequest request, Options options) {
+            this.request = request;
+            this.options = options;
+            this.deadlineNanos = System.nanoTime() + options.deadline().toNanos();
+            this.limiter = limiterFor(request.uri());
+            this.breaker = options.circuitBreaker();
+            this.hedgeable = options.hedgeAfter() != null && IDEMPOTENT_METHODS.contains(request.method());
+        }
+
+        long remainingNanos() {
+            return deadlineNanos - System.nanoTime();
+        }
+
+        void attempt() {
+            if (remainingNanos() <= 0) {
+                expire();
+                return;
+            }
+            long permit = 0;
+            if (breaker != null) {
+                permit = breaker.tryAcquire();
+                if (permit < 0) {
+                    if (attempts == 0) {
+                        result.completeExceptionally(new CircuitOpenException(breaker));
+                    } else {
+                        finish(lastResponse, lastError);
+                    }
+                    return;
+                }
+            }
+            long granted = permit;
+            TokenBucket bucket = options.rateLimiter();
+            if (bucket != null) {
+                long maxWait = Math.min(options.rateLimitMaxWait().toNanos(), remainingNanos());
+                long wait = bucket.reserve(Duration.ofNanos(maxWait));
+                if (wait < 0) {
+                    ignore(granted);
+                    result.completeExceptionally(new RateLimitedException(bucket));
+                    return;
+                }
+                if (wait > 0) {
+                    schedule(() -> limiter.acquire(() -> execute(granted)), wait);
+                    return;
+                }
+            }
+            limiter.acquire(() -> execute(granted));
+        }
+
+        /**
+         * Con un hueco del host ya reservado
+         */
+        void execute(long permit) {
+            long remaining = remainingNanos();
+            if (remaining <= 0) {
+                limiter.release();
+                ignore(permit);
+                expire();
+                return;
+            }
+            attempts++;
+            Attempt attempt = new Attempt();
+            send(attempt, permit, false);
+            if (hedgeable && options.hedgeAfter().toNanos() < remaining) {
+                schedule(() -> hedge(attempt), options.hedgeAfter().toNanos());
+            }
+        }
+
+        /**
+         * Lanza una copia del intento si aún no ha respondido. La copia no
+         * espera por presupuesto ni por el circuito: si no hay, se omite.
+         */
+        void hedge(Attempt attempt) {
+            synchronized (attempt) {
+                if (attempt.done || remainingNanos() <= 0) {
+                    return;
+                }
+                attempt.pending++;
+            }
+            long permit = breaker != null ? breaker.tryAcquire() : 0;
+            TokenBucket bucket = options.rateLimiter();
+            if (permit < 0 || (bucket != null && bucket.reserve(Duration.ZERO) != 0)) {
+                ignore(permit);
+                abandon(attempt);
+                return;
+            }
+            LOG.debugf("Hedging: copia de la petición a %s tras %d ms sin respuesta",
+                request.uri().getHost(), options.hedgeAfter().toMillis());
+            limiter.acquire(() -> send(attempt, permit, true));
+        }
+
+        void send(Attempt attempt, long permit, boolean hedge) {
+            long remaining = remainingNanos();
+            boolean abandoned;
+            synchronized (attempt) {
+                abandoned = hedge && (attempt.done || remaining <= 0);
+                attempt.hedged |= hedge && !abandoned;
+            }
+            if (abandoned) {
+                limiter.release();
+                ignore(permit);
+                abandon(attempt);
+                return;
+            }
+            Duration timeout = Duration.ofNanos(Math.max(remaining, 1));
+            if (request.timeout().isPresent() && request.timeout().get().compareTo(timeout) < 0) {
+                timeout = request.timeout().get();
+            }
+            HttpRequest bounded = HttpRequest.newBuilder(request, (name, value) -> true).timeout(timeout).build();
+            CompletableFuture<HttpResponse<String>> sent;
+            try {
+                sent = client.sendAsync(bounded, HttpResponse.BodyHandlers.ofString());
+            } catch (RuntimeException e) {
+                limiter.release();
+                ignore(permit);
+                settle(attempt, null, e, hedge);
+                return;
+            }
+            boolean lost;
+            synchronized (attempt) {
+                lost = attempt.done;
+                if (!lost) {
+                    attempt.requests.add(sent);
+                }
+            }
+            if (lost) {
+                sent.cancel(true);
+            }
+            sent.whenComplete((response, error) -> {
+                limiter.release();
+                Throwable cause = error != null ? unwrap(error) : null;
+                if (breaker != null) {
+                    if (cause instanceof CancellationException) {
+                        breaker.onIgnored(permit);
+                    } else if (isFailure(response, cause)) {
+                        breaker.onFailure(permit);
+                    } else {
+                        breaker.onSuccess(permit);
+                    }
+                }
+                settle(attempt, response, cause, hedge);
+            });
+        }
+
+        /**
+         * Resultado de una de las peticiones del intento. Gana la primera
+         * respuesta válida; un fallo solo cuenta si no queda otra en vuelo.
+         */
+        void settle(Attempt attempt, HttpResponse<String> response, Throwable error, boolean hedge) {
+            boolean failed = isFailure(response, error);
+            List<CompletableFuture<HttpResponse<String>>> others;
+            synchronized (attempt) {
+                attempt.pending--;
+                if (attempt.done) {
+                    return;
+                }
+                if (failed && attempt.pending > 0) {
+                    attempt.lastResponse = response;
+                    attempt.lastError = error;
+                    return;
+                }
+                attempt.done = true;
+                others = new ArrayList<>(attempt.requests);
+            }
+            others.forEach(other -> other.cancel(true));
+            if (attempt.hedged && breaker != null) {
+                breaker.recordHedge(hedge && !failed);
+            }
+            completed(response, error);
+        }
+
+        /**
+         * La copia no llegó a enviarse: si el original ya había fallado, su resultado es el del intento
+         */
+        void abandon(Attempt attempt) {
+            synchronized (attempt) {
+                attempt.pending--;
+                if (attempt.done || attempt.pending > 0) {
+                    return;
+                }
+                attempt.done = true;
+            }
+            completed(attempt.lastResponse, attempt.lastError);
+        }
+
+        void completed(HttpResponse<String> response, Throwable error) {
+            boolean retryable = error != null
+                ? error instanceof IOException && !(error instanceof ConnectException)
+                    && !(error instanceof UnknownHostException)
+                : RETRYABLE_STATUS.contains(response.statusCode());
+            if (retryable && attempts < options.maxAttempts()) {
+                long delay = backoffNanos(response);
+                if (remainingNanos() - delay > 0) {
+                    LOG.debugf("Reintento %d/%d de %s en %d ms (%s)", attempts + 1, options.maxAttempts(),
+                        request.uri().getHost(), TimeUnit.NANOSECONDS.toMillis(delay),
+                        error != null ? error.getClass().getSimpleName() : "HTTP " + response.statusCode());
+                    lastResponse = response;
+                    lastError = error;
+                    schedule(this::attempt, delay);
+                    return;
+                }
+            }
+            finish(response, error);
+        }
+
+        void finish(HttpResponse<String> response, Throwable error) {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(response);
+            }
+        }
+
+        /**
+         * Backoff exponencial con jitter; un Retry-After del servidor tiene prioridad
+         */
+        long backoffNanos(HttpResponse<String> response) {
+            if (response != null) {
+                var retryAfter = response.headers().firstValue("Retry-After");
+                if (retryAfter.isPresent() && retryAfter.get().chars().allMatch(Character::isDigit)) {
+                    return TimeUnit.SECONDS.toNanos(Long.parseLong(retryAfter.get()));
+                }
+            }
+            long base = Math.min(options.backoff().toNanos() << Math.min(attempts - 1, 20), MAX_BACKOFF.toNanos());
+            return base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+        }
+
+        void ignore(long permit) {
+            if (breaker != null && permit >= 0) {
+                breaker.onIgnored(permit);
+            }
+        }
+
+        void expire() {
+            result.completeExceptionally(new HttpTimeoutException(String.format(
+                "Plazo de %d ms agotado para %s tras %d intentos",
+                options.deadline().toMillis(), request.uri().getHost(), attempts)));
+        }
+
+        void schedule(Runnable task, long delayNanos) {
+            try {
+                scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e); // scheduler detenido
+            }
+        }
+    }
+
+    /**
+     * Un intento: la petición original y, con hedging, su copia
+     */
+    private static final class Attempt {
+        final List<CompletableFuture<HttpResponse<String>>> requests = new ArrayList<>(2);
+        int pending = 1;
+        boolean done;
+        boolean hedged;
+        HttpResponse<String> lastResponse;
+        Throwable lastError;
+    }
+
+    /**
+     * Fallo atribuible al servicio para el circuit breaker y el hedging:
+     * error de red o timeout, 5xx o 429
+     */
+    private static boolean isFailure(HttpResponse<String> response, Throwable error) {
+        if (error != null) {
+            return !(error instanceof RateLimitedException);
+        }
+        return response.statusCode() >= 500 || response.statusCode() == 429;
+    }
+
+    /**
+     * Límite de peticiones en vuelo contra un host. Las que exceden esperan en
+     * cola (sin hilo) y se lanzan al liberarse un hueco.
+     */
+    private final class HostLimiter {
+        private final int maxConcurrent;
+        private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+        private int active;
+
+        HostLimiter(int maxConcurrent) {
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+        }
+
+        void acquire(Runnable task) {
+            synchronized (this) {
+                if (active >= maxConcurrent) {
+                    waiting.add(task);
+                    return;
+                }
+                active++;
+            }
+            task.run();
+        }
+
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    active--;
+                    return;
+                }
+            }
+            // El hueco pasa directamente a la siguiente petición
+            callbacks.execute(next);
+        }
+    }
+}
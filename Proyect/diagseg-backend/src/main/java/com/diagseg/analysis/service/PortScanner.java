@@ -0,0 +1,445 @@
+package com.diagseg.analysis.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Descubrimiento de puertos TCP abiertos dentro de la JVM (TCP connect).
+ *
+ * Un único hilo con un {@link Selector} mantiene todas las conexiones en curso
+ * sin bloquear: evita arrancar Nmap y cargar su base de sondas solo para saber
+ * qué puertos están abiertos, así -sV se ejecuta únicamente sobre ellos.
+ *
+ * - portscan.max-in-flight limita las conexiones simultáneas en total y
+ *   portscan.per-host-limit las de cada dirección de destino, sumando todos
+ *   los escaneos que la tengan en curso; los escaneos se atienden por turnos.
+ * - El timeout de cada intento se adapta al RTT medido en el propio host
+ *   (SRTT + 4·RTTVAR, como TCP), acotado entre min y max; cada intento
+ *   agotado lo duplica. Los puertos sin respuesta se reintentan
+ *   portscan.retries veces antes de darse por filtrados.
+ */
+@ApplicationScoped
+public class PortScanner {
+
+    private static final Logger LOG = Logger.getLogger(PortScanner.class);
+
+    // Espera máxima del selector sin conexiones en curso; submit() lo despierta antes
+    private static final long IDLE_SELECT_MILLIS = 1000;
+
+    @ConfigProperty(name = "portscan.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "portscan.max-in-flight", defaultValue = "512")
+    int maxInFlight;
+
+    @ConfigProperty(name = "portscan.per-host-limit", defaultValue = "64")
+    int perHostLimit;
+
+    @ConfigProperty(name = "portscan.initial-timeout-millis", defaultValue = "1000")
+    int initialTimeoutMillis;
+
+    @ConfigProperty(name = "portscan.min-timeout-millis", defaultValue = "100")
+    int minTimeoutMillis;
+
+    @ConfigProperty(name = "portscan.max-timeout-millis", defaultValue = "3000")
+    int maxTimeoutMillis;
+
+    @ConfigProperty(name = "portscan.retries", defaultValue = "1")
+    int retries;
+
+    private Selector selector;
+    private volatile boolean running;
+
+    private final Queue<ScanJob> submitted = new ConcurrentLinkedQueue<>();
+
+    // Solo los usa el hilo del selector
+    private final List<ScanJob> active = new ArrayList<>();
+    private final Map<InetAddress, Integer> inFlightByHost = new HashMap<>();
+    private int inFlight;
+    private int turn;
+
+    private final LongAdder scans = new LongAdder();
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            LOG.info("Escáner de puertos interno deshabilitado (portscan.enabled=false): Nmap descubre los puertos");
+            return;
+        }
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            LOG.errorf(e, "⚠️ No se pudo abrir el selector del escáner de puertos - se usará solo Nmap");
+            enabled = false;
+            return;
+        }
+        running = true;
+        Thread.ofPlatform().name("port-scanner").daemon().start(this::run);
+        LOG.infof("Escáner de puertos interno: %d conexiones simultáneas, %d por host, timeout %d-%d ms",
+            maxInFlight, perHostLimit, minTimeoutMillis, maxTimeoutMillis);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    long scans() {
+        return scans.sum();
+    }
+
+    long probes() {
+        return probes.sum();
+    }
+
+    long timeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Descubre qué puertos TCP del host aceptan conexiones
+     *
+     * @param host  IP (o nombre) del host
+     * @param ports Puertos a comprobar
+     * @return Futuro con los puertos abiertos en orden ascendente; cancelarlo
+     *         deja de abrir conexiones nuevas para este host
+     */
+    public CompletableFuture<List<Integer>> scan(String host, Collection<Integer> ports) {
+        if (!running) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Escáner de puertos no disponible"));
+        }
+        int[] sorted = ports.stream().mapToInt(Integer::intValue).filter(p -> p > 0 && p < 65536)
+            .sorted().distinct().toArray();
+        if (sorted.length == 0) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        // Las IPs se convierten sin pasar por el resolvedor; los nombres sí se resuelven
+        IpAddress literal = IpAddress.tryParse(host);
+        InetAddress address;
+        try {
+            address = literal != null ? literal.toInetAddress() : InetAddress.getByName(host);
+        } catch (UnknownHostException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        ScanJob job = new ScanJob(host, address, sorted, nanos(initialTimeoutMillis));
+        scans.increment();
+        submitted.add(job);
+        selector.wakeup();
+        return job.result;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                ScanJob job;
+                while ((job = submitted.poll()) != null) {
+                    active.add(job);
+                }
+                admit();
+                selector.select(selectTimeoutMillis());
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    connected(key);
+                }
+                expire();
+                finishJobs();
+            } catch (Exception e) {
+                LOG.errorf(e, "Error en el bucle del escáner de puertos");
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly(key.channel());
+        }
+        active.forEach(job -> job.result.completeExceptionally(
+            new IllegalStateException("Escáner de puertos detenido")));
+        closeQuietly(selector);
+    }
+
+    /**
+     * Abre conexiones nuevas por turnos entre los hosts, respetando los límites
+     */
+    private void admit() {
+        boolean progress = true;
+        while (progress && inFlight < maxInFlight) {
+            progress = false;
+            int size = active.size();
+            for (int i = 0; i < size && inFlight < maxInFlight; i++) {
+                ScanJob job = active.get((turn + i) % size);
+                if (job.canAdmit() && inFlightByHost.getOrDefault(job.address, 0) < perHostLimit) {
+                    connect(job, job.pending.poll());
+                    progress = true;
+                }
+            }
+            turn = size > 0 ? (turn + 1) % size : 0;
+        }
+    }
+
+    private void connect(ScanJob job, Probe probe) {
+        SocketChannel channel = null;
+        probe.startNanos = System.nanoTime();
+        probe.rtoNanos = job.rtoNanos;
+        probe.deadlineNanos = probe.startNanos + probe.rtoNanos;
+        job.inFlight++;
+        inFlight++;
+        inFlightByHost.merge(job.address, 1, Integer::sum);
+        probes.increment();
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            // Cierre con RST: sin un TIME_WAIT por cada puerto sondeado
+            channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            if (channel.connect(new InetSocketAddress(job.address, probe.port))) {
+                finish(probe, true);
+                closeQuietly(channel);
+                return;
+            }
+            channel.register(selector, SelectionKey.OP_CONNECT, probe);
+        } catch (ConnectException e) {
+            // Rechazo inmediato: puerto cerrado
+            closeQuietly(channel);
+            finish(probe, false);
+        } catch (IOException e) {
+            // Sin descriptores o buffers libres, red inalcanzable...: no dice nada del puerto
+            closeQuietly(channel);
+            fail(probe, e);
+        }
+    }
+
+    /**
+     * La conexión terminó: aceptada (abierto) o rechazada (cerrado); ambas dan una muestra de RTT
+     */
+    private void connected(SelectionKey key) {
+        Probe probe = (Probe) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        boolean open;
+        try {
+            open = channel.finishConnect();
+        } catch (ConnectException e) {
+            open = false; // RST: puerto cerrado
+        } catch (IOException e) {
+            key.cancel();
+            closeQuietly(channel);
+            fail(probe, e);
+            return;
+        }
+        key.cancel();
+        closeQuietly(channel);
+        probe.job.sampleRtt(System.nanoTime() - probe.startNanos,
+            nanos(minTimeoutMillis), nanos(maxTimeoutMillis));
+        finish(probe, open);
+    }
+
+    /**
+     * Intentos sin respuesta en su plazo: se reintentan con el timeout duplicado o se dan por filtrados
+     */
+    private void expire() {
+        long now = System.nanoTime();
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Probe probe) || now < probe.deadlineNanos) {
+                continue;
+            }
+            key.cancel();
+            closeQuietly(key.channel());
+            timeouts.increment();
+            ScanJob job = probe.job;
+            job.backoff(probe.rtoNanos, nanos(maxTimeoutMillis));
+            release(job);
+            if (probe.attempt < retries && !job.result.isDone()) {
+                job.pending.add(new Probe(job, probe.port, probe.attempt + 1));
+            } else {
+                job.resolved++;
+            }
+        }
+    }
+
+    private void finish(Probe probe, boolean open) {
+        ScanJob job = probe.job;
+        release(job);
+        job.resolved++;
+        if (open) {
+            job.open.add(probe.port);
+        }
+    }
+
+    /**
+     * Error de E/S que no es un rechazo: el descubrimiento no es fiable y
+     * falla entero, para que quien lo pidió recurra a Nmap en lugar de dar
+     * el puerto por cerrado
+     */
+    private void fail(Probe probe, IOException error) {
+        ScanJob job = probe.job;
+        release(job);
+        if (job.result.completeExceptionally(error)) {
+            LOG.warnf("Descubrimiento de puertos de %s abortado en %d: %s", job.host, probe.port, error.getMessage());
+        }
+    }
+
+    /**
+     * Libera la plaza de una conexión terminada en el escaneo, en total y en su destino
+     */
+    private void release(ScanJob job) {
+        job.inFlight--;
+        inFlight--;
+        inFlightByHost.computeIfPresent(job.address, (address, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private void finishJobs() {
+        Iterator<ScanJob> jobs = active.iterator();
+        while (jobs.hasNext()) {
+            ScanJob job = jobs.next();
+            if (job.result.isDone() && job.inFlight == 0) {
+                // Cancelado por quien lo pidió: no se abren más conexiones
+                jobs.remove();
+            } else if (job.resolved == job.ports) {
+                jobs.remove();
+                job.open.sort(null);
+                LOG.debugf("Puertos de %s: %d/%d abiertos en %d ms (timeout final %d ms)",
+                    job.host, job.open.size(), job.ports,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - job.createdNanos),
+                    TimeUnit.NANOSECONDS.toMillis(job.rtoNanos));
+                job.result.complete(List.copyOf(job.open));
+            }
+        }
+    }
+
+    /**
+     * Hasta el plazo más próximo de las conexiones en curso
+     */
+    private long selectTimeoutMillis() {
+        if (inFlight == 0) {
+            return IDLE_SELECT_MILLIS;
+        }
+        long nearest = Long.MAX_VALUE;
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Probe probe) {
+                nearest = Math.min(nearest, probe.deadlineNanos);
+            }
+        }
+        if (nearest == Long.MAX_VALUE) {
+            return 1;
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nearest - System.nanoTime()) + 1);
+    }
+
+    private static long nanos(int millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // Nada que hacer: el descriptor ya no se usa
+        }
+    }
+
+    /**
+     * Escaneo de un host: puertos pendientes, conexiones en curso y estimación de RTT
+     */
+    private static class ScanJob {
+        final String host;
+        final InetAddress address;
+        final int ports;
+        final long createdNanos = System.nanoTime();
+        final CompletableFuture<List<Integer>> result = new CompletableFuture<>();
+        final Queue<Probe> pending = new ArrayDeque<>();
+        final List<Integer> open = new ArrayList<>();
+        int inFlight;
+        int resolved;
+
+        // Estimación del RTT del host (RFC 6298)
+        long srttNanos = -1;
+        long rttvarNanos;
+        long rtoNanos;
+
+        ScanJob(String host, InetAddress address, int[] ports, long initialRtoNanos) {
+            this.host = host;
+            this.address = address;
+            this.ports = ports.length;
+            this.rtoNanos = initialRtoNanos;
+            for (int port : ports) {
+                pending.add(new Probe(this, port, 0));
+            }
+        }
+
+        boolean canAdmit() {
+            return !pending.isEmpty() && !result.isDone();
+        }
+
+        void sampleRtt(long rttNanos, long minRtoNanos, long maxRtoNanos) {
+            if (srttNanos < 0) {
+                srttNanos = rttNanos;
+                rttvarNanos = rttNanos / 2;
+            } else {
+                rttvarNanos = (3 * rttvarNanos + Math.abs(srttNanos - rttNanos)) / 4;
+                srttNanos = (7 * srttNanos + rttNanos) / 8;
+            }
+            rtoNanos = Math.min(maxRtoNanos, Math.max(minRtoNanos, srttNanos + 4 * rttvarNanos));
+        }
+
+        /**
+         * Duplica el timeout a partir del que usó el intento agotado: varios
+         * intentos que expiran a la vez cuentan como uno solo
+         */
+        void backoff(long expiredRtoNanos, long maxRtoNanos) {
+            rtoNanos = Math.max(rtoNanos, Math.min(maxRtoNanos, expiredRtoNanos * 2));
+        }
+    }
+
+    /**
+     * Intento de conexión a un puerto
+     */
+    private static class Probe {
+        final ScanJob job;
+        final int port;
+        final int attempt;
+        long startNanos;
+        long rtoNanos;
+        long deadlineNanos;
+
+        Probe(ScanJob job, int port, int attempt) {
+            this.job = job;
+            this.port = port;
+            this.attempt = attempt;
+        }
+    }
+}
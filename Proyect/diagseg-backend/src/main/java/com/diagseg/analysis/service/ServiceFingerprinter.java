@@ -0,0 +1,77 @@
+package com.diagseg.analysis.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Huellas de servicio para el análisis incremental.
+ *
+ * {@link BannerGrabber} calcula la huella de cada puerto: la identidad del
+ * servicio si lo reconoce, o si no el saludo recibido sin fechas, horas ni
+ * identificadores de sesión. Así solo cambia si cambia el software o su
+ * configuración. Los servicios que no responden a ninguna sonda tienen
+ * siempre la huella {@link #SILENT}.
+ */
+final class ServiceFingerprinter {
+
+    /**
+     * Huella de un servicio que acepta la conexión pero no envía nada
+     */
+    static final String SILENT = "silent";
+
+    // Partes variables de un saludo: fechas, horas, zonas horarias e identificadores largos
+    private static final Pattern VOLATILE = Pattern.compile(
+        "\\b(Mon|Tue|Wed|Thu|Fri|Sat|Sun),?\\s"
+            + "|\\b\\d{1,2}\\s(Jan|Feb|Mar|Apr|May|Jun|Jul|Aug|Sep|Oct|Nov|Dec)\\s\\d{2,4}\\b"
+            + "|\\b\\d{4}-\\d{2}-\\d{2}\\b"
+            + "|\\b\\d{1,2}:\\d{2}(:\\d{2})?\\b"
+            + "|[+-]\\d{4}\\b"
+            + "|\\b[0-9A-Fa-f]{8,}\\b");
+
+    // Cadenas imprimibles del saludo (en protocolos binarios, p. ej. la versión de MySQL)
+    private static final Pattern PRINTABLE = Pattern.compile("[\\x20-\\x7e]{4,}");
+
+    private ServiceFingerprinter() {
+    }
+
+    /**
+     * Huella de una respuesta no identificada
+     */
+    static String fingerprintOf(byte[] response) {
+        String normalized = normalize(response);
+        return normalized.isEmpty() ? SILENT : hash(normalized);
+    }
+
+    static String normalize(byte[] greeting) {
+        String text = new String(greeting, StandardCharsets.ISO_8859_1);
+        // En saludos binarios tras la primera cadena suele haber datos aleatorios (salt de MySQL)
+        // y un '\n' no es fin de línea (versión de protocolo 10 de MySQL)
+        boolean binary = text.indexOf('\0') >= 0;
+        int lineEnd = text.indexOf('\n');
+        if (!binary && lineEnd >= 0) {
+            text = text.substring(0, lineEnd);
+        }
+        StringBuilder printable = new StringBuilder();
+        Matcher matcher = PRINTABLE.matcher(text);
+        while (matcher.find()) {
+            printable.append(matcher.group()).append(' ');
+            if (binary) {
+                break;
+            }
+        }
+        return VOLATILE.matcher(printable).replaceAll("").replaceAll("\\s+", " ").trim();
+    }
+
+    static String hash(String normalized) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.AnalysisMetadataDto;
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.diagseg.analysis.dto.GeolocationDto;
+import com.diagseg.analysis.dto.RecommendationDto;
+import com.diagseg.analysis.dto.ServiceDto;
+import com.diagseg.analysis.dto.SweepSummaryDto;
+import com.diagseg.analysis.dto.TargetType;
+import com.diagseg.analysis.dto.VulnerabilityDto;
+import com.diagseg.analysis.exception.ServiceException;
+import com.diagseg.analysis.exception.StageTimeoutException;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Análisis de muchos hosts a la vez (un rango CIDR o todos los prefijos de un ASN).
+ *
+ * Los bloques se dividen en shards (sweep.shard-prefix-length) que se escanean
+ * con el planificador Nmap, como máximo sweep.parallel-shards a la vez para no
+ * acaparar sus procesos. Cada host se enriquece (NVD, GeoLite2, score) en
+ * cuanto Nmap cierra su {@code <host>}, mientras el resto del shard sigue
+ * escaneándose; las consultas NVD comparten un único lote, así que un CPE
+ * repetido en cien hosts se consulta una vez.
+ */
+@ApplicationScoped
+public class SweepService {
+
+    private static final Logger LOG = Logger.getLogger(SweepService.class);
+
+    private static final int RISKIEST_HOSTS = 10;
+
+    @ConfigProperty(name = "sweep.shard-prefix-length", defaultValue = "24")
+    int shardPrefixLength;
+
+    @ConfigProperty(name = "sweep.max-addresses", defaultValue = "4096")
+    long maxAddresses;
+
+    @ConfigProperty(name = "sweep.parallel-shards", defaultValue = "2")
+    int parallelShards;
+
+    @ConfigProperty(name = "sweep.timeout-seconds", defaultValue = "1800")
+    int sweepTimeoutSeconds;
+
+    @ConfigProperty(name = "analysis.stages.geolocation-timeout-seconds", defaultValue = "5")
+    int geolocationTimeoutSeconds;
+
+    @ConfigProperty(name = "analysis.stages.asn-timeout-seconds", defaultValue = "20")
+    int asnTimeoutSeconds;
+
+    @Inject
+    AnalysisService analysisService;
+
+    @Inject
+    NmapScanScheduler nmapScanScheduler;
+
+    @Inject
+    NVDService nvdService;
+
+    @Inject
+    GeolocationService geolocationService;
+
+    @Inject
+    ASNService asnService;
+
+    @Inject
+    ReputationService reputationService;
+
+    @Inject
+    SecurityScoringService securityScoringService;
+
+    @Inject
+    RecommendationService recommendationService;
+
+    @Inject
+    AnalysisStageExecutor stageExecutor;
+
+    /**
+     * Escanea y analiza todos los hosts de los bloques indicados
+     *
+     * @param target   Texto del objetivo para el resumen ("AS15169")
+     * @param type     Tipo de la consulta original
+     * @param blocks   Bloques IPv4 a barrer
+     * @param sources  Fuentes usadas, para los metadatos
+     * @param warnings Advertencias previas (se agregan las del barrido)
+     * @return Resultado agregado, con el resultado de cada host en {@code hosts}
+     */
+    public AnalysisResult sweep(String target, TargetType type, List<CidrBlock> blocks, List<String> sources,
+                                List<String> warnings, AnalysisListener listener) {
+        long start = System.currentTimeMillis();
+        long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(sweepTimeoutSeconds);
+
+        // 1. Dividir en shards, sin duplicados (los más específicos suelen solaparse) y con tope de direcciones
+        Set<CidrBlock> uniqueShards = new LinkedHashSet<>();
+        long addresses = 0;
+        boolean truncated = false;
+        for (CidrBlock block : blocks) {
+            for (CidrBlock shard : block.split(shardPrefixLength)) {
+                if (uniqueShards.contains(shard)) {
+                    continue;
+                }
+                if (addresses + shard.size() > maxAddresses) {
+                    truncated = true;
+                    break;
+                }
+                uniqueShards.add(shard);
+                addresses += shard.size();
+            }
+            if (truncated) {
+                break;
+            }
+        }
+        if (uniqueShards.isEmpty()) {
+            throw new ServiceException(
+                "El objetivo es demasiado grande para analizarlo",
+                String.format("Ningún bloque cabe en el máximo de %d direcciones por análisis", maxAddresses),
+                "Reduzca el rango o aumente sweep.max-addresses en la configuración",
+                ServiceException.ErrorCode.INVALID_INPUT
+            );
+        }
+        if (truncated) {
+            warnings.add(String.format(
+                "El objetivo supera el máximo de %d direcciones por análisis: solo se escanearon %d",
+                maxAddresses, addresses));
+        }
+        List<CidrBlock> shards = new ArrayList<>(uniqueShards);
+        LOG.infof("Barrido de %s: %d bloques, %d shards, %d direcciones", target, blocks.size(), shards.size(), addresses);
+
+        // Consultas NVD compartidas por todos los hosts
+        NvdQueryBatch nvdBatch = nvdService.newBatch();
+        Map<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>> lookups =
+            Collections.synchronizedMap(new LinkedHashMap<>());
+        Consumer<ServiceDto> submitNvdLookup = analysisService.nvdSubmitter(nvdBatch, lookups, listener);
+
+        // ASN/ISP: una sola consulta para todo el barrido
+        listener.stageStarted("asn");
+        String firstAddress = shards.get(0).networkAddress();
+        AnalysisStageExecutor.Stage<ASNService.ASNInfo> asnStage = stageExecutor.start("asn",
+            Duration.ofSeconds(asnTimeoutSeconds), () -> asnService.getASNInfo(firstAddress));
+        asnStage.future().thenAccept(info -> {
+            listener.asnResolved(info);
+            listener.stageCompleted("asn");
+        });
+
+        // 2. Escanear los shards y enriquecer cada uno en cuanto termina
+        listener.stageStarted("nmap");
+        listener.stageStarted("nvd");
+        List<AnalysisResult> hostResults = Collections.synchronizedList(new ArrayList<>());
+        List<String> failedShards = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<List<ServiceDto>>> scans = new ArrayList<>();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        Semaphore slots = new Semaphore(parallelShards);
+
+        boolean timedOut = false;
+        for (CidrBlock shard : shards) {
+            if (!acquire(slots, deadlineNanos)) {
+                timedOut = true;
+                failedShards.add(shard.toString());
+                continue;
+            }
+            HostPipeline pipeline = new HostPipeline(stageExecutor.executor(), (host, services) -> {
+                AnalysisResult hostResult = analyzeHost(host, services, lookups, asnStage, start, nvdBatch);
+                hostResults.add(hostResult);
+                listener.hostAnalyzed(hostResult);
+            });
+            CompletableFuture<List<ServiceDto>> scan;
+            try {
+                scan = nmapScanScheduler.submit(shard.toString(),
+                    service -> {
+                        submitNvdLookup.accept(service);
+                        pipeline.serviceDetected(service);
+                    },
+                    pipeline::hostScanned);
+            } catch (ServiceException e) {
+                slots.release();
+                LOG.warnf("Shard %s no se pudo encolar: %s", shard, e.getUserMessage());
+                failedShards.add(shard.toString());
+                continue;
+            }
+            scans.add(scan);
+            pending.add(scan
+                .whenComplete((services, error) -> slots.release())
+                .handle((services, error) -> {
+                    if (error != null) {
+                        LOG.warnf("Shard %s falló: %s", shard, error.getMessage());
+                        failedShards.add(shard.toString());
+                    }
+                    // Los hosts ya terminados se conservan aunque el shard falle
+                    return pipeline.finish(List.of());
+                })
+                .thenCompose(hostsDone -> hostsDone));
+        }
+
+        try {
+            long remaining = Math.max(0, deadlineNanos - System.nanoTime());
+            stageExecutor.track("sweep", Duration.ofNanos(remaining),
+                CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new))).join();
+        } catch (StageTimeoutException e) {
+            timedOut = true;
+            scans.forEach(scan -> scan.cancel(true));
+        }
+
+        if (timedOut) {
+            warnings.add(String.format("El barrido excedió su plazo de %d segundos: resultados parciales",
+                sweepTimeoutSeconds));
+            listener.stageFailed("nmap", "Tiempo de espera agotado");
+        } else if (!failedShards.isEmpty()) {
+            warnings.add(String.format("No se pudieron escanear %d de %d bloques", failedShards.size(), shards.size()));
+            listener.stageFailed("nmap", "Bloques sin escanear: " + String.join(", ", failedShards));
+        } else {
+            listener.stageCompleted("nmap");
+        }
+        listener.stageCompleted("nvd");
+
+        // 3. Resultado agregado
+        List<AnalysisResult> hosts;
+        synchronized (hostResults) {
+            hosts = new ArrayList<>(hostResults);
+        }
+        hosts.sort(Comparator.comparingInt((AnalysisResult host) -> host.securityScore)
+            .thenComparing(host -> IpAddress.parse(host.ip)));
+
+        AnalysisResult result = rollup(target, type, hosts, sources, warnings, start, listener);
+        result.summary.prefixes = blocks.size();
+        result.summary.shards = shards.size();
+        result.summary.addressesScanned = addresses;
+        synchronized (failedShards) {
+            result.summary.failedShards = failedShards.isEmpty() ? null : new ArrayList<>(failedShards);
+        }
+
+        LOG.infof("Barrido de %s completado en %d ms. Hosts con servicios: %d, Score medio: %d, CVE: %d",
+            target, result.metadata.scanDuration, hosts.size(), result.securityScore, result.vulnerabilities.size());
+        return result;
+    }
+
+    /**
+     * Mismo enriquecimiento que un análisis individual, con los servicios ya escaneados
+     */
+    private AnalysisResult analyzeHost(String ip, List<ServiceDto> services,
+                                       Map<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>> lookups,
+                                       AnalysisStageExecutor.Stage<ASNService.ASNInfo> asnStage,
+                                       long start, NvdQueryBatch nvdBatch) {
+        List<String> warnings = new ArrayList<>();
+        AnalysisStageExecutor.Stage<GeolocationDto> geoStage = stageExecutor.start("geolocation",
+            Duration.ofSeconds(geolocationTimeoutSeconds), () -> geolocationService.resolve(ip));
+
+        Map<ServiceDto, AnalysisStageExecutor.Stage<List<VulnerabilityDto>>> hostLookups = new LinkedHashMap<>();
+        synchronized (lookups) {
+            for (ServiceDto service : services) {
+                AnalysisStageExecutor.Stage<List<VulnerabilityDto>> lookup = lookups.get(service);
+                if (lookup != null) {
+                    hostLookups.put(service, lookup);
+                }
+            }
+        }
+        List<String> partialFailures = new ArrayList<>();
+        List<VulnerabilityDto> vulnerabilities = analysisService.collectVulnerabilities(hostLookups, partialFailures);
+        if (!partialFailures.isEmpty()) {
+            warnings.add("Algunas vulnerabilidades pueden no estar completas debido a limitaciones del servicio NVD");
+        }
+
+        GeolocationDto geo = analysisService.joinGeolocation(geoStage, warnings, AnalysisListener.NONE);
+        analysisService.applyAsnInfo(geo, asnStage, warnings, AnalysisListener.NONE);
+
+        AnalysisResult result = analysisService.buildResult(ip, null, TargetType.IPV4, services, vulnerabilities, geo,
+            List.of("nmap", "nvd", "geolite2", "ipapi"), warnings, start, AnalysisListener.NONE);
+        // Nmap cerró el bloque <host>: su lista de servicios está completa
+        result.metadata.scanCompleted = true;
+        return result;
+    }
+
+    /**
+     * Agrega los resultados por host: score medio, servicios expuestos y CVE distintos
+     */
+    AnalysisResult rollup(String target, TargetType type, List<AnalysisResult> hosts, List<String> sources,
+                          List<String> warnings, long start, AnalysisListener listener) {
+        listener.stageStarted("scoring");
+
+        List<ServiceDto> allServices = new ArrayList<>();
+        Map<String, VulnerabilityDto> vulnerabilitiesById = new LinkedHashMap<>();
+        Map<String, Integer> exposedServices = new TreeMap<>();
+        for (AnalysisResult host : hosts) {
+            allServices.addAll(host.services);
+            host.vulnerabilities.forEach(v -> vulnerabilitiesById.putIfAbsent(v.id, v));
+            host.services.forEach(s -> exposedServices.merge(s.service, 1, Integer::sum));
+        }
+        List<VulnerabilityDto> allVulnerabilities = new ArrayList<>(vulnerabilitiesById.values());
+
+        // Sin hosts expuestos el score es el de un host sin servicios
+        int averageScore = hosts.isEmpty()
+            ? securityScoringService.calculateScore(List.of(), List.of())
+            : (int) Math.round(hosts.stream().mapToInt(h -> h.securityScore).average().orElse(100));
+        int minScore = hosts.stream().mapToInt(h -> h.securityScore).min().orElse(averageScore);
+        listener.scoreCalculated(averageScore, securityScoringService.classifyRisk(averageScore));
+
+        List<RecommendationDto> recommendations =
+            recommendationService.generateRecommendations(allServices, allVulnerabilities, averageScore);
+        listener.recommendationsGenerated(recommendations);
+        listener.stageCompleted("scoring");
+
+        SweepSummaryDto summary = new SweepSummaryDto();
+        summary.target = target;
+        summary.hostsWithServices = hosts.size();
+        summary.servicesExposed = allServices.size();
+        summary.exposedServices = exposedServices;
+        summary.vulnerabilities = allVulnerabilities.size();
+        summary.criticalVulnerabilities = (int) allVulnerabilities.stream().filter(v -> v.cvss >= 9.0).count();
+        summary.averageScore = averageScore;
+        summary.minScore = minScore;
+        summary.riskiestHosts = hosts.stream().limit(RISKIEST_HOSTS).map(h -> h.ip).toList();
+
+        long now = System.currentTimeMillis();
+        AnalysisMetadataDto metadata = new AnalysisMetadataDto();
+        metadata.scanDuration = now - start;
+        metadata.sourcesUsed = sources;
+        metadata.cached = false;
+        if (!warnings.isEmpty()) {
+            metadata.warnings = warnings;
+        }
+
+        AnalysisResult result = new AnalysisResult();
+        result.type = type;
+        result.securityScore = averageScore;
+        result.riskLevel = securityScoringService.classifyRisk(averageScore);
+        result.timestamp = now;
+        result.services = allServices;
+        result.reputation = reputationService.buildReputation(allServices, allVulnerabilities);
+        result.vulnerabilities = allVulnerabilities;
+        result.recommendations = recommendations;
+        result.metadata = metadata;
+        result.hosts = hosts;
+        result.summary = summary;
+        return result;
+    }
+
+    private static boolean acquire(Semaphore slots, long deadlineNanos) {
+        try {
+            return slots.tryAcquire(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
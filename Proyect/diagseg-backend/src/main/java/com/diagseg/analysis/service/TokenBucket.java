@@ -0,0 +1,79 @@
+package com.diagseg.analysis.service;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Token bucket ajustado a una ventana deslizante: hay {@code capacity} tokens
+ * y cada token consumido se repone exactamente una ventana después.
+ * Garantiza que nunca se emitan más de {@code capacity} peticiones en
+ * cualquier intervalo de {@code window}, que es como NVD aplica su límite.
+ *
+ * Los turnos se reservan en orden de llegada (FIFO), así que varias
+ * peticiones concurrentes se reparten la ventana sin reintentos.
+ */
+public class TokenBucket {
+
+    private final String name;
+    private final int capacity;
+    private final long windowNanos;
+
+    // Instante (nanoTime) en que se usó cada token; buffer circular
+    private final long[] grants;
+    private int head;
+
+    public TokenBucket(String name, int capacity, Duration window) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("La capacidad debe ser positiva");
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.windowNanos = window.toNanos();
+        this.grants = new long[capacity];
+        Arrays.fill(grants, System.nanoTime() - windowNanos);
+    }
+
+    /**
+     * Reserva un token si está disponible dentro de {@code maxWait}.
+     *
+     * @return nanosegundos a esperar antes de usar el token, o -1 si la espera
+     *         excede {@code maxWait} (en ese caso no se reserva nada)
+     */
+    public synchronized long reserve(Duration maxWait) {
+        long now = System.nanoTime();
+        long slot = Math.max(now, grants[head] + windowNanos);
+        long wait = slot - now;
+        if (wait > maxWait.toNanos()) {
+            return -1;
+        }
+        grants[head] = slot;
+        head = (head + 1) % capacity;
+        return wait;
+    }
+
+    /**
+     * Tokens disponibles en este momento (sin espera)
+     */
+    public synchronized int available() {
+        long now = System.nanoTime();
+        int free = 0;
+        for (long grant : grants) {
+            if (grant + windowNanos <= now) {
+                free++;
+            }
+        }
+        return free;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public Duration window() {
+        return Duration.ofNanos(windowNanos);
+    }
+}
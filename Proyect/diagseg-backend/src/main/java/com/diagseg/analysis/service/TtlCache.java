@@ -0,0 +1,291 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.CacheStatsDto;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Cache en memoria acotada por tamaño (LRU) y por antigüedad (TTL).
+ *
+ * Las cargas son single-flight: si varias peticiones concurrentes piden la
+ * misma clave ausente, solo una ejecuta el loader y las demás esperan su
+ * resultado. Los errores del loader no se guardan en la cache.
+ */
+public class TtlCache<K, V> {
+
+    private final String name;
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    // LinkedHashMap en orden de acceso: el primero es el menos usado recientemente
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public TtlCache(String name, int maxEntries, Duration ttl) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > TtlCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Resultado de una consulta a la cache
+     */
+    public static class Result<V> {
+        public final V value;
+        public final boolean cached;
+        public final long ageMillis;
+
+        Result(V value, boolean cached, long ageMillis) {
+            this.value = value;
+            this.cached = cached;
+            this.ageMillis = ageMillis;
+        }
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long storedAtNanos;
+
+        Entry(V value, long storedAtNanos) {
+            this.value = value;
+            this.storedAtNanos = storedAtNanos;
+        }
+    }
+
+    /**
+     * Devuelve el valor de la clave, cargándolo con {@code loader} si no está o expiró.
+     */
+    public V get(K key, Function<K, V> loader) {
+        return lookup(key, loader).value;
+    }
+
+    /**
+     * Igual que {@link #get} pero indica si el valor vino de la cache y su antigüedad
+     */
+    public Result<V> lookup(K key, Function<K, V> loader) {
+        Result<V> fresh = getFresh(key);
+        if (fresh != null) {
+            hits.increment();
+            return fresh;
+        }
+        misses.increment();
+
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            // Otra petición ya está cargando esta clave: esperar su resultado
+            coalesced.increment();
+            return new Result<>(await(existing), false, 0);
+        }
+
+        try {
+            // Puede haberse completado otra carga entre la consulta y el registro
+            fresh = getFresh(key);
+            if (fresh != null) {
+                mine.complete(fresh.value);
+                return fresh;
+            }
+            V value = loader.apply(key);
+            put(key, value);
+            mine.complete(value);
+            return new Result<>(value, false, 0);
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Igual que {@link #lookup} con un loader asíncrono: ningún hilo espera la
+     * carga, ni la propia ni la de otra petición en curso de la misma clave
+     */
+    public CompletableFuture<Result<V>> lookupAsync(K key, Function<K, CompletableFuture<V>> loader) {
+        Result<V> fresh = getFresh(key);
+        if (fresh != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(fresh);
+        }
+        misses.increment();
+
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.thenApply(value -> new Result<>(value, false, 0));
+        }
+
+        fresh = getFresh(key);
+        if (fresh != null) {
+            inFlight.remove(key, mine);
+            mine.complete(fresh.value);
+            return CompletableFuture.completedFuture(fresh);
+        }
+        CompletableFuture<V> load;
+        try {
+            load = loader.apply(key);
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((value, error) -> {
+            if (error == null) {
+                put(key, value);
+            }
+            inFlight.remove(key, mine);
+            if (error == null) {
+                mine.complete(value);
+            } else {
+                mine.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+            }
+        });
+        return mine.thenApply(value -> new Result<>(value, false, 0));
+    }
+
+    /**
+     * Valor vigente de la clave o null
+     */
+    public V getIfPresent(K key) {
+        Result<V> fresh = getFresh(key);
+        if (fresh == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return fresh.value;
+    }
+
+    /**
+     * Igual que {@link #getIfPresent} pero con la antigüedad de la entrada
+     */
+    public Result<V> lookupIfPresent(K key) {
+        Result<V> fresh = getFresh(key);
+        if (fresh == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return fresh;
+    }
+
+    public void put(K key, V value) {
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, System.nanoTime()));
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Elimina las entradas expiradas (las consultas ya las ignoran; esto libera memoria)
+     */
+    public void purgeExpired() {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Iterator<Entry<V>> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (now - it.next().storedAtNanos > ttlNanos) {
+                    it.remove();
+                    expirations.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Programa {@link #purgeExpired()} cada TTL (como mínimo cada minuto):
+     * una entrada expirada no ocupa memoria más de dos TTL
+     */
+    public ScheduledFuture<?> schedulePurge(ScheduledExecutorService scheduler) {
+        long period = Math.max(ttlNanos, TimeUnit.MINUTES.toNanos(1));
+        return scheduler.scheduleWithFixedDelay(this::purgeExpired, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public CacheStatsDto stats() {
+        CacheStatsDto stats = new CacheStatsDto();
+        stats.name = name;
+        stats.size = size();
+        stats.maxEntries = maxEntries;
+        stats.ttlSeconds = Duration.ofNanos(ttlNanos).toSeconds();
+        stats.hits = hits.sum();
+        stats.misses = misses.sum();
+        stats.coalesced = coalesced.sum();
+        stats.evictions = evictions.sum();
+        stats.expirations = expirations.sum();
+        long total = stats.hits + stats.misses;
+        stats.hitRate = total == 0 ? 0.0 : (double) stats.hits / total;
+        return stats;
+    }
+
+    private Result<V> getFresh(K key) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            long age = now - entry.storedAtNanos;
+            if (age > ttlNanos) {
+                entries.remove(key);
+                expirations.increment();
+                return null;
+            }
+            return new Result<>(entry.value, true, Duration.ofNanos(age).toMillis());
+        }
+    }
+
+    private V await(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+}
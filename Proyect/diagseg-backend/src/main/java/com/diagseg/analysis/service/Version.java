@@ -0,0 +1,132 @@
+package com.diagseg.analysis.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Versión de software precompilada para comparar rápido.
+ *
+ * El texto se separa una sola vez en componentes numéricos y alfabéticos
+ * ("1.1.1k" → 1, 1, 1, k; "8.9p1" → 8, 9, p, 1) y las comparaciones solo
+ * recorren esos arreglos. Los componentes que faltan cuentan como 0
+ * ("1.0" == "1.0.0") y las marcas de pre-release (alpha, beta, rc...) ordenan
+ * antes que la versión final ("2.0rc1" < "2.0").
+ */
+public final class Version implements Comparable<Version> {
+
+    private static final Set<String> PRE_RELEASE = Set.of("alpha", "beta", "rc", "pre", "dev", "snapshot");
+
+    // Un número de más de 18 dígitos no cabe en long: se compara como texto
+    private static final int MAX_NUMERIC_DIGITS = 18;
+
+    private final String text;
+    private final long[] numbers;   // valor de cada componente numérico
+    private final String[] words;   // texto de cada componente no numérico (null si es numérico)
+
+    private Version(String text, long[] numbers, String[] words) {
+        this.text = text;
+        this.numbers = numbers;
+        this.words = words;
+    }
+
+    public static Version parse(String value) {
+        String text = value.trim().toLowerCase(Locale.ROOT);
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            boolean digit = Character.isDigit(c);
+            while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))
+                    && Character.isDigit(text.charAt(i)) == digit) {
+                i++;
+            }
+            tokens.add(text.substring(start, i));
+        }
+
+        long[] numbers = new long[tokens.size()];
+        String[] words = new String[tokens.size()];
+        for (int t = 0; t < tokens.size(); t++) {
+            String token = tokens.get(t);
+            if (Character.isDigit(token.charAt(0)) && token.length() <= MAX_NUMERIC_DIGITS) {
+                numbers[t] = Long.parseLong(token);
+            } else {
+                words[t] = token;
+            }
+        }
+        return new Version(text, numbers, words);
+    }
+
+    @Override
+    public int compareTo(Version other) {
+        int length = Math.max(numbers.length, other.numbers.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = compareComponent(this, i, other, i);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareComponent(Version a, int i, Version b, int j) {
+        boolean hasA = i < a.numbers.length;
+        boolean hasB = j < b.numbers.length;
+        if (hasA && hasB) {
+            String wordA = a.words[i];
+            String wordB = b.words[j];
+            if (wordA == null && wordB == null) {
+                return Long.compare(a.numbers[i], b.numbers[j]);
+            }
+            if (wordA != null && wordB != null) {
+                return wordA.compareTo(wordB);
+            }
+            // Número frente a texto: la pre-release queda por debajo, el resto por encima
+            String word = wordA != null ? wordA : wordB;
+            int sign = wordA != null ? 1 : -1;
+            return PRE_RELEASE.contains(word) ? -sign : sign;
+        }
+        if (!hasA && !hasB) {
+            return 0;
+        }
+        // Componente ausente: equivale a 0, salvo frente a una pre-release
+        Version present = hasA ? a : b;
+        int index = hasA ? i : j;
+        int sign = hasA ? 1 : -1;
+        String word = present.words[index];
+        if (word == null) {
+            return sign * Long.compare(present.numbers[index], 0);
+        }
+        return PRE_RELEASE.contains(word) ? -sign : sign;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Version other && compareTo(other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        // Coherente con equals: se ignoran los ceros finales
+        int end = numbers.length;
+        while (end > 0 && words[end - 1] == null && numbers[end - 1] == 0) {
+            end--;
+        }
+        int hash = 1;
+        for (int i = 0; i < end; i++) {
+            hash = 31 * hash + (words[i] != null ? words[i].hashCode() : Long.hashCode(numbers[i]));
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,52 @@
+package com.diagseg.analysis.service;
+
+/**
+ * Rango de versiones de un criterio cpeMatch de NVD
+ * (versionStartIncluding/Excluding, versionEndIncluding/Excluding), con los
+ * límites ya precompilados para evaluarlo sin volver a parsear texto.
+ */
+public final class VersionRange {
+
+    private final Version startIncluding;
+    private final Version startExcluding;
+    private final Version endIncluding;
+    private final Version endExcluding;
+
+    private VersionRange(Version startIncluding, Version startExcluding,
+                         Version endIncluding, Version endExcluding) {
+        this.startIncluding = startIncluding;
+        this.startExcluding = startExcluding;
+        this.endIncluding = endIncluding;
+        this.endExcluding = endExcluding;
+    }
+
+    /**
+     * Crea el rango a partir de los límites de NVD (cualquiera puede ser null)
+     */
+    public static VersionRange of(String startIncluding, String startExcluding,
+                                  String endIncluding, String endExcluding) {
+        return new VersionRange(
+            parseOrNull(startIncluding),
+            parseOrNull(startExcluding),
+            parseOrNull(endIncluding),
+            parseOrNull(endExcluding));
+    }
+
+    /**
+     * true si el rango no tiene ningún límite (aplica a todas las versiones)
+     */
+    public boolean isUnbounded() {
+        return startIncluding == null && startExcluding == null && endIncluding == null && endExcluding == null;
+    }
+
+    public boolean contains(Version version) {
+        return (startIncluding == null || version.compareTo(startIncluding) >= 0)
+            && (startExcluding == null || version.compareTo(startExcluding) > 0)
+            && (endIncluding == null || version.compareTo(endIncluding) <= 0)
+            && (endExcluding == null || version.compareTo(endExcluding) < 0);
+    }
+
+    private static Version parseOrNull(String value) {
+        return value == null || value.isBlank() ? null : Version.parse(value);
+    }
+}
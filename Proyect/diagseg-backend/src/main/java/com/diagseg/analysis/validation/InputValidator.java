@@ -3,33 +3,21 @@ package com.diagseg.analysis.validation;
 import com.diagseg.analysis.dto.AnalysisRequest;
 import com.diagseg.analysis.dto.TargetType;
 import com.diagseg.analysis.exception.InvalidInputException;
+import com.diagseg.analysis.service.CidrBlock;
+import com.diagseg.analysis.service.IpAddress;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.util.regex.Pattern;
 
 @ApplicationScoped
 public class InputValidator {
 
-    // Regex IPv4 (la del enunciado)
-    private static final Pattern IPV4_PATTERN = Pattern.compile(
-        "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}" +
-        "(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$"
-    );
+    // Máximo de direcciones de un rango CIDR (el mismo tope que aplica el barrido)
+    @ConfigProperty(name = "sweep.max-addresses", defaultValue = "4096")
+    long maxRangeAddresses;
 
-    // Regex IPv6 (un poco más completa para soportar ::, ::1, fe80::1, etc.)
-    private static final Pattern IPV6_PATTERN = Pattern.compile(
-        "^(" +
-          "([0-9a-fA-F]{1,4}:){7}[0-9a-fA-F]{1,4}|" +                // 1:2:3:4:5:6:7:8
-          "([0-9a-fA-F]{1,4}:){1,7}:|" +                             // 1:: 1:2:3:4:5:6:7::
-          "([0-9a-fA-F]{1,4}:){1,6}:[0-9a-fA-F]{1,4}|" +             // 1::8, 1:2:3:4:5:6::8
-          "([0-9a-fA-F]{1,4}:){1,5}(:[0-9a-fA-F]{1,4}){1,2}|" +
-          "([0-9a-fA-F]{1,4}:){1,4}(:[0-9a-fA-F]{1,4}){1,3}|" +
-          "([0-9a-fA-F]{1,4}:){1,3}(:[0-9a-fA-F]{1,4}){1,4}|" +
-          "([0-9a-fA-F]{1,4}:){1,2}(:[0-9a-fA-F]{1,4}){1,5}|" +
-          "[0-9a-fA-F]{1,4}:((:[0-9a-fA-F]{1,4}){1,6})|" +
-          ":((:[0-9a-fA-F]{1,4}){1,7}|:)" +                          // ::, ::1, etc.
-        ")$"
-    );
+    // IPv4, IPv6 y CIDR se validan con el parser de IpAddress (sin regex)
 
     // Regex ASN (la del enunciado)
     private static final Pattern ASN_PATTERN = Pattern.compile(
@@ -57,13 +45,13 @@ public class InputValidator {
         String q = request.query.trim();
 
         if (request.type == TargetType.IPV4) {
-            if (!IPV4_PATTERN.matcher(q).matches()) {
+            if (!IpAddress.isIpv4(q)) {
                 throw new InvalidInputException(
                     "La dirección IPv4 '" + q + "' no es válida"
                 );
             }
         } else if (request.type == TargetType.IPV6) {
-            if (!IPV6_PATTERN.matcher(q).matches()) {
+            if (!IpAddress.isIpv6(q)) {
                 throw new InvalidInputException(
                     "La dirección IPv6 '" + q + "' no es válida"
                 );
@@ -80,6 +68,23 @@ public class InputValidator {
                     "El ASN '" + q + "' no es válido. Formato esperado: AS#####"
                 );
             }
+        } else if (request.type == TargetType.CIDR) {
+            CidrBlock block;
+            try {
+                block = q.indexOf('/') > 0 ? CidrBlock.parse(q) : null;
+            } catch (IllegalArgumentException e) {
+                block = null;
+            }
+            if (block == null) {
+                throw new InvalidInputException(
+                    "El rango '" + q + "' no es válido. Formato esperado: 203.0.113.0/24"
+                );
+            }
+            if (block.size() > maxRangeAddresses) {
+                throw new InvalidInputException(
+                    "El rango '" + q + "' es demasiado grande: máximo " + maxRangeAddresses + " direcciones"
+                );
+            }
         }
     }
 }
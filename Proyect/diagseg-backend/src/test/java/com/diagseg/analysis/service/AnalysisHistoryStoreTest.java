@@ -0,0 +1,148 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Historial sobre un directorio temporal, reabriéndolo como tras un reinicio
+ */
+class AnalysisHistoryStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<AnalysisHistoryStore> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeStores() {
+        opened.forEach(AnalysisHistoryStore::shutdown);
+    }
+
+    @Test
+    void findsResultsByKeyAfterRestart() {
+        AnalysisHistoryStore store = open();
+        store.append(result("192.0.2.1", 10), "192.0.2.1", "Example.COM");
+        store.append(result("192.0.2.2", 20), "192.0.2.2");
+        store.append(result("192.0.2.1", 30), "192.0.2.1", "example.com");
+        store.shutdown();
+
+        AnalysisHistoryStore reopened = open();
+        assertEquals(List.of(30, 10), scores(reopened.find(" EXAMPLE.com ", 0, Long.MAX_VALUE, 10)));
+        assertEquals(List.of(20), scores(reopened.find("192.0.2.2", 0, Long.MAX_VALUE, 10)));
+        assertEquals(List.of(30, 20, 10), scores(reopened.findAll(0, Long.MAX_VALUE, 10)));
+        // Índice completo desde el sidecar: no hizo falta recorrer el log
+        assertEquals(0, reopened.stats().recoveredRecords);
+    }
+
+    @Test
+    void truncatesATornWriteAtTheEndOfTheLog() throws IOException {
+        AnalysisHistoryStore store = open();
+        store.append(result("192.0.2.1", 10), "192.0.2.1");
+        store.append(result("192.0.2.1", 20), "192.0.2.1");
+        store.shutdown();
+        Path log = dir.resolve("history-000001.log");
+        long validSize = Files.size(log);
+
+        // Caída a mitad de un append: cabecera completa y solo parte del cuerpo
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(8 + 40).putInt(500).putInt(0x1234).put(new byte[40]).flip());
+        }
+
+        AnalysisHistoryStore recovered = open();
+        assertEquals(List.of(20, 10), scores(recovered.find("192.0.2.1", 0, Long.MAX_VALUE, 10)));
+        assertEquals(48, recovered.stats().truncatedBytes);
+        assertEquals(validSize, Files.size(log));
+
+        // Los registros nuevos van detrás del último válido
+        recovered.append(result("192.0.2.1", 30), "192.0.2.1");
+        recovered.shutdown();
+        assertEquals(List.of(30, 20, 10), scores(open().find("192.0.2.1", 0, Long.MAX_VALUE, 10)));
+    }
+
+    @Test
+    void rebuildsAMissingOrCutSidecarFromTheLog() throws IOException {
+        AnalysisHistoryStore store = open();
+        for (int score = 1; score <= 3; score++) {
+            store.append(result("192.0.2.1", score), "192.0.2.1");
+        }
+        store.shutdown();
+        Path idx = dir.resolve("history-000001.idx");
+
+        // Sidecar cortado a mitad de la segunda entrada
+        try (FileChannel channel = FileChannel.open(idx, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(idx) / 2);
+        }
+        AnalysisHistoryStore partial = open();
+        assertEquals(List.of(3, 2, 1), scores(partial.find("192.0.2.1", 0, Long.MAX_VALUE, 10)));
+        assertTrue(partial.stats().recoveredRecords >= 2);
+        partial.shutdown();
+
+        Files.delete(idx);
+        AnalysisHistoryStore rebuilt = open();
+        assertEquals(3, rebuilt.stats().recoveredRecords);
+        rebuilt.shutdown();
+
+        // El sidecar rehecho cubre todo el log
+        AnalysisHistoryStore again = open();
+        assertEquals(0, again.stats().recoveredRecords);
+        assertEquals(List.of(3, 2, 1), scores(again.find("192.0.2.1", 0, Long.MAX_VALUE, 10)));
+    }
+
+    @Test
+    void ignoresRecordsWithABadChecksum() throws IOException {
+        AnalysisHistoryStore store = open();
+        store.append(result("192.0.2.1", 10), "192.0.2.1");
+        store.append(result("192.0.2.1", 20), "192.0.2.1");
+        store.shutdown();
+        Path log = dir.resolve("history-000001.log");
+        Files.delete(dir.resolve("history-000001.idx"));
+
+        // Un byte alterado en el JSON del último registro
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'#'}), Files.size(log) - 2);
+        }
+
+        AnalysisHistoryStore recovered = open();
+        assertEquals(List.of(10), scores(recovered.find("192.0.2.1", 0, Long.MAX_VALUE, 10)));
+        assertTrue(recovered.stats().truncatedBytes > 0);
+    }
+
+    private AnalysisHistoryStore open() {
+        AnalysisHistoryStore store = new AnalysisHistoryStore();
+        store.enabled = true;
+        store.directory = dir.toString();
+        store.segmentMaxMb = 64;
+        store.objectMapper = new ObjectMapper();
+        store.init();
+        assertTrue(store.isReady());
+        opened.add(store);
+        return store;
+    }
+
+    private static AnalysisResult result(String ip, int score) {
+        AnalysisResult result = new AnalysisResult();
+        result.ip = ip;
+        result.securityScore = score;
+        result.timestamp = System.currentTimeMillis();
+        return result;
+    }
+
+    private static List<Integer> scores(List<AnalysisResult> results) {
+        return results.stream().map(r -> r.securityScore).toList();
+    }
+}
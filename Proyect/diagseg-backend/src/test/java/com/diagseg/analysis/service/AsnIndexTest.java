@@ -0,0 +1,168 @@
+package com.diagseg.analysis.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsnIndexTest {
+
+    // Desordenado a propósito, con huecos entre rangos y ASN de 32 bits por encima de 2^31
+    private static final String IP2ASN = """
+        200.0.0.0\t200.0.0.255\t64512\tBR\tEXAMPLE-BR
+        1.0.0.0\t1.0.0.255\t13335\tUS\tCLOUDFLARENET
+        1.0.1.0\t1.0.3.255\t0\tNone\tNot routed
+        8.8.8.0\t8.8.8.255\t15169\tUS\tGOOGLE
+        8.8.4.0\t8.8.4.255\t15169\tUS\tGOOGLE-SECONDARY
+        128.0.0.0\t128.0.0.255\t4200000000\tZZ\tPRIVATE-32BIT
+        255.255.255.0\t255.255.255.255\t65000\tZZ\tTOP
+        2001:db8::\t2001:db8:0:ffff:ffff:ffff:ffff:ffff\t64496\tZZ\tDOC-A
+        2001:db8:1::\t2001:db8:1::ffff\t64497\tZZ\tDOC-B
+        8000::\t8000::ff\t64498\tZZ\tHIGH-BIT
+        ffff:ffff:ffff:ffff:ffff:ffff:ffff:ff00\tffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff\t64499\tZZ\tTOP6
+        no es una línea válida
+        1.2.3.4\tnot-an-ip\t64500\tZZ\tBROKEN
+        """;
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @CsvSource({
+        "1.0.0.0, 13335",
+        "1.0.0.255, 13335",
+        "8.8.4.4, 15169",
+        "8.8.8.8, 15169",
+        "128.0.0.0, 4200000000",
+        "128.0.0.255, 4200000000",
+        "200.0.0.128, 64512",
+        "255.255.255.0, 65000",
+        "255.255.255.255, 65000",
+        "::ffff:8.8.8.8, 15169",
+        "2001:db8::, 64496",
+        "2001:db8:0:ffff:ffff:ffff:ffff:ffff, 64496",
+        "2001:db8:1::, 64497",
+        "2001:db8:1::ffff, 64497",
+        "8000::, 64498",
+        "8000::ff, 64498",
+        "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff, 64499",
+    })
+    void findsRangeBoundaries(String ip, long asn) throws IOException {
+        AsnIndex index = load(false);
+
+        assertEquals(asn, index.lookup(ip).orElseThrow().asn());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "0.0.0.0",
+        "0.255.255.255",
+        "1.0.1.0",           // ASN 0: no anunciado
+        "1.0.4.0",
+        "8.8.5.0",           // hueco entre dos rangos del mismo ASN
+        "127.255.255.255",
+        "128.0.1.0",
+        "199.255.255.255",
+        "255.255.254.255",
+        "::",
+        "2001:db8:1:0:0:0:1:0",
+        "2001:db8:2::",
+        "7fff:ffff:ffff:ffff:ffff:ffff:ffff:ffff",
+        "8000::100",
+        "ffff:ffff:ffff:ffff:ffff:ffff:ffff:feff",
+        "dns.google",
+    })
+    void missesGapsAndNonLiterals(String ip) throws IOException {
+        AsnIndex index = load(false);
+
+        assertEquals(Optional.empty(), index.lookup(ip));
+    }
+
+    @Test
+    void keepsFirstOrganizationPerAsn() throws IOException {
+        AsnIndex index = load(true);
+
+        assertTrue(index.isLoaded());
+        assertEquals(new AsnIndex.Entry(15169, "GOOGLE"), index.lookup("8.8.4.4").orElseThrow());
+        assertEquals(new AsnIndex.Entry(4200000000L, "PRIVATE-32BIT"), index.lookup("128.0.0.1").orElseThrow());
+    }
+
+    @Test
+    void emptyUntilLoaded() {
+        AsnIndex index = new AsnIndex();
+        index.mmdbPath = dir.resolve("missing.mmdb").toString();
+        index.ip2asnPath = dir.resolve("missing.tsv").toString();
+        index.load();
+
+        assertFalse(index.isLoaded());
+        assertEquals(Optional.empty(), index.lookup("8.8.8.8"));
+    }
+
+    @Test
+    void remapsIpv4NetworksFromTheIpv6Tree() {
+        AsnIndex.RangesBuilder builder = new AsnIndex.RangesBuilder();
+        // Así aparecen las IPv4 en el árbol IPv6 de un .mmdb: ::8.8.8.0/120
+        AsnIndex.addNetwork(builder, IpAddress.parse("::808:800"), 120, 15169, "GOOGLE");
+        AsnIndex.addNetwork(builder, IpAddress.parse("::c000:0"), 97, 64501, "HALF");
+        // IPv6 de verdad con prefijo >= 96 y red corta que incluye ::/96: se quedan como IPv6
+        AsnIndex.addNetwork(builder, IpAddress.parse("2001:db8::"), 112, 64496, "DOC");
+        AsnIndex.addNetwork(builder, IpAddress.parse("::"), 64, 64502, "ZERO");
+        AsnIndex.Ranges ranges = builder.build();
+
+        assertEquals(15169, ranges.find(IpAddress.parse("8.8.8.0")).asn());
+        assertEquals(15169, ranges.find(IpAddress.parse("8.8.8.255")).asn());
+        assertNull(ranges.find(IpAddress.parse("8.8.9.0")));
+        assertEquals(64501, ranges.find(IpAddress.parse("192.0.0.0")).asn());
+        assertEquals(64501, ranges.find(IpAddress.parse("255.255.255.255")).asn());
+        assertNull(ranges.find(IpAddress.parse("191.255.255.255")));
+        assertEquals(64496, ranges.find(IpAddress.parse("2001:db8::ffff")).asn());
+        assertEquals(64502, ranges.find(IpAddress.parse("::1")).asn());
+        assertEquals(2, ranges.v4Start.length);
+        assertEquals(2, ranges.v6StartHi.length);
+    }
+
+    @Test
+    void growsPastInitialCapacity() {
+        AsnIndex.RangesBuilder builder = new AsnIndex.RangesBuilder();
+        // Más rangos que la capacidad inicial, en orden inverso
+        for (int i = 5000; i > 0; i--) {
+            IpAddress v4 = IpAddress.ofIpv4((long) i << 8);
+            builder.add(v4, v4.lastInPrefix(24), i, null);
+            IpAddress v6 = IpAddress.ofIpv6(0x2001_0db8_0000_0000L | i, 0);
+            builder.add(v6, v6.lastInPrefix(64), 100_000 + i, null);
+        }
+        AsnIndex.Ranges ranges = builder.build();
+
+        for (int i = 1; i <= 5000; i++) {
+            assertEquals(i, ranges.find(IpAddress.ofIpv4(((long) i << 8) | 0x7F)).asn());
+            assertEquals(100_000 + i, ranges.find(IpAddress.ofIpv6(0x2001_0db8_0000_0000L | i, 42)).asn());
+        }
+        assertNull(ranges.find(IpAddress.ofIpv4(5001L << 8)));
+    }
+
+    private AsnIndex load(boolean gzip) throws IOException {
+        Path file = dir.resolve(gzip ? "ip2asn-combined.tsv.gz" : "ip2asn-combined.tsv");
+        try (OutputStream out = gzip ? new GZIPOutputStream(Files.newOutputStream(file)) : Files.newOutputStream(file)) {
+            out.write(IP2ASN.getBytes(StandardCharsets.UTF_8));
+        }
+        AsnIndex index = new AsnIndex();
+        index.mmdbPath = dir.resolve("GeoLite2-ASN.mmdb").toString();
+        index.ip2asnPath = file.toString();
+        index.load();
+        assertTrue(index.isLoaded());
+        return index;
+    }
+}
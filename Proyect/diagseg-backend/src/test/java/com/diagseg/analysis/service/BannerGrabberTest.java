@@ -0,0 +1,179 @@
+package com.diagseg.analysis.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BannerGrabberTest {
+
+    static Stream<Arguments> identifiedBanners() {
+        return Stream.of(
+            // port, respuesta, servicio, producto, versión
+            Arguments.of(22, text("SSH-2.0-OpenSSH_8.9p1 Ubuntu-3ubuntu0.6\r\n"), "ssh", "OpenSSH", "8.9p1"),
+            Arguments.of(2222, text("SSH-2.0-OpenSSH_9.6\r\n"), "ssh", "OpenSSH", "9.6"),
+            Arguments.of(22, text("SSH-2.0-dropbear_2022.83\r\n"), "ssh", "Dropbear sshd", "2022.83"),
+            Arguments.of(80, text("HTTP/1.1 200 OK\r\nDate: Mon, 01 Jan 2024 00:00:00 GMT\r\n"
+                + "Server: nginx/1.18.0 (Ubuntu)\r\nContent-Type: text/html\r\n\r\n"), "http", "nginx", "1.18.0"),
+            Arguments.of(8080, text("HTTP/1.0 200 OK\r\nserver: Apache\r\n\r\n"), "http", "Apache httpd", null),
+            Arguments.of(8080, text("HTTP/1.1 404 Not Found\r\nServer: Jetty(9.4.44.v20210927)\r\n\r\n"),
+                "http", "Jetty", "9.4.44.v20210927"),
+            Arguments.of(443, text("HTTP/1.1 301 Moved\r\nServer: cloudflare\r\n\r\n"), "http", "cloudflare", null),
+            Arguments.of(3306, mysqlHandshake("8.0.36-0ubuntu0.22.04.1"), "mysql", "MySQL", "8.0.36"),
+            Arguments.of(3306, mysqlHandshake("5.7.44"), "mysql", "MySQL", "5.7.44"),
+            Arguments.of(3306, mysqlHandshake("5.5.5-10.11.6-MariaDB-0+deb12u1"), "mysql", "MariaDB", "10.11.6"),
+            Arguments.of(3306, mysqlError("Host '203.0.113.7' is not allowed to connect to this MySQL server"),
+                "mysql", "MySQL", null),
+            Arguments.of(3306, mysqlError("Host '203.0.113.7' is not allowed to connect to this MariaDB server"),
+                "mysql", "MariaDB", null),
+            Arguments.of(21, text("220 (vsFTPd 3.0.5)\r\n"), "ftp", "vsftpd", "3.0.5"),
+            Arguments.of(21, text("220 ProFTPD 1.3.8 Server (Debian) [::ffff:192.0.2.1]\r\n"),
+                "ftp", "ProFTPD", "1.3.8"),
+            Arguments.of(2121, text("220-FileZilla Server 1.8.1\r\n"), "ftp", "FileZilla ftpd", "1.8.1"),
+            Arguments.of(21, text("220---------- Welcome to Pure-FTPd [privsep] [TLS] ----------\r\n"),
+                "ftp", "Pure-FTPd", null),
+            Arguments.of(25, text("220 mail.example.com ESMTP Postfix (Ubuntu)\r\n"), "smtp", "Postfix smtpd", null),
+            Arguments.of(587, text("220 mx.example.com ESMTP Exim 4.96 Mon, 01 Jan 2024 00:00:00 +0000\r\n"),
+                "smtp", "Exim smtpd", "4.96"),
+            Arguments.of(25, text("220 mx.example.com ESMTP Sendmail 8.17.1/8.17.1; Mon, 1 Jan 2024\r\n"),
+                "smtp", "Sendmail", "8.17.1"),
+            // FTP detectado por el saludo en un puerto no estándar
+            Arguments.of(10021, text("220 (vsFTPd 3.0.3)\r\n"), "ftp", "vsftpd", "3.0.3"),
+            Arguments.of(6379, text("-NOAUTH Authentication required.\r\n"), "redis", "Redis key-value store", null),
+            Arguments.of(6379, text("-DENIED Redis is running in protected mode\r\n"),
+                "redis", "Redis key-value store", null),
+            Arguments.of(6379, text("$120\r\n# Server\r\nredis_version:7.2.4\r\nredis_mode:standalone\r\n"),
+                "redis", "Redis key-value store", "7.2.4"),
+            Arguments.of(110, text("+OK Dovecot (Ubuntu) ready.\r\n"), "pop3", "Dovecot pop3d", null),
+            Arguments.of(143, text("* OK [CAPABILITY IMAP4rev1] Dovecot (Ubuntu) ready.\r\n"),
+                "imap", "Dovecot imapd", null)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("identifiedBanners")
+    void identifiesKnownProducts(int port, byte[] response, String service, String product, String version) {
+        BannerGrabber.Banner banner = BannerGrabber.identify(port, response);
+
+        assertEquals(service, banner.service());
+        assertEquals(product, banner.product());
+        assertEquals(version, banner.version());
+        assertNotNull(banner.fingerprint());
+        assertNotEquals(ServiceFingerprinter.SILENT, banner.fingerprint());
+    }
+
+    static Stream<Arguments> unidentifiedBanners() {
+        return Stream.of(
+            // port, respuesta, servicio (null si no se reconoce el protocolo)
+            Arguments.of(22, text("SSH-2.0-Cisco-1.25\r\n"), "ssh"),
+            Arguments.of(80, text("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n\r\n"), "http"),
+            Arguments.of(80, text("HTTP/1.1 200 OK\r\nServer: (unknown)\r\n\r\n"), "http"),
+            Arguments.of(21, text("220 Microsoft FTP Service\r\n"), "ftp"),
+            Arguments.of(25, text("220 mx.example.com Microsoft ESMTP MAIL Service ready\r\n"), "smtp"),
+            Arguments.of(110, text("+OK POP3 server ready\r\n"), "pop3"),
+            Arguments.of(143, text("* OK IMAP4 ready\r\n"), "imap"),
+            // Paquetes MySQL truncados o vacíos: no se lee fuera del array
+            Arguments.of(3306, new byte[]{5, 0, 0, 0, (byte) 0xff}, "mysql"),
+            Arguments.of(3306, new byte[]{5, 0, 0, 0, (byte) 0xff, 0x6a, 0x04}, "mysql"),
+            Arguments.of(3306, new byte[]{5, 0, 0, 0, 10}, "mysql"),
+            Arguments.of(3306, new byte[]{5, 0, 0, 0, 10, 0, 1, 2, 3}, "mysql"),
+            Arguments.of(9999, new byte[]{0x16, 0x03, 0x01, 0x00, 0x02, 0x02, 0x28}, null),
+            Arguments.of(9999, text("hello\r\n"), null)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("unidentifiedBanners")
+    void leavesUnknownProductsToVersionScan(int port, byte[] response, String service) {
+        BannerGrabber.Banner banner = BannerGrabber.identify(port, response);
+
+        assertFalse(banner.identified());
+        assertEquals(service, banner.service());
+        assertNull(banner.version());
+        assertNotNull(banner.fingerprint());
+    }
+
+    @Test
+    void silentPortHasSilentFingerprint() {
+        assertEquals(ServiceFingerprinter.SILENT, BannerGrabber.identify(9999, new byte[0]).fingerprint());
+    }
+
+    @Test
+    void fingerprintIgnoresVolatileParts() {
+        BannerGrabber.Banner monday = BannerGrabber.identify(587,
+            text("220 mx.example.com ESMTP Exim 4.96 Mon, 01 Jan 2024 10:00:00 +0000\r\n"));
+        BannerGrabber.Banner tuesday = BannerGrabber.identify(587,
+            text("220 mx.example.com ESMTP Exim 4.96 Tue, 02 Jan 2024 11:30:15 +0100\r\n"));
+        BannerGrabber.Banner upgraded = BannerGrabber.identify(587,
+            text("220 mx.example.com ESMTP Exim 4.97 Tue, 02 Jan 2024 11:30:15 +0100\r\n"));
+
+        assertEquals(monday.fingerprint(), tuesday.fingerprint());
+        assertNotEquals(monday.fingerprint(), upgraded.fingerprint());
+    }
+
+    @Test
+    void mysqlSaltDoesNotChangeFingerprint() {
+        assertEquals(BannerGrabber.identify(3306, mysqlHandshake("8.0.36", (byte) 1)).fingerprint(),
+            BannerGrabber.identify(3306, mysqlHandshake("8.0.36", (byte) 2)).fingerprint());
+    }
+
+    private static byte[] text(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] mysqlHandshake(String serverVersion) {
+        return mysqlHandshake(serverVersion, (byte) 0x41);
+    }
+
+    /**
+     * Handshake v10: versión, id de conexión, salt y capacidades
+     */
+    private static byte[] mysqlHandshake(String serverVersion, byte salt) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(10);
+        payload.writeBytes(text(serverVersion));
+        payload.write(0);
+        payload.writeBytes(new byte[]{0x2a, 0, 0, 0}); // id de conexión
+        for (int i = 0; i < 8; i++) {
+            payload.write(salt + i);
+        }
+        payload.write(0);
+        payload.writeBytes(new byte[]{(byte) 0xff, (byte) 0xf7, (byte) 0xff, 0x02, 0, (byte) 0xff, (byte) 0xdf, 0x15});
+        payload.writeBytes(new byte[10]);
+        for (int i = 0; i < 12; i++) {
+            payload.write(salt + 8 + i);
+        }
+        payload.write(0);
+        payload.writeBytes(text("caching_sha2_password"));
+        payload.write(0);
+        return packet(payload.toByteArray());
+    }
+
+    /**
+     * Paquete de error 1130 (host no autorizado)
+     */
+    private static byte[] mysqlError(String message) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(0xff);
+        payload.writeBytes(new byte[]{0x6a, 0x04});
+        payload.writeBytes(text(message));
+        return packet(payload.toByteArray());
+    }
+
+    private static byte[] packet(byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{(byte) payload.length, (byte) (payload.length >>> 8), (byte) (payload.length >>> 16), 0});
+        out.writeBytes(payload);
+        return out.toByteArray();
+    }
+}
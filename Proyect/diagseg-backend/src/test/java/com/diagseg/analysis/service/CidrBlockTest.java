@@ -0,0 +1,73 @@
+package com.diagseg.analysis.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CidrBlockTest {
+
+    @Test
+    void normalizesToTheNetworkAddress() {
+        CidrBlock block = CidrBlock.parse(" 203.0.113.77/24 ");
+
+        assertEquals("203.0.113.0/24", block.toString());
+        assertEquals(CidrBlock.parse("203.0.113.0/24"), block);
+        assertEquals(256, block.size());
+        assertEquals("198.51.100.7/32", CidrBlock.parse("198.51.100.7").toString());
+        assertEquals("0.0.0.0/0", CidrBlock.parse("10.1.2.3/0").toString());
+    }
+
+    @Test
+    void splitsIntoContiguousShards() {
+        List<CidrBlock> shards = CidrBlock.parse("10.0.0.0/22").split(24);
+
+        assertEquals(List.of(
+            CidrBlock.parse("10.0.0.0/24"),
+            CidrBlock.parse("10.0.1.0/24"),
+            CidrBlock.parse("10.0.2.0/24"),
+            CidrBlock.parse("10.0.3.0/24")), shards);
+    }
+
+    @Test
+    void splitKeepsBlocksThatAreAlreadySmall() {
+        CidrBlock block = CidrBlock.parse("10.0.0.0/26");
+
+        assertEquals(List.of(block), block.split(24));
+        assertEquals(List.of(block), block.split(26));
+    }
+
+    @Test
+    void splitCoversTheTopOfTheAddressSpace() {
+        List<CidrBlock> shards = CidrBlock.parse("255.255.254.0/23").split(24);
+
+        assertEquals(2, shards.size());
+        assertEquals("255.255.255.0/24", shards.get(1).toString());
+        assertEquals(65536, CidrBlock.parse("0.0.0.0/8").split(24).size());
+    }
+
+    @Test
+    void containsChecksBothEnds() {
+        CidrBlock block = CidrBlock.parse("192.0.2.0/25");
+
+        assertTrue(block.contains(IpAddress.parse("192.0.2.0")));
+        assertTrue(block.contains(IpAddress.parse("192.0.2.127")));
+        assertFalse(block.contains(IpAddress.parse("192.0.2.128")));
+        assertFalse(block.contains(IpAddress.parse("2001:db8::1")));
+        // IPv4 mapeada en IPv6
+        assertTrue(block.contains(IpAddress.parse("::ffff:192.0.2.1")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"10.0.0.0/33", "10.0.0.0/", "10.0.0.0/2x", "10.0.0.0/100", "10.0.0/24", "256.0.0.0/8",
+        "2001:db8::/32", ""})
+    void rejectsInvalidBlocks(String cidr) {
+        assertThrows(IllegalArgumentException.class, () -> CidrBlock.parse(cidr));
+    }
+}
@@ -0,0 +1,139 @@
+package com.diagseg.analysis.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+
+    private long now = TimeUnit.HOURS.toNanos(1);
+
+    // Ventana de 10, mínimo 5 llamadas, 50 % de fallos, 30 s abierto, 2 pruebas
+    private final CircuitBreaker breaker = new CircuitBreaker("test", 10, 5, 50, Duration.ofSeconds(30), 2,
+        () -> now);
+
+    @Test
+    void opensOnlyWithMinimumCalls() {
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure(breaker.tryAcquire());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+
+        breaker.onFailure(breaker.tryAcquire());
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(-1, breaker.tryAcquire());
+        assertEquals(1, breaker.stats().rejected);
+        assertEquals(30, breaker.stats().retryInSeconds);
+    }
+
+    @Test
+    void opensAtFailureRateOverSlidingWindow() {
+        for (int i = 0; i < 5; i++) {
+            breaker.onSuccess(breaker.tryAcquire());
+        }
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure(breaker.tryAcquire());
+        }
+        // 4 de 9
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        breaker.onFailure(breaker.tryAcquire());
+        // 5 de 10
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    void oldResultsLeaveTheWindow() {
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure(breaker.tryAcquire());
+        }
+        // Diez éxitos desplazan los cuatro fallos de la ventana
+        for (int i = 0; i < 10; i++) {
+            breaker.onSuccess(breaker.tryAcquire());
+        }
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure(breaker.tryAcquire());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(0.4, breaker.stats().failureRate, 1e-9);
+    }
+
+    @Test
+    void halfOpenClosesAfterAllProbesSucceed() {
+        trip();
+        now += TimeUnit.SECONDS.toNanos(29);
+        assertEquals(-1, breaker.tryAcquire());
+        now += TimeUnit.SECONDS.toNanos(1);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        long first = breaker.tryAcquire();
+        long second = breaker.tryAcquire();
+        assertTrue(first >= 0 && second >= 0);
+        // Solo halfOpenProbes pruebas a la vez
+        assertEquals(-1, breaker.tryAcquire());
+
+        breaker.onSuccess(first);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        breaker.onSuccess(second);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(0, breaker.stats().callsInWindow);
+    }
+
+    @Test
+    void halfOpenReopensOnFirstFailure() {
+        trip();
+        now += TimeUnit.SECONDS.toNanos(30);
+        long first = breaker.tryAcquire();
+        long second = breaker.tryAcquire();
+
+        breaker.onFailure(first);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(2, breaker.stats().openedCount);
+        // La otra prueba pertenece a la generación anterior: no cierra el circuito
+        breaker.onSuccess(second);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(30, breaker.stats().retryInSeconds);
+    }
+
+    @Test
+    void permitsFromBeforeATransitionAreIgnored() {
+        long stale = breaker.tryAcquire();
+        trip();
+        now += TimeUnit.SECONDS.toNanos(30);
+        long probe = breaker.tryAcquire();
+
+        // Resultados tardíos de llamadas admitidas con el circuito cerrado
+        breaker.onFailure(stale);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        breaker.onSuccess(stale);
+        breaker.onSuccess(probe);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertEquals(6, breaker.stats().failures);
+    }
+
+    @Test
+    void ignoredProbeFreesItsSlot() {
+        trip();
+        now += TimeUnit.SECONDS.toNanos(30);
+        long first = breaker.tryAcquire();
+        breaker.tryAcquire();
+        assertEquals(-1, breaker.tryAcquire());
+
+        breaker.onIgnored(first);
+
+        assertTrue(breaker.tryAcquire() >= 0);
+    }
+
+    private void trip() {
+        for (int i = 0; i < 5; i++) {
+            breaker.onFailure(breaker.tryAcquire());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+}
@@ -0,0 +1,196 @@
+package com.diagseg.analysis.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DnsClientTest {
+
+    private static final int ID = 0x1234;
+    // Desplazamiento del nombre de la pregunta, destino habitual de los punteros
+    private static final int QUESTION_NAME = 12;
+    private static final int TYPE_CNAME = 5;
+    private static final int TYPE_SOA = 6;
+
+    @Test
+    void encodesQuery() {
+        byte[] query = DnsClient.encodeQuery(ID, "www.example.com", DnsClient.TYPE_AAAA);
+
+        byte[] expected = concat(
+            new byte[]{0x12, 0x34, 0x01, 0x00, 0, 1, 0, 0, 0, 0, 0, 0},
+            name("www.example.com"),
+            new byte[]{0, 28, 0, 1});
+        assertArrayEquals(expected, query);
+        assertThrows(IllegalArgumentException.class, () -> DnsClient.encodeQuery(ID, "a..b", DnsClient.TYPE_A));
+    }
+
+    @Test
+    void decodesCompressedAnswer() throws IOException {
+        Response response = new Response("example.com", DnsClient.TYPE_A);
+        response.answer(pointer(QUESTION_NAME), DnsClient.TYPE_A, 300, new byte[]{93, (byte) 184, (byte) 216, 34});
+        response.answer(pointer(QUESTION_NAME), DnsClient.TYPE_A, 120, new byte[]{93, (byte) 184, (byte) 216, 35});
+
+        DnsClient.Answer answer = DnsClient.decode(response.bytes(), ID, "Example.COM.", DnsClient.TYPE_A);
+
+        assertEquals(List.of(InetAddress.getByName("93.184.216.34"), InetAddress.getByName("93.184.216.35")),
+            answer.addresses());
+        assertEquals(120, answer.ttlSeconds());
+        assertFalse(answer.nxdomain());
+    }
+
+    @Test
+    void followsCnameChainWithNestedPointers() throws IOException {
+        Response response = new Response("www.example.com", DnsClient.TYPE_AAAA);
+        // www.example.com CNAME cdn.example.com ("cdn" + puntero a "example.com" de la pregunta)
+        int cdn = response.answer(pointer(QUESTION_NAME), TYPE_CNAME, 3600,
+            concat(label("cdn"), pointer(QUESTION_NAME + 4)));
+        // cdn.example.com CNAME edge.cdn.example.com (puntero a un nombre que a su vez contiene un puntero)
+        int edge = response.answer(pointer(cdn), TYPE_CNAME, 600, concat(label("edge"), pointer(cdn)));
+        // Registro ajeno a la cadena: se ignora
+        response.answer(name("other.example.org"), DnsClient.TYPE_AAAA, 5, new byte[16]);
+        response.answer(pointer(edge), DnsClient.TYPE_AAAA, 900,
+            InetAddress.getByName("2001:db8::1").getAddress());
+
+        DnsClient.Answer answer = DnsClient.decode(response.bytes(), ID, "www.example.com", DnsClient.TYPE_AAAA);
+
+        assertEquals(List.of(InetAddress.getByName("2001:db8::1")), answer.addresses());
+        // TTL mínimo de toda la cadena, CNAME incluidos
+        assertEquals(600, answer.ttlSeconds());
+    }
+
+    @Test
+    void nxdomainUsesSoaNegativeTtl() throws IOException {
+        Response response = new Response("missing.example.com", DnsClient.TYPE_A);
+        response.rcode(3);
+        byte[] soa = concat(
+            concat(label("ns1"), pointer(QUESTION_NAME + 8)),
+            concat(label("hostmaster"), pointer(QUESTION_NAME + 8)),
+            new byte[]{0, 0, 0, 1, 0, 0, 0x1C, 0x20, 0, 0, 0x0E, 0x10, 0, 0x12, 0x75, 0x00},
+            new byte[]{0, 0, 0x03, (byte) 0x84}); // MINIMUM 900
+        response.authority(pointer(QUESTION_NAME + 8), TYPE_SOA, 3600, soa);
+
+        DnsClient.Answer answer = DnsClient.decode(response.bytes(), ID, "missing.example.com", DnsClient.TYPE_A);
+
+        assertTrue(answer.addresses().isEmpty());
+        assertTrue(answer.nxdomain());
+        assertEquals(900, answer.ttlSeconds());
+    }
+
+    @Test
+    void cnameToMissingTypeIsNoData() throws IOException {
+        Response response = new Response("www.example.com", DnsClient.TYPE_AAAA);
+        response.answer(pointer(QUESTION_NAME), TYPE_CNAME, 300, name("v4only.example.net"));
+
+        DnsClient.Answer answer = DnsClient.decode(response.bytes(), ID, "www.example.com", DnsClient.TYPE_AAAA);
+
+        assertTrue(answer.addresses().isEmpty());
+        assertFalse(answer.nxdomain());
+        assertEquals(0, answer.ttlSeconds());
+    }
+
+    @Test
+    void rejectsInvalidResponses() {
+        Response wrongId = new Response("example.com", DnsClient.TYPE_A);
+        assertThrows(IOException.class, () -> DnsClient.decode(wrongId.bytes(), ID + 1, "example.com", DnsClient.TYPE_A));
+
+        Response servfail = new Response("example.com", DnsClient.TYPE_A);
+        servfail.rcode(2);
+        assertThrows(IOException.class, () -> DnsClient.decode(servfail.bytes(), ID, "example.com", DnsClient.TYPE_A));
+
+        // Puntero que apunta a sí mismo
+        Response loop = new Response("example.com", DnsClient.TYPE_A);
+        int self = loop.size();
+        loop.answer(pointer(self), DnsClient.TYPE_A, 60, new byte[4]);
+        assertThrows(IOException.class, () -> DnsClient.decode(loop.bytes(), ID, "example.com", DnsClient.TYPE_A));
+    }
+
+    /**
+     * Respuesta DNS construida a mano a partir de la consulta
+     */
+    private static final class Response {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int rcode;
+        private int answers;
+        private int authorities;
+
+        Response(String name, int type) {
+            out.writeBytes(DnsClient.encodeQuery(ID, name, type));
+        }
+
+        void rcode(int rcode) {
+            this.rcode = rcode;
+        }
+
+        int size() {
+            return out.size();
+        }
+
+        /**
+         * Añade un registro de respuesta y devuelve el desplazamiento de sus datos
+         */
+        int answer(byte[] owner, int type, long ttl, byte[] data) {
+            answers++;
+            return record(owner, type, ttl, data);
+        }
+
+        void authority(byte[] owner, int type, long ttl, byte[] data) {
+            authorities++;
+            record(owner, type, ttl, data);
+        }
+
+        private int record(byte[] owner, int type, long ttl, byte[] data) {
+            out.writeBytes(owner);
+            out.writeBytes(new byte[]{(byte) (type >>> 8), (byte) type, 0, 1,
+                (byte) (ttl >>> 24), (byte) (ttl >>> 16), (byte) (ttl >>> 8), (byte) ttl,
+                (byte) (data.length >>> 8), (byte) data.length});
+            int offset = out.size();
+            out.writeBytes(data);
+            return offset;
+        }
+
+        byte[] bytes() {
+            byte[] message = out.toByteArray();
+            message[2] |= (byte) 0x80; // QR
+            message[3] = (byte) (0x80 | rcode); // RA
+            message[7] = (byte) answers;
+            message[9] = (byte) authorities;
+            return message;
+        }
+    }
+
+    private static byte[] name(String name) {
+        byte[] labels = new byte[0];
+        for (String part : name.split("\\.")) {
+            labels = concat(labels, label(part));
+        }
+        return concat(labels, new byte[]{0});
+    }
+
+    private static byte[] label(String label) {
+        byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+        return concat(new byte[]{(byte) bytes.length}, bytes);
+    }
+
+    private static byte[] pointer(int offset) {
+        return new byte[]{(byte) (0xC0 | offset >>> 8), (byte) offset};
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
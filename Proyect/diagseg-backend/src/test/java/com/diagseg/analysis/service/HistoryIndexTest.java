@@ -0,0 +1,64 @@
+package com.diagseg.analysis.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HistoryIndexTest {
+
+    @Test
+    void returnsNewestFirstWithinTheTimeRange() {
+        HistoryIndex index = new HistoryIndex();
+        index.add(100, 1, "192.0.2.1", "example.com");
+        index.add(200, 2, "192.0.2.2");
+        index.add(200, 3, "192.0.2.1");
+        index.add(300, 4, "192.0.2.1");
+
+        assertArrayEquals(new long[]{4, 3, 1}, index.newest("192.0.2.1", 0, Long.MAX_VALUE, 10));
+        assertArrayEquals(new long[]{3}, index.newest("192.0.2.1", 150, 250, 10));
+        // Los límites del rango son inclusivos
+        assertArrayEquals(new long[]{4, 3}, index.newest("192.0.2.1", 200, 300, 10));
+        assertArrayEquals(new long[]{4}, index.newest("192.0.2.1", 0, Long.MAX_VALUE, 1));
+        assertArrayEquals(new long[]{1}, index.newest("example.com", 0, 100, 10));
+        assertArrayEquals(new long[0], index.newest("192.0.2.1", 301, 400, 10));
+        assertArrayEquals(new long[0], index.newest("198.51.100.1", 0, Long.MAX_VALUE, 10));
+        assertEquals(3, index.keys());
+    }
+
+    @Test
+    void searchesAllRecordsByTime() {
+        HistoryIndex index = new HistoryIndex();
+        for (int i = 0; i < 10; i++) {
+            index.add(i * 10L, i, "k" + i);
+        }
+
+        assertArrayEquals(new long[]{9, 8, 7}, index.newest(0, Long.MAX_VALUE, 3));
+        assertArrayEquals(new long[]{5, 4, 3}, index.newest(30, 55, 10));
+        assertArrayEquals(new long[0], index.newest(91, 95, 10));
+    }
+
+    @Test
+    void growsPastOneChunk() {
+        HistoryIndex index = new HistoryIndex();
+        int records = (1 << 16) * 3 + 5;
+        for (int i = 0; i < records; i++) {
+            index.add(i, HistoryIndex.position(1, i * 100L), i % 2 == 0 ? "par" : "impar");
+        }
+
+        assertEquals(records, index.size());
+        assertEquals(records - 1, index.timestampOf(records - 1));
+        long[] newest = index.newest("par", 0, Long.MAX_VALUE, 2);
+        assertEquals((records - 1) * 100L, HistoryIndex.offsetOf(newest[0]));
+        assertEquals((records - 3) * 100L, HistoryIndex.offsetOf(newest[1]));
+        assertEquals(1, index.newest("impar", 1, 1, 10).length);
+    }
+
+    @Test
+    void packsSegmentAndOffsetIntoAPosition() {
+        long position = HistoryIndex.position(123_456, (1L << 40) - 1);
+
+        assertEquals(123_456, HistoryIndex.segmentOf(position));
+        assertEquals((1L << 40) - 1, HistoryIndex.offsetOf(position));
+    }
+}
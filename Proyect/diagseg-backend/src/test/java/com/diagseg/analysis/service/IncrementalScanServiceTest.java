@@ -0,0 +1,291 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.AnalysisMetadataDto;
+import com.diagseg.analysis.dto.AnalysisResult;
+import com.diagseg.analysis.dto.Protocol;
+import com.diagseg.analysis.dto.RiskLevel;
+import com.diagseg.analysis.dto.ServiceDiffDto;
+import com.diagseg.analysis.dto.ServiceDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IncrementalScanServiceTest {
+
+    private static final String IP = "192.0.2.10";
+
+    private IncrementalScanService service;
+
+    // Respuestas de los stubs
+    private final List<ServiceDto> openPorts = new ArrayList<>();
+    private final Map<Integer, BannerGrabber.Banner> banners = new LinkedHashMap<>();
+    private final Map<Integer, ServiceDto> versionScanResults = new LinkedHashMap<>();
+    private final List<AnalysisResult> history = new ArrayList<>();
+
+    // Lo que recibieron
+    private final List<List<Integer>> versionScans = new ArrayList<>();
+    private final List<Integer> notified = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        NmapService nmapService = new NmapService() {
+            @Override
+            public boolean coversPort(int port) {
+                return port != 25; // 25 ya no está en nmap.ports
+            }
+        };
+        BannerGrabber bannerGrabber = new BannerGrabber() {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            public CompletableFuture<Map<Integer, Banner>> grabAll(String host, Collection<Integer> ports) {
+                Map<Integer, Banner> result = new LinkedHashMap<>();
+                ports.forEach(port -> {
+                    if (banners.containsKey(port)) {
+                        result.put(port, banners.get(port));
+                    }
+                });
+                return CompletableFuture.completedFuture(result);
+            }
+        };
+        bannerGrabber.nmapService = nmapService;
+        NmapScanScheduler scheduler = new NmapScanScheduler() {
+            @Override
+            public CompletableFuture<List<ServiceDto>> submitOpenPorts(String target) {
+                return CompletableFuture.completedFuture(openPorts);
+            }
+
+            @Override
+            public CompletableFuture<List<ServiceDto>> submit(String target, Collection<Integer> ports,
+                                                              Consumer<ServiceDto> onService) {
+                versionScans.add(List.copyOf(ports));
+                List<ServiceDto> found = new ArrayList<>();
+                for (Integer port : ports) {
+                    ServiceDto service = versionScanResults.get(port);
+                    if (service != null) {
+                        onService.accept(service);
+                        found.add(service);
+                    }
+                }
+                return CompletableFuture.completedFuture(found);
+            }
+        };
+        AnalysisHistoryStore historyStore = new AnalysisHistoryStore() {
+            @Override
+            public List<AnalysisResult> find(String key, long from, long to, int limit) {
+                return history.stream()
+                    .filter(result -> result.timestamp >= from && result.timestamp <= to)
+                    .limit(limit)
+                    .toList();
+            }
+        };
+
+        service = new IncrementalScanService();
+        service.enabled = true;
+        service.maxBaselineAgeHours = 168;
+        service.nmapService = nmapService;
+        service.bannerGrabber = bannerGrabber;
+        service.nmapScanScheduler = scheduler;
+        service.historyStore = historyStore;
+    }
+
+    @Test
+    void diffCoversEveryBranch() {
+        AnalysisResult baseline = fullScan(hoursAgo(2),
+            service(22, "ssh", "OpenSSH 8.9p1", "fp-ssh", "CVE-2023-0001"),
+            service(80, "http", "nginx 1.18.0", "fp-nginx-old", "CVE-2021-0002"),
+            service(443, "https", "nginx 1.18.0", ServiceFingerprinter.SILENT, "CVE-2021-0002"),
+            service(3306, "mysql", "MySQL 8.0.30", "fp-mysql"),
+            service(8080, "http-proxy", "Squid http proxy 4.13", "fp-squid"),
+            service(25, "smtp", "Postfix smtpd", "fp-postfix"));
+        baseline.services.get(0).cpe = "cpe:/a:openbsd:openssh:8.9p1";
+
+        // Abiertos ahora: 3306 se cerró y 5432 es nuevo
+        open(22, 80, 443, 5432, 8080);
+        banners.put(22, banner("fp-ssh", null));
+        banners.put(80, banner("fp-nginx-new", "nginx"));
+        banners.put(443, banner(ServiceFingerprinter.SILENT, null));
+        banners.put(8080, banner("fp-squid-new", null));
+        banners.put(5432, banner(ServiceFingerprinter.SILENT, null));
+        // -sV: 443 sigue igual, 5432 es PostgreSQL y 8080 se cerró entre la comprobación y -sV
+        versionScanResults.put(443, service(443, "https", "nginx 1.18.0", null));
+        versionScanResults.put(5432, service(5432, "postgresql", "PostgreSQL DB 15.4", null));
+
+        IncrementalScanService.IncrementalScan scan = service.runScan(IP, baseline, s -> notified.add(s.port));
+        ServiceDiffDto diff = scan.diff();
+
+        assertEquals(List.of(List.of(443, 5432, 8080)), versionScans);
+        assertEquals(List.of(80, 443, 5432, 8080), diff.reprobedPorts);
+        assertEquals(List.of(5432), ports(diff.added));
+        assertEquals(List.of(3306, 8080), ports(diff.removed));
+        assertEquals(1, diff.changed.size());
+        assertEquals(80, diff.changed.get(0).port);
+        assertEquals("nginx 1.18.0", diff.changed.get(0).before.version);
+        assertEquals("nginx 1.25.0", diff.changed.get(0).after.version);
+        // 22 arrastrado, 443 confirmado con -sV
+        assertEquals(2, diff.unchanged);
+        assertEquals(baseline.timestamp, diff.baselineTimestamp);
+        assertEquals(baseline.timestamp, diff.fullScanTimestamp);
+
+        assertEquals(List.of(22, 80, 443, 5432), ports(scan.services()));
+        // Todos los servicios actuales, también los arrastrados, vuelven a pasar por CPE y NVD
+        assertEquals(List.of(22, 80, 443, 5432), notified.stream().sorted().toList());
+        // -sV recibe la huella tomada en la comprobación rápida
+        assertEquals(ServiceFingerprinter.SILENT, versionScanResults.get(5432).fingerprint);
+    }
+
+    @Test
+    void carriedServiceDropsOldVulnerabilities() {
+        AnalysisResult baseline = fullScan(hoursAgo(1),
+            service(22, "ssh", "OpenSSH 8.9p1", "fp-ssh", "CVE-2023-0001"));
+        baseline.services.get(0).riskLevel = RiskLevel.HIGH;
+        baseline.services.get(0).cpe = "cpe:/a:openbsd:openssh:8.9p1";
+        open(22);
+        banners.put(22, banner("fp-ssh", null));
+
+        IncrementalScanService.IncrementalScan scan = service.runScan(IP, baseline, s -> notified.add(s.port));
+
+        ServiceDto carried = scan.services().get(0);
+        assertEquals("OpenSSH 8.9p1", carried.version);
+        assertEquals("cpe:/a:openbsd:openssh:8.9p1", carried.cpe);
+        // CVE y riesgo se recalculan con la consulta a NVD; el servicio de referencia no se toca
+        assertTrue(carried.vulnerabilities.isEmpty());
+        assertEquals(RiskLevel.MEDIUM, carried.riskLevel);
+        assertEquals(List.of("CVE-2023-0001"), baseline.services.get(0).vulnerabilities);
+        assertEquals(List.of(22), notified);
+        assertTrue(versionScans.isEmpty());
+        assertTrue(scan.diff().reprobedPorts.isEmpty());
+    }
+
+    @Test
+    void silentPortIsAlwaysReprobed() {
+        AnalysisResult baseline = fullScan(hoursAgo(1),
+            service(443, "https", "nginx 1.18.0", ServiceFingerprinter.SILENT));
+        open(443);
+        banners.put(443, banner(ServiceFingerprinter.SILENT, null));
+        versionScanResults.put(443, service(443, "https", "nginx 1.26.1", null));
+
+        ServiceDiffDto diff = service.runScan(IP, baseline, s -> notified.add(s.port)).diff();
+
+        assertEquals(List.of(List.of(443)), versionScans);
+        assertEquals(1, diff.changed.size());
+        assertEquals("nginx 1.26.1", diff.changed.get(0).after.version);
+        assertEquals(0, diff.unchanged);
+    }
+
+    @Test
+    void portWithoutBannerIsReprobed() {
+        AnalysisResult baseline = fullScan(hoursAgo(1), service(22, "ssh", "OpenSSH 8.9p1", "fp-ssh"));
+        open(22);
+        versionScanResults.put(22, service(22, "ssh", "OpenSSH 8.9p1", null));
+
+        ServiceDiffDto diff = service.runScan(IP, baseline, s -> notified.add(s.port)).diff();
+
+        assertEquals(List.of(List.of(22)), versionScans);
+        assertEquals(1, diff.unchanged);
+        assertTrue(diff.changed.isEmpty() && diff.added.isEmpty() && diff.removed.isEmpty());
+    }
+
+    @Test
+    void baselineIsNewestCompletedScan() {
+        AnalysisResult full = fullScan(hoursAgo(2), service(22, "ssh", "OpenSSH 8.9p1", "fp-ssh"));
+        history.add(full);
+        assertSame(full, service.baselineFor(IP));
+
+        AnalysisResult failed = fullScan(hoursAgo(1));
+        failed.metadata.scanCompleted = false;
+        history.add(0, failed);
+        assertNull(service.baselineFor(IP));
+
+        history.clear();
+        history.add(fullScan(hoursAgo(200), service(22, "ssh", "OpenSSH 8.9p1", "fp-ssh")));
+        assertNull(service.baselineFor(IP));
+
+        service.enabled = false;
+        history.clear();
+        history.add(full);
+        assertNull(service.baselineFor(IP));
+    }
+
+    @Test
+    void incrementalChainExpiresWithItsFullScan() {
+        AnalysisResult full = fullScan(hoursAgo(100), service(22, "ssh", "OpenSSH 8.9p1", "fp-ssh"));
+        open(22);
+        banners.put(22, banner("fp-ssh", null));
+        AnalysisResult incremental = fullScan(hoursAgo(1), service(22, "ssh", "OpenSSH 8.9p1", "fp-ssh"));
+        incremental.diff = service.runScan(IP, full, s -> { }).diff();
+        assertEquals(full.timestamp, incremental.diff.fullScanTimestamp);
+
+        // Un incremental reciente sirve mientras su análisis completo no caduque
+        history.add(incremental);
+        assertSame(incremental, service.baselineFor(IP));
+        AnalysisResult next = fullScan(hoursAgo(0));
+        next.diff = service.runScan(IP, incremental, s -> { }).diff();
+        assertEquals(full.timestamp, next.diff.fullScanTimestamp);
+
+        incremental.diff.fullScanTimestamp = hoursAgo(169);
+        assertNull(service.baselineFor(IP));
+    }
+
+    private void open(int... ports) {
+        for (int port : ports) {
+            ServiceDto service = new ServiceDto();
+            service.port = port;
+            service.protocol = Protocol.TCP;
+            openPorts.add(service);
+        }
+    }
+
+    private static BannerGrabber.Banner banner(String fingerprint, String product) {
+        return new BannerGrabber.Banner(product != null ? "http" : null, product,
+            product != null ? "1.25.0" : null, null, fingerprint);
+    }
+
+    private static ServiceDto service(int port, String name, String version, String fingerprint, String... cves) {
+        ServiceDto service = new ServiceDto();
+        service.host = IP;
+        service.port = port;
+        service.protocol = Protocol.TCP;
+        service.service = name;
+        service.version = version;
+        service.fingerprint = fingerprint;
+        service.vulnerabilities = new ArrayList<>(List.of(cves));
+        service.riskLevel = RiskLevel.MEDIUM;
+        return service;
+    }
+
+    private static AnalysisResult fullScan(long timestamp, ServiceDto... services) {
+        AnalysisResult result = new AnalysisResult();
+        result.ip = IP;
+        result.timestamp = timestamp;
+        result.services = new ArrayList<>(List.of(services));
+        result.vulnerabilities = new ArrayList<>();
+        result.metadata = new AnalysisMetadataDto();
+        result.metadata.scanCompleted = true;
+        return result;
+    }
+
+    private static long hoursAgo(int hours) {
+        return System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hours);
+    }
+
+    private static List<Integer> ports(List<ServiceDto> services) {
+        return services.stream().map(s -> s.port).toList();
+    }
+}
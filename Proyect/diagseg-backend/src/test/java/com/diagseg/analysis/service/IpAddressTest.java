@@ -0,0 +1,128 @@
+package com.diagseg.analysis.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpAddressTest {
+
+    @ParameterizedTest
+    @CsvSource({
+        "0.0.0.0, 0.0.0.0",
+        "192.0.2.1, 192.0.2.1",
+        "255.255.255.255, 255.255.255.255",
+        // Forma canónica RFC 5952: minúsculas, sin ceros a la izquierda, "::" en el tramo más largo
+        "2001:DB8:0:0:0:0:0:1, 2001:db8::1",
+        "2001:0db8:0000:0000:0001:0000:0000:0001, 2001:db8::1:0:0:1",
+        "2001:db8:0:0:1:0:0:0, 2001:db8:0:0:1::",
+        "2001:db8:0:1:1:1:1:1, 2001:db8:0:1:1:1:1:1",
+        "::, ::",
+        "::1, ::1",
+        "1::, 1::",
+        "fe80::1:2, fe80::1:2",
+        "1:2:3:4:5:6:7::, 1:2:3:4:5:6:7:0",
+        "::2:3:4:5:6:7:8, 0:2:3:4:5:6:7:8",
+        "64:ff9b::192.0.2.33, 64:ff9b::c000:221",
+        // IPv4 mapeada: se trata como IPv4
+        "::ffff:192.0.2.1, 192.0.2.1",
+        "::FFFF:c000:0201, 192.0.2.1",
+    })
+    void parsesToCanonicalForm(String text, String canonical) throws Exception {
+        IpAddress address = IpAddress.parse(text);
+
+        assertEquals(canonical, address.toString());
+        // Mismo valor que InetAddress para el mismo literal
+        assertEquals(InetAddress.getByName(text), address.toInetAddress());
+        assertEquals(address, IpAddress.of(InetAddress.getByName(text).getAddress()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "", "1.2.3", "1.2.3.4.5", "256.0.0.1", "1.2.3.", ".1.2.3", "1..2.3", "1.2.3.0004", "1.2.3.a",
+        " 1.2.3.4", "localhost", "example.com",
+        ":", ":::", "1:2", ":1::2", "1::2::3", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7", "12345::",
+        "1:2:3:4:5:6:7:8::", "::1:2:3:4:5:6:7:8", "g::1", "1:", "1::2:", "[::1]", "fe80::1%eth0",
+        "::ffff:1.2.3", "::1.2.3.4:5", "1:2:3:4:5:6:7:1.2.3.4",
+    })
+    void rejectsInvalidLiterals(String text) {
+        assertNull(IpAddress.tryParse(text));
+        assertFalse(IpAddress.isIpv4(text) || IpAddress.isIpv6(text));
+        assertThrows(IllegalArgumentException.class, () -> IpAddress.parse(text));
+    }
+
+    @Test
+    void classifiesFamilies() {
+        assertTrue(IpAddress.isIpv4("10.0.0.1"));
+        assertTrue(IpAddress.isIpv6("::ffff:10.0.0.1"));
+        assertTrue(IpAddress.parse("::ffff:10.0.0.1").isIpv4());
+        assertTrue(IpAddress.parse("2001:db8::").isIpv6());
+        assertEquals(32, IpAddress.parse("10.0.0.1").bitLength());
+        assertEquals(128, IpAddress.parse("::1").bitLength());
+        assertNull(IpAddress.tryParse(null));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "192.0.2.130, 0, 0.0.0.0, 255.255.255.255",
+        "192.0.2.130, 24, 192.0.2.0, 192.0.2.255",
+        "192.0.2.130, 25, 192.0.2.128, 192.0.2.255",
+        "192.0.2.130, 31, 192.0.2.130, 192.0.2.131",
+        "192.0.2.130, 32, 192.0.2.130, 192.0.2.130",
+        "2001:db8:1234:5678::1, 0, ::, ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff",
+        "2001:db8:1234:5678::1, 32, 2001:db8::, 2001:db8:ffff:ffff:ffff:ffff:ffff:ffff",
+        "2001:db8:1234:5678::1, 48, 2001:db8:1234::, 2001:db8:1234:ffff:ffff:ffff:ffff:ffff",
+        "2001:db8:1234:5678::1, 64, 2001:db8:1234:5678::, 2001:db8:1234:5678:ffff:ffff:ffff:ffff",
+        "2001:db8:1234:5678::1, 100, 2001:db8:1234:5678::, 2001:db8:1234:5678::fff:ffff",
+        "2001:db8:1234:5678::1, 128, 2001:db8:1234:5678::1, 2001:db8:1234:5678::1",
+    })
+    void masksPrefixes(String text, int prefixLength, String network, String last) {
+        IpAddress address = IpAddress.parse(text);
+
+        assertEquals(network, address.mask(prefixLength).toString());
+        assertEquals(last, address.lastInPrefix(prefixLength).toString());
+    }
+
+    @Test
+    void rejectsOutOfRangePrefixes() {
+        assertThrows(IllegalArgumentException.class, () -> IpAddress.parse("10.0.0.1").mask(33));
+        assertThrows(IllegalArgumentException.class, () -> IpAddress.parse("10.0.0.1").lastInPrefix(-1));
+        assertThrows(IllegalArgumentException.class, () -> IpAddress.parse("::1").mask(129));
+    }
+
+    @Test
+    void convertsBytes() {
+        assertArrayEquals(new byte[]{(byte) 192, 0, 2, 1}, IpAddress.parse("192.0.2.1").toBytes());
+        byte[] ipv6 = IpAddress.parse("2001:db8::ff").toBytes();
+        assertEquals(16, ipv6.length);
+        assertEquals(IpAddress.parse("2001:db8::ff"), IpAddress.of(ipv6));
+        assertEquals(IpAddress.ofIpv4(0xC0000201L), IpAddress.parse("192.0.2.1"));
+        assertEquals(IpAddress.ofIpv6(0, 0xFFFF_C000_0201L), IpAddress.parse("192.0.2.1"));
+        assertThrows(IllegalArgumentException.class, () -> IpAddress.of(new byte[5]));
+    }
+
+    @Test
+    void ordersIpv4BeforeIpv6AndNumericallyUnsigned() {
+        List<IpAddress> addresses = new ArrayList<>(List.of(
+            IpAddress.parse("ffff::"), IpAddress.parse("::1"), IpAddress.parse("8000::"),
+            IpAddress.parse("255.0.0.1"), IpAddress.parse("10.0.0.2"), IpAddress.parse("10.0.0.10")));
+        Collections.shuffle(addresses);
+        Collections.sort(addresses);
+
+        assertEquals(List.of("10.0.0.2", "10.0.0.10", "255.0.0.1", "::1", "8000::", "ffff::"),
+            addresses.stream().map(IpAddress::toString).toList());
+        assertEquals(IpAddress.parse("2001:DB8::1").hashCode(), IpAddress.parse("2001:db8:0::1").hashCode());
+    }
+}
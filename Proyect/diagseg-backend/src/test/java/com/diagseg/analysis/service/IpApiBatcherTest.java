@@ -0,0 +1,174 @@
+package com.diagseg.analysis.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpApiBatcherTest {
+
+    private HttpServer server;
+    private OutboundHttpClient http;
+    private IpApiBatcher batcher;
+
+    // Cuerpo de cada POST /batch recibido por el servidor de prueba
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void stop() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+        if (http != null) {
+            http.shutdown();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void parsesBatchResponses() {
+        String body = """
+            [
+              {"status": "success", "query": "8.8.8.8", "as": "AS15169 Google LLC", "isp": "Google LLC", "org": "Google Public DNS"},
+              {"status": "success", "query": "2001:db8::1", "as": "", "isp": "Example ISP", "org": " "},
+              {"status": "fail", "message": "private range", "query": "10.0.0.1"},
+              {"status": "success", "as": "AS1 sin query"},
+              "no es un objeto"
+            ]""";
+
+        Map<String, ASNService.ASNInfo> results = IpApiBatcher.parse(body);
+
+        assertEquals(List.of("8.8.8.8", "2001:db8::1"), List.copyOf(results.keySet()));
+        ASNService.ASNInfo google = results.get("8.8.8.8");
+        assertEquals("AS15169", google.asn);
+        assertEquals("Google Public DNS", google.asnOrg);
+        assertEquals("Google LLC", google.isp);
+        // Sin "as" ni organización: se usa el ISP como organización
+        ASNService.ASNInfo unknown = results.get("2001:db8::1");
+        assertEquals("Unknown", unknown.asn);
+        assertEquals("Example ISP", unknown.asnOrg);
+        assertEquals("Example ISP", unknown.isp);
+    }
+
+    @Test
+    void coalescesConcurrentLookupsIntoOneBatch() throws Exception {
+        start(100);
+
+        List<CompletableFuture<ASNService.ASNInfo>> lookups = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            lookups.add(batcher.lookup("192.0.2." + i));
+        }
+        CompletableFuture<ASNService.ASNInfo> duplicate = batcher.lookup("192.0.2.1");
+        CompletableFuture<ASNService.ASNInfo> unknown = batcher.lookup("10.0.0.1");
+
+        for (int i = 0; i < lookups.size(); i++) {
+            assertEquals("AS6450" + (i + 1), lookups.get(i).get(5, TimeUnit.SECONDS).asn);
+        }
+        assertSame(lookups.get(0), duplicate);
+        // ip-api.com no la conoce: sin datos, sin error
+        assertNull(unknown.get(5, TimeUnit.SECONDS));
+        assertEquals(1, batches.size());
+        assertEquals(List.of("192.0.2.1", "192.0.2.2", "192.0.2.3", "192.0.2.4", "192.0.2.5", "10.0.0.1"),
+            batches.get(0));
+    }
+
+    @Test
+    void fullBatchesAreSentWithoutWaitingForTheWindow() throws Exception {
+        start(2);
+        // Ventana larga: solo los lotes llenos salen antes de que venza
+        batcher.batchWindowMillis = 60_000;
+
+        var first = batcher.lookup("192.0.2.1");
+        var second = batcher.lookup("192.0.2.2");
+        var third = batcher.lookup("192.0.2.3");
+        var fourth = batcher.lookup("192.0.2.4");
+
+        assertEquals("AS64502", second.get(5, TimeUnit.SECONDS).asn);
+        assertEquals("AS64504", fourth.get(5, TimeUnit.SECONDS).asn);
+        assertTrue(first.isDone() && third.isDone());
+        assertEquals(List.of(List.of("192.0.2.1", "192.0.2.2"), List.of("192.0.2.3", "192.0.2.4")), batches);
+    }
+
+    private void start(int batchSize) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/batch", this::answer);
+        server.start();
+
+        http = new OutboundHttpClient();
+        http.connectTimeoutSeconds = 5;
+        http.maxConcurrentPerHost = 4;
+        http.breakerWindowSize = 20;
+        http.breakerMinimumCalls = 5;
+        http.breakerFailureRatePercent = 50;
+        http.breakerOpenSeconds = 30;
+        http.breakerHalfOpenProbes = 2;
+        http.init();
+
+        batcher = new IpApiBatcher();
+        batcher.http = http;
+        batcher.baseUrl = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getAddress().getPort();
+        batcher.batchWindowMillis = 100;
+        batcher.batchSize = batchSize;
+        batcher.timeoutSeconds = 5;
+        batcher.rateLimitRequests = 15;
+        batcher.rateLimitWindowSeconds = 60;
+        batcher.rateLimitMaxWaitSeconds = 5;
+        batcher.deadlineSeconds = 5;
+        batcher.init();
+    }
+
+    /**
+     * Responde como ip-api.com: 192.0.2.N pertenece a AS6450N y el resto no se conoce
+     */
+    private void answer(HttpExchange exchange) throws IOException {
+        JsonArray ips;
+        try (JsonReader reader = Json.createReader(exchange.getRequestBody())) {
+            ips = reader.readArray();
+        }
+        List<String> received = new ArrayList<>();
+        JsonArrayBuilder response = Json.createArrayBuilder();
+        for (int i = 0; i < ips.size(); i++) {
+            String ip = ips.getString(i);
+            received.add(ip);
+            if (ip.startsWith("192.0.2.")) {
+                String asn = "AS6450" + ip.substring("192.0.2.".length());
+                response.add(Json.createObjectBuilder().add("status", "success").add("query", ip)
+                    .add("as", asn + " Example").add("isp", "Example").add("org", "Example"));
+            } else {
+                response.add(Json.createObjectBuilder().add("status", "fail").add("query", ip)
+                    .add("message", "reserved range"));
+            }
+        }
+        batches.add(received);
+
+        byte[] body = response.build().toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.Protocol;
+import com.diagseg.analysis.dto.ServiceDto;
+import com.diagseg.analysis.exception.ServiceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NmapScanSchedulerTest {
+
+    private static final String TARGET = "192.0.2.1";
+
+    private NmapScanScheduler scheduler;
+    private final AtomicInteger scans = new AtomicInteger();
+    // El stub de Nmap publica el puerto 22, avisa y espera a gate antes de publicar el 80
+    private final CountDownLatch firstPublished = new CountDownLatch(1);
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final List<ServiceDto> originals = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp() {
+        NmapService nmapService = new NmapService() {
+            @Override
+            public List<ServiceDto> scanTarget(String target, Consumer<ServiceDto> onService,
+                                               Consumer<String> onHostScanned) {
+                scans.incrementAndGet();
+                ServiceDto ssh = service(target, 22, "ssh");
+                originals.add(ssh);
+                onService.accept(ssh);
+                firstPublished.countDown();
+                try {
+                    gate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                ServiceDto http = service(target, 80, "http");
+                originals.add(http);
+                onService.accept(http);
+                onHostScanned.accept(target);
+                return List.of(ssh, http);
+            }
+        };
+        PortScanner portScanner = new PortScanner();
+        portScanner.enabled = false;
+        BannerGrabber bannerGrabber = new BannerGrabber();
+
+        scheduler = new NmapScanScheduler();
+        scheduler.maxConcurrent = 1;
+        scheduler.queueCapacity = 1;
+        scheduler.nmapService = nmapService;
+        scheduler.portScanner = portScanner;
+        scheduler.bannerGrabber = bannerGrabber;
+        scheduler.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        gate.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void concurrentSubmitsShareOneScanAndLateSubscriberReplays() throws Exception {
+        List<ServiceDto> first = Collections.synchronizedList(new ArrayList<>());
+        List<String> firstHosts = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<List<ServiceDto>> firstView = scheduler.submit(TARGET, first::add, firstHosts::add);
+        assertTrue(firstPublished.await(5, TimeUnit.SECONDS));
+
+        List<ServiceDto> late = Collections.synchronizedList(new ArrayList<>());
+        List<String> lateHosts = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<List<ServiceDto>> lateView = scheduler.submit(TARGET, late::add, lateHosts::add);
+        // Lo ya detectado se repite al suscribirse, antes de volver de submit
+        assertEquals(List.of(22), ports(late));
+
+        gate.countDown();
+        List<ServiceDto> firstResult = firstView.get(5, TimeUnit.SECONDS);
+        List<ServiceDto> lateResult = lateView.get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, scans.get());
+        assertEquals(1, scheduler.stats().deduplicated);
+        // Cada servicio exactamente una vez y en orden, también para quien llegó tarde
+        assertEquals(List.of(22, 80), ports(first));
+        assertEquals(List.of(22, 80), ports(late));
+        assertEquals(List.of(TARGET), firstHosts);
+        assertEquals(List.of(TARGET), lateHosts);
+        assertEquals(List.of(22, 80), ports(firstResult));
+        assertEquals(List.of(22, 80), ports(lateResult));
+    }
+
+    @Test
+    void everySubscriberGetsItsOwnCopies() throws Exception {
+        List<ServiceDto> first = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<List<ServiceDto>> firstView = scheduler.submit(TARGET, first::add);
+        assertTrue(firstPublished.await(5, TimeUnit.SECONDS));
+        List<ServiceDto> second = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<List<ServiceDto>> secondView = scheduler.submit(TARGET, second::add);
+        gate.countDown();
+        List<ServiceDto> firstResult = firstView.get(5, TimeUnit.SECONDS);
+        List<ServiceDto> secondResult = secondView.get(5, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 2; i++) {
+            assertNotSame(originals.get(i), first.get(i));
+            assertNotSame(first.get(i), second.get(i));
+            // El resultado final trae las mismas copias que recibió el callback
+            assertSame(first.get(i), firstResult.get(i));
+            assertSame(second.get(i), secondResult.get(i));
+        }
+        first.get(0).cpe = "cpe:/a:openbsd:openssh";
+        first.get(0).vulnerabilities.add("CVE-2024-6387");
+        assertNull(second.get(0).cpe);
+        assertTrue(second.get(0).vulnerabilities.isEmpty());
+        assertTrue(originals.get(0).vulnerabilities.isEmpty());
+    }
+
+    @Test
+    void finishedScanIsNotShared() throws Exception {
+        gate.countDown();
+        scheduler.submit(TARGET, service -> { }).get(5, TimeUnit.SECONDS);
+        scheduler.submit(TARGET, service -> { }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, scans.get());
+        assertEquals(0, scheduler.stats().deduplicated);
+    }
+
+    @Test
+    void cancellingOneRequestKeepsTheOthers() throws Exception {
+        CompletableFuture<List<ServiceDto>> cancelled = scheduler.submit(TARGET, service -> { });
+        assertTrue(firstPublished.await(5, TimeUnit.SECONDS));
+        CompletableFuture<List<ServiceDto>> kept = scheduler.submit(TARGET, service -> { });
+
+        cancelled.cancel(true);
+        gate.countDown();
+
+        assertEquals(List.of(22, 80), ports(kept.get(5, TimeUnit.SECONDS)));
+        assertEquals(1, scans.get());
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws Exception {
+        scheduler.submit("192.0.2.1", service -> { });
+        assertTrue(firstPublished.await(5, TimeUnit.SECONDS));
+        scheduler.submit("192.0.2.2", service -> { });
+
+        ServiceException error = assertThrows(ServiceException.class,
+            () -> scheduler.submit("192.0.2.3", service -> { }));
+
+        assertEquals(ServiceException.ErrorCode.NMAP_QUEUE_FULL, error.getErrorCode());
+        assertEquals(1, scheduler.stats().rejected);
+        // Un target ya en curso se comparte aunque la cola esté llena
+        scheduler.submit("192.0.2.2", service -> { });
+        assertEquals(1, scheduler.stats().deduplicated);
+    }
+
+    private static ServiceDto service(String host, int port, String name) {
+        ServiceDto service = new ServiceDto();
+        service.host = host;
+        service.port = port;
+        service.protocol = Protocol.TCP;
+        service.service = name;
+        service.vulnerabilities = new ArrayList<>();
+        return service;
+    }
+
+    private static List<Integer> ports(List<ServiceDto> services) {
+        synchronized (services) {
+            return services.stream().map(s -> s.port).toList();
+        }
+    }
+}
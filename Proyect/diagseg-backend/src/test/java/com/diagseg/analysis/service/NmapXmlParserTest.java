@@ -0,0 +1,102 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.Protocol;
+import com.diagseg.analysis.dto.ServiceDto;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NmapXmlParserTest {
+
+    @Test
+    void parsesOpenServicesOfEveryHost() throws Exception {
+        List<ServiceDto> services = new ArrayList<>();
+        List<String> events = new ArrayList<>();
+        NmapXmlParser parser = new NmapXmlParser(service -> {
+            services.add(service);
+            events.add(service.host + ":" + service.port);
+        }, host -> events.add("fin " + host));
+
+        int count;
+        try (InputStream in = fixture("nmap/two-hosts.xml")) {
+            count = parser.parse(in);
+        }
+
+        assertEquals(5, count);
+        assertEquals(3, parser.hosts());
+        // Cada host se cierra después de entregar sus servicios; la MAC y el <hosthint> no cuentan
+        assertEquals(List.of(
+            "192.0.2.1:22", "192.0.2.1:80", "192.0.2.1:443", "fin 192.0.2.1",
+            "192.0.2.2:3306", "192.0.2.2:53", "fin 192.0.2.2",
+            "fin 192.0.2.3"), events);
+
+        ServiceDto ssh = services.get(0);
+        assertEquals(Protocol.TCP, ssh.protocol);
+        assertEquals("ssh", ssh.service);
+        assertEquals("OpenSSH 8.9p1 Ubuntu 3ubuntu0.6", ssh.version);
+        assertEquals("Ubuntu Linux; protocol 2.0", ssh.banner);
+        // El CPE de aplicación tiene prioridad sobre el del sistema operativo
+        assertEquals("cpe:/a:openbsd:openssh:8.9p1", ssh.cpe);
+        assertTrue(ssh.vulnerabilities.isEmpty());
+
+        ServiceDto https = services.get(2);
+        assertEquals("nginx", https.version);
+        assertEquals("tunnel: ssl", https.banner);
+
+        ServiceDto mysql = services.get(3);
+        assertEquals("mysql", mysql.service);
+        assertEquals("Unknown", mysql.version);
+        assertNull(mysql.cpe);
+
+        ServiceDto dns = services.get(4);
+        assertEquals(Protocol.UDP, dns.protocol);
+        assertEquals("ISC BIND 9.18.24", dns.version);
+    }
+
+    @Test
+    void doesNotResolveExternalEntities() throws Exception {
+        String xml = """
+            <?xml version="1.0"?>
+            <!DOCTYPE nmaprun [<!ENTITY xxe SYSTEM "file:///etc/passwd">]>
+            <nmaprun><host><address addr="192.0.2.9" addrtype="ipv4"/><ports>
+            <port protocol="tcp" portid="80"><state state="open"/><service name="http" product="&xxe;"/></port>
+            </ports></host></nmaprun>""";
+        NmapXmlParser parser = new NmapXmlParser(service -> { });
+
+        assertThrows(XMLStreamException.class,
+            () -> parser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void truncatedOutputKeepsServicesAlreadyDelivered() {
+        String xml = """
+            <?xml version="1.0"?>
+            <nmaprun><host><address addr="192.0.2.9" addrtype="ipv4"/><ports>
+            <port protocol="tcp" portid="22"><state state="open"/><service name="ssh"/></port>
+            <port protocol="tcp" portid="80"><state state="open"/>""";
+        List<ServiceDto> services = new ArrayList<>();
+        NmapXmlParser parser = new NmapXmlParser(services::add);
+
+        assertThrows(XMLStreamException.class,
+            () -> parser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
+        assertEquals(1, services.size());
+        assertEquals(22, services.get(0).port);
+    }
+
+    private static InputStream fixture(String name) {
+        InputStream in = NmapXmlParserTest.class.getClassLoader().getResourceAsStream(name);
+        assertNotNull(in, "falta el fixture " + name);
+        return in;
+    }
+}
@@ -0,0 +1,129 @@
+package com.diagseg.analysis.service;
+
+import com.diagseg.analysis.dto.VulnerabilityDto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Réplica NVD contra feeds y páginas de sincronización escritos en un directorio temporal
+ */
+class NvdMirrorServiceTest {
+
+    private static final String OPENSSH = "cpe:2.3:a:openbsd:openssh:%s:*:*:*:*:*:*:*";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void matchesVersionRangesFromTheFeeds() throws IOException {
+        write("nvdcve-2.0-2023.json", feed(
+            cve("CVE-2023-0001", "2023-01-01T00:00:00.000", "7.5", "\"versionEndExcluding\": \"9.3\""),
+            cve("CVE-2023-0002", "2023-01-01T00:00:00.000", "5.0",
+                "\"versionStartIncluding\": \"8.0\", \"versionEndIncluding\": \"8.9\"")));
+
+        NvdMirrorService mirror = load(24);
+
+        assertTrue(mirror.isReady());
+        assertEquals(List.of("CVE-2023-0001", "CVE-2023-0002"), ids(mirror, "8.9"));
+        assertEquals(List.of("CVE-2023-0001"), ids(mirror, "9.2p1"));
+        assertEquals(List.of(), ids(mirror, "9.3"));
+        assertTrue(mirror.knowsProduct("openbsd", "openssh"));
+        assertFalse(mirror.knowsProduct("apache", "http_server"));
+    }
+
+    @Test
+    void newestDeltaWinsRegardlessOfFileOrder() throws IOException {
+        write("nvdcve-2.0-2023.json", feed(
+            cve("CVE-2023-0001", "2023-01-01T00:00:00.000", "7.5", "\"versionEndExcluding\": \"9.3\"")));
+        // La página más nueva por lastModified ordena antes por nombre
+        write("nvd-delta-100-000000.json", feed(
+            cve("CVE-2023-0001", "2024-03-01T00:00:00.000", "9.8", "\"versionEndExcluding\": \"9.6\"")));
+        write("nvd-delta-200-000000.json", feed(
+            cve("CVE-2023-0001", "2024-02-01T00:00:00.000", "8.1", "\"versionEndExcluding\": \"9.4\"")));
+
+        NvdMirrorService mirror = load(24);
+
+        List<VulnerabilityDto> found = mirror.search(OPENSSH.formatted("9.5")).orElseThrow();
+        assertEquals(1, found.size());
+        assertEquals(9.8, found.get(0).cvss);
+    }
+
+    @Test
+    void compactsSyncPagesIntoOneFile() throws IOException {
+        write("nvdcve-2.0-2023.json", feed(
+            cve("CVE-2023-0001", "2023-01-01T00:00:00.000", "7.5", "\"versionEndExcluding\": \"9.3\"")));
+        write("nvd-delta-100-000000.json", feed(
+            cve("CVE-2023-0001", "2024-03-01T00:00:00.000", "9.8", "\"versionEndExcluding\": \"9.6\"")));
+        write("nvd-delta-100-000001.json", feed(
+            cve("CVE-2024-0003", "2024-03-01T00:00:00.000", "4.3", "\"versionEndExcluding\": \"9.0\"")));
+        write("nvd-delta-200-000000.json", feed(
+            cve("CVE-2023-0001", "2024-02-01T00:00:00.000", "8.1", "\"versionEndExcluding\": \"9.4\"")));
+
+        load(2);
+
+        assertEquals(List.of("nvd-delta-compacted.json.gz", "nvdcve-2.0-2023.json"), files());
+
+        // Tras reiniciar, la réplica cargada desde el fichero compactado es la misma
+        NvdMirrorService reloaded = load(2);
+        List<VulnerabilityDto> found = reloaded.search(OPENSSH.formatted("8.8")).orElseThrow();
+        assertEquals(List.of("CVE-2023-0001", "CVE-2024-0003"), found.stream().map(v -> v.id).toList());
+        assertEquals(9.8, found.get(0).cvss);
+    }
+
+    private NvdMirrorService load(int compactAfterDeltas) {
+        NvdMirrorService mirror = new NvdMirrorService();
+        mirror.nvdService = new NVDService();
+        mirror.feedDir = dir.toString();
+        mirror.resultsPerPage = 20;
+        mirror.compactAfterDeltas = compactAfterDeltas;
+        mirror.loadFeeds();
+        return mirror;
+    }
+
+    private List<String> ids(NvdMirrorService mirror, String version) {
+        return mirror.search(OPENSSH.formatted(version)).orElseThrow().stream()
+            .map(v -> v.id)
+            .sorted()
+            .toList();
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private void write(String name, String content) throws IOException {
+        Files.writeString(dir.resolve(name), content);
+    }
+
+    private static String feed(String... cves) {
+        return "{\"format\": \"NVD_CVE\", \"vulnerabilities\": [" + String.join(",", cves) + "]}";
+    }
+
+    private static String cve(String id, String lastModified, String score, String range) {
+        return """
+            {"cve": {
+              "id": "%s",
+              "lastModified": "%s",
+              "vulnStatus": "Analyzed",
+              "descriptions": [{"lang": "en", "value": "OpenSSH %s"}],
+              "metrics": {"cvssMetricV31": [{"cvssData": {"baseScore": %s, "baseSeverity": "HIGH"}}]},
+              "configurations": [{"nodes": [{"cpeMatch": [{
+                "vulnerable": true,
+                "criteria": "cpe:2.3:a:openbsd:openssh:*:*:*:*:*:*:*:*",
+                %s
+              }]}]}]
+            }}""".formatted(id, lastModified, id, score, range);
+    }
+}
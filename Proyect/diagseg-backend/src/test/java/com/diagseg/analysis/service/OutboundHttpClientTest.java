@@ -0,0 +1,186 @@
+package com.diagseg.analysis.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundHttpClientTest {
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private OutboundHttpClient http;
+    private final AtomicInteger requests = new AtomicInteger();
+    // Retiene la petición original en la prueba de hedging
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void start() throws IOException {
+        handlers = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(handlers);
+        server.start();
+
+        http = new OutboundHttpClient();
+        http.connectTimeoutSeconds = 5;
+        http.maxConcurrentPerHost = 4;
+        http.breakerWindowSize = 20;
+        http.breakerMinimumCalls = 20;
+        http.breakerFailureRatePercent = 100;
+        http.breakerOpenSeconds = 30;
+        http.breakerHalfOpenProbes = 2;
+        http.init();
+    }
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        http.shutdown();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Test
+    void retriesTransientStatus() throws Exception {
+        server.createContext("/flaky", exchange -> {
+            int n = requests.incrementAndGet();
+            respond(exchange, n < 3 ? 503 : 200, "intento " + n);
+        });
+        OutboundHttpClient.Options options = OutboundHttpClient.Options.deadline(Duration.ofSeconds(10))
+            .retries(3, Duration.ofMillis(10));
+
+        HttpResponse<String> response = OutboundHttpClient.await(http.send(get("/flaky"), options));
+
+        assertEquals(200, response.statusCode());
+        assertEquals("intento 3", response.body());
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    void returnsLastErrorStatusWhenAttemptsRunOut() throws Exception {
+        server.createContext("/down", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 503, "no disponible");
+        });
+        OutboundHttpClient.Options options = OutboundHttpClient.Options.deadline(Duration.ofSeconds(10))
+            .retries(2, Duration.ofMillis(10));
+
+        HttpResponse<String> response = OutboundHttpClient.await(http.send(get("/down"), options));
+
+        assertEquals(503, response.statusCode());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void doesNotRetryOtherStatus() throws Exception {
+        server.createContext("/missing", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 404, "");
+        });
+        OutboundHttpClient.Options options = OutboundHttpClient.Options.deadline(Duration.ofSeconds(10))
+            .retries(3, Duration.ofMillis(10));
+
+        assertEquals(404, OutboundHttpClient.await(http.send(get("/missing"), options)).statusCode());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void doesNotRetryConnectionRefused() throws Exception {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        CircuitBreaker breaker = http.circuitBreaker("refused");
+        OutboundHttpClient.Options options = OutboundHttpClient.Options.deadline(Duration.ofSeconds(10))
+            .retries(3, Duration.ofMillis(10))
+            .circuitBreaker(breaker);
+        HttpRequest request = HttpRequest.newBuilder(
+            URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + closedPort + "/")).build();
+
+        IOException error = assertThrows(IOException.class, () -> OutboundHttpClient.await(http.send(request, options)));
+
+        assertInstanceOf(ConnectException.class, error);
+        // Un único intento anotado en el circuito
+        assertEquals(1, breaker.stats().failures);
+        assertEquals(0, breaker.stats().successes);
+    }
+
+    @Test
+    void firstHedgeToAnswerWins() throws Exception {
+        server.createContext("/slow", exchange -> {
+            if (requests.incrementAndGet() == 1) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, 200, "original");
+            } else {
+                respond(exchange, 200, "copia");
+            }
+        });
+        CircuitBreaker breaker = http.circuitBreaker("hedge");
+        OutboundHttpClient.Options options = OutboundHttpClient.Options.deadline(Duration.ofSeconds(10))
+            .circuitBreaker(breaker)
+            .hedged(Duration.ofMillis(100));
+
+        long start = System.nanoTime();
+        HttpResponse<String> response = OutboundHttpClient.await(http.send(get("/slow"), options));
+
+        assertEquals("copia", response.body());
+        assertEquals(2, requests.get());
+        assertEquals(1, breaker.stats().hedgedRequests);
+        assertEquals(1, breaker.stats().hedgeWins);
+        // No esperó a la petición original
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    void fastAnswerIsNotHedged() throws Exception {
+        server.createContext("/fast", exchange -> {
+            requests.incrementAndGet();
+            respond(exchange, 200, "ok");
+        });
+        OutboundHttpClient.Options options = OutboundHttpClient.Options.deadline(Duration.ofSeconds(10))
+            .hedged(Duration.ofSeconds(2));
+
+        assertEquals("ok", OutboundHttpClient.await(http.send(get("/fast"), options)).body());
+        assertEquals(1, requests.get());
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+            + server.getAddress().getPort() + path)).GET().build();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
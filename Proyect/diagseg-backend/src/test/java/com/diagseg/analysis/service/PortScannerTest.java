@@ -0,0 +1,116 @@
+package com.diagseg.analysis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Escáner contra servidores locales: puertos en escucha (abiertos) y puertos
+ * recién liberados (cerrados, el kernel responde RST)
+ */
+class PortScannerTest {
+
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+    private final List<ServerSocket> listeners = new ArrayList<>();
+    private PortScanner scanner;
+
+    @BeforeEach
+    void startScanner() {
+        scanner = new PortScanner();
+        scanner.enabled = true;
+        scanner.maxInFlight = 8;
+        scanner.perHostLimit = 2;
+        scanner.initialTimeoutMillis = 1000;
+        scanner.minTimeoutMillis = 100;
+        scanner.maxTimeoutMillis = 3000;
+        scanner.retries = 1;
+        scanner.init();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        scanner.shutdown();
+        for (ServerSocket listener : listeners) {
+            listener.close();
+        }
+    }
+
+    @Test
+    void reportsOnlyListeningPortsInOrder() throws Exception {
+        List<Integer> open = new ArrayList<>();
+        List<Integer> ports = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int port = listen();
+            open.add(port);
+            ports.add(port);
+        }
+        for (int i = 0; i < 12; i++) {
+            ports.add(closedPort());
+        }
+        // Duplicados y puertos fuera de rango se ignoran
+        ports.add(open.get(0));
+        ports.add(0);
+        ports.add(70000);
+
+        List<Integer> found = scanner.scan(LOOPBACK.getHostAddress(), ports).get(10, TimeUnit.SECONDS);
+
+        assertEquals(open.stream().sorted().toList(), found);
+        assertEquals(16, scanner.probes());
+        assertEquals(0, scanner.timeouts());
+    }
+
+    @Test
+    void scansSeveralHostsConcurrently() throws Exception {
+        int first = listen();
+        int second = listen();
+
+        var a = scanner.scan("127.0.0.1", List.of(first, closedPort()));
+        var b = scanner.scan("127.0.0.1", List.of(second, closedPort()));
+
+        assertEquals(List.of(first), a.get(10, TimeUnit.SECONDS));
+        assertEquals(List.of(second), b.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failsInsteadOfReportingClosedWhenTheNetworkErrors() {
+        // TCP no puede conectar con una dirección multicast: el kernel responde ENETUNREACH
+        var result = scanner.scan("224.0.0.1", List.of(80, 443));
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(SocketException.class, error.getCause());
+        assertFalse(error.getCause() instanceof ConnectException);
+    }
+
+    @Test
+    void emptyPortListCompletesImmediately() throws Exception {
+        assertEquals(List.of(), scanner.scan("127.0.0.1", List.of(0, -1)).get(1, TimeUnit.SECONDS));
+    }
+
+    private int listen() throws IOException {
+        ServerSocket listener = new ServerSocket(0, 50, LOOPBACK);
+        listeners.add(listener);
+        return listener.getLocalPort();
+    }
+
+    private static int closedPort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0, 1, LOOPBACK)) {
+            return probe.getLocalPort();
+        }
+    }
+}
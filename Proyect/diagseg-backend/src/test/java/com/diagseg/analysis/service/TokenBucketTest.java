@@ -0,0 +1,56 @@
+package com.diagseg.analysis.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    @Test
+    void grantsCapacityTokensWithoutWaiting() {
+        TokenBucket bucket = new TokenBucket("test", 3, Duration.ofSeconds(30));
+
+        assertEquals(3, bucket.available());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.reserve(Duration.ZERO));
+        }
+        assertEquals(0, bucket.available());
+    }
+
+    @Test
+    void nextTokenWaitsForTheWindow() {
+        Duration window = Duration.ofSeconds(30);
+        TokenBucket bucket = new TokenBucket("test", 2, window);
+        bucket.reserve(Duration.ZERO);
+        bucket.reserve(Duration.ZERO);
+
+        // Sin margen de espera no se reserva nada
+        assertEquals(-1, bucket.reserve(Duration.ofSeconds(1)));
+
+        long wait = bucket.reserve(window);
+        assertTrue(wait > window.toNanos() - TimeUnit.SECONDS.toNanos(1), "espera " + wait);
+        assertTrue(wait <= window.toNanos());
+    }
+
+    @Test
+    void reservationsAreServedInArrivalOrder() {
+        TokenBucket bucket = new TokenBucket("test", 1, Duration.ofSeconds(10));
+        long first = bucket.reserve(Duration.ofMinutes(1));
+        long second = bucket.reserve(Duration.ofMinutes(1));
+        long third = bucket.reserve(Duration.ofMinutes(1));
+
+        assertEquals(0, first);
+        // Cada turno cae una ventana después del anterior
+        assertTrue(third - second > TimeUnit.SECONDS.toNanos(9), "turnos " + second + " / " + third);
+    }
+
+    @Test
+    void rejectsNonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket("test", 0, Duration.ofSeconds(1)));
+    }
+}
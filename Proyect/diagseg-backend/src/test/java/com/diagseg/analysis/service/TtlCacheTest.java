@@ -0,0 +1,165 @@
+package com.diagseg.analysis.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TtlCacheTest {
+
+    @Test
+    void concurrentMissesRunTheLoaderOnce() throws Exception {
+        TtlCache<String, String> cache = new TtlCache<>("test", 10, Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 8;
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> cache.get("cpe", key -> {
+                    loads.incrementAndGet();
+                    loading.countDown();
+                    await(release);
+                    return "valor";
+                })));
+            }
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            // Las demás peticiones tienen que haberse unido a la carga en curso
+            waitUntil(() -> cache.stats().coalesced == callers - 1);
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("valor", result.get(5, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(1, loads.get());
+        assertEquals(callers - 1, cache.stats().coalesced);
+    }
+
+    @Test
+    void loaderErrorsReachEveryWaiterAndAreNotCached() throws Exception {
+        TtlCache<String, String> cache = new TtlCache<>("test", 10, Duration.ofMinutes(1));
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> first = executor.submit(() -> cache.get("cpe", key -> {
+                loading.countDown();
+                await(release);
+                throw new IllegalStateException("NVD caído");
+            }));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<String> second = executor.submit(() -> cache.get("cpe", key -> "no debe cargarse"));
+            waitUntil(() -> cache.stats().coalesced == 1);
+            release.countDown();
+
+            assertCause(IllegalStateException.class, first);
+            assertCause(IllegalStateException.class, second);
+        }
+        assertNull(cache.getIfPresent("cpe"));
+        assertEquals("nuevo", cache.get("cpe", key -> "nuevo"));
+    }
+
+    @Test
+    void asyncLookupsShareOneLoad() {
+        TtlCache<String, String> cache = new TtlCache<>("test", 10, Duration.ofMinutes(1));
+        CompletableFuture<String> load = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+
+        var first = cache.lookupAsync("cpe", key -> {
+            loads.incrementAndGet();
+            return load;
+        });
+        var second = cache.lookupAsync("cpe", key -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("otro");
+        });
+        assertFalse(first.isDone());
+        load.complete("valor");
+
+        assertEquals("valor", first.join().value);
+        assertEquals("valor", second.join().value);
+        assertEquals(1, loads.get());
+        assertTrue(cache.lookupAsync("cpe", key -> load).join().cached);
+    }
+
+    @Test
+    void entriesExpireAfterTtl() throws InterruptedException {
+        TtlCache<String, String> cache = new TtlCache<>("test", 10, Duration.ofMillis(50));
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.getIfPresent("a"));
+
+        Thread.sleep(80);
+        assertNull(cache.getIfPresent("a"));
+
+        // "b" no se ha vuelto a consultar: solo la purga la libera
+        assertEquals(1, cache.size());
+        cache.purgeExpired();
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.stats().expirations);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        TtlCache<String, String> cache = new TtlCache<>("test", 2, Duration.ofMinutes(1));
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.getIfPresent("a");
+        cache.put("c", "3");
+
+        assertEquals("1", cache.getIfPresent("a"));
+        assertNull(cache.getIfPresent("b"));
+        assertEquals("3", cache.getIfPresent("c"));
+        assertEquals(1, cache.stats().evictions);
+    }
+
+    @Test
+    void lookupReportsCachedValues() {
+        TtlCache<String, String> cache = new TtlCache<>("test", 10, Duration.ofMinutes(1));
+        String value = cache.lookup("k", key -> "v").value;
+        TtlCache.Result<String> again = cache.lookup("k", key -> "otro");
+
+        assertTrue(again.cached);
+        assertSame(value, again.value);
+    }
+
+    private static void assertCause(Class<? extends Throwable> expected, Future<?> future) {
+        ExecutionException error = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertEquals(expected, error.getCause().getClass());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condición no alcanzada");
+            Thread.sleep(5);
+        }
+    }
+}
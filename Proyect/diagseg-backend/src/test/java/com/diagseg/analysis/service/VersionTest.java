@@ -0,0 +1,78 @@
+package com.diagseg.analysis.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VersionTest {
+
+    @ParameterizedTest
+    @CsvSource({
+        "1.0, 1.0.1",
+        "2.4.7, 2.4.10",
+        "1.1.1j, 1.1.1k",
+        "8.9p1, 9.0",
+        "7.4, 7.4p1",
+        "2.0rc1, 2.0",
+        "2.0alpha, 2.0beta",
+        "2.0-beta2, 2.0",
+        "10.11.5, 10.11.6",
+        "99999999999999999998, 99999999999999999999",
+    })
+    void ordersVersions(String lower, String higher) {
+        Version low = Version.parse(lower);
+        Version high = Version.parse(higher);
+
+        assertTrue(low.compareTo(high) < 0, lower + " < " + higher);
+        assertTrue(high.compareTo(low) > 0, higher + " > " + lower);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "1.0, 1.0.0",
+        "1.0, 1",
+        "OpenSSH_8.9, openssh-8.9",
+        "2.4.7 , 2.4.7",
+    })
+    void treatsMissingComponentsAsZero(String a, String b) {
+        Version first = Version.parse(a);
+        Version second = Version.parse(b);
+
+        assertEquals(0, first.compareTo(second));
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    @Test
+    void rangeBoundsFollowNvdSemantics() {
+        VersionRange range = VersionRange.of("2.4.0", null, null, "2.4.52");
+
+        assertTrue(range.contains(Version.parse("2.4.0")));
+        assertTrue(range.contains(Version.parse("2.4.51")));
+        assertFalse(range.contains(Version.parse("2.4.52")));
+        assertFalse(range.contains(Version.parse("2.3.9")));
+    }
+
+    @Test
+    void exclusiveStartAndInclusiveEnd() {
+        VersionRange range = VersionRange.of(null, "1.1.1", "1.1.1k", null);
+
+        assertFalse(range.contains(Version.parse("1.1.1")));
+        assertTrue(range.contains(Version.parse("1.1.1a")));
+        assertTrue(range.contains(Version.parse("1.1.1k")));
+        assertFalse(range.contains(Version.parse("1.1.1l")));
+    }
+
+    @Test
+    void blankBoundsAreIgnored() {
+        VersionRange range = VersionRange.of("", " ", null, null);
+
+        assertTrue(range.isUnbounded());
+        assertTrue(range.contains(Version.parse("0.1")));
+        assertFalse(VersionRange.of(null, null, "9.3", null).isUnbounded());
+    }
+}